@@ -0,0 +1,103 @@
+package org.latlab.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.SingularContinuousVariable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of absorbing the evidence of a data case into the potential of a
+ * mixed clique, which has the given number of continuous head variables and a
+ * discrete variable with the given cardinality.
+ *
+ * <p>
+ * Since the absorption changes the potential, it is run on a copy of the
+ * potential, of which the time is given by {@link #copy()}.
+ *
+ * @author leonard
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CGPotentialBenchmark {
+
+	@Param( { "1", "2", "4" })
+	public int heads;
+
+	@Param( { "2", "4", "8" })
+	public int cardinality;
+
+	private CGPotential potential;
+	private List<SingularContinuousVariable> variables;
+	private double[] values;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(Fixtures.SEED);
+
+		variables = new ArrayList<SingularContinuousVariable>(heads);
+		for (int i = 0; i < heads; i++)
+			variables.add(new SingularContinuousVariable());
+
+		potential =
+				new CGPotential(new JointContinuousVariable(variables),
+						new DiscreteVariable(cardinality));
+
+		// the covariances are positive definite since the off-diagonal
+		// entries are smaller than the diagonal entries
+		for (int s = 0; s < cardinality; s++) {
+			CGParameter parameter = potential.get(s);
+			parameter.p = 1.0 / cardinality;
+			for (int i = 0; i < heads; i++) {
+				parameter.A.setQuick(i, random.nextGaussian());
+				for (int j = 0; j < heads; j++)
+					parameter.C.setQuick(i, j, i == j ? 1 + random.nextDouble()
+							: 0.2);
+			}
+		}
+
+		// the evidence is taken in the order of the head variables in the
+		// potential
+		variables =
+				new ArrayList<SingularContinuousVariable>(
+						potential.continuousVariables());
+		values = new double[heads];
+		for (int i = 0; i < heads; i++)
+			values[i] = random.nextGaussian();
+	}
+
+	@Benchmark
+	public CGPotential copy() {
+		return potential.clone();
+	}
+
+	@Benchmark
+	public double absorbEvidence() {
+		CGPotential copy = potential.clone();
+		double logNormalization = 0;
+		for (int i = 0; i < heads; i++)
+			logNormalization += copy.absorbEvidence(variables.get(i), values[i]);
+		return logNormalization;
+	}
+}
@@ -0,0 +1,75 @@
+package org.latlab.bench;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.latlab.learner.geast.EmParameters;
+import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.EstimationFactory;
+import org.latlab.learner.geast.MultithreadingEstimation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of a full E-step on the model learned from a bundled data set,
+ * using the estimation created by the EM with the given number of threads.
+ * The models with a single latent variable are estimated by the mixture
+ * estimation as in the EM.
+ *
+ * @author leonard
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EstimationBenchmark {
+
+	@Param( { "iris", "wine-reordered", "segmentation.count-removed" })
+	public String dataset;
+
+	@Param( { "1", "4" })
+	public int threads;
+
+	private ExecutorService executor = null;
+	private Estimation estimation;
+
+	@Setup
+	public void setUp() throws Exception {
+		Fixtures.Learned learned = Fixtures.load(dataset);
+
+		EstimationFactory factory = Estimation.FACTORY;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads);
+			factory = MultithreadingEstimation.createFactory(threads, executor);
+		}
+
+		estimation =
+				factory.createSimple(learned.model, learned.data,
+						new EmParameters().smoothing);
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	@Benchmark
+	public Estimation.VariableStatisticsMap collectSufficientStatistics() {
+		return estimation.collectSufficientStatistics();
+	}
+}
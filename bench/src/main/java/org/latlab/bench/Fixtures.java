@@ -0,0 +1,120 @@
+package org.latlab.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.io.bif.BifParser;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+
+/**
+ * Loads the fixtures of the benchmarks.
+ *
+ * <p>
+ * The models of the data sets are learned once by {@code PltmEast} with a
+ * fixed seed and kept as resources of this package, so that the benchmarks of
+ * different versions run on the same models. The data sets are read from the
+ * {@code data} directory of the project, which is looked up from the working
+ * directory unless it is given by the system property {@code latlab.data}.
+ *
+ * @author leonard
+ *
+ */
+final class Fixtures {
+
+	/**
+	 * Seed of the random numbers filling the synthetic fixtures.
+	 */
+	static final long SEED = 20101;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Loads a bundled data set and its model, and synchronizes the data with
+	 * the model.
+	 *
+	 * @param name
+	 *            name of the data set without the extension
+	 * @return the model together with the data
+	 */
+	static Learned load(String name) throws Exception {
+		MixedDataSet data = ArffLoader.load(dataFile(name).getPath());
+
+		InputStream stream =
+				Fixtures.class.getResourceAsStream(name + ".bif");
+		if (stream == null)
+			throw new IOException(String.format(
+					"The model of the data set [%s] is not found.", name));
+
+		Gltm model;
+		try {
+			model = new BifParser(stream).parse(new Gltm());
+		} finally {
+			stream.close();
+		}
+
+		data.synchronize(model);
+		return new Learned(model, data);
+	}
+
+	private static File dataFile(String name) throws IOException {
+		String property = System.getProperty("latlab.data");
+		String[] directories =
+				property != null ? new String[] { property } : new String[] {
+						"data", "../data" };
+
+		for (String directory : directories) {
+			File file = new File(directory, name + ".arff");
+			if (file.isFile())
+				return file;
+		}
+
+		throw new IOException(String.format(
+				"The data set [%s] is not found. Set the system property "
+						+ "latlab.data to the data directory.", name));
+	}
+
+	/**
+	 * Returns the given number of discrete variables with the given
+	 * cardinality.
+	 */
+	static List<DiscreteVariable> variables(int number, int cardinality) {
+		List<DiscreteVariable> variables =
+				new ArrayList<DiscreteVariable>(number);
+		for (int i = 0; i < number; i++)
+			variables.add(new DiscreteVariable(cardinality));
+		return variables;
+	}
+
+	/**
+	 * Returns a function of the given variables with random positive cells.
+	 */
+	static Function function(List<DiscreteVariable> variables, Random random) {
+		Function function = Function.createFunction(variables);
+		double[] cells = function.getCells();
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = random.nextDouble() + 1e-3;
+		return function;
+	}
+
+	/**
+	 * Model learned from a bundled data set, together with the data.
+	 */
+	static class Learned {
+		final Gltm model;
+		final MixedDataSet data;
+
+		private Learned(Gltm model, MixedDataSet data) {
+			this.model = model;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.latlab.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the operations on the discrete potentials of the cliques. The
+ * function of a clique has the given number of variables, each with the given
+ * cardinality. It is multiplied by a message on all its variables but one,
+ * which is the one summed out.
+ *
+ * @author leonard
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FunctionBenchmark {
+
+	@Param( { "1", "2", "3" })
+	public int variables;
+
+	@Param( { "2", "4", "8" })
+	public int cardinality;
+
+	private Function clique;
+	private Function message;
+	private Function other;
+	private DiscreteVariable summed;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(Fixtures.SEED);
+		List<DiscreteVariable> list =
+				Fixtures.variables(variables, cardinality);
+		summed = list.get(list.size() - 1);
+
+		clique = Fixtures.function(list, random);
+		other = Fixtures.function(list, random);
+		message =
+				Fixtures.function(list.size() > 1 ? list.subList(0,
+						list.size() - 1) : list, random);
+	}
+
+	@Benchmark
+	public Function times() {
+		return clique.times(message);
+	}
+
+	@Benchmark
+	public Function sumOut() {
+		return clique.sumOut(summed);
+	}
+
+	@Benchmark
+	public Function plusMult() {
+		other.plusMult(clique, 0.5);
+		return other;
+	}
+}
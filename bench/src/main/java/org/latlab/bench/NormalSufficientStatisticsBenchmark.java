@@ -0,0 +1,62 @@
+package org.latlab.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.latlab.learner.geast.NormalSufficientStatistics;
+import org.latlab.model.CGParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of adding the posterior moments of a mixed clique with the given
+ * number of continuous variables to the sufficient statistics, which is done
+ * for each state of the discrete variable of the clique in each data case.
+ *
+ * @author leonard
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NormalSufficientStatisticsBenchmark {
+
+	@Param( { "1", "2", "4", "8" })
+	public int variables;
+
+	private NormalSufficientStatistics statistics;
+	private CGParameter parameter;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(Fixtures.SEED);
+
+		statistics = new NormalSufficientStatistics(variables);
+		parameter = new CGParameter(variables);
+		parameter.p = random.nextDouble();
+		for (int i = 0; i < variables; i++) {
+			parameter.A.setQuick(i, random.nextGaussian());
+			for (int j = 0; j < variables; j++)
+				parameter.C.setQuick(i, j, i == j ? 1 + random.nextDouble()
+						: 0.2);
+		}
+	}
+
+	@Benchmark
+	public NormalSufficientStatistics add() {
+		statistics.add(parameter, 0.5);
+		return statistics;
+	}
+}
@@ -0,0 +1,59 @@
+package org.latlab.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.reasoner.NaturalCliqueTreePropagation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of one propagation on the model learned from a bundled data set.
+ * The evidence is taken from the data cases in turn, as in an E-step.
+ *
+ * @author leonard
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PropagationBenchmark {
+
+	@Param( { "iris", "wine-reordered", "segmentation.count-removed" })
+	public String dataset;
+
+	private MixedDataSet data;
+	private NaturalCliqueTreePropagation propagation;
+	private int index = 0;
+
+	@Setup
+	public void setUp() throws Exception {
+		Fixtures.Learned learned = Fixtures.load(dataset);
+		data = learned.data;
+		propagation = new NaturalCliqueTreePropagation(learned.model);
+
+		// converts the data cases to evidences before the measurement
+		for (int i = 0; i < data.size(); i++)
+			data.getEvidences(i);
+	}
+
+	@Benchmark
+	public double propagate() {
+		propagation.use(data.getEvidences(index));
+		propagation.propagate();
+		index = (index + 1) % data.size();
+		return propagation.loglikelihood();
+	}
+}
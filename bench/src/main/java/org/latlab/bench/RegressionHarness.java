@@ -0,0 +1,536 @@
+package org.latlab.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.Geast;
+import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.learner.geast.Settings;
+import org.latlab.util.FileName;
+import org.latlab.util.RandomStream;
+import org.w3c.dom.Document;
+
+/**
+ * End-to-end performance regression test, which learns a model on each data
+ * set in the data directory as {@code PltmEast} does with the default options,
+ * with a fixed seed and each of the given numbers of threads.
+ *
+ * <p>
+ * For each run it records the wall time, the CPU time of the process, the
+ * peak heap usage, the number of messages passed in the E-steps, the number
+ * of EM steps and the BIC score of the learned model. The results are
+ * compared with those in a baseline file, and a run is flagged if it is
+ * slower than the baseline beyond the time tolerance, or if its BIC score
+ * differs from the baseline beyond the BIC tolerance. The latter means that
+ * the learned model has changed. The process exits with status 1 if any run
+ * is flagged.
+ *
+ * <p>
+ * Each run is made in a new virtual machine, so that its times do not depend
+ * on the runs before it. The {@code --runs} option repeats each run and keeps
+ * the smallest times. The messages and the steps in other processes, such as
+ * the search workers, are not counted.
+ *
+ * @author leonard
+ *
+ */
+public class RegressionHarness {
+
+	/**
+	 * Differences of time below this number of milliseconds are not flagged,
+	 * since they are within the noise of short runs.
+	 */
+	private static final long MINIMUM_DIFFERENCE_MS = 200;
+
+	/**
+	 * Prefix of the line by which a forked run writes its result.
+	 */
+	private static final String RESULT_PREFIX = "result: ";
+
+	private static final String HEADER =
+			"dataset,threads,seed,wallMs,cpuMs,peakHeapMb,messages,steps,bic";
+
+	/**
+	 * Measurements of one run.
+	 */
+	private static class Result {
+		public String dataset;
+		public int threads;
+		public long seed;
+		public long wallMs;
+		public long cpuMs;
+		public long peakHeapMb;
+		public long messages;
+		public long steps;
+		public double bic;
+
+		public String key() {
+			return dataset + "," + threads + "," + seed;
+		}
+
+		public String toCsv() {
+			return String.format("%s,%d,%d,%d,%d,%d,%d,%d,%s", dataset,
+					threads, seed, wallMs, cpuMs, peakHeapMb, messages, steps,
+					Double.toString(bic));
+		}
+
+		public static Result parse(String line) {
+			String[] fields = line.split(",");
+			if (fields.length != 9)
+				throw new IllegalArgumentException(
+						"Wrong number of fields in baseline line: " + line);
+
+			Result result = new Result();
+			result.dataset = fields[0];
+			result.threads = Integer.parseInt(fields[1]);
+			result.seed = Long.parseLong(fields[2]);
+			result.wallMs = Long.parseLong(fields[3]);
+			result.cpuMs = Long.parseLong(fields[4]);
+			result.peakHeapMb = Long.parseLong(fields[5]);
+			result.messages = Long.parseLong(fields[6]);
+			result.steps = Long.parseLong(fields[7]);
+			result.bic = Double.parseDouble(fields[8]);
+			return result;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLine line = null;
+		Options options = getOptions();
+		try {
+			line = new GnuParser().parse(options, args);
+		} catch (ParseException e) {
+			System.out.println("Command line syntax error:" + e.getMessage());
+			printUsage(options);
+			return;
+		}
+
+		if (line.hasOption('h')) {
+			printUsage(options);
+			return;
+		}
+
+		File dataDirectory = new File(line.getOptionValue('d', "data"));
+		File settingsFile = new File(line.getOptionValue('s', "settings.xml"));
+		File baselineFile =
+				new File(line.getOptionValue('b', "bench/baseline.csv"));
+		long seed = Long.parseLong(line.getOptionValue("seed", "1"));
+		int runs = Integer.parseInt(line.getOptionValue("runs", "1"));
+		double timeTolerance =
+				Double.parseDouble(line.getOptionValue("time-tolerance",
+						"0.2"));
+		double bicTolerance =
+				Double.parseDouble(line.getOptionValue("bic-tolerance",
+						"1e-6"));
+
+		// a forked run of a single setting
+		if (line.hasOption("run")) {
+			Result result =
+					run(new File(line.getOptionValue("run")), settingsFile,
+							Integer.parseInt(line.getOptionValue("threads")),
+							seed);
+			System.out.println(RESULT_PREFIX + result.toCsv());
+			return;
+		}
+
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		for (String count : line.getOptionValue("threads", "1,4").split(","))
+			threadCounts.add(Integer.parseInt(count.trim()));
+
+		List<File> files = findDataFiles(dataDirectory, line.getArgs());
+		if (files.isEmpty()) {
+			System.out.println("No data file is found in " + dataDirectory);
+			return;
+		}
+
+		Map<String, Result> baseline = readBaseline(baselineFile);
+
+		List<Result> results = new ArrayList<Result>();
+		boolean flagged = false;
+
+		for (File file : files) {
+			for (int threads : threadCounts) {
+				Result result = null;
+				for (int i = 0; i < runs; i++) {
+					Result current = fork(file, settingsFile, threads, seed);
+					result = result == null ? current : fastest(result, current);
+				}
+
+				Result expected = baseline.get(result.key());
+				List<String> flags =
+						compare(result, expected, timeTolerance, bicTolerance);
+				flagged |= !flags.isEmpty();
+
+				results.add(result);
+				System.out.println(report(result, expected, flags));
+			}
+		}
+
+		if (line.hasOption('u')) {
+			for (Result result : results)
+				baseline.put(result.key(), result);
+			writeBaseline(baselineFile, baseline);
+			System.out.println("Baseline is written to " + baselineFile);
+		} else if (flagged) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Makes a run in a new virtual machine and returns its result.
+	 */
+	private static Result fork(File file, File settingsFile, int threads,
+			long seed) throws IOException, InterruptedException {
+		String java =
+				System.getProperty("java.home") + File.separator + "bin"
+						+ File.separator + "java";
+		ProcessBuilder builder =
+				new ProcessBuilder(java, "-cp",
+						System.getProperty("java.class.path"),
+						RegressionHarness.class.getName(), "--run",
+						file.getPath(), "--setting", settingsFile.getPath(),
+						"--threads", Integer.toString(threads), "--seed",
+						Long.toString(seed));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+
+		// the output of the search is discarded
+		Result result = null;
+		BufferedReader reader =
+				new BufferedReader(new InputStreamReader(
+						process.getInputStream()));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX))
+					result = Result.parse(line.substring(RESULT_PREFIX.length()));
+			}
+		} finally {
+			reader.close();
+		}
+
+		int status = process.waitFor();
+		if (result == null)
+			throw new IllegalStateException(String.format(
+					"The run on %s with %d threads failed with status %d.",
+					file, threads, status));
+
+		return result;
+	}
+
+	/**
+	 * Learns a model on the given data file with the given number of threads
+	 * and seed, and returns the measurements of the run.
+	 */
+	private static Result run(File file, File settingsFile, int threads,
+			long seed) throws Exception {
+		String dataName = FileName.getNameOfLastComponent(file.getPath());
+		MixedDataSet data = ArffLoader.load(file.getPath());
+		data.setClassVariable(data.variables().get(
+				data.variables().size() - 1));
+
+		Settings settings =
+				new Settings(new ByteArrayInputStream(readSettings(
+						settingsFile, threads)), data, dataName);
+		RandomStream.setSeed(seed);
+		Geast geast = settings.createGeast();
+		geast.commandLine =
+				String.format("RegressionHarness --seed %d --threads %d %s",
+						seed, threads, file.getPath());
+
+		List<MemoryPoolMXBean> pools = heapPools();
+		System.gc();
+		for (MemoryPoolMXBean pool : pools)
+			pool.resetPeakUsage();
+
+		long messages = Estimation.totalMessageCount();
+		long steps = EmFramework.totalSteps();
+		long cpu = processCpuTime();
+		long start = System.nanoTime();
+
+		IModelWithScore output = geast.learn();
+
+		Result result = new Result();
+		result.wallMs = (System.nanoTime() - start) / 1000000;
+		result.cpuMs = cpu < 0 ? -1 : (processCpuTime() - cpu) / 1000000;
+		result.messages = Estimation.totalMessageCount() - messages;
+		result.steps = EmFramework.totalSteps() - steps;
+
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools)
+			peak += pool.getPeakUsage().getUsed();
+		result.peakHeapMb = peak / (1024 * 1024);
+
+		result.dataset = dataName;
+		result.threads = threads;
+		result.seed = seed;
+		result.bic = output.BicScore();
+		return result;
+	}
+
+	/**
+	 * Reads the settings file and replaces its number of threads.
+	 */
+	private static byte[] readSettings(File file, int threads)
+			throws Exception {
+		Document document =
+				DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+						file);
+		document.getDocumentElement().setAttribute("threads",
+				Integer.toString(threads));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TransformerFactory.newInstance().newTransformer().transform(
+				new DOMSource(document), new StreamResult(output));
+		return output.toByteArray();
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pools.add(pool);
+		}
+		return pools;
+	}
+
+	/**
+	 * Returns the CPU time of this process in nanoseconds, or {@code -1} if it
+	 * is not supported by the virtual machine.
+	 */
+	private static long processCpuTime() {
+		OperatingSystemMXBean bean =
+				ManagementFactory.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+		else
+			return -1;
+	}
+
+	/**
+	 * Returns the first result with the smallest times and peak heap usage of
+	 * the two results, which are repeated runs of the same setting.
+	 */
+	private static Result fastest(Result first, Result second) {
+		first.wallMs = Math.min(first.wallMs, second.wallMs);
+		first.cpuMs = Math.min(first.cpuMs, second.cpuMs);
+		first.peakHeapMb = Math.min(first.peakHeapMb, second.peakHeapMb);
+		return first;
+	}
+
+	/**
+	 * Returns the flags of the result compared with the expected result in
+	 * the baseline, which is empty if the result is within the tolerances.
+	 */
+	private static List<String> compare(Result result, Result expected,
+			double timeTolerance, double bicTolerance) {
+		List<String> flags = new ArrayList<String>();
+		if (expected == null)
+			return flags;
+
+		if (slower(result.wallMs, expected.wallMs, timeTolerance)
+				|| slower(result.cpuMs, expected.cpuMs, timeTolerance))
+			flags.add("SLOWER");
+		if (Double.isNaN(result.bic)
+				|| Math.abs(result.bic - expected.bic) > bicTolerance)
+			flags.add("BIC");
+
+		return flags;
+	}
+
+	private static boolean slower(long time, long expected, double tolerance) {
+		if (time < 0 || expected < 0)
+			return false;
+
+		return time - expected > MINIMUM_DIFFERENCE_MS
+				&& time > expected * (1 + tolerance);
+	}
+
+	private static String report(Result result, Result expected,
+			List<String> flags) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-28s threads=%-2d", result.dataset,
+				result.threads));
+		builder.append(String.format(" wall=%.2fs", result.wallMs / 1000.0));
+		if (expected != null)
+			builder.append(change(result.wallMs, expected.wallMs));
+		builder.append(String.format(" cpu=%.2fs", result.cpuMs / 1000.0));
+		if (expected != null)
+			builder.append(change(result.cpuMs, expected.cpuMs));
+		builder.append(String.format(" heap=%dMB", result.peakHeapMb));
+		if (expected != null)
+			builder.append(change(result.peakHeapMb, expected.peakHeapMb));
+		builder.append(String.format(" messages=%d", result.messages));
+		if (expected != null)
+			builder.append(change(result.messages, expected.messages));
+		builder.append(String.format(" steps=%d", result.steps));
+		if (expected != null)
+			builder.append(change(result.steps, expected.steps));
+		builder.append(String.format(" BIC=%.6f", result.bic));
+		if (expected != null)
+			builder.append(String.format(" (%+.6f)", result.bic - expected.bic));
+		else
+			builder.append(" [no baseline]");
+
+		for (String flag : flags)
+			builder.append(" ").append(flag);
+
+		return builder.toString();
+	}
+
+	private static String change(long value, long expected) {
+		if (expected <= 0)
+			return "";
+
+		return String.format(" (%+.0f%%)", (value - expected) * 100.0
+				/ expected);
+	}
+
+	/**
+	 * Returns the ARFF files in the directory in the order of their names. If
+	 * some names are given, only the files of those data sets are returned.
+	 */
+	private static List<File> findDataFiles(File directory, String[] names) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".arff");
+			}
+		});
+		if (files == null)
+			return new ArrayList<File>();
+
+		Arrays.sort(files);
+
+		Set<String> selected = new HashSet<String>(Arrays.asList(names));
+		List<File> result = new ArrayList<File>(files.length);
+		for (File file : files) {
+			String name = FileName.getNameOfLastComponent(file.getPath());
+			if (selected.isEmpty() || selected.contains(name))
+				result.add(file);
+		}
+		return result;
+	}
+
+	private static Map<String, Result> readBaseline(File file)
+			throws IOException {
+		Map<String, Result> baseline = new TreeMap<String, Result>();
+		if (!file.exists())
+			return baseline;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.equals(HEADER))
+					continue;
+
+				Result result = Result.parse(line);
+				baseline.put(result.key(), result);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return baseline;
+	}
+
+	private static void writeBaseline(File file, Map<String, Result> baseline)
+			throws IOException {
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try {
+			writer.println(HEADER);
+			for (Result result : baseline.values())
+				writer.println(result.toCsv());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@SuppressWarnings("static-access")
+	private static Options getOptions() {
+		Options options = new Options();
+
+		options.addOption(OptionBuilder.hasArg().withArgName("directory")
+				.withDescription("directory of the data files (default: data)")
+				.withLongOpt("data").create('d'));
+		options.addOption(OptionBuilder.hasArg().withArgName("setting_file")
+				.withDescription(
+						"use the specified settings file (default: settings.xml)")
+				.withLongOpt("setting").create('s'));
+		options.addOption(OptionBuilder.hasArg().withArgName("baseline_file")
+				.withDescription(
+						"baseline of the results (default: bench/baseline.csv)")
+				.withLongOpt("baseline").create('b'));
+		options.addOption("u", "update", false,
+				"write the results to the baseline file instead of failing "
+						+ "on the flagged runs");
+		options.addOption(OptionBuilder.hasArg().withArgName("seed")
+				.withDescription("seed of the random number generator "
+						+ "(default: 1)").withLongOpt("seed").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("counts")
+				.withDescription("comma-separated numbers of threads, "
+						+ "overriding that in the settings file (default: 1,4)")
+				.withLongOpt("threads").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("runs")
+				.withDescription("number of runs of each setting, of which "
+						+ "the smallest times are kept (default: 1)")
+				.withLongOpt("runs").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("fraction")
+				.withDescription("fraction of the baseline time by which a "
+						+ "run can be slower (default: 0.2)")
+				.withLongOpt("time-tolerance").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("difference")
+				.withDescription("difference of the BIC score from the "
+						+ "baseline allowed (default: 1e-6)")
+				.withLongOpt("bic-tolerance").create());
+		options.addOption("h", "help", false, "show this help");
+
+		// used internally by the forked runs
+		options.addOption(OptionBuilder.hasArg().withArgName("data_file")
+				.withDescription("make a single run on the data file in this "
+						+ "process and write its result").withLongOpt("run")
+				.create());
+
+		return options;
+	}
+
+	private static void printUsage(Options options) {
+		HelpFormatter formatter = new HelpFormatter();
+		formatter.printHelp("RegressionHarness [OPTION] [data_set...]", options);
+	}
+}
@@ -1,3 +1,4 @@
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 
@@ -11,12 +12,14 @@ import org.latlab.data.MixedDataSet;
 import org.latlab.data.io.arff.ArffLoader;
 import org.latlab.io.bif.BifParser;
 import org.latlab.io.bif.BifWriter;
+import org.latlab.learner.geast.Checkpoint;
 import org.latlab.learner.geast.Geast;
 import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.Settings;
 import org.latlab.model.Gltm;
-import org.latlab.util.BuildConfig;
 import org.latlab.util.FileName;
+import org.latlab.util.Profiler;
+import org.latlab.util.RandomStream;
 import org.latlab.util.Variable;
 
 public class PltmEast {
@@ -43,7 +46,13 @@ public class PltmEast {
 		}
 
 		String dataFileName = line.getArgs()[0];
-		MixedDataSet data = ArffLoader.load(dataFileName);
+		String settingName = line.getOptionValue('s', "settings.xml");
+
+		// only the variables are loaded if the data cases are held by the
+		// shard workers
+		MixedDataSet data =
+				Settings.usesShards(settingName) ? ArffLoader.load(
+						dataFileName, 0, 0) : ArffLoader.load(dataFileName);
 
 		String dataName = FileName.getNameOfLastComponent(dataFileName);
 
@@ -72,17 +81,58 @@ public class PltmEast {
 			data.synchronize(initial);
 		}
 
-		String settingName = line.getOptionValue('s', "settings.xml");
+		// the checkpoint is read before the settings, since the data is
+		// synchronized with its model before the subsamples are taken
+		File checkpointFile = null;
+		Checkpoint checkpoint = null;
+		if (line.hasOption("checkpoint"))
+			checkpointFile = new File(line.getOptionValue("checkpoint"));
+		if (line.hasOption("resume")) {
+			if (checkpointFile == null) {
+				System.out.println("The checkpoint file is not specified.");
+				printUsage(options);
+				return;
+			} else if (checkpointFile.exists()) {
+				checkpoint = Checkpoint.read(checkpointFile, data);
+			} else {
+				System.out.println("No checkpoint is found. Start a new search.");
+			}
+		}
+
 		Settings settings = new Settings(settingName, data, dataName);
+		if (line.hasOption("seed")) {
+			try {
+				RandomStream.setSeed(Long.parseLong(line.getOptionValue("seed")));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+						"Wrong number format for seed", e);
+			}
+		}
+
 		Geast geast = settings.createGeast();
 		geast.commandLine = originalLine.toString();
 
 		String outputFileName = line.getOptionValue('o', "output.bif");
-		
-		BuildConfig.init();
+
+		Profiler.setEnabled(line.hasOption("profile"));
+
+		geast.useCheckpoints(checkpointFile);
+		if (line.hasOption("time-limit")) {
+			try {
+				geast.useTimeLimit(
+						Long.parseLong(line.getOptionValue("time-limit")) * 1000,
+						Long.parseLong(line.getOptionValue("final-time-limit",
+								"0")) * 1000);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(
+						"Wrong number format for time limit", e);
+			}
+		}
 
 		IModelWithScore output = null;
-		if (initial == null)
+		if (checkpoint != null)
+			output = geast.resume(checkpoint);
+		else if (initial == null)
 			output = geast.learn();
 		else
 			output = geast.learn(initial);
@@ -90,8 +140,6 @@ public class PltmEast {
 		if (outputFileName != null && output != null) {
 			new BifWriter(new FileOutputStream(outputFileName)).write(output);
 		}
-		
-		BuildConfig.cleanup();
 	}
 
 	/**
@@ -154,6 +202,30 @@ public class PltmEast {
 				.withDescription("specify the output BIF file (default: output.bif)")
 				.withLongOpt("output-file").create('o'));
 		options.addOption("m", "allow-missing", false, "allow missing data");
+		options.addOption(OptionBuilder.hasArg().withArgName("seed")
+				.withDescription("seed of the random number generator, "
+						+ "overriding that in the settings file")
+				.withLongOpt("seed").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("checkpoint_file")
+				.withDescription("write a checkpoint to the file after each "
+						+ "procedure and each accepted step of the search")
+				.withLongOpt("checkpoint").create());
+		options.addOption(OptionBuilder.withDescription(
+				"resume the search from the checkpoint file if it exists")
+				.withLongOpt("resume").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("seconds")
+				.withDescription("stop the search after the given time and "
+						+ "output the best model found so far")
+				.withLongOpt("time-limit").create());
+		options.addOption(OptionBuilder.hasArg().withArgName("seconds")
+				.withDescription("time limit of the final estimation after the "
+						+ "search is stopped by the time limit (default: 0, "
+						+ "which skips it)")
+				.withLongOpt("final-time-limit").create());
+		options.addOption(OptionBuilder.withDescription(
+				"profile the CPU time of the propagations and write the "
+						+ "summary in the log")
+				.withLongOpt("profile").create());
 
 		return options;
 	}
@@ -14,6 +14,13 @@ public class Instance {
 	private double weight = 1;
 	private double[] values;
 
+	/**
+	 * Holds the values in single precision when this instance has been
+	 * compacted. Exactly one of {@code values} and {@code compactValues} is
+	 * non-null.
+	 */
+	private float[] compactValues = null;
+
 	public static Instance create(List<Variable> variables,
 			List<String> tokens, double weight) {
 		double[] values = new double[variables.size()];
@@ -58,15 +65,51 @@ public class Instance {
 	}
 
 	public double value(int index) {
-		return values[index];
+		return values != null ? values[index] : compactValues[index];
 	}
 
 	public boolean isMissing(int index) {
-		return Double.isNaN(values[index]);
+		return Double.isNaN(value(index));
 	}
 
-	public boolean hasMissing() {
+	/**
+	 * Returns the number of values held by this instance.
+	 * 
+	 * @return number of values
+	 */
+	public int length() {
+		return values != null ? values.length : compactValues.length;
+	}
+
+	/**
+	 * Returns whether the values of this instance are stored in single
+	 * precision.
+	 * 
+	 * @return whether this instance is compacted
+	 */
+	public boolean isCompact() {
+		return compactValues != null;
+	}
+
+	/**
+	 * Stores the values of this instance in single precision to reduce the
+	 * memory used by large data sets. Missing values remain missing, since
+	 * {@code NaN} is preserved by the conversion.
+	 */
+	public void compact() {
+		if (compactValues != null)
+			return;
+
+		compactValues = new float[values.length];
 		for (int i = 0; i < values.length; i++) {
+			compactValues[i] = (float) values[i];
+		}
+
+		values = null;
+	}
+
+	public boolean hasMissing() {
+		for (int i = 0; i < length(); i++) {
 			if (isMissing(i))
 				return true;
 		}
@@ -2,14 +2,17 @@ package org.latlab.data;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.latlab.model.Gltm;
 import org.latlab.reasoner.Evidences;
 import org.latlab.util.Algorithm;
 import org.latlab.util.DiscreteVariable;
 import org.latlab.util.NotPredicate;
+import org.latlab.util.RandomStream;
 import org.latlab.util.ReferencePredicate;
 import org.latlab.util.SingularContinuousVariable;
 import org.latlab.util.Variable;
@@ -38,6 +41,12 @@ public class MixedDataSet {
 
 	private String filename = null;
 
+	/**
+	 * Whether the values and cached messages related to this data set are
+	 * stored in single precision.
+	 */
+	private boolean singlePrecision = false;
+
 	/**
 	 * Maps the variable to the index of the variable.
 	 */
@@ -207,7 +216,28 @@ public class MixedDataSet {
 		return totalWeight;
 	}
 
+	/**
+	 * Uses the total weight, mean and covariance given by the moments of the
+	 * instances held elsewhere, such as by the shard workers, instead of
+	 * computing them from the instances of this data set. This data set may
+	 * then hold only the variables.
+	 * 
+	 * @param moments
+	 *            moments of the instances on the variables of this data set
+	 */
+	public void useMoments(Moments moments) {
+		clearCache();
+		totalWeight = moments.totalWeight();
+		mean = moments.mean();
+		covariance = moments.covariance();
+	}
+
 	public synchronized Evidences getEvidences(int index) {
+		// the evidences are not cached in single precision mode, since they
+		// would hold another copy of the data in double precision
+		if (singlePrecision)
+			return convertToEvidences(get(index));
+
 		if (evidences()[index] == null) {
 			evidences()[index] = convertToEvidences(get(index));
 		}
@@ -388,6 +418,67 @@ public class MixedDataSet {
 		}
 	}
 
+	/**
+	 * Returns a random subsample of this data set. If this data set has a class
+	 * variable, the subsample is stratified by it, so that each class has the
+	 * same proportion of instances in the subsample. Each stratum contributes
+	 * at least one instance. The subsample shares the variables and the
+	 * instances with this data set, and keeps their order.
+	 * 
+	 * @param fraction
+	 *            fraction of instances to sample
+	 * @param random
+	 *            random stream used for sampling
+	 * @return the subsample
+	 */
+	public MixedDataSet subsample(double fraction, RandomStream random) {
+		// groups the indices of the instances by the class
+		Map<Integer, List<Integer>> strata =
+				new TreeMap<Integer, List<Integer>>();
+		for (int i = 0; i < instances.size(); i++) {
+			int stratum = -1;
+			if (hasClassVariable() && !get(i).isMissing(classIndex))
+				stratum = (int) get(i).value(classIndex);
+
+			List<Integer> indices = strata.get(stratum);
+			if (indices == null) {
+				indices = new ArrayList<Integer>();
+				strata.put(stratum, indices);
+			}
+
+			indices.add(i);
+		}
+
+		List<Integer> selected = new ArrayList<Integer>();
+		for (List<Integer> indices : strata.values()) {
+			int size =
+					Math.max(1, (int) Math.round(fraction * indices.size()));
+
+			// partial Fisher-Yates shuffle to select the first size indices
+			for (int i = 0; i < size && i < indices.size(); i++) {
+				int j = i + random.nextInt(indices.size() - i);
+				Integer swap = indices.get(i);
+				indices.set(i, indices.get(j));
+				indices.set(j, swap);
+				selected.add(indices.get(i));
+			}
+		}
+
+		Collections.sort(selected);
+
+		ArrayList<Instance> sampled = new ArrayList<Instance>(selected.size());
+		for (int index : selected)
+			sampled.add(instances.get(index));
+
+		MixedDataSet subsample =
+				new MixedDataSet(name, new ArrayList<Variable>(variables),
+						sampled);
+		subsample.classIndex = classIndex;
+		subsample.filename = filename;
+		subsample.singlePrecision = singlePrecision;
+		return subsample;
+	}
+
 	public String filename() {
 		return filename;
 	}
@@ -403,10 +494,46 @@ public class MixedDataSet {
 	 * @param values
 	 */
 	public void add(double weight, double[] values) {
-		instances.add(Instance.create(weight, values));
+		Instance instance = Instance.create(weight, values);
+		if (singlePrecision)
+			instance.compact();
+
+		instances.add(instance);
+		clearCache();
+	}
+
+	/**
+	 * Stores the data values in single precision. The propagations on this
+	 * data set also store their cached messages in single precision, while the
+	 * sufficient statistics and loglikelihood are still accumulated in double
+	 * precision.
+	 * 
+	 * <p>
+	 * This is intended for large data sets where memory is a concern. The
+	 * statistics of the data, such as mean and covariance, are computed from
+	 * the single precision values after this call.
+	 */
+	public void useSinglePrecision() {
+		if (singlePrecision)
+			return;
+
+		singlePrecision = true;
+		for (Instance instance : instances) {
+			instance.compact();
+		}
+
 		clearCache();
 	}
 
+	/**
+	 * Returns whether this data set is stored in single precision.
+	 * 
+	 * @return whether this data set is stored in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
 	private void clearCache() {
 		mean = null;
 		variance = null;
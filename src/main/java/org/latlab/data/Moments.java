@@ -0,0 +1,210 @@
+package org.latlab.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Number of instances, total weight, and the weighted sums from which the
+ * mean and covariance of a data set are computed. The moments of different
+ * parts of a data set, such as the shards held by other processes, can be
+ * added up to give those of the whole data set without its instances.
+ *
+ * <p>
+ * Like {@link MixedDataSet#mean()} and {@link MixedDataSet#covariance()}, the
+ * mean of a variable is taken over the instances where it is not missing, and
+ * the covariance of two variables over the instances where both are not
+ * missing. The sums are taken on the deviations from a center, which is the
+ * mean of the instances first added, so that they do not lose precision when
+ * the variance is small relative to the mean.
+ *
+ * @author leonard
+ *
+ */
+public class Moments {
+	private int size = 0;
+	private double totalWeight = 0;
+
+	private final double[] center;
+
+	/**
+	 * Total weight of the instances where both variables are not missing.
+	 */
+	private final double[][] count;
+
+	/**
+	 * Weighted sum of the deviations of the first variable, over the instances
+	 * where both variables are not missing.
+	 */
+	private final double[][] sum;
+
+	/**
+	 * Weighted sum of the products of the deviations of the two variables.
+	 */
+	private final double[][] product;
+
+	private Moments(double[] center) {
+		int n = center.length;
+		this.center = center;
+		count = new double[n][n];
+		sum = new double[n][n];
+		product = new double[n][n];
+	}
+
+	/**
+	 * Computes the moments of the instances of a data set.
+	 *
+	 * @param data
+	 *            data set
+	 * @return moments of the data set
+	 */
+	public static Moments compute(MixedDataSet data) {
+		Moments moments = new Moments(data.mean().toArray());
+		int n = moments.center.length;
+
+		for (int i = 0; i < data.size(); i++) {
+			Instance instance = data.get(i);
+			double weight = instance.weight();
+
+			moments.size++;
+			moments.totalWeight += weight;
+
+			for (int j = 0; j < n; j++) {
+				if (instance.isMissing(j))
+					continue;
+
+				double deviation = instance.value(j) - moments.center[j];
+				for (int k = 0; k < n; k++) {
+					if (instance.isMissing(k))
+						continue;
+
+					moments.count[j][k] += weight;
+					moments.sum[j][k] += deviation * weight;
+					moments.product[j][k] +=
+							deviation * (instance.value(k) - moments.center[k])
+									* weight;
+				}
+			}
+		}
+
+		return moments;
+	}
+
+	/**
+	 * Adds the moments of another part of the data set to these moments.
+	 *
+	 * @param other
+	 *            moments of another part, on the same variables
+	 */
+	public void add(Moments other) {
+		if (other.center.length != center.length)
+			throw new IllegalArgumentException(String.format(
+					"The moments are taken on %d variables instead of %d.",
+					other.center.length, center.length));
+
+		size += other.size;
+		totalWeight += other.totalWeight;
+
+		// moves the sums of the other moments to the center of these moments
+		int n = center.length;
+		for (int j = 0; j < n; j++) {
+			double shiftJ = other.center[j] - center[j];
+			for (int k = 0; k < n; k++) {
+				double shiftK = other.center[k] - center[k];
+				count[j][k] += other.count[j][k];
+				sum[j][k] += other.sum[j][k] + shiftJ * other.count[j][k];
+				product[j][k] +=
+						other.product[j][k] + shiftJ * other.sum[k][j] + shiftK
+								* other.sum[j][k] + shiftJ * shiftK
+								* other.count[j][k];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double totalWeight() {
+		return totalWeight;
+	}
+
+	public DoubleMatrix1D mean() {
+		return DoubleFactory1D.dense.make(computeMean());
+	}
+
+	public DoubleMatrix2D covariance() {
+		double[] mean = computeMean();
+		int n = center.length;
+		double[][] covariance = new double[n][n];
+
+		for (int j = 0; j < n; j++) {
+			double shiftJ = center[j] - mean[j];
+			for (int k = 0; k < n; k++) {
+				if (count[j][k] <= 0)
+					continue;
+
+				double shiftK = center[k] - mean[k];
+				covariance[j][k] =
+						(product[j][k] + shiftJ * sum[k][j] + shiftK
+								* sum[j][k] + shiftJ * shiftK * count[j][k])
+								/ count[j][k];
+			}
+		}
+
+		return DoubleFactory2D.dense.make(covariance);
+	}
+
+	private double[] computeMean() {
+		int n = center.length;
+		double[] mean = new double[n];
+		for (int j = 0; j < n; j++) {
+			mean[j] = count[j][j] > 0 ? center[j] + sum[j][j] / count[j][j] : 0;
+		}
+
+		return mean;
+	}
+
+	public void write(DataOutput output) throws IOException {
+		int n = center.length;
+		output.writeInt(n);
+		output.writeInt(size);
+		output.writeDouble(totalWeight);
+		for (int j = 0; j < n; j++)
+			output.writeDouble(center[j]);
+		for (int j = 0; j < n; j++) {
+			for (int k = 0; k < n; k++) {
+				output.writeDouble(count[j][k]);
+				output.writeDouble(sum[j][k]);
+				output.writeDouble(product[j][k]);
+			}
+		}
+	}
+
+	public static Moments read(DataInput input) throws IOException {
+		int n = input.readInt();
+		double[] center = new double[n];
+		int size = input.readInt();
+		double totalWeight = input.readDouble();
+		for (int j = 0; j < n; j++)
+			center[j] = input.readDouble();
+
+		Moments moments = new Moments(center);
+		moments.size = size;
+		moments.totalWeight = totalWeight;
+		for (int j = 0; j < n; j++) {
+			for (int k = 0; k < n; k++) {
+				moments.count[j][k] = input.readDouble();
+				moments.sum[j][k] = input.readDouble();
+				moments.product[j][k] = input.readDouble();
+			}
+		}
+
+		return moments;
+	}
+}
@@ -12,4 +12,40 @@ public class ArffLoader {
 		data.setFilename(path);
 		return data;
 	}
+
+	/**
+	 * Loads only the instances in the given range of a data file, such as a
+	 * shard of the data held by a worker process.
+	 * 
+	 * @param path
+	 *            path of the data file
+	 * @param start
+	 *            index of the first instance, inclusive
+	 * @param end
+	 *            index of the last instance, exclusive
+	 * @return data set holding the instances in the range
+	 */
+	public static MixedDataSet load(String path, int start, int end)
+			throws IOException, ParseException {
+		FileInputStream input = new FileInputStream(path);
+		try {
+			MixedDataSet data = ArffParser.parse(input, start, end);
+			data.setFilename(path);
+			return data;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns the number of instances in a data file.
+	 */
+	public static int count(String path) throws IOException, ParseException {
+		FileInputStream input = new FileInputStream(path);
+		try {
+			return ArffParser.count(input);
+		} finally {
+			input.close();
+		}
+	}
 }
@@ -0,0 +1,113 @@
+package org.latlab.learner.geast;
+
+/**
+ * Requests the work of a thread to stop early. The work checks
+ * {@link #requested()} at the points where it can stop cleanly, such as
+ * between the estimations of two candidates, and then returns what it has
+ * found so far.
+ *
+ * @author leonard
+ *
+ */
+public final class Cancellation {
+
+	private static final ThreadLocal<Cancellation> current =
+			new ThreadLocal<Cancellation>();
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancellation of the enclosing work, which also stops the work using
+	 * this cancellation.
+	 */
+	private final Cancellation parent;
+
+	/**
+	 * Time in nanoseconds given by {@link System#nanoTime()} after which the
+	 * work is requested to stop, if {@code hasDeadline} is set.
+	 */
+	private volatile long deadline = 0;
+	private volatile boolean hasDeadline = false;
+
+	public Cancellation() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a cancellation which is also cancelled when the given one is
+	 * cancelled, such as that of a speculative work started by another work.
+	 *
+	 * @param parent
+	 *            cancellation of the enclosing work, or {@code null}
+	 */
+	public Cancellation(Cancellation parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Requests the work using this cancellation to stop.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Requests the work using this cancellation to stop after the given time
+	 * from now.
+	 *
+	 * @param milliseconds
+	 *            time after which the work should stop
+	 */
+	public void cancelAfter(long milliseconds) {
+		deadline = System.nanoTime() + milliseconds * 1000000L;
+		hasDeadline = true;
+	}
+
+	public boolean isCancelled() {
+		if (cancelled)
+			return true;
+
+		if ((hasDeadline && System.nanoTime() - deadline >= 0)
+				|| (parent != null && parent.isCancelled()))
+			cancelled = true;
+
+		return cancelled;
+	}
+
+	/**
+	 * Returns the cancellation of the calling thread.
+	 *
+	 * @return cancellation of the calling thread, or {@code null} if it has
+	 *         none
+	 */
+	public static Cancellation current() {
+		return current.get();
+	}
+
+	/**
+	 * Uses the given cancellation for the work of the calling thread.
+	 *
+	 * @param cancellation
+	 *            cancellation to use, or {@code null}
+	 * @return the previous cancellation of the calling thread
+	 */
+	public static Cancellation use(Cancellation cancellation) {
+		Cancellation old = current.get();
+		current.set(cancellation);
+		return old;
+	}
+
+	/**
+	 * Returns whether the work of the calling thread has been requested to
+	 * stop, either by its cancellation or by interrupting the thread.
+	 *
+	 * @return whether to stop
+	 */
+	public static boolean requested() {
+		if (Thread.currentThread().isInterrupted())
+			return true;
+
+		Cancellation cancellation = current.get();
+		return cancellation != null && cancellation.isCancelled();
+	}
+}
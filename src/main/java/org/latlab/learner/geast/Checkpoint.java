@@ -0,0 +1,294 @@
+package org.latlab.learner.geast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.io.ParseException;
+import org.latlab.io.bif.BifParser;
+import org.latlab.io.bif.BifWriter;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.learner.geast.procedures.Procedure;
+import org.latlab.model.Gltm;
+import org.latlab.util.RandomStream;
+
+/**
+ * State of the search saved by {@link Geast} after each procedure and after
+ * each accepted step within an iterative procedure, from which the search can
+ * be resumed without running the completed procedures or steps again. A
+ * search resumed within a procedure runs that procedure again from the model
+ * of the last accepted step.
+ *
+ * <p>
+ * A checkpoint holds the number of procedures that have been run, whether it
+ * is taken within the next procedure, the succeeded flags of the
+ * procedures, the current model and its scores, the
+ * state of the random streams and the entries of the transposition table. It
+ * is written in a compressed binary form. The model is written in BIF with the
+ * parameters in full precision, so that it is restored exactly.
+ *
+ * @author leonard
+ *
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x47454153;
+	private static final int VERSION = 2;
+
+	private final int runs;
+	private final boolean within;
+	private final boolean[] succeeded;
+	private final IModelWithScore estimation;
+
+	/**
+	 * The state of the random streams and the entries of the transposition
+	 * table, which are restored only when the search is resumed, since the
+	 * random streams are used by the construction of the algorithm.
+	 */
+	private final byte[] random;
+	private final byte[] table;
+
+	private Checkpoint(int runs, boolean within, boolean[] succeeded,
+			IModelWithScore estimation, byte[] random, byte[] table) {
+		this.runs = runs;
+		this.within = within;
+		this.succeeded = succeeded;
+		this.estimation = estimation;
+		this.random = random;
+		this.table = table;
+	}
+
+	/**
+	 * Writes a checkpoint to a file. The file is replaced only after the
+	 * checkpoint has been completely written, so that the last checkpoint
+	 * survives if the process is stopped while it is writing.
+	 *
+	 * @param file
+	 *            file of the checkpoint
+	 * @param data
+	 *            data on which the search is run
+	 * @param runs
+	 *            number of times that the procedures have been run
+	 * @param within
+	 *            whether the checkpoint is taken after a step within the next
+	 *            procedure
+	 * @param procedures
+	 *            procedures of the search
+	 * @param current
+	 *            current model of the search
+	 * @param table
+	 *            transposition table of the search
+	 * @throws IOException
+	 */
+	public static void write(File file, MixedDataSet data, int runs,
+			boolean within, Procedure[] procedures, IModelWithScore current,
+			TranspositionTable table) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		DataOutputStream output =
+				new DataOutputStream(new BufferedOutputStream(
+						new GZIPOutputStream(new FileOutputStream(temporary))));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(data.size());
+			output.writeInt(runs);
+			output.writeBoolean(within);
+
+			output.writeInt(procedures.length);
+			for (Procedure procedure : procedures)
+				output.writeBoolean(procedure.succeeded());
+
+			output.writeDouble(current.loglikelihood());
+			output.writeDouble(current.BicScore());
+			ByteArrayOutputStream bif = new ByteArrayOutputStream();
+			new BifWriter(bif).write(current.model());
+			writeBytes(output, bif.toByteArray());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream stream = new DataOutputStream(bytes);
+			RandomStream.writeState(stream);
+			stream.flush();
+			writeBytes(output, bytes.toByteArray());
+
+			bytes = new ByteArrayOutputStream();
+			stream = new DataOutputStream(bytes);
+			table.write(stream);
+			stream.flush();
+			writeBytes(output, bytes.toByteArray());
+		} finally {
+			output.close();
+		}
+
+		Files.move(temporary.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads a checkpoint from a file. The data is synchronized with the model
+	 * of the checkpoint, so it should be read before the algorithm is
+	 * constructed on the data.
+	 *
+	 * @param file
+	 *            file of the checkpoint
+	 * @param data
+	 *            data on which the search is run
+	 * @return checkpoint read from the file
+	 * @throws IOException
+	 *             if the file is not a checkpoint of a search on the data
+	 */
+	public static Checkpoint read(File file, MixedDataSet data)
+			throws IOException {
+		DataInputStream input =
+				new DataInputStream(new BufferedInputStream(
+						new GZIPInputStream(new FileInputStream(file))));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION)
+				throw new IOException(String.format(
+						"The file [%s] is not a checkpoint.", file));
+
+			int size = input.readInt();
+			if (size != data.size())
+				throw new IOException(String.format(
+						"The checkpoint is taken on %d data cases instead of %d.",
+						size, data.size()));
+
+			int runs = input.readInt();
+			boolean within = input.readBoolean();
+			boolean[] succeeded = new boolean[input.readInt()];
+			for (int i = 0; i < succeeded.length; i++)
+				succeeded[i] = input.readBoolean();
+
+			double loglikelihood = input.readDouble();
+			double bicScore = input.readDouble();
+			Gltm model;
+			try {
+				model =
+						new BifParser(new ByteArrayInputStream(readBytes(input)))
+								.parse(new Gltm());
+			} catch (ParseException e) {
+				throw new IOException("The model of the checkpoint is invalid.",
+						e);
+			}
+			data.synchronize(model);
+
+			byte[] random = readBytes(input);
+			byte[] table = readBytes(input);
+
+			return new Checkpoint(runs, within, succeeded, new Restored(model,
+					loglikelihood, bicScore), random, table);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns the number of times that the procedures have been run.
+	 */
+	public int runs() {
+		return runs;
+	}
+
+	/**
+	 * Returns whether this checkpoint is taken after a step within the next
+	 * procedure, which has then found a better model.
+	 */
+	public boolean within() {
+		return within;
+	}
+
+	/**
+	 * Returns the model of the search at this checkpoint.
+	 */
+	public IModelWithScore estimation() {
+		return estimation;
+	}
+
+	/**
+	 * Restores the succeeded flags of the procedures, the state of the random
+	 * streams of the calling thread and the entries of the transposition
+	 * table.
+	 *
+	 * @param procedures
+	 *            procedures of the search
+	 * @param table
+	 *            transposition table of the search
+	 */
+	public void restore(Procedure[] procedures, TranspositionTable table) {
+		if (procedures.length != succeeded.length)
+			throw new IllegalArgumentException(String.format(
+					"The checkpoint is taken with %d procedures instead of %d.",
+					succeeded.length, procedures.length));
+
+		for (int i = 0; i < procedures.length; i++)
+			procedures[i].setSucceeded(succeeded[i]);
+
+		try {
+			RandomStream.readState(new DataInputStream(
+					new ByteArrayInputStream(random)));
+			table.read(new DataInputStream(new ByteArrayInputStream(
+					this.table)));
+		} catch (IOException e) {
+			// it does not happen on a byte array
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream output, byte[] bytes)
+			throws IOException {
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Model restored from a checkpoint with its scores.
+	 */
+	private static class Restored implements IModelWithScore {
+		private final Gltm model;
+		private final double loglikelihood;
+		private final double bicScore;
+
+		private Restored(Gltm model, double loglikelihood, double bicScore) {
+			this.model = model;
+			this.loglikelihood = loglikelihood;
+			this.bicScore = bicScore;
+		}
+
+		public Gltm model() {
+			return model;
+		}
+
+		public Gltm origin() {
+			return model;
+		}
+
+		public double loglikelihood() {
+			return loglikelihood;
+		}
+
+		public double BicScore() {
+			return bicScore;
+		}
+
+		public int messageCount() {
+			return 0;
+		}
+	}
+}
@@ -52,4 +52,15 @@ public abstract class DataPropagation {
 	 * @return
 	 */
 	public abstract NaturalCliqueTreePropagation compute(int index);
+
+	/**
+	 * Returns the state of this propagation that can be reused by another
+	 * propagation on a model with the same structure, after the estimation
+	 * using this propagation has completed.
+	 * 
+	 * @return the reusable state, or {@code null} if it cannot be reused
+	 */
+	Object reusableState() {
+		return null;
+	}
 }
@@ -35,6 +35,15 @@ public class DiscreteCliqueSufficientStatistics implements SufficientStatistics
         statistics.plusMult(potential, weight);
     }
 
+    public void plus(SufficientStatistics statistics) {
+        this.statistics
+            .plus(((DiscreteCliqueSufficientStatistics) statistics).statistics);
+    }
+
+    public void scale(double factor) {
+        statistics.times(factor);
+    }
+
     public Function computePotential(
         DiscreteVariable variable, Collection<DiscreteVariable> parents) {
         Function potential = statistics.clone();
@@ -72,7 +81,8 @@ public class DiscreteCliqueSufficientStatistics implements SufficientStatistics
     }
     
     /**
-     * Exposed the field for testing only.
+     * Exposed the field for testing and for the exchange of the statistics by
+     * {@link ShardedEstimation}.
      */
     Function statistics() {
         return statistics;
@@ -2,7 +2,12 @@ package org.latlab.learner.geast;
 
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.latlab.data.MixedDataSet;
 import org.latlab.graph.AbstractNode;
@@ -13,6 +18,10 @@ import org.latlab.model.ContinuousBeliefNode;
 import org.latlab.model.DiscreteBeliefNode;
 import org.latlab.model.Gltm;
 import org.latlab.reasoner.ImpossibleEvidenceException;
+import org.latlab.util.DoubleComparator;
+import org.latlab.util.Potential;
+import org.latlab.util.Profiler;
+import org.latlab.util.RandomStream;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
@@ -31,6 +40,27 @@ public abstract class EmFramework {
 	private CovarianceConstrainer constrainer;
 	private EstimationFactory estimationFactory = Estimation.FACTORY;
 
+	/**
+	 * The M-step is run in parallel only if the model has at least this number
+	 * of continuous nodes, since otherwise the overhead of the tasks outweighs
+	 * the computation.
+	 */
+	public static final int MINIMUM_CONTINUOUS_NODES_FOR_PARALLEL_M_STEP = 8;
+
+	private int threads = 1;
+	private ExecutorService executor = null;
+
+	/**
+	 * Purpose of this EM under which its estimations are profiled, or {@code
+	 * null} if it is not known.
+	 */
+	private String purpose = null;
+
+	/**
+	 * Total number of EM steps run by all EM in this process.
+	 */
+	private static final AtomicLong totalSteps = new AtomicLong();
+
 	static class Instance {
 		public Instance(Gltm model, Gltm origin, Focus focus) {
 			this.model = model;
@@ -62,9 +92,21 @@ public abstract class EmFramework {
 		// it overrides the settings of EM and has to generate a new parameters,
 		// useful when the original parameters lead to NaN estimation
 		public boolean forceGenerateParameters = false;
+
+		// the first restart starts from the given parameters of the model even
+		// if the EM does not reuse parameters
+		public boolean startsFromGiven = false;
 	}
 
-	protected EmParameters parameters = new EmParameters();
+	private EmParameters parameters = new EmParameters();
+
+	/**
+	 * Parameters used by the calling thread in place of the shared ones, so
+	 * that the operators searching concurrently can adjust the parameters of
+	 * the same EM for their own estimations.
+	 */
+	private final ThreadLocal<EmParameters> threadParameters =
+			new ThreadLocal<EmParameters>();
 
 	public EmFramework(MixedDataSet data) {
 		this.data = data;
@@ -85,6 +127,32 @@ public abstract class EmFramework {
 		return old;
 	}
 
+	/**
+	 * Uses the given parameters for the estimations of the calling thread
+	 * only, and returns the parameters previously used by this thread only.
+	 * The shared parameters are used again after {@code null} is given.
+	 * 
+	 * @param parameters
+	 *            parameters for EM in the calling thread, or {@code null}
+	 * @return old parameters of the calling thread, or {@code null} if it used
+	 *         the shared parameters
+	 */
+	public EmParameters useInThread(EmParameters parameters) {
+		EmParameters old = threadParameters.get();
+		threadParameters.set(parameters);
+		return old;
+	}
+
+	/**
+	 * Returns the parameters currently used by this EM in the calling thread.
+	 * 
+	 * @return parameters for EM
+	 */
+	public EmParameters parameters() {
+		EmParameters parameters = threadParameters.get();
+		return parameters != null ? parameters : this.parameters;
+	}
+
 	public CovarianceConstrainer useCovarianceConstrainer(
 			CovarianceConstrainer constrainer) {
 		CovarianceConstrainer old = this.constrainer;
@@ -93,7 +161,7 @@ public abstract class EmFramework {
 	}
 
 	public Estimation estimate(IModelWithScore current) {
-		return estimate(new Instance(current.model(), current.origin(), null));
+		return run(new Instance(current.model(), current.origin(), null));
 	}
 
 	/**
@@ -108,17 +176,129 @@ public abstract class EmFramework {
 	 * @return
 	 */
 	public Estimation estimate(IModelWithScore current, Focus focus) {
-		return estimate(new Instance(current.model(), current.origin(), focus));
+		return run(new Instance(current.model(), current.origin(), focus));
 	}
 
 	public Estimation estimate(Gltm model) {
-		return estimate(new Instance(model, model, null));
+		return run(new Instance(model, model, null));
 	}
 
 	public Estimation estimate(Gltm model, Focus focus) {
 		// TODO LP: may have to initialize parameters inside the focus
 
-		return estimate(new Instance(model, model, focus));
+		return run(new Instance(model, model, focus));
+	}
+
+	/**
+	 * Runs an EM on a model of which parameters in the focus have been
+	 * initialized, such as by transferring the parameters of another model.
+	 * The first restart starts from the given parameters even if this EM does
+	 * not reuse parameters, while the other restarts are initialized randomly.
+	 * 
+	 * @param model
+	 *            model with initialized parameters
+	 * @param focus
+	 *            the focus of the estimation, where {@code null} means focus
+	 *            on the whole model
+	 * @return the best estimation
+	 */
+	public Estimation estimateFromGiven(Gltm model, Focus focus) {
+		Instance instance = new Instance(model, model, focus);
+		instance.startsFromGiven = true;
+		return run(instance);
+	}
+
+	/**
+	 * Runs an EM on a model modified from a base model, of which parameters in
+	 * the focus are first initialized by a soft-assignment M-step. The
+	 * statistics of the M-step are collected by an E-step on the base model,
+	 * with the posterior distributions transformed to the modified model.
+	 *
+	 * <p>
+	 * If the E-step on the base model fails, the parameters of the model are
+	 * left unchanged. In either case, the first restart starts from the
+	 * parameters of the model as in
+	 * {@link #estimateFromGiven(Gltm, Focus)}.
+	 *
+	 * @param base
+	 *            base model with estimated parameters
+	 * @param model
+	 *            modified model, of which parameters in the focus are
+	 *            initialized
+	 * @param focus
+	 *            the focus of the estimation, where {@code null} means focus
+	 *            on the whole model
+	 * @param transform
+	 *            transforms the posterior distributions of the base model to
+	 *            the modified model
+	 * @return the best estimation
+	 */
+	public Estimation estimateFromPosteriors(Gltm base, Gltm model,
+			Focus focus, PosteriorTransform transform) {
+		initializeFromPosteriors(base, model, focus, transform);
+		return estimateFromGiven(model, focus);
+	}
+
+	/**
+	 * Initializes the parameters in the focus of a model modified from a base
+	 * model by the soft-assignment M-step of
+	 * {@link #estimateFromPosteriors(Gltm, Gltm, Focus, PosteriorTransform)},
+	 * without running EM on it. The parameters are left unchanged if the
+	 * E-step on the base model fails.
+	 * 
+	 * @param base
+	 *            base model with estimated parameters
+	 * @param model
+	 *            modified model, of which parameters in the focus are
+	 *            initialized
+	 * @param focus
+	 *            the focus of the estimation, where {@code null} means focus
+	 *            on the whole model
+	 * @param transform
+	 *            transforms the posterior distributions of the base model to
+	 *            the modified model
+	 */
+	public void initializeFromPosteriors(Gltm base, Gltm model, Focus focus,
+			PosteriorTransform transform) {
+		Estimation source =
+				estimationFactory().createSimple(base, data,
+						parameters().smoothing);
+		Estimation target = createEstimations(1, model, focus)[0];
+
+		Profiler.Scope scope = Profiler.usePurpose(purpose);
+		try {
+			VariableStatisticsMap map =
+					target.collectSufficientStatistics(source, transform);
+			computeMlParameters(model, map);
+		} catch (ImpossibleEvidenceException e) {
+			// keeps the parameters given in the model
+		} catch (CovarianceConstrainer.ImproperValueException e) {
+			// keeps the parameters computed before the exception
+		} finally {
+			source.release();
+			target.release();
+			Profiler.use(scope);
+		}
+	}
+
+	/**
+	 * Runs the EM on the instance, and then releases the propagation and
+	 * sufficient statistics of the returned estimation to the estimation pool,
+	 * since they are not used after the EM.
+	 * 
+	 * @param instance
+	 *            instance to estimate
+	 * @return the best estimation
+	 */
+	private Estimation run(Instance instance) {
+		Profiler.Scope scope = Profiler.usePurpose(purpose);
+		try {
+			Estimation estimation = estimate(instance);
+			estimation.release();
+			return estimation;
+		} finally {
+			Profiler.use(scope);
+		}
 	}
 
 	/**
@@ -130,7 +310,7 @@ public abstract class EmFramework {
 	 * @return
 	 */
 	Estimation estimate(Instance instance) {
-		int retry = parameters.minimumRetryForNaN;
+		int retry = parameters().minimumRetryForNaN;
 
 		// This loops to make sure that a non-NaN estimation is found unless it
 		// has tried for the minimum number of times of retry
@@ -170,12 +350,13 @@ public abstract class EmFramework {
 						instance.best().model().getName(), path);
 			}
 
-			// retry if the estimation has a NaN loglikelihood
+			// retry if the estimation has a NaN loglikelihood, unless the
+			// estimation is cancelled
 			instance.stepsRun = 0;
 			retry--;
 			instance.forceGenerateParameters = true;
 
-		} while (retry > 0);
+		} while (retry > 0 && !Cancellation.requested());
 
 		if (Double.isNaN(instance.best().loglikelihood())) {
 			String path =
@@ -211,6 +392,9 @@ public abstract class EmFramework {
 	 *            only one thread.
 	 */
 	public void setMultithreading(int threads, ExecutorService executor) {
+		this.threads = threads;
+		this.executor = threads > 1 ? executor : null;
+
 		if (threads == 1)
 			estimationFactory = Estimation.FACTORY;
 		else {
@@ -219,6 +403,40 @@ public abstract class EmFramework {
 		}
 	}
 
+	/**
+	 * Uses the given factory to create the estimations of this EM instead of
+	 * the one chosen by {@link #setMultithreading(int, ExecutorService)},
+	 * which is still used for the number of threads in the M-step.
+	 * 
+	 * @param factory
+	 *            factory of the estimations, such as one given by
+	 *            {@link ShardedEstimation#createFactory}
+	 */
+	public void useEstimationFactory(EstimationFactory factory) {
+		estimationFactory = factory;
+	}
+
+	/**
+	 * Sets the purpose of this EM, such as screening, under which the time of
+	 * its estimations is attributed by the {@link Profiler}.
+	 * 
+	 * @param purpose
+	 *            purpose of this EM
+	 */
+	public void setPurpose(String purpose) {
+		this.purpose = purpose;
+	}
+
+	/**
+	 * Returns the total number of EM steps run by all EM in this process so
+	 * far.
+	 * 
+	 * @return total number of EM steps
+	 */
+	public static long totalSteps() {
+		return totalSteps.get();
+	}
+
 	/**
 	 * Initializes estimation instances for the EM algorithm. Each estimation
 	 * may start from a different value.
@@ -234,7 +452,8 @@ public abstract class EmFramework {
 	protected abstract Estimation[] createEstimations(int size, Gltm model,
 			Focus focus);
 
-	private void step(Estimation estimation) {
+	protected void step(Estimation estimation) {
+		totalSteps.incrementAndGet();
 		try {
 			estimation.savePreviousLoglikelihood();
 			VariableStatisticsMap map =
@@ -254,47 +473,144 @@ public abstract class EmFramework {
 	/**
 	 * Compute the maximum likelihood parameters for the given model with the
 	 * collected sufficient statistics.
+	 * 
+	 * <p>
+	 * If multithreading is used and the model has at least
+	 * {@link #MINIMUM_CONTINUOUS_NODES_FOR_PARALLEL_M_STEP} continuous nodes,
+	 * the parameters of different nodes are computed in parallel, since they
+	 * depend on independent statistics. The computed potentials are then set
+	 * to the nodes in the calling thread.
 	 */
 	public void computeMlParameters(Gltm model, final VariableStatisticsMap map) {
-		for (AbstractNode node : model.getNodes()) {
-			BeliefNode beliefNode = (BeliefNode) node;
+		MlPotentialComputer computer = new MlPotentialComputer(map);
+
+		if (executor == null
+				|| countContinuousNodes(model) < MINIMUM_CONTINUOUS_NODES_FOR_PARALLEL_M_STEP) {
+			for (AbstractNode node : model.getNodes()) {
+				BeliefNode beliefNode = (BeliefNode) node;
+
+				// skip this node if its corresponding sufficient statistics is
+				// not found
+				Potential potential = beliefNode.accept(computer);
+				if (potential != null)
+					beliefNode.setPotential(potential);
+			}
 
-			// skip this node if its corresponding sufficient statistics is not
-			// found
+			return;
+		}
 
-			// compute the potentials for each of the belief node
-			beliefNode.accept(new BeliefNode.Visitor<Void>() {
+		computeMlParametersInParallel(model, computer);
+	}
 
-				public Void visit(ContinuousBeliefNode node) {
-					CGPotential potential = node.potential();
-					MixedCliqueSufficientStatistics statistics =
-							map.get(node.getVariable());
+	/**
+	 * Computes the potentials of the nodes in parallel, by dividing the nodes
+	 * into one subset for each thread.
+	 */
+	private void computeMlParametersInParallel(Gltm model,
+			final MlPotentialComputer computer) {
+		final List<AbstractNode> nodes = model.getNodes();
+		final Potential[] potentials = new Potential[nodes.size()];
+		final EqualPartitioner partitioner =
+				new EqualPartitioner(nodes.size(), threads);
+
+		ExecutorCompletionService<RuntimeException[]> ecs =
+				new ExecutorCompletionService<RuntimeException[]>(executor);
+
+		for (int i = 0; i < threads; i++) {
+			final int subset = i;
+			final RuntimeException[] result = new RuntimeException[1];
+			ecs.submit(new Runnable() {
+				public void run() {
+					try {
+						for (int j = partitioner.startOf(subset); j < partitioner
+								.endOf(subset); j++) {
+							potentials[j] =
+									((BeliefNode) nodes.get(j)).accept(computer);
+						}
+					} catch (RuntimeException e) {
+						result[0] = e;
+					}
+				}
+			}, result);
+		}
 
-					if (statistics == null)
-						return null;
+		// waits for all subsets even if this thread is interrupted, so that
+		// the potentials are complete, and keeps the interruption for the EM
+		// to stop at its next check
+		RuntimeException exception = null;
+		boolean interrupted = false;
+		for (int i = 0; i < threads; i++) {
+			try {
+				RuntimeException[] result = ecs.take().get();
+				if (exception == null)
+					exception = result[0];
+			} catch (InterruptedException e) {
+				interrupted = true;
+				i--;
+			} catch (ExecutionException e) {
+				if (exception == null)
+					exception = new RuntimeException(e.getCause());
+			}
+		}
 
-					node.setPotential(statistics.computePotential(
-							node.getVariable(), potential.discreteVariable()));
-					constrainer.adjust(node.potential());
-					return null;
-				}
+		if (interrupted)
+			Thread.currentThread().interrupt();
 
-				public Void visit(DiscreteBeliefNode node) {
-					// for discrete node, the statistics can be discrete or
-					// mixed
-					SufficientStatistics statistics =
-							map.get(node.getVariable());
+		if (exception != null)
+			throw exception;
 
-					if (statistics == null)
-						return null;
+		for (int i = 0; i < potentials.length; i++) {
+			if (potentials[i] != null)
+				((BeliefNode) nodes.get(i)).setPotential(potentials[i]);
+		}
+	}
 
-					node.setCpt(statistics.computePotential(node.getVariable(),
-							node.getDiscreteParentVariables()));
-					return null;
-				}
-			});
+	private static int countContinuousNodes(Gltm model) {
+		int count = 0;
+		for (AbstractNode node : model.getNodes()) {
+			if (node instanceof ContinuousBeliefNode)
+				count++;
 		}
 
+		return count;
+	}
+
+	/**
+	 * Computes the maximum likelihood potential of a node from the sufficient
+	 * statistics, without setting it to the node. It returns {@code null} if
+	 * the statistics of the node is not found.
+	 */
+	private class MlPotentialComputer implements BeliefNode.Visitor<Potential> {
+		private final VariableStatisticsMap map;
+
+		public MlPotentialComputer(VariableStatisticsMap map) {
+			this.map = map;
+		}
+
+		public Potential visit(ContinuousBeliefNode node) {
+			MixedCliqueSufficientStatistics statistics =
+					map.get(node.getVariable());
+
+			if (statistics == null)
+				return null;
+
+			CGPotential potential =
+					statistics.computePotential(node.getVariable(), node
+							.potential().discreteVariable());
+			constrainer.adjust(potential);
+			return potential;
+		}
+
+		public Potential visit(DiscreteBeliefNode node) {
+			// for discrete node, the statistics can be discrete or mixed
+			SufficientStatistics statistics = map.get(node.getVariable());
+
+			if (statistics == null)
+				return null;
+
+			return statistics.computePotential(node.getVariable(),
+					node.getDiscreteParentVariables());
+		}
 	}
 
 	/**
@@ -303,12 +619,15 @@ public abstract class EmFramework {
 	 * 
 	 * @param model
 	 * @param focus
+	 * @param random
+	 *            random stream used for generating the parameters
 	 */
-	private void initializeParameters(Gltm model, Focus focus) {
+	private void initializeParameters(Gltm model, Focus focus,
+			RandomStream random) {
 		for (AbstractNode node : model.getNodes()) {
 			BeliefNode beliefNode = (BeliefNode) node;
 			if (focus == null || focus.contains(beliefNode.getVariable()))
-				generator.generate(beliefNode);
+				generator.generate(beliefNode, random);
 		}
 	}
 
@@ -319,29 +638,40 @@ public abstract class EmFramework {
 	 * @param instance
 	 */
 	private void chickeringHeckermanRestart(Instance instance) {
+		if (parameters().restarts > 1 && usesParameterVectors()) {
+			parameterVectorRestart(instance);
+			return;
+		}
 
 		instance.candidates =
-				createEstimations(parameters.restarts, instance.model,
+				createEstimations(parameters().restarts, instance.model,
 						instance.focus);
 		instance.size = instance.candidates.length;
 
+		// each restart has its own random stream, split in the order of the
+		// restarts so that the initialization can be reproduced
+		RandomStream random = RandomStream.current();
 		for (int i = 0; i < instance.candidates.length; i++) {
-			if (i != 0 || !parameters.reuseParameters
+			RandomStream restartRandom = random.split();
+			if (i != 0
+					|| !(parameters().reuseParameters
+							|| instance.startsFromGiven)
 					|| instance.forceGenerateParameters)
 				initializeParameters(instance.candidates[i].model(),
-						instance.focus);
+						instance.focus, restartRandom);
 		}
 
 		// We run several steps of emStep before killing starting points for two
 		// reasons: 1. the loglikelihood computed is always that of previous
 		// model. 2. When reuse, the reused model is kind of dominant because
 		// maybe it has already EMed.
-		repeatSteps(instance, parameters.initialIterations, false);
+		repeatSteps(instance, parameters().initialIterations, false);
 
 		// in each round, half of the candidates are eliminated
 		int stepsPerRound = 1;
 
-		while (instance.size > 1 && instance.stepsRun < parameters.maxSteps) {
+		while (instance.size > 1 && instance.stepsRun < parameters().maxSteps
+				&& !Cancellation.requested()) {
 			repeatSteps(instance, stepsPerRound, true);
 
 			Arrays.sort(instance.candidates, 0, instance.size,
@@ -357,13 +687,153 @@ public abstract class EmFramework {
 
 			// doubles EM steps subject to maximum step constraint
 			stepsPerRound =
-					Math.min(stepsPerRound * 2, parameters.maxSteps
+					Math.min(stepsPerRound * 2, parameters().maxSteps
 							- instance.stepsRun);
 		}
 
+		// the remaining candidates are sorted if the estimation is cancelled
+		// before one is left
+		if (instance.size > 1)
+			Arrays.sort(instance.candidates, 0, instance.size,
+					Estimation.LOGLIKELIHOOD_COMPARATOR);
+
 		// the estimation at 0 is the best one
 	}
 
+	/**
+	 * Returns whether the restarts can be held as parameter vectors swapped
+	 * into a single estimation. It requires that the state of an estimation
+	 * other than the parameters of its model consists of only its
+	 * loglikelihoods.
+	 * 
+	 * @return whether the restarts can be held as parameter vectors
+	 */
+	protected boolean usesParameterVectors() {
+		return true;
+	}
+
+	/**
+	 * The parameters and the loglikelihoods of a restart held outside the
+	 * estimation.
+	 */
+	private static class Restart {
+		public double[] parameters;
+		public double loglikelihood;
+		public double previousLoglikelihood;
+
+		public Restart(double[] parameters, Estimation estimation) {
+			this.parameters = parameters;
+			this.loglikelihood = estimation.loglikelihood();
+			this.previousLoglikelihood = estimation.previousLoglikelihood();
+		}
+	}
+
+	private static final Comparator<Restart> RESTART_LOGLIKELIHOOD_COMPARATOR =
+			new Comparator<Restart>() {
+				public int compare(Restart o1, Restart o2) {
+					return -DoubleComparator.compare(o1.loglikelihood,
+							o2.loglikelihood);
+				}
+			};
+
+	/**
+	 * Runs the same procedure as {@link #chickeringHeckermanRestart(Instance)},
+	 * but holds the restarts as parameter vectors instead of separate
+	 * estimations. A restart is swapped into the model of a single estimation
+	 * when its steps are run. Only the parameters in the focus are held in the
+	 * vectors, since those outside are the same for all restarts.
+	 * 
+	 * @param instance
+	 */
+	private void parameterVectorRestart(Instance instance) {
+		Estimation estimation =
+				createEstimations(1, instance.model, instance.focus)[0];
+		Gltm model = estimation.model();
+		ParameterVector layout = new ParameterVector(model, instance.focus);
+
+		Restart[] restarts = new Restart[parameters().restarts];
+		RandomStream random = RandomStream.current();
+		for (int i = 0; i < restarts.length; i++) {
+			RandomStream restartRandom = random.split();
+			if (i != 0
+					|| !(parameters().reuseParameters
+							|| instance.startsFromGiven)
+					|| instance.forceGenerateParameters)
+				initializeParameters(model, instance.focus, restartRandom);
+
+			restarts[i] = new Restart(layout.get(model), estimation);
+		}
+
+		int size = restarts.length;
+		instance.stepsRun +=
+				repeatSteps(estimation, layout, restarts, size,
+						parameters().initialIterations);
+
+		int stepsPerRound = 1;
+
+		while (size > 1 && instance.stepsRun < parameters().maxSteps
+				&& !Cancellation.requested()) {
+			instance.stepsRun +=
+					repeatSteps(estimation, layout, restarts, size,
+							stepsPerRound);
+
+			Arrays.sort(restarts, 0, size, RESTART_LOGLIKELIHOOD_COMPARATOR);
+
+			int newSize = size / 2;
+			Arrays.fill(restarts, newSize, size, null);
+			size = newSize;
+
+			stepsPerRound =
+					Math.min(stepsPerRound * 2, parameters().maxSteps
+							- instance.stepsRun);
+		}
+
+		if (size > 1)
+			Arrays.sort(restarts, 0, size, RESTART_LOGLIKELIHOOD_COMPARATOR);
+
+		swapIn(estimation, layout, restarts[0]);
+
+		instance.candidates = new Estimation[] { estimation };
+		instance.size = 1;
+	}
+
+	/**
+	 * Runs the EM for a number of steps on each of the first {@code size}
+	 * restarts, and returns the maximum number of steps run.
+	 */
+	private int repeatSteps(Estimation estimation, ParameterVector layout,
+			Restart[] restarts, int size, int steps) {
+		int maxSteps = 0;
+
+		for (int i = 0; i < size; i++) {
+			Restart restart = restarts[i];
+			swapIn(estimation, layout, restart);
+
+			int step = 0;
+			for (step = 0; step < steps && !Cancellation.requested(); step++) {
+				if (estimation.improvement() > parameters().threshold)
+					step(estimation);
+				else
+					break;
+			}
+
+			restart.parameters = layout.get(estimation.model());
+			restart.loglikelihood = estimation.loglikelihood();
+			restart.previousLoglikelihood = estimation.previousLoglikelihood();
+
+			maxSteps = Math.max(maxSteps, step);
+		}
+
+		return maxSteps;
+	}
+
+	private static void swapIn(Estimation estimation, ParameterVector layout,
+			Restart restart) {
+		layout.assign(estimation.model(), restart.parameters);
+		estimation.restoreLoglikelihood(restart.loglikelihood,
+				restart.previousLoglikelihood);
+	}
+
 	/**
 	 * Runs the second stage on single estimation of model. Updates the
 	 * parameters until it has met the termination criteria.
@@ -371,14 +841,21 @@ public abstract class EmFramework {
 	 * @param estimation
 	 */
 	private void secondStage(Instance instance) {
+		if (parameters().acceleration == EmParameters.Acceleration.SQUAREM) {
+			squaremSecondStage(instance);
+			return;
+		}
+
 		final Estimation current = instance.best();
 
 		int lastStep =
-				parameters.secondStageSteps > 0 ? parameters.secondStageSteps
-						+ instance.stepsRun : parameters.maxSteps;
+				parameters().secondStageSteps > 0
+						? parameters().secondStageSteps + instance.stepsRun
+						: parameters().maxSteps;
 
 		do {
-			if (current.improvement() < parameters.threshold)
+			if (current.improvement() < parameters().threshold
+					|| Cancellation.requested())
 				break;
 
 			// TODO LP: should we check the number of steps before this is run?
@@ -387,6 +864,114 @@ public abstract class EmFramework {
 		} while (instance.stepsRun < lastStep);
 	}
 
+	/**
+	 * Runs the second stage with the SQUAREM acceleration of Varadhan and
+	 * Roland. Each cycle runs two EM steps from the parameters {@code t0} to
+	 * get {@code t1} and {@code t2}, and extrapolates the parameters to
+	 * {@code t0 - 2a r + a^2 v}, where {@code r = t1 - t0},
+	 * {@code v = t2 - 2 t1 + t0} and {@code a = -|r| / |v|}. The extrapolated
+	 * parameters are projected back to proper parameters that respect the
+	 * covariance constraints, and then an EM step is run on them to stabilize
+	 * the estimation. If the loglikelihood of the extrapolated parameters is
+	 * lower than that of {@code t1}, the parameters fall back to {@code t2},
+	 * as given by the plain EM.
+	 * 
+	 * <p>
+	 * A cycle counts the steps that it runs: three steps if the stabilizing
+	 * step is run, whether the cycle is accepted or falls back after it, and
+	 * two steps if the extrapolation is skipped or falls back because its
+	 * covariances cannot be adjusted.
+	 * 
+	 * @param instance
+	 */
+	private void squaremSecondStage(Instance instance) {
+		final Estimation current = instance.best();
+
+		int lastStep =
+				parameters().secondStageSteps > 0
+						? parameters().secondStageSteps + instance.stepsRun
+						: parameters().maxSteps;
+
+		ParameterVector layout =
+				new ParameterVector(current.model(), instance.focus);
+
+		while (instance.stepsRun < lastStep) {
+			if (current.improvement() < parameters().threshold
+					|| Cancellation.requested())
+				break;
+
+			// runs plain steps if there are not enough steps left for a cycle
+			if (lastStep - instance.stepsRun < 3) {
+				step(current);
+				instance.stepsRun++;
+				continue;
+			}
+
+			double[] t0 = layout.get(current.model());
+			step(current);
+			double loglikelihood0 = current.loglikelihood();
+			double[] t1 = layout.get(current.model());
+			step(current);
+			double loglikelihood1 = current.loglikelihood();
+			List<Potential> potentials2 = layout.getPotentials(current.model());
+			double[] t2 = layout.get(current.model());
+			instance.stepsRun += 2;
+
+			if (Double.isNaN(loglikelihood0) || Double.isNaN(loglikelihood1)
+					|| current.improvement() < parameters().threshold)
+				continue;
+
+			double a = computeSquaremStepLength(t0, t1, t2);
+
+			// the extrapolation with a = -1 gives t2
+			if (a >= -1)
+				continue;
+
+			double[] extrapolated = new double[t0.length];
+			for (int i = 0; i < extrapolated.length; i++) {
+				double r = t1[i] - t0[i];
+				double v = t2[i] - 2 * t1[i] + t0[i];
+				extrapolated[i] = t0[i] - 2 * a * r + a * a * v;
+			}
+
+			boolean accepted = false;
+			try {
+				layout.set(current.model(), extrapolated, constrainer);
+				step(current);
+				instance.stepsRun++;
+				accepted = current.loglikelihood() >= loglikelihood1;
+			} catch (CovarianceConstrainer.ImproperValueException e) {
+				// falls back if the extrapolated covariance cannot be adjusted
+			}
+
+			if (!accepted) {
+				layout.setPotentials(current.model(), potentials2);
+				current.restoreLoglikelihood(loglikelihood1, loglikelihood0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the step length {@code -|r| / |v|} of SQUAREM, which is at most
+	 * -1.
+	 */
+	private static double computeSquaremStepLength(double[] t0, double[] t1,
+			double[] t2) {
+		double rr = 0;
+		double vv = 0;
+		for (int i = 0; i < t0.length; i++) {
+			double r = t1[i] - t0[i];
+			double v = t2[i] - 2 * t1[i] + t0[i];
+			rr += r * r;
+			vv += v * v;
+		}
+
+		if (vv == 0)
+			return -1;
+
+		return Math.min(-Math.sqrt(rr / vv), -1);
+	}
+
 	/**
 	 * Runs the EM for a number of steps, on an array of propagation instances.
 	 * 
@@ -408,10 +993,10 @@ public abstract class EmFramework {
 			Estimation candidate = instance.candidates[i];
 
 			int step = 0;
-			for (step = 0; step < steps; step++) {
+			for (step = 0; step < steps && !Cancellation.requested(); step++) {
 				// break if the likelihood improvement falls under the
 				// threshold, which empirically may shorten the running by 15%.
-				if (candidate.improvement() > parameters.threshold)
+				if (candidate.improvement() > parameters().threshold)
 					step(candidate);
 				else
 					break;
@@ -490,7 +1075,7 @@ public abstract class EmFramework {
 	 */
 	public void writeXml(PrintWriter writer, String purpose) {
 		writer.format("<em name='%s' purpose='%s' %s/>", name(), purpose,
-				parameters.xmlAttributes());
+				parameters().xmlAttributes());
 		writer.println();
 	}
 
@@ -9,6 +9,13 @@ package org.latlab.learner.geast;
  */
 public class EmParameters {
 
+    /**
+     * Acceleration of the second stage of EM.
+     */
+    public enum Acceleration {
+        NONE, SQUAREM
+    }
+
     public int restarts = 64;
 
     public boolean reuseParameters = true;
@@ -30,6 +37,8 @@ public class EmParameters {
      */
     public int minimumRetryForNaN = 16;
 
+    public Acceleration acceleration = Acceleration.NONE;
+
     public EmParameters() {
 
     }
@@ -44,11 +53,37 @@ public class EmParameters {
         this.threshold = threshold;
     }
 
+    /**
+     * Constructs a copy of the given parameters.
+     * 
+     * @param other
+     *            parameters to copy
+     */
+    public EmParameters(EmParameters other) {
+        restarts = other.restarts;
+        reuseParameters = other.reuseParameters;
+        initialIterations = other.initialIterations;
+        maxSteps = other.maxSteps;
+        secondStageSteps = other.secondStageSteps;
+        threshold = other.threshold;
+        smoothing = other.smoothing;
+        minimumRetryForNaN = other.minimumRetryForNaN;
+        acceleration = other.acceleration;
+    }
+
     public String xmlAttributes() {
-        return String.format(
-            "reuse='%s' restarts='%d' maxSteps='%d' secondStageSteps='%d' "
-                + "threshold='%.2e' initial='%d' minForNaN='%d'",
-            reuseParameters, restarts, maxSteps, secondStageSteps, threshold,
-            initialIterations, minimumRetryForNaN);
+        String attributes =
+            String.format(
+                "reuse='%s' restarts='%d' maxSteps='%d' secondStageSteps='%d' "
+                    + "threshold='%.2e' initial='%d' minForNaN='%d'",
+                reuseParameters, restarts, maxSteps, secondStageSteps,
+                threshold, initialIterations, minimumRetryForNaN);
+
+        if (acceleration != Acceleration.NONE)
+            attributes +=
+                String.format(" acceleration='%s'", acceleration.name()
+                    .toLowerCase());
+
+        return attributes;
     }
 }
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.latlab.data.MixedDataSet;
 import org.latlab.graph.AbstractNode;
@@ -16,10 +17,14 @@ import org.latlab.model.Gltm;
 import org.latlab.model.MixedVariableMap;
 import org.latlab.reasoner.Clique;
 import org.latlab.reasoner.CliqueTreeNode;
+import org.latlab.reasoner.DiscreteClique;
 import org.latlab.reasoner.ImpossibleEvidenceException;
+import org.latlab.reasoner.MixedClique;
 import org.latlab.reasoner.NaturalCliqueTree;
 import org.latlab.reasoner.NaturalCliqueTreePropagation;
+import org.latlab.reasoner.Separator;
 import org.latlab.util.DoubleComparator;
+import org.latlab.util.Variable;
 
 /**
  * An estimation is a combination of a model and a data set.
@@ -88,7 +93,7 @@ public class Estimation implements IModelWithScore {
 				public int partitions() {
 					return 1;
 				}
-			});
+			}, MixtureEstimation.createPrototype(1, null));
 
 	protected final Gltm model;
 
@@ -109,6 +114,13 @@ public class Estimation implements IModelWithScore {
 
 	protected int messagesPassed = 0;
 
+	/**
+	 * Total number of messages passed in the E-steps of all estimations in
+	 * this process, which is used to compare the amount of computation of
+	 * different runs.
+	 */
+	private static final AtomicLong totalMessages = new AtomicLong();
+
 	// TODO: consider not to clone the model, but generate a new model when it
 	// is needed.
 	/**
@@ -133,6 +145,13 @@ public class Estimation implements IModelWithScore {
 	 */
 	protected List<SufficientStatistics> sufficientStatistics;
 
+	/**
+	 * Fingerprint under which the propagation and sufficient statistics are
+	 * released to the {@link EstimationPool}, or {@code null} if they are not
+	 * pooled.
+	 */
+	private EstimationPool.Fingerprint fingerprint = null;
+
 	/**
 	 * Returns the model with its estimated parameters.
 	 * 
@@ -162,6 +181,15 @@ public class Estimation implements IModelWithScore {
 		return loglikelihood;
 	}
 
+	/**
+	 * Returns the last saved loglikelihood.
+	 * 
+	 * @return last saved loglikelihood
+	 */
+	double previousLoglikelihood() {
+		return previousLoglikelihood;
+	}
+
 	/**
 	 * Returns the improvement over the last saved loglikelihood. If the
 	 * likelihood has not been saved, a very large value is returned.
@@ -173,6 +201,22 @@ public class Estimation implements IModelWithScore {
 				: loglikelihood - previousLoglikelihood;
 	}
 
+	/**
+	 * Restores the loglikelihood and the last saved loglikelihood. It is used
+	 * when the parameters of the model are restored to those of an earlier
+	 * step.
+	 * 
+	 * @param loglikelihood
+	 *            loglikelihood to restore
+	 * @param previous
+	 *            last saved loglikelihood to restore
+	 */
+	void restoreLoglikelihood(double loglikelihood, double previous) {
+		this.loglikelihood = loglikelihood;
+		this.previousLoglikelihood = previous;
+		bicScore = Double.NaN;
+	}
+
 	public void setInvalidLoglikehood() {
 		loglikelihood = Double.NaN;
 		bicScore = Double.NaN;
@@ -224,6 +268,77 @@ public class Estimation implements IModelWithScore {
 	public VariableStatisticsMap collectSufficientStatistics() {
 		reset();
 		computeSufficientStatistics();
+		totalMessages.addAndGet(messagesPassed);
+		return constructVariableToStatisticsMap();
+	}
+
+	/**
+	 * Collects the sufficient statistics of this estimation from the
+	 * posterior distributions computed on the model of the {@code source}
+	 * estimation, instead of those computed on its own model. The posterior
+	 * distribution of each clique under focus is transformed from that of the
+	 * corresponding clique in the source model.
+	 *
+	 * <p>
+	 * It amounts to an E-step on the source model followed by a
+	 * soft-assignment of the data cases to the modified model, and the
+	 * returned statistics can be used for an M-step on the model of this
+	 * estimation. The loglikelihood of this estimation is set to that of the
+	 * source model.
+	 *
+	 * @param source
+	 *            estimation on the base model, on the same data
+	 * @param transform
+	 *            transforms the posterior distributions of the base model
+	 * @return map from variables to the collected statistics
+	 */
+	public VariableStatisticsMap collectSufficientStatistics(
+			Estimation source, PosteriorTransform transform) {
+		reset();
+
+		// the variables identifying the cliques in the source model, which
+		// are null for the cliques without statistics
+		NaturalCliqueTree tree = propagation.cliqueTreeStructure();
+		List<Variable> keys =
+				new ArrayList<Variable>(sufficientStatistics.size());
+		CliqueTreeNode.Visitor<Variable> keyVisitor =
+				new CliqueTreeNode.Visitor<Variable>() {
+					public Variable visit(Separator separator) {
+						return null;
+					}
+
+					public Variable visit(DiscreteClique clique) {
+						return clique.focus()
+								? clique.discreteVariables().get(0) : null;
+					}
+
+					public Variable visit(MixedClique clique) {
+						return clique.focus() ? clique.jointVariable() : null;
+					}
+				};
+		for (AbstractNode node : tree.getNodes()) {
+			keys.add(((CliqueTreeNode) node).accept(keyVisitor));
+		}
+
+		for (int i = 0; i < data.size(); i++) {
+			NaturalCliqueTreePropagation ctp = source.propagation.compute(i);
+			NaturalCliqueTree sourceTree = ctp.cliqueTree();
+			double weight = data.get(i).weight();
+			transform.startCase(data, i);
+
+			for (int j = 0; j < keys.size(); j++) {
+				Variable key = keys.get(j);
+				if (key == null)
+					continue;
+
+				Clique clique = sourceTree.getClique(transform.source(key));
+				sufficientStatistics.get(j).add(
+						transform.transform(clique.potential()), weight);
+			}
+
+			loglikelihood += ctp.loglikelihood() * weight;
+		}
+
 		return constructVariableToStatisticsMap();
 	}
 
@@ -311,6 +426,43 @@ public class Estimation implements IModelWithScore {
 		propagation = null;
 	}
 
+	/**
+	 * Lets this estimation release its propagation and sufficient statistics
+	 * to the estimation pool when it has completed.
+	 * 
+	 * @param fingerprint
+	 *            fingerprint of the model structure
+	 * @param statistics
+	 *            statistics acquired from the pool, or {@code null} if they
+	 *            are not available
+	 */
+	void usePool(EstimationPool.Fingerprint fingerprint,
+			List<SufficientStatistics> statistics) {
+		this.fingerprint = fingerprint;
+		if (statistics != null)
+			sufficientStatistics = statistics;
+	}
+
+	/**
+	 * Releases the propagation and sufficient statistics to the estimation
+	 * pool. Like {@link #complete()}, it cannot be used for doing any other
+	 * estimation on this instance afterwards.
+	 */
+	void release() {
+		if (fingerprint != null && propagation != null) {
+			Object state = propagation.reusableState();
+			if (state != null)
+				EstimationPool.shared().release(
+						fingerprint,
+						new EstimationPool.Entry(state, sufficientStatistics,
+								smoothing));
+		}
+
+		fingerprint = null;
+		propagation = null;
+		sufficientStatistics = null;
+	}
+
 	public double computeLogLikelihood() {
 		loglikelihood = 0;
 
@@ -356,4 +508,15 @@ public class Estimation implements IModelWithScore {
 	public int messageCount() {
 		return messagesPassed;
 	}
+
+	/**
+	 * Returns the total number of messages passed in the E-steps of all
+	 * estimations in this process so far. The messages passed in other
+	 * processes, such as the search workers, are not included.
+	 * 
+	 * @return total number of messages passed
+	 */
+	public static long totalMessageCount() {
+		return totalMessages.get();
+	}
 }
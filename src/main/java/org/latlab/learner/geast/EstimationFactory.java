@@ -3,12 +3,23 @@ package org.latlab.learner.geast;
 import org.latlab.data.MixedDataSet;
 import org.latlab.learner.geast.SeparateTreePropagation.SharedData;
 import org.latlab.model.Gltm;
+import org.latlab.reasoner.NaturalCliqueTreePropagation;
 
 /**
  * Creates {@code Estimation} instances for simple EM and restricted ML EM. It
  * uses {@link SharedTreePropagation} for simple EM and
  * {@link SeparateTreePropagation} for restricted ML EM.
  * 
+ * <p>
+ * The propagations and sufficient statistics released by the estimations of
+ * earlier EM on a model with the same structure are reused from the
+ * {@link EstimationPool}.
+ * 
+ * <p>
+ * If a prototype for mixtures is given, it is used instead for the simple EM
+ * on a model with a single latent variable, since such a model can be
+ * estimated without propagation on clique trees.
+ * 
  * 
  * @author leonard
  * 
@@ -36,6 +47,12 @@ public class EstimationFactory {
 
 	private final Prototype prototype;
 
+	/**
+	 * Prototype used instead for simple EM on a model with a single latent
+	 * variable, or {@code null} if it is not used.
+	 */
+	private final Prototype mixturePrototype;
+
 	/**
 	 * Accepts a prototype for determining which type of {@code Estimation} to
 	 * create.
@@ -44,7 +61,24 @@ public class EstimationFactory {
 	 *            for creating a specific type of estimation.
 	 */
 	public EstimationFactory(Prototype prototype) {
+		this(prototype, null);
+	}
+
+	/**
+	 * Accepts a prototype for determining which type of {@code Estimation} to
+	 * create, and another one for the simple EM on the models that can be
+	 * estimated by {@link MixtureEstimation}.
+	 * 
+	 * @param prototype
+	 *            for creating a specific type of estimation.
+	 * @param mixturePrototype
+	 *            for creating estimation on a model with a single latent
+	 *            variable, usually given by
+	 *            {@link MixtureEstimation#createPrototype}
+	 */
+	public EstimationFactory(Prototype prototype, Prototype mixturePrototype) {
 		this.prototype = prototype;
+		this.mixturePrototype = mixturePrototype;
 	}
 
 	/**
@@ -60,10 +94,32 @@ public class EstimationFactory {
 	 */
 	public Estimation createSimple(Gltm model, MixedDataSet data,
 			double smoothing) {
+		Prototype prototype = this.prototype;
+		if (mixturePrototype != null
+				&& MixtureEstimation.isApplicable(model, data))
+			prototype = mixturePrototype;
+
+		EstimationPool.Fingerprint fingerprint =
+				new EstimationPool.Fingerprint(model, data, null,
+						prototype.partitions());
+		EstimationPool.Entry pooled =
+				EstimationPool.shared().acquire(fingerprint);
+
 		Gltm clone = model.clone();
-		DataPropagation propagation = new SharedTreePropagation(clone, data,
-				prototype.partitions());
-		return prototype.create(model, clone, data, propagation, smoothing);
+		DataPropagation propagation;
+		if (pooled == null) {
+			propagation = new SharedTreePropagation(clone, data,
+					prototype.partitions());
+		} else {
+			propagation = new SharedTreePropagation(clone, data,
+					(NaturalCliqueTreePropagation[]) pooled.propagationState);
+		}
+
+		Estimation estimation = prototype.create(model, clone, data,
+				propagation, smoothing);
+		estimation.usePool(fingerprint,
+				pooled == null ? null : pooled.statistics(smoothing));
+		return estimation;
 	}
 
 	/**
@@ -85,8 +141,23 @@ public class EstimationFactory {
 
 	public SharedData createSharedData(Gltm model, MixedDataSet data,
 			Focus focus) {
-		return SeparateTreePropagation.createSharedData(data, model, focus,
-				prototype.partitions());
+		EstimationPool.Fingerprint fingerprint =
+				new EstimationPool.Fingerprint(model, data, focus,
+						prototype.partitions());
+		EstimationPool.Entry pooled =
+				EstimationPool.shared().acquire(fingerprint);
+
+		SharedData sharedData;
+		if (pooled == null) {
+			sharedData = SeparateTreePropagation.createSharedData(data, model,
+					focus, prototype.partitions());
+		} else {
+			sharedData = (SharedData) pooled.propagationState;
+		}
+
+		sharedData.fingerprint = fingerprint;
+		sharedData.pooled = pooled;
+		return sharedData;
 	}
 
 	/**
@@ -108,6 +179,16 @@ public class EstimationFactory {
 		Gltm clone = model.clone();
 		DataPropagation propagation = new SeparateTreePropagation(clone, data,
 				sharedData);
-		return prototype.create(model, clone, data, propagation, smoothing);
+
+		Estimation estimation = prototype.create(model, clone, data,
+				propagation, smoothing);
+		if (sharedData.fingerprint != null) {
+			estimation.usePool(sharedData.fingerprint,
+					sharedData.pooled == null ? null : sharedData.pooled
+							.statistics(smoothing));
+			sharedData.pooled = null;
+		}
+
+		return estimation;
 	}
 }
@@ -0,0 +1,254 @@
+package org.latlab.learner.geast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.AbstractNode;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.Variable;
+
+/**
+ * Holds the propagation objects and the sufficient statistics buffers released
+ * by the estimations after an EM has finished, so that they can be reused by
+ * later estimations of models with the same structure. The same model is
+ * often estimated several times in a search step, for example by the
+ * screening, selection and estimation EM.
+ *
+ * <p>
+ * The objects are keyed by a {@link Fingerprint} of the model structure, which
+ * refers to the variables by identity, since the clique trees are built on the
+ * variables. An object is removed from the pool when it is acquired, so that
+ * it is used by only one estimation at a time. The pool holds at most a fixed
+ * number of entries and discards the least recently released one when it is
+ * full. The entries do not hold anything for each data case, such as the
+ * mementos of a restricted estimation, so that the memory they take does not
+ * grow with the data.
+ *
+ * @author leonard
+ *
+ */
+class EstimationPool {
+
+	public static final int DEFAULT_CAPACITY = 4;
+
+	private static final EstimationPool shared =
+			new EstimationPool(DEFAULT_CAPACITY);
+
+	/**
+	 * Returns the pool shared by all EM.
+	 *
+	 * @return the shared pool
+	 */
+	public static EstimationPool shared() {
+		return shared;
+	}
+
+	/**
+	 * Identifies the objects that can be reused for a model. It consists of
+	 * the data, the number of partitions, the variables and parent variables of the nodes, and the focus. For a restricted
+	 * estimation, which caches the messages outside the focus, it also
+	 * consists of the parameters outside the focus.
+	 *
+	 * @author leonard
+	 *
+	 */
+	static class Fingerprint {
+		private final MixedDataSet data;
+		private final int partitions;
+		private final Variable[] variables;
+		private final Variable[] parents;
+		private final boolean[] focus;
+		private final double[] parametersOutsideFocus;
+		private final int hashCode;
+
+		/**
+		 * Constructs a fingerprint.
+		 *
+		 * @param model
+		 *            model to estimate
+		 * @param data
+		 *            data for estimation
+		 * @param focus
+		 *            focus of a restricted estimation, or {@code null} for a
+		 *            simple estimation
+		 * @param partitions
+		 *            number of partitions in the propagation
+		 */
+		public Fingerprint(Gltm model, MixedDataSet data, Focus focus,
+				int partitions) {
+			this.data = data;
+			this.partitions = partitions;
+
+			List<AbstractNode> nodes = model.getNodes();
+			variables = new Variable[nodes.size()];
+			parents = new Variable[nodes.size()];
+			List<Variable> outside = new ArrayList<Variable>();
+
+			if (focus != null)
+				this.focus = new boolean[nodes.size()];
+			else
+				this.focus = null;
+
+			for (int i = 0; i < nodes.size(); i++) {
+				BeliefNode node = (BeliefNode) nodes.get(i);
+				variables[i] = node.getVariable();
+				parents[i] =
+						node.isRoot() ? null : ((BeliefNode) node.getParent())
+								.getVariable();
+
+				if (focus != null) {
+					this.focus[i] = focus.contains(variables[i]);
+					if (!this.focus[i])
+						outside.add(variables[i]);
+				}
+			}
+
+			parametersOutsideFocus =
+					focus == null ? null : new ParameterVector(model,
+							new Focus(outside)).get(model);
+
+			int hash = System.identityHashCode(data);
+			hash = 31 * hash + partitions;
+			for (int i = 0; i < variables.length; i++) {
+				hash = 31 * hash + System.identityHashCode(variables[i]);
+				hash = 31 * hash + System.identityHashCode(parents[i]);
+			}
+			hash = 31 * hash + Arrays.hashCode(this.focus);
+			hash = 31 * hash + Arrays.hashCode(parametersOutsideFocus);
+			hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			else if (!(o instanceof Fingerprint))
+				return false;
+
+			Fingerprint other = (Fingerprint) o;
+			return hashCode == other.hashCode && data == other.data
+					&& partitions == other.partitions
+					&& identical(variables, other.variables)
+					&& identical(parents, other.parents)
+					&& Arrays.equals(focus, other.focus)
+					&& Arrays.equals(parametersOutsideFocus,
+							other.parametersOutsideFocus);
+		}
+
+		private static boolean identical(Variable[] a, Variable[] b) {
+			if (a.length != b.length)
+				return false;
+
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] != b[i])
+					return false;
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Objects released by an estimation.
+	 *
+	 * @author leonard
+	 *
+	 */
+	static class Entry {
+		/**
+		 * State of the propagation that can be reused, as given by
+		 * {@link DataPropagation#reusableState()}.
+		 */
+		public final Object propagationState;
+
+		/**
+		 * Sufficient statistics buffers, which may be {@code null}.
+		 */
+		public final List<SufficientStatistics> statistics;
+
+		/**
+		 * Smoothing used in constructing the statistics.
+		 */
+		public final double smoothing;
+
+		public Entry(Object propagationState,
+				List<SufficientStatistics> statistics, double smoothing) {
+			this.propagationState = propagationState;
+			this.statistics = statistics;
+			this.smoothing = smoothing;
+		}
+
+		/**
+		 * Returns the statistics if they were constructed with the given
+		 * smoothing, or {@code null} otherwise.
+		 */
+		public List<SufficientStatistics> statistics(double smoothing) {
+			return this.smoothing == smoothing ? statistics : null;
+		}
+	}
+
+	private final Map<Fingerprint, Entry> entries;
+	private int hits = 0;
+	private int misses = 0;
+
+	public EstimationPool(final int capacity) {
+		entries = new LinkedHashMap<Fingerprint, Entry>(capacity + 1) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Fingerprint, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Removes and returns the entry with the given fingerprint.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the model to estimate
+	 * @return the entry, or {@code null} if it is not found
+	 */
+	public synchronized Entry acquire(Fingerprint fingerprint) {
+		Entry entry = entries.remove(fingerprint);
+		if (entry == null)
+			misses++;
+		else
+			hits++;
+
+		return entry;
+	}
+
+	/**
+	 * Puts an entry into this pool.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the model estimated with the objects in the
+	 *            entry
+	 * @param entry
+	 *            entry to put
+	 */
+	public synchronized void release(Fingerprint fingerprint, Entry entry) {
+		entries.remove(fingerprint);
+		entries.put(fingerprint, entry);
+	}
+
+	public synchronized int hits() {
+		return hits;
+	}
+
+	public synchronized int misses() {
+		return misses;
+	}
+}
@@ -25,7 +25,7 @@ public class FullEm extends EmFramework {
         for (int i = 0; i < estimations.length; i++)
             estimations[i] =
                 estimationFactory().createSimple(
-                    model, data, parameters.smoothing);
+                    model, data, parameters().smoothing);
 
         return estimations;
     }
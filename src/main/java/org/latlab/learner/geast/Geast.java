@@ -3,15 +3,20 @@
  */
 package org.latlab.learner.geast;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 
 import org.latlab.data.MixedDataSet;
 import org.latlab.learner.geast.context.Context;
+import org.latlab.learner.geast.operators.FidelityLevel;
 import org.latlab.learner.geast.procedures.AdjustProcedure;
 import org.latlab.learner.geast.procedures.ExpandProcedure;
 import org.latlab.learner.geast.procedures.Procedure;
 import org.latlab.learner.geast.procedures.SimplifyProcedure;
 import org.latlab.model.Gltm;
+import org.latlab.util.Profiler;
+import org.latlab.util.RandomStream;
 
 /**
  * Implementation of the GEAST algorithm.
@@ -38,6 +43,26 @@ public class Geast {
 
 	private final Context context;
 
+	/**
+	 * File to which a {@link Checkpoint} is written after each procedure and
+	 * each accepted step, or {@code null} if no checkpoint is written.
+	 */
+	private File checkpointFile = null;
+
+	/**
+	 * Stops the search when it is cancelled by {@link #cancel()} or when the
+	 * time limit is reached.
+	 */
+	private final Cancellation cancellation = new Cancellation();
+
+	/**
+	 * Time limits in milliseconds of the search and of the final estimation
+	 * after the search is cancelled, where {@code 0} means no limit for the
+	 * search and no final estimation after it is cancelled.
+	 */
+	private long timeLimit = 0;
+	private long finalTimeLimit = 0;
+
 	public Geast(Context context) {
 		this(context, new Procedure[] { new ExpandProcedure(context),
 				new AdjustProcedure(context), new SimplifyProcedure(context) });
@@ -93,6 +118,62 @@ public class Geast {
 	 * @return model learned by this algorithm
 	 */
 	public IModelWithScore learn(Gltm initial) {
+		return learn(initial, null);
+	}
+
+	/**
+	 * Resumes the search from a checkpoint written by a previous run of this
+	 * algorithm on the same data and settings. The procedures completed before
+	 * the checkpoint are not run again, and a procedure interrupted after some
+	 * accepted steps is run again from the model of its last accepted step.
+	 * 
+	 * @param checkpoint
+	 *            checkpoint from which the search is resumed
+	 * @return model learned by this algorithm
+	 */
+	public IModelWithScore resume(Checkpoint checkpoint) {
+		return learn(null, checkpoint);
+	}
+
+	/**
+	 * Writes a checkpoint to the given file after the initial estimation,
+	 * after each procedure and after each accepted step of an iterative
+	 * procedure, replacing the previous one.
+	 * 
+	 * @param file
+	 *            file of the checkpoints, or {@code null} to write none
+	 */
+	public void useCheckpoints(File file) {
+		checkpointFile = file;
+	}
+
+	/**
+	 * Limits the time of the search. When the limit is reached, the search
+	 * stops at the next point where it can stop cleanly, and returns the best
+	 * model found so far.
+	 * 
+	 * @param milliseconds
+	 *            time limit of the search from its start, or {@code 0} for no
+	 *            limit
+	 * @param finalMilliseconds
+	 *            time limit of the final estimation of the best model after
+	 *            the search is stopped, or {@code 0} to skip it
+	 */
+	public void useTimeLimit(long milliseconds, long finalMilliseconds) {
+		timeLimit = milliseconds;
+		finalTimeLimit = finalMilliseconds;
+	}
+
+	/**
+	 * Requests the search to stop, which can be called from another thread.
+	 * The search stops at the next point where it can stop cleanly, and
+	 * returns the best model found so far as when the time limit is reached.
+	 */
+	public void cancel() {
+		cancellation.cancel();
+	}
+
+	private IModelWithScore learn(Gltm initial, Checkpoint checkpoint) {
 		if (context.executor().isShutdown()) {
 			throw new UnsupportedOperationException(
 					"A Geast instance cannot be used to learn a model "
@@ -110,31 +191,70 @@ public class Geast {
 
 		IModelWithScore current = null;
 
+		if (timeLimit > 0)
+			cancellation.cancelAfter(timeLimit);
+		Cancellation previous = Cancellation.use(cancellation);
+
+		// the time outside the procedures is profiled under the names of the
+		// initial and final estimations, and that of a procedure outside its
+		// search operators under the name of the procedure
+		Profiler.reset();
+		Profiler.Scope scope = Profiler.useOperator("initial");
+
 		try {
-			current = context.estimationEm().estimate(initial);
-			context.log().writeElementWithEstimationToFile("initial", current,
-					"initial", false);
+			int runs;
+			if (checkpoint == null) {
+				current = context.estimationEm().estimate(initial);
+				context.log().writeElementWithEstimationToFile("initial",
+						current, "initial", false);
+				runs = 0;
+				writeCheckpoint(runs, false, current);
+			} else {
+				checkpoint.restore(procedures, context.transpositionTable());
+				current = checkpoint.estimation();
+				context.log().writeElementWithEstimationToFile("resumed",
+						current, "resumed", false);
+				runs = checkpoint.runs();
+			}
 
-			boolean stop = false;
+			// the procedure interrupted after some accepted steps is run again
+			// regardless of the other procedures, and it has succeeded by the
+			// steps before the checkpoint
+			boolean within = checkpoint != null && checkpoint.within();
 
 			// run the procedures initially. This sets the succeeded flags of
 			// the procedures and determine next whether a procedure should
-			// continue to run
-			for (Procedure procedure : procedures)
-				current = procedure.run(current).estimation();
-
-			while (!stop) {
-				// continue to run the procedures until the procedures other
-				// than the current one fails to find a better model
-				for (Procedure procedure : procedures) {
-					if (shouldStop(procedure)) {
-						stop = true;
-						break;
+			// continue to run. Then continue to run the procedures until the
+			// procedures other than the current one fails to find a better
+			// model
+			for (; !cancellation.isCancelled(); runs++) {
+				Procedure procedure = procedures[runs % procedures.length];
+				if (!within && runs >= procedures.length
+						&& shouldStop(procedure))
+					break;
+
+				final int completed = runs;
+				context.useStepListener(new Context.StepListener() {
+					public void accepted(IModelWithScore current) {
+						writeCheckpoint(completed, true, current);
 					}
+				});
+
+				Profiler.useOperator(procedure.name());
+				current = procedure.run(current).estimation();
+				context.useStepListener(null);
 
-					current = procedure.run(current).estimation();
+				if (within) {
+					procedure.setSucceeded(true);
+					within = false;
 				}
+
+				writeCheckpoint(runs + 1, false, current);
 			}
+
+			Profiler.useOperator("final");
+			if (cancellation.isCancelled())
+				return estimateAfterCancellation(runs, current);
 			
 			// this version does not run FULL EM on the candidates.  So here we
 			// run it.
@@ -152,18 +272,92 @@ public class Geast {
 			throw e;
 
 		} finally {
+			Cancellation.use(previous);
+			Profiler.use(scope);
+
 			context.executor().shutdown();
+			if (context.operatorExecutor() != null)
+				context.operatorExecutor().shutdown();
+			if (context.speculationExecutor() != null)
+				context.speculationExecutor().shutdown();
+			if (context.workers() != null)
+				context.workers().shutdown();
+			if (context.shards() != null)
+				context.shards().close();
 
 			if (current != null)
 				context.log().writeElementWithEstimationToFile("final",
 						current, "final", false);
 
+			context.transpositionTable().writeXml(context.log().writer());
+			if (Profiler.isEnabled())
+				Profiler.writeXml(context.log().writer());
 			context.log().writeEndElement(ELEMENT);
 			context.log().close();
 		}
 
 	}
 
+	/**
+	 * Writes a checkpoint if a checkpoint file is used.
+	 * 
+	 * @param runs
+	 *            number of times that the procedures have been run
+	 * @param within
+	 *            whether it is written after a step within the next procedure
+	 * @param current
+	 *            current model of the search
+	 */
+	private void writeCheckpoint(int runs, boolean within,
+			IModelWithScore current) {
+		// a procedure stopped by the cancellation has not completed, so the
+		// search cannot be resumed after it
+		if (checkpointFile == null || cancellation.isCancelled())
+			return;
+
+		try {
+			Checkpoint.write(checkpointFile, context.data(), runs, within,
+					procedures, current, context.transpositionTable());
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write the checkpoint.", e);
+		}
+
+		context.log().writeCheckpointElement(runs, within);
+	}
+
+	/**
+	 * Runs the final estimation on the best model found before the search is
+	 * cancelled, within the final time limit. The estimation is used only if
+	 * it is not worse than the given model, since it may be stopped before it
+	 * converges.
+	 * 
+	 * @param runs
+	 *            number of times that the procedures have been run
+	 * @param current
+	 *            best model found by the search
+	 * @return the final model
+	 */
+	private IModelWithScore estimateAfterCancellation(int runs,
+			IModelWithScore current) {
+		context.log().writeCancelledElement(runs);
+
+		if (finalTimeLimit <= 0)
+			return current;
+
+		Cancellation bounded = new Cancellation();
+		bounded.cancelAfter(finalTimeLimit);
+		Cancellation.use(bounded);
+		try {
+			IModelWithScore estimation =
+					context.estimationEm().estimate(current);
+			return Double.isNaN(current.BicScore())
+					|| estimation.BicScore() >= current.BicScore()
+					? estimation : current;
+		} finally {
+			Cancellation.use(cancellation);
+		}
+	}
+
 	/**
 	 * Checks whether it should stop the search. It stops for a procedure when
 	 * others have failed to find a better model, so that the given {@code
@@ -199,13 +393,33 @@ public class Geast {
 	 */
 	private void writeSettingsXml(PrintWriter writer) {
 		writer.format(
-				"<settings threads='%d' screening='%d' threshold='%.2e'>",
-				context.threads, context.screeningSize(), context.threshold());
+				"<settings threads='%d' screening='%d' threshold='%.2e' "
+						+ "seed='%d' transpositionTable='%d'%s%s%s%s%s%s%s%s>",
+				context.threads, context.screeningSize(),
+				context.threshold(), RandomStream.seed(),
+				context.transpositionTable().megabytes(),
+				context.racingIncrement() > 0 ? String.format(" racing='%d'",
+						context.racingIncrement()) : "",
+				context.posteriorInitialization()
+						? " posteriorInitialization='true'" : "",
+				context.operatorExecutor() != null
+						? " concurrentOperators='true'" : "",
+				context.speculationExecutor() != null
+						? " speculation='true'" : "",
+				context.beamWidth() > 1 ? String.format(" beam='%d'",
+						context.beamWidth()) : "",
+				context.workers() != null ? String.format(" workers='%d'",
+						context.workers().size()) : "",
+				context.shards() != null ? String.format(" shards='%s'",
+						context.shards().addresses()) : "",
+				context.data().isSinglePrecision() ? " precision='single'" : "");
 		writer.println();
 		context.covarianceConstrainer().writeXml(writer);
 		context.screeningEm().writeXml(writer, "screening");
 		context.selectionEm().writeXml(writer, "selection");
 		context.estimationEm().writeXml(writer, "estimation");
+		for (FidelityLevel level : context.fidelityLevels())
+			level.writeXml(writer);
 		writer.println("</settings>");
 	}
 
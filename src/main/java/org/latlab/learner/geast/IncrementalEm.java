@@ -0,0 +1,115 @@
+package org.latlab.learner.geast;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.model.Gltm;
+
+/**
+ * Implements the incremental EM algorithm of Neal and Hinton. Each step
+ * recomputes the E-step on only a rotating subset of blocks of the data, and
+ * skips the data cases whose posterior distributions have become stable. It
+ * finishes with an exact pass on all data cases, so that the loglikelihood of
+ * the returned estimation is computed in the same way as the full EM.
+ *
+ * <p>
+ * Since a step covers only a subset of blocks, the maximum number of steps is
+ * counted in sweeps of all blocks, so that it is comparable to that of the
+ * full EM.
+ *
+ * <p>
+ * Like the full EM, the focus is not used.
+ *
+ * @author leonard
+ *
+ */
+public class IncrementalEm extends EmFramework {
+
+	private final IncrementalEstimation.Settings settings;
+	private final int maxSweeps;
+	private int threads = 1;
+	private ExecutorService executor = null;
+
+	public IncrementalEm(MixedDataSet data, boolean reuseParameters,
+			int restarts, int maxSteps, double threshold,
+			IncrementalEstimation.Settings settings) {
+		super(data);
+		this.settings = settings;
+		this.maxSweeps = maxSteps;
+
+		int stepsPerSweep =
+				(int) Math.ceil((double) settings.blocks
+						/ settings.blocksPerStep);
+		if (maxSteps > Integer.MAX_VALUE / stepsPerSweep)
+			maxSteps = Integer.MAX_VALUE;
+		else
+			maxSteps *= stepsPerSweep;
+
+		use(new EmParameters(reuseParameters, restarts, 0, maxSteps, threshold));
+	}
+
+	public IncrementalEm(MixedDataSet data) {
+		this(data, true, 64, 500, 1e-2, new IncrementalEstimation.Settings());
+	}
+
+	@Override
+	public void setMultithreading(int threads, ExecutorService executor) {
+		super.setMultithreading(threads, executor);
+		this.threads = threads;
+		this.executor = threads > 1 ? executor : null;
+	}
+
+	/**
+	 * The estimations of this EM hold statistics from the previous steps, so
+	 * the restarts cannot be swapped into a single estimation.
+	 */
+	@Override
+	protected boolean usesParameterVectors() {
+		return false;
+	}
+
+	@Override
+	protected Estimation[] createEstimations(int size, Gltm model, Focus focus) {
+		Estimation[] estimations = new Estimation[size];
+		for (int i = 0; i < estimations.length; i++)
+			estimations[i] =
+					new IncrementalEstimation(model, model.clone(), data,
+							settings, threads, executor, parameters().threshold,
+							parameters().smoothing);
+
+		return estimations;
+	}
+
+	/**
+	 * Runs the EM and then an exact pass on all data cases on the best
+	 * estimation.
+	 */
+	@Override
+	Estimation estimate(Instance instance) {
+		Estimation estimation = super.estimate(instance);
+
+		if (!Double.isNaN(estimation.loglikelihood())) {
+			((IncrementalEstimation) estimation).requestExactPass();
+			step(estimation);
+		}
+
+		return estimation;
+	}
+
+	@Override
+	public void writeXml(PrintWriter writer, String purpose) {
+		// logs the maximum number of sweeps as given in the settings
+		EmParameters logged =
+				new EmParameters(parameters().reuseParameters,
+						parameters().restarts, parameters().secondStageSteps,
+						maxSweeps, parameters().threshold);
+		logged.initialIterations = parameters().initialIterations;
+		logged.smoothing = parameters().smoothing;
+		logged.minimumRetryForNaN = parameters().minimumRetryForNaN;
+
+		writer.format("<em name='%s' purpose='%s' %s %s/>", name(), purpose,
+				logged.xmlAttributes(), settings.xmlAttributes());
+		writer.println();
+	}
+}
@@ -0,0 +1,532 @@
+package org.latlab.learner.geast;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.AbstractNode;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.CliqueTreeNode;
+import org.latlab.reasoner.ImpossibleEvidenceException;
+import org.latlab.reasoner.NaturalCliqueTree;
+import org.latlab.reasoner.NaturalCliqueTreePropagation;
+import org.latlab.util.Profiler;
+
+/**
+ * Estimation used by the incremental EM of Neal and Hinton. The data is
+ * divided into blocks and the sufficient statistics contributed by each block
+ * are kept separately. In each step, only a rotating subset of blocks are
+ * recomputed, while the contributions of the other blocks are reused.
+ *
+ * <p>
+ * A data case is frozen when its posterior distribution has moved less than a
+ * tolerance for a number of consecutive visits. The contribution of a frozen
+ * case is kept in the block and the case is skipped in later visits, until
+ * the block is refreshed by a visit computing all its cases.
+ *
+ * <p>
+ * The loglikelihood of this estimation is the sum of the loglikelihoods of
+ * the blocks, which may have been computed under different parameters. Call
+ * {@link #requestExactPass()} before a step to compute the exact loglikelihood
+ * on all data cases. Since the summed loglikelihood fluctuates, convergence is
+ * only reported after it has been confirmed by exact passes.
+ *
+ * @author leonard
+ *
+ */
+public class IncrementalEstimation extends Estimation {
+
+	/**
+	 * Settings of the incremental estimation.
+	 *
+	 * @author leonard
+	 *
+	 */
+	public static class Settings {
+		/**
+		 * Number of blocks the data is divided into.
+		 */
+		public int blocks = 16;
+
+		/**
+		 * Number of blocks recomputed in each step.
+		 */
+		public int blocksPerStep = 4;
+
+		/**
+		 * Maximum absolute change of posterior probabilities for a data case
+		 * to be considered stable. A non-positive value disables the freezing
+		 * of data cases.
+		 */
+		public double freezeTolerance = 1e-3;
+
+		/**
+		 * Number of consecutive stable visits before a data case is frozen.
+		 */
+		public int freezeVisits = 2;
+
+		/**
+		 * A block is refreshed by computing all its data cases in every this
+		 * number of visits.
+		 */
+		public int refreshVisits = 4;
+
+		public String xmlAttributes() {
+			return String.format(
+					"blocks='%d' blocksPerStep='%d' freezeTolerance='%.2e' "
+							+ "freezeVisits='%d' refreshVisits='%d'", blocks,
+					blocksPerStep, freezeTolerance, freezeVisits,
+					refreshVisits);
+		}
+	}
+
+	/**
+	 * Holds the statistics contributed by a block of data cases.
+	 */
+	private static class Block {
+		private final List<SufficientStatistics> active;
+		private final List<SufficientStatistics> frozen;
+		private double activeLoglikelihood = 0;
+		private double frozenLoglikelihood = 0;
+		private int visits = 0;
+		private int messagesPassed = 0;
+
+		private Block(NaturalCliqueTree tree) {
+			active = createStatistics(tree);
+			frozen = createStatistics(tree);
+		}
+
+		private static List<SufficientStatistics> createStatistics(
+				NaturalCliqueTree tree) {
+			List<SufficientStatistics> statistics =
+					new ArrayList<SufficientStatistics>(tree.getNodes().size());
+
+			// the smoothing is added only once to the total statistics
+			SufficientStatistics.Constructor constructor =
+					new SufficientStatistics.Constructor(0);
+			for (AbstractNode node : tree.getNodes()) {
+				statistics.add(((CliqueTreeNode) node).accept(constructor));
+			}
+
+			return statistics;
+		}
+	}
+
+	/**
+	 * Holds the execution result after computing a block in a thread.
+	 */
+	private static class Result {
+		private RuntimeException exception = null;
+	}
+
+	private final Settings settings;
+	private final EqualPartitioner partitioner;
+	private final Block[] blocks;
+
+	private final int threads;
+	private final ExecutorService executor;
+
+	/**
+	 * Index of the next block to be recomputed.
+	 */
+	private int nextBlock = 0;
+
+	/**
+	 * Whether the next computation is an exact pass on all data cases.
+	 */
+	private boolean exact = false;
+
+	/**
+	 * Whether the last computation is an exact pass.
+	 */
+	private boolean lastExact = false;
+
+	/**
+	 * Loglikelihoods computed in the last two exact passes.
+	 */
+	private double exactLoglikelihood = Double.NaN;
+	private double previousExactLoglikelihood = Double.NaN;
+
+	private final double threshold;
+
+	/**
+	 * Posterior probabilities of the cliques in the last visit of each data
+	 * case, used for detecting stable data cases. It is {@code null} if
+	 * freezing is disabled.
+	 */
+	private final float[][] posteriors;
+	private final int[] stableVisits;
+	private final boolean[] frozen;
+
+	/**
+	 * Loglikelihoods of the previous steps within one sweep, for measuring the
+	 * improvement over a sweep of all blocks.
+	 */
+	private final double[] history;
+	private int historySize = 0;
+
+	/**
+	 *
+	 * @param origin
+	 * @param model
+	 *            clone of the origin to be estimated
+	 * @param data
+	 * @param settings
+	 * @param threads
+	 *            number of threads for computing the blocks
+	 * @param executor
+	 *            executor holding the threads, or {@code null} if only one
+	 *            thread is used
+	 * @param threshold
+	 *            threshold of improvement for convergence, below which an
+	 *            exact pass is used to confirm the convergence
+	 * @param smoothing
+	 */
+	IncrementalEstimation(Gltm origin, Gltm model, MixedDataSet data,
+			Settings settings, int threads, ExecutorService executor,
+			double threshold, double smoothing) {
+		// the propagation has one clique tree for each block, so that the
+		// blocks can be computed in parallel
+		super(origin, model, data, new SharedTreePropagation(model, data,
+				settings.blocks), smoothing);
+
+		this.settings = settings;
+		this.threshold = threshold;
+		this.partitioner = new EqualPartitioner(data.size(), settings.blocks);
+		this.threads = executor == null ? 1 : threads;
+		this.executor = executor;
+
+		blocks = new Block[settings.blocks];
+		NaturalCliqueTree tree = propagation.cliqueTreeStructure();
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = new Block(tree);
+		}
+
+		if (settings.freezeTolerance > 0) {
+			posteriors = new float[data.size()][];
+			stableVisits = new int[data.size()];
+			frozen = new boolean[data.size()];
+		} else {
+			posteriors = null;
+			stableVisits = null;
+			frozen = null;
+		}
+
+		// holds the loglikelihoods of two sweeps
+		history =
+				new double[2 * (int) Math.ceil((double) settings.blocks
+						/ settings.blocksPerStep)];
+	}
+
+	/**
+	 * Requests the next computation of sufficient statistics to be an exact
+	 * pass on all data cases, without reusing any previous contribution.
+	 */
+	public void requestExactPass() {
+		exact = true;
+	}
+
+	@Override
+	public void savePreviousLoglikelihood() {
+		super.savePreviousLoglikelihood();
+
+		if (historySize == history.length) {
+			System.arraycopy(history, 1, history, 0, history.length - 1);
+			historySize--;
+		}
+
+		history[historySize++] = loglikelihood;
+	}
+
+	/**
+	 * Returns the improvement of the average loglikelihood in the last sweep
+	 * of all blocks over that in the sweep before, since the loglikelihood of
+	 * a single step covers blocks computed under different parameters.
+	 *
+	 * <p>
+	 * When this improvement falls below the threshold, an exact pass is
+	 * requested for the next step and the improvement is then measured
+	 * between the exact loglikelihoods.
+	 */
+	@Override
+	public double improvement() {
+		if (lastExact) {
+			return Double.isNaN(previousExactLoglikelihood) ? Double.MAX_VALUE
+					: exactLoglikelihood - previousExactLoglikelihood;
+		}
+
+		if (historySize < history.length)
+			return Double.MAX_VALUE;
+
+		// the two sweeps are adjacent and have the same number of steps
+		int sweep = history.length / 2;
+		double previous = 0;
+		double last = 0;
+		for (int i = 0; i < sweep; i++) {
+			previous += history[i];
+			last += history[sweep + i];
+		}
+
+		double improvement = (last - previous) / sweep;
+		if (improvement < threshold) {
+			exact = true;
+			return Double.MAX_VALUE;
+		}
+
+		return improvement;
+	}
+
+	@Override
+	protected void computeSufficientStatistics() {
+		messagesPassed = 0;
+
+		List<Integer> selected = selectBlocks();
+		computeBlocks(selected);
+
+		for (int index : selected) {
+			messagesPassed += blocks[index].messagesPassed;
+		}
+
+		// sum up the contributions from all blocks
+		for (Block block : blocks) {
+			Iterator<SufficientStatistics> active = block.active.iterator();
+			Iterator<SufficientStatistics> frozen = block.frozen.iterator();
+			for (SufficientStatistics statistics : sufficientStatistics) {
+				statistics.plus(active.next());
+				statistics.plus(frozen.next());
+			}
+
+			loglikelihood +=
+					block.activeLoglikelihood + block.frozenLoglikelihood;
+		}
+
+		if (exact) {
+			previousExactLoglikelihood = exactLoglikelihood;
+			exactLoglikelihood = loglikelihood;
+		}
+
+		lastExact = exact;
+		exact = false;
+	}
+
+	/**
+	 * Returns the indices of the blocks to be recomputed in this step. All
+	 * blocks are selected in the first step or in an exact pass.
+	 */
+	private List<Integer> selectBlocks() {
+		List<Integer> selected = new ArrayList<Integer>(blocks.length);
+
+		if (exact || blocks[0].visits == 0) {
+			for (int i = 0; i < blocks.length; i++)
+				selected.add(i);
+
+			nextBlock = 0;
+		} else {
+			for (int i = 0; i < settings.blocksPerStep && i < blocks.length; i++) {
+				selected.add(nextBlock);
+				nextBlock = (nextBlock + 1) % blocks.length;
+			}
+		}
+
+		return selected;
+	}
+
+	private void computeBlocks(List<Integer> selected) {
+		if (threads == 1 || selected.size() == 1) {
+			for (int index : selected) {
+				computeBlock(index);
+			}
+
+			return;
+		}
+
+		ExecutorCompletionService<Result> ecs =
+				new ExecutorCompletionService<Result>(executor);
+
+		for (int index : selected) {
+			Result result = new Result();
+			ecs.submit(createRunnable(index, result), result);
+		}
+
+		// keeps waiting for every block even if this thread is interrupted,
+		// since the blocks update the shared statistics, and keeps the
+		// interruption for the caller
+		boolean interrupted = false;
+		Result[] results = new Result[selected.size()];
+		for (int i = 0; i < results.length; i++) {
+			try {
+				results[i] = ecs.take().get();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				i--;
+			} catch (ExecutionException e) {
+				// the cause is thrown by the check below, after the other
+				// blocks are completed
+				results[i] = new Result();
+				results[i].exception =
+						e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+								: new RuntimeException(e.getCause());
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		checkException(results);
+	}
+
+	/**
+	 * Throws the first exception that is not
+	 * {@link ImpossibleEvidenceException} if there exists one, or the first
+	 * {@code ImpossibleEvidenceException} if there does not.
+	 */
+	private void checkException(Result[] results) {
+		for (Result result : results) {
+			if (result != null
+					&& !(result.exception == null || result.exception instanceof ImpossibleEvidenceException))
+				throw new RuntimeException(result.exception);
+		}
+
+		for (Result result : results) {
+			if (result != null && result.exception != null)
+				throw result.exception;
+		}
+	}
+
+	private Runnable createRunnable(final int index, final Result result) {
+		final Profiler.Scope scope = Profiler.current();
+		return new Runnable() {
+			public void run() {
+				Profiler.Scope old = Profiler.use(scope);
+				try {
+					computeBlock(index);
+				} catch (RuntimeException e) {
+					result.exception = e;
+				} finally {
+					Profiler.use(old);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Recomputes the contribution of a block. The frozen contribution is
+	 * discarded and all data cases are computed when the block is refreshed.
+	 *
+	 * @param index
+	 *            index of the block
+	 */
+	private void computeBlock(int index) {
+		Block block = blocks[index];
+		boolean refresh =
+				exact || block.visits % Math.max(settings.refreshVisits, 1) == 0;
+
+		resetStatistics(block.active);
+		block.activeLoglikelihood = 0;
+		block.messagesPassed = 0;
+
+		if (refresh) {
+			resetStatistics(block.frozen);
+			block.frozenLoglikelihood = 0;
+		}
+
+		int start = partitioner.startOf(index);
+		int end = partitioner.endOf(index);
+
+		for (int i = start; i < end; i++) {
+			if (frozen != null) {
+				if (refresh)
+					frozen[i] = false;
+				else if (frozen[i])
+					continue;
+			}
+
+			NaturalCliqueTreePropagation ctp = propagation.compute(i);
+			block.messagesPassed += ctp.messagesPassed();
+
+			boolean freeze = frozen != null && !exact && updatePosterior(i, ctp);
+
+			List<SufficientStatistics> target =
+					freeze ? block.frozen : block.active;
+			double weight = data.get(i).weight();
+
+			Iterator<SufficientStatistics> statisticsIterator =
+					target.iterator();
+			for (AbstractNode node : ctp.cliqueTree().getNodes()) {
+				statisticsIterator.next().add(
+						((CliqueTreeNode) node).potential(), weight);
+			}
+
+			if (freeze) {
+				block.frozenLoglikelihood += ctp.loglikelihood() * weight;
+				frozen[i] = true;
+			} else {
+				block.activeLoglikelihood += ctp.loglikelihood() * weight;
+			}
+		}
+
+		block.visits++;
+	}
+
+	private void resetStatistics(List<SufficientStatistics> statistics) {
+		for (SufficientStatistics s : statistics) {
+			s.reset();
+		}
+	}
+
+	/**
+	 * Stores the posterior probabilities of the cliques for a data case, and
+	 * returns whether the data case has been stable long enough to be frozen.
+	 *
+	 * @param index
+	 *            index of the data case
+	 * @param ctp
+	 *            propagation computed on the data case
+	 * @return whether the data case should be frozen
+	 */
+	private boolean updatePosterior(int index, NaturalCliqueTreePropagation ctp) {
+		float[] previous = posteriors[index];
+		List<double[]> cells = new ArrayList<double[]>();
+		int length = 0;
+
+		Iterator<SufficientStatistics> statisticsIterator =
+				sufficientStatistics.iterator();
+		for (AbstractNode node : ctp.cliqueTree().getNodes()) {
+			// only the cliques in focus have non-trivial statistics
+			if (statisticsIterator.next() == SufficientStatistics.NIL)
+				continue;
+
+			double[] c = ((CliqueTreeNode) node).potential().function()
+					.getCells();
+			cells.add(c);
+			length += c.length;
+		}
+
+		float[] current =
+				previous != null && previous.length == length ? previous
+						: new float[length];
+
+		double change = previous == current ? 0 : Double.MAX_VALUE;
+		int k = 0;
+		for (double[] c : cells) {
+			for (double value : c) {
+				if (previous == current)
+					change = Math.max(change, Math.abs(current[k] - value));
+				current[k++] = (float) value;
+			}
+		}
+
+		posteriors[index] = current;
+
+		if (change < settings.freezeTolerance)
+			stableVisits[index]++;
+		else
+			stableVisits[index] = 0;
+
+		return stableVisits[index] >= settings.freezeVisits;
+	}
+}
@@ -36,7 +36,7 @@ public class LocalEm extends EmFramework {
 		Estimation[] estimations = new Estimation[size];
 		for (int i = 0; i < estimations.length; i++) {
 			estimations[i] = estimationFactory().createRestricted(model, data,
-					sharedData, parameters.smoothing);
+					sharedData, parameters().smoothing);
 		}
 
 		return estimations;
@@ -1,16 +1,20 @@
 package org.latlab.learner.geast;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.FileLock;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.zip.GZIPOutputStream;
 
 import org.latlab.data.MixedDataSet;
 import org.latlab.io.bif.BifWriter;
@@ -20,16 +24,54 @@ import org.latlab.learner.geast.operators.SearchCandidate;
  * Used to log the progress of GEAST. It uses lazy creation, so that the files
  * and directory are not created until they are being written to.
  * 
+ * <p>
+ * The log file and the model files are written by a {@link LogWriter} in a
+ * background thread. The log file can be compressed, and the model files of
+ * the candidates can be written compactly or skipped by the {@link Detail}
+ * level.
+ * 
  * @author leonard
  * 
  */
 public class Log {
 
+	/**
+	 * Level of detail of the model files written for the candidates, such as
+	 * those of the steps and the exceptions. The model files of the initial,
+	 * completed and final models are written at all levels.
+	 */
+	public enum Detail {
+		/**
+		 * Writes the model of each candidate to a BIF file.
+		 */
+		FULL,
+
+		/**
+		 * Writes the model of each candidate to a BIF file compressed by gzip.
+		 */
+		COMPACT,
+
+		/**
+		 * Writes no model file for the candidates, where the file attribute
+		 * in the log is left empty.
+		 */
+		SUMMARY
+	}
+
+	public static final int DEFAULT_QUEUE = 4096;
+
 	private final String baseDirectory;
 	private final String directorySuffix;
 
 	private String directory;
 	private PrintWriter writer;
+
+	/**
+	 * Writers of the threads of which log is held in buffers, so that the
+	 * logs written concurrently can be appended in a fixed order.
+	 */
+	private final ThreadLocal<PrintWriter> bufferWriter =
+			new ThreadLocal<PrintWriter>();
 	private final static DateFormat FILE_DATE_FORMAT =
 			new SimpleDateFormat("yyyyMMdd-HHmmss");
 	private boolean directoryCreated = false;
@@ -46,6 +88,11 @@ public class Log {
 
 	private static File tmpDir = null;
 
+	private Detail detail = Detail.FULL;
+	private boolean compressed = false;
+	private int queue = DEFAULT_QUEUE;
+	private LogWriter output = null;
+
 	public static void setErrorWriter(OutputStream stream) {
 		errorWriter = new PrintWriter(stream, true);
 	}
@@ -67,17 +114,79 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Uses the given level of detail for the model files of the candidates.
+	 * 
+	 * @param detail
+	 *            level of detail
+	 */
+	public void useDetail(Detail detail) {
+		this.detail = detail;
+	}
+
+	public Detail detail() {
+		return detail;
+	}
+
+	/**
+	 * Sets whether the log file is compressed by gzip, in which case it is
+	 * named {@code log.xml.gz}. It should be set before the log is written.
+	 * 
+	 * @param compressed
+	 *            whether to compress the log file
+	 */
+	public void useCompression(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Sets the number of writes that can be queued for the background thread
+	 * before the threads writing the log wait. It should be set before the
+	 * log is written.
+	 * 
+	 * @param capacity
+	 *            capacity of the queue
+	 */
+	public void useQueue(int capacity) {
+		this.queue = capacity;
+	}
+
+	/**
+	 * Closes the log file after the queued writes have been completed.
+	 */
 	public void close() {
 		if (writer != null)
 			writer.close();
+
+		synchronized (this) {
+			if (output != null)
+				output.close();
+		}
 	}
 
-	private String write(String name, IModelWithScore estimation) {
+	private synchronized LogWriter output() {
+		if (output == null)
+			output = new LogWriter(queue);
+
+		return output;
+	}
+
+	/**
+	 * Writes a model file. The BIF is generated in the calling thread, since
+	 * the model may be changed after it is logged, while the file is written
+	 * in the background.
+	 */
+	private String write(String name, IModelWithScore estimation,
+			boolean compress) {
 		createDirectory();
 
+		if (compress)
+			name += ".gz";
+
 		String filename = directory + File.separator + name;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 		try {
-			BifWriter writer = new BifWriter(new FileOutputStream(filename));
+			BifWriter writer = new BifWriter(bytes);
 			writer.write(estimation);
 		} catch (Exception e) {
 			errorWriter().println("Error in writing file: " + filename);
@@ -86,27 +195,53 @@ public class Log {
 			try {
 				// try to write the string representation if writing a BIF
 				// file has failed
-				PrintWriter writer = new PrintWriter(filename);
-				writer.write(estimation.model().toString());
-				writer.close();
+				bytes.reset();
+				bytes.write(estimation.model().toString().getBytes());
 			} catch (Exception e1) {
 				// ignore
 			}
 		}
 
+		if (compress) {
+			try {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				GZIPOutputStream stream = new GZIPOutputStream(compressed);
+				bytes.writeTo(stream);
+				stream.close();
+				bytes = compressed;
+			} catch (IOException e) {
+				// it does not happen on a byte array
+				throw new RuntimeException(e);
+			}
+		}
+
+		output().write(new File(filename), bytes.toByteArray());
+
 		return name;
 	}
 
 	public PrintWriter writer() {
+		PrintWriter buffered = bufferWriter.get();
+		if (buffered != null)
+			return buffered;
+
 		if (writer == null) {
 			String filename = null;
 			try {
 				createDirectory();
-				filename = directory + File.separator + "log.xml";
-				OutputStreamWriter osw =
-						new OutputStreamWriter(new FileOutputStream(filename),
-								"UTF-8");
-				writer = new PrintWriter(osw, true);
+				filename =
+						directory + File.separator
+								+ (compressed ? "log.xml.gz" : "log.xml");
+				OutputStream stream = new FileOutputStream(filename);
+				if (compressed)
+					stream = new GZIPOutputStream(stream);
+				OutputStreamWriter osw = new OutputStreamWriter(stream, "UTF-8");
+
+				// the lines are queued as they are flushed, and written to the
+				// file in the background
+				writer =
+						new PrintWriter(output().queue(new BufferedWriter(osw)),
+								true);
 			} catch (Exception e) {
 				errorWriter().println("Error creating log file: " + filename);
 				write(e);
@@ -117,6 +252,36 @@ public class Log {
 		return writer;
 	}
 
+	/**
+	 * Holds the log subsequently written by the calling thread in a buffer,
+	 * until {@link #unbuffer()} is called by this thread.
+	 * 
+	 * @return buffer holding the log of the calling thread
+	 */
+	public StringWriter buffer() {
+		StringWriter buffer = new StringWriter();
+		bufferWriter.set(new PrintWriter(buffer));
+		return buffer;
+	}
+
+	/**
+	 * Writes the log of the calling thread to the log file again.
+	 */
+	public void unbuffer() {
+		bufferWriter.remove();
+	}
+
+	/**
+	 * Appends the log held in a buffer to the log of the calling thread.
+	 * 
+	 * @param buffer
+	 *            buffer returned by {@link #buffer()}
+	 */
+	public synchronized void append(StringWriter buffer) {
+		writer().print(buffer.toString());
+		writer().flush();
+	}
+
 	private String generateDirectoryName() {
 		return baseDirectory + File.separator
 				+ FILE_DATE_FORMAT.format(new Date()) + directorySuffix;
@@ -250,9 +415,16 @@ public class Log {
 	 */
 	public void writeElementWithEstimationToFile(String element,
 			IModelWithScore estimation, String info, boolean increment) {
+		writeElementWithEstimationToFile(element, estimation, info, increment,
+				false);
+	}
+
+	private void writeElementWithEstimationToFile(String element,
+			IModelWithScore estimation, String info, boolean increment,
+			boolean candidate) {
 		generateNumbers(increment);
 
-		String filename = write(estimation, info);
+		String filename = write(estimation, info, candidate);
 
 		writer().format(
 				"<%s name= '%s' origin='%s' file='%s' bic='%.4f' "
@@ -276,7 +448,7 @@ public class Log {
 	public void writeElementWithCandidateToFile(String element,
 			SearchCandidate candidate, boolean increment) {
 		writeElementWithEstimationToFile(element, candidate.estimation(),
-				candidate.name(), increment);
+				candidate.name(), increment, true);
 	}
 
 	/**
@@ -292,9 +464,16 @@ public class Log {
 	 *            estimation to write
 	 * @param info
 	 *            an information string used in the file name
-	 * @return name of the file written to
+	 * @param candidate
+	 *            whether the estimation is that of a candidate, of which the
+	 *            file depends on the level of detail
+	 * @return name of the file written to, or an empty string if it is not
+	 *         written
 	 */
-	private String write(IModelWithScore estimation, String info) {
+	private String write(IModelWithScore estimation, String info,
+			boolean candidate) {
+		if (candidate && detail == Detail.SUMMARY)
+			return "";
 
 		String name;
 		if (info != null && info.length() > 0) {
@@ -307,9 +486,8 @@ public class Log {
 							minorNumber, info);
 		}
 
-		write(name, estimation);
-
-		return name;
+		return write(name, estimation, candidate
+				&& detail == Detail.COMPACT);
 	}
 
 	public void write(Exception exception) {
@@ -333,8 +511,12 @@ public class Log {
 			attributes = "";
 		}
 
-		generateNumbers(false);
-		String filename = write(current, "exception");
+		// the numbers are shared by the threads searching concurrently
+		String filename;
+		synchronized (this) {
+			generateNumbers(false);
+			filename = write(current, "exception", true);
+		}
 
 		writer().format(
 				"<exception name='%s' message='%s' model='%s' file='%s' %s>",
@@ -378,6 +560,50 @@ public class Log {
 		writer().println();
 	}
 
+	/**
+	 * Logs the end of a next step run speculatively from a model. The element
+	 * is written in one call, so that it is not interleaved with the log of
+	 * other threads.
+	 * 
+	 * @param model
+	 *            name of the model from which the step is run
+	 * @param used
+	 *            whether the step is used as the next step
+	 */
+	public void writeSpeculationElement(String model, boolean used) {
+		writer().println(
+				String.format("<speculation model='%s' used='%s' time='%d'/>",
+						model, used, getElaspedSeconds()));
+	}
+
+	/**
+	 * Logs a checkpoint written for resuming the search. The element is
+	 * written in one call, like {@link #writeSpeculationElement}.
+	 * 
+	 * @param runs
+	 *            number of runs of the procedures completed
+	 * @param within
+	 *            whether the checkpoint is written within a procedure
+	 */
+	public void writeCheckpointElement(int runs, boolean within) {
+		writer().println(
+				String.format("<checkpoint runs='%d' within='%s' time='%d'/>",
+						runs, within, getElaspedSeconds()));
+	}
+
+	/**
+	 * Logs that the search has been cancelled. The element is written in one
+	 * call, like {@link #writeSpeculationElement}.
+	 * 
+	 * @param runs
+	 *            number of runs of the procedures completed
+	 */
+	public void writeCancelledElement(int runs) {
+		writer().println(
+				String.format("<cancelled runs='%d' time='%d'/>", runs,
+						getElaspedSeconds()));
+	}
+
 	public static String writeTemporaryFile(String prefix, Estimation estimation) {
 		OutputStream stream;
 		String path = "";
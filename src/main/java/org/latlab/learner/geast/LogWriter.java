@@ -0,0 +1,273 @@
+package org.latlab.learner.geast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the output of a {@link Log} in a background thread, so that the
+ * threads of the search do not wait on the I/O. The writes are held in a
+ * bounded queue, which blocks the writing threads when it is full. The log
+ * file is flushed when the queue becomes empty, so that the text queued at
+ * about the same time is flushed in one batch.
+ *
+ * <p>
+ * The writes are completed in the order in which they are queued. The thread
+ * stops after {@link #close()} has completed the queued writes, or when the
+ * program exits.
+ *
+ * @author leonard
+ *
+ */
+class LogWriter {
+
+	private static final Object STOP = new Object();
+
+	/**
+	 * Text to append to a writer.
+	 */
+	private static class Text {
+		private final Writer target;
+		private final String text;
+
+		private Text(Writer target, String text) {
+			this.target = target;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Content of a file to write.
+	 */
+	private static class Content {
+		private final File file;
+		private final byte[] bytes;
+
+		private Content(File file, byte[] bytes) {
+			this.file = file;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Writer to close after the text queued before.
+	 */
+	private static class Closing {
+		private final Writer target;
+
+		private Closing(Writer target) {
+			this.target = target;
+		}
+	}
+
+	private final BlockingQueue<Object> queue;
+	private final Thread thread;
+	private final Thread shutdownHook;
+
+	/**
+	 * Writers that have been written to since the last flush, which are used
+	 * by the background thread only.
+	 */
+	private final Set<Writer> unflushed = new LinkedHashSet<Writer>();
+
+	/**
+	 * Constructs this writer and starts its thread.
+	 *
+	 * @param capacity
+	 *            number of writes that can be queued
+	 */
+	LogWriter(int capacity) {
+		queue = new ArrayBlockingQueue<Object>(capacity);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				process();
+			}
+		}, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+
+		// completes the queued writes if the program exits without closing
+		// the log
+		shutdownHook = new Thread(new Runnable() {
+			public void run() {
+				stop();
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Returns a writer which queues the text written to it when it is
+	 * flushed, and appends the text to the given writer in the background.
+	 * Closing the returned writer closes the given writer after the text
+	 * queued before.
+	 *
+	 * @param target
+	 *            writer to which the text is appended
+	 * @return writer queuing the text
+	 */
+	Writer queue(final Writer target) {
+		return new Writer() {
+			private final StringBuilder builder = new StringBuilder();
+
+			@Override
+			public void write(char[] buffer, int offset, int length) {
+				synchronized (lock) {
+					builder.append(buffer, offset, length);
+				}
+			}
+
+			@Override
+			public void flush() {
+				synchronized (lock) {
+					if (builder.length() == 0)
+						return;
+
+					put(new Text(target, builder.toString()));
+					builder.setLength(0);
+				}
+			}
+
+			@Override
+			public void close() {
+				synchronized (lock) {
+					flush();
+					put(new Closing(target));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Writes the content to a file in the background.
+	 *
+	 * @param file
+	 *            file to write
+	 * @param bytes
+	 *            content of the file
+	 */
+	void write(File file, byte[] bytes) {
+		put(new Content(file, bytes));
+	}
+
+	/**
+	 * Completes the queued writes and stops the thread.
+	 */
+	void close() {
+		stop();
+
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// the program is exiting
+		}
+	}
+
+	private void stop() {
+		if (!thread.isAlive())
+			return;
+
+		put(STOP);
+
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Puts an item in the queue, and waits for space if the queue is full.
+	 */
+	private void put(Object item) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(item);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void process() {
+		while (true) {
+			Object item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			// processes the items queued so far before flushing
+			do {
+				if (item == STOP) {
+					flush();
+					return;
+				}
+
+				process(item);
+			} while ((item = queue.poll()) != null);
+
+			flush();
+		}
+	}
+
+	private void process(Object item) {
+		try {
+			if (item instanceof Text) {
+				Text text = (Text) item;
+				text.target.write(text.text);
+				unflushed.add(text.target);
+			} else if (item instanceof Content) {
+				Content content = (Content) item;
+				OutputStream output = new FileOutputStream(content.file);
+				try {
+					output.write(content.bytes);
+				} finally {
+					output.close();
+				}
+			} else if (item instanceof Closing) {
+				Writer target = ((Closing) item).target;
+				unflushed.remove(target);
+				target.close();
+			}
+		} catch (IOException e) {
+			Log.errorWriter().println("Error in writing log: " + e);
+		} catch (RuntimeException e) {
+			// keeps the writer thread alive for the remaining items
+			Log.errorWriter().println("Error in writing log: " + e);
+		}
+	}
+
+	private void flush() {
+		for (Writer writer : unflushed) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				Log.errorWriter().println("Error in flushing log: " + e);
+			} catch (RuntimeException e) {
+				Log.errorWriter().println("Error in flushing log: " + e);
+			}
+		}
+
+		unflushed.clear();
+	}
+}
@@ -40,6 +40,33 @@ public class MixedCliqueSufficientStatistics implements SufficientStatistics {
         }
     }
 
+    public void plus(SufficientStatistics statistics) {
+        NormalSufficientStatistics[] others =
+            ((MixedCliqueSufficientStatistics) statistics).statistics;
+        for (int i = 0; i < this.statistics.length; i++) {
+            this.statistics[i].plus(others[i]);
+        }
+    }
+
+    /**
+     * Adds the statistics of a state of the parent variable, which have been
+     * accumulated elsewhere.
+     * 
+     * @param state
+     *            state of the parent variable
+     * @param statistics
+     *            statistics with the same number of head variables
+     */
+    void plus(int state, NormalSufficientStatistics statistics) {
+        this.statistics[state].plus(statistics);
+    }
+
+    public void scale(double factor) {
+        for (NormalSufficientStatistics s : statistics) {
+            s.scale(factor);
+        }
+    }
+
     public CGPotential computePotential(
         JointContinuousVariable head, DiscreteVariable parent) {
         CGParameter[] parameters = new CGParameter[statistics.length];
@@ -94,7 +121,8 @@ public class MixedCliqueSufficientStatistics implements SufficientStatistics {
     }
     
     /**
-     * Exposed for testing only.
+     * Exposed for testing and for the exchange of the statistics by
+     * {@link ShardedEstimation}.
      */
     NormalSufficientStatistics[] statistics() {
         return statistics;
@@ -0,0 +1,840 @@
+package org.latlab.learner.geast;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.latlab.data.Instance;
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.AbstractNode;
+import org.latlab.graph.DirectedNode;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.DiscreteBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.CliqueTreeNode;
+import org.latlab.reasoner.DiscreteClique;
+import org.latlab.reasoner.ImpossibleEvidenceException;
+import org.latlab.reasoner.MixedClique;
+import org.latlab.reasoner.NaturalCliqueTreePropagation;
+import org.latlab.reasoner.Separator;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.Profiler;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+/**
+ * Estimation of a model with a single latent variable, such as the finite
+ * mixture models and the pouch mixture models. The latent variable is the root
+ * and all other nodes are its observed children.
+ *
+ * <p>
+ * For such a model, the posterior distribution of the root given a data case
+ * is the softmax of the prior plus the loglikelihoods of the children under
+ * each component. Instead of propagating on a clique tree for each data case,
+ * this estimation computes the posterior distributions on blocks of data cases
+ * over all components at once, and accumulates the sufficient statistics in
+ * flat arrays. The statistics are put into the statistics of the cliques after
+ * all data cases have been processed, so that the M-step is the same as that
+ * of other estimations.
+ *
+ * <p>
+ * The data cases with missing values are computed by the propagation.
+ *
+ * @author leonard
+ *
+ */
+public class MixtureEstimation extends Estimation {
+
+	/**
+	 * Number of data cases processed together in a block.
+	 */
+	private static final int BLOCK_SIZE = 256;
+
+	private static final double LOG_2_PI = Math.log(2 * Math.PI);
+
+	/**
+	 * Creates a prototype of this estimation.
+	 *
+	 * @param threads
+	 *            number of threads used in estimation
+	 * @param executor
+	 *            executor for running the threads, which is used only if more
+	 *            than one thread is used
+	 * @return prototype of this estimation
+	 */
+	public static EstimationFactory.Prototype createPrototype(
+			final int threads, final ExecutorService executor) {
+		return new EstimationFactory.Prototype() {
+			public Estimation create(Gltm model, Gltm clone,
+					MixedDataSet data, DataPropagation propagation,
+					double smoothing) {
+				return new MixtureEstimation(model, clone, data, propagation,
+						threads, executor, smoothing);
+			}
+
+			public int partitions() {
+				return threads;
+			}
+		};
+	}
+
+	/**
+	 * Returns whether the model has a single latent variable at the root, and
+	 * all other nodes are children of the root observed in the data.
+	 *
+	 * @param model
+	 *            model to estimate
+	 * @param data
+	 *            data for estimation
+	 * @return whether this estimation can be used for the model
+	 */
+	public static boolean isApplicable(Gltm model, MixedDataSet data) {
+		BeliefNode root = model.getRoot();
+		if (!(root instanceof DiscreteBeliefNode)
+				|| data.indexOf(root.getVariable()) != null)
+			return false;
+
+		if (model.getNodes().size() < 2)
+			return false;
+
+		for (AbstractNode node : model.getNodes()) {
+			BeliefNode beliefNode = (BeliefNode) node;
+			if (beliefNode == root)
+				continue;
+
+			if (beliefNode.getParent() != root || !beliefNode.isLeaf())
+				return false;
+
+			for (Variable variable : observedVariables(beliefNode)) {
+				if (data.indexOf(variable) == null)
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static List<Variable> observedVariables(BeliefNode node) {
+		List<Variable> variables = new ArrayList<Variable>();
+		if (node instanceof ContinuousBeliefNode) {
+			variables.addAll(((ContinuousBeliefNode) node).getVariable()
+					.variables());
+		} else {
+			variables.add(node.getVariable());
+		}
+
+		return variables;
+	}
+
+	private final int threads;
+	private final ExecutorService executor;
+
+	private final DiscreteBeliefNode root;
+	private final int components;
+	private final DiscreteBeliefNode[] discreteChildren;
+	private final int[] discreteColumns;
+	private final ContinuousBeliefNode[] continuousChildren;
+
+	/**
+	 * Indices of the data cases without and with missing values respectively,
+	 * in each partition.
+	 */
+	private final int[][] completeCases;
+	private final int[][] incompleteCases;
+
+	/**
+	 * Whether the cliques of the clique tree correspond to the nodes in the
+	 * way expected by this estimation. If not, it falls back to the
+	 * propagation.
+	 */
+	private final boolean supported;
+
+	private MixtureEstimation(Gltm origin, Gltm model, MixedDataSet data,
+			DataPropagation propagation, int threads, ExecutorService executor,
+			double smoothing) {
+		super(origin, model, data, propagation, smoothing);
+
+		this.threads = threads;
+		this.executor = threads > 1 ? executor : null;
+
+		root = (DiscreteBeliefNode) model.getRoot();
+		components = root.getVariable().getCardinality();
+
+		List<DiscreteBeliefNode> discrete = new ArrayList<DiscreteBeliefNode>();
+		List<ContinuousBeliefNode> continuous =
+				new ArrayList<ContinuousBeliefNode>();
+		for (DirectedNode child : root.getChildren()) {
+			if (child instanceof ContinuousBeliefNode)
+				continuous.add((ContinuousBeliefNode) child);
+			else
+				discrete.add((DiscreteBeliefNode) child);
+		}
+
+		discreteChildren =
+				discrete.toArray(new DiscreteBeliefNode[discrete.size()]);
+		continuousChildren =
+				continuous.toArray(new ContinuousBeliefNode[continuous.size()]);
+
+		discreteColumns = new int[discreteChildren.length];
+		for (int i = 0; i < discreteChildren.length; i++) {
+			discreteColumns[i] =
+					data.indexOf(discreteChildren[i].getVariable());
+		}
+
+		List<Variable> observed = new ArrayList<Variable>();
+		for (DirectedNode child : root.getChildren())
+			observed.addAll(observedVariables((BeliefNode) child));
+		int[] columns = data.indicesOf(observed);
+
+		EqualPartitioner partitioner =
+				new EqualPartitioner(data.size(), threads);
+		completeCases = new int[threads][];
+		incompleteCases = new int[threads][];
+		for (int i = 0; i < threads; i++) {
+			splitCases(partitioner.startOf(i), partitioner.endOf(i), columns,
+					i);
+		}
+
+		supported = checkCliques();
+	}
+
+	private void splitCases(int start, int end, int[] columns, int partition) {
+		int[] complete = new int[end - start];
+		int[] incomplete = new int[end - start];
+		int completeSize = 0;
+		int incompleteSize = 0;
+
+		for (int i = start; i < end; i++) {
+			Instance instance = data.get(i);
+			boolean missing = false;
+			for (int column : columns) {
+				if (instance.isMissing(column)) {
+					missing = true;
+					break;
+				}
+			}
+
+			if (missing)
+				incomplete[incompleteSize++] = i;
+			else
+				complete[completeSize++] = i;
+		}
+
+		completeCases[partition] = new int[completeSize];
+		System.arraycopy(complete, 0, completeCases[partition], 0,
+				completeSize);
+		incompleteCases[partition] = new int[incompleteSize];
+		System.arraycopy(incomplete, 0, incompleteCases[partition], 0,
+				incompleteSize);
+	}
+
+	private boolean checkCliques() {
+		for (AbstractNode node : propagation.cliqueTreeStructure().getNodes()) {
+			boolean expected =
+					((CliqueTreeNode) node).accept(new CliqueTreeNode.Visitor<Boolean>() {
+						public Boolean visit(Separator separator) {
+							return true;
+						}
+
+						public Boolean visit(DiscreteClique clique) {
+							List<DiscreteVariable> variables =
+									clique.discreteVariables();
+							if (!variables.contains(root.getVariable()))
+								return false;
+							else if (variables.size() == 1)
+								return true;
+							else
+								return variables.size() == 2
+										&& indexOfDiscreteChild(otherVariable(variables)) >= 0;
+						}
+
+						public Boolean visit(MixedClique clique) {
+							return clique.discreteVariable() == root.getVariable()
+									&& indexOfContinuousChild(clique.jointVariable()) >= 0;
+						}
+					});
+
+			if (!expected)
+				return false;
+		}
+
+		return true;
+	}
+
+	private DiscreteVariable otherVariable(List<DiscreteVariable> variables) {
+		return variables.get(0) == root.getVariable() ? variables.get(1)
+				: variables.get(0);
+	}
+
+	private int indexOfDiscreteChild(DiscreteVariable variable) {
+		for (int i = 0; i < discreteChildren.length; i++) {
+			if (discreteChildren[i].getVariable() == variable)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private int indexOfContinuousChild(JointContinuousVariable variable) {
+		for (int i = 0; i < continuousChildren.length; i++) {
+			if (continuousChildren[i].getVariable() == variable)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the strides of the child and root variables in the cells of a
+	 * function of these two variables.
+	 */
+	private int[] strides(Function function) {
+		List<DiscreteVariable> variables = function.getVariables();
+		if (variables.get(0) == root.getVariable())
+			return new int[] { 1, variables.get(1).getCardinality() };
+		else
+			return new int[] { root.getVariable().getCardinality(), 1 };
+	}
+
+	/**
+	 * Holds the current parameters of the model in the form used in the
+	 * computation.
+	 */
+	private class Parameters {
+		private final double[] logPrior;
+
+		/**
+		 * Log probabilities of the discrete children, indexed by {@code state
+		 * * components + component}.
+		 */
+		private final double[][] logCpts;
+
+		/**
+		 * Columns in the data of the variables of the continuous children, in
+		 * the order used in their potentials.
+		 */
+		private final int[][] columns;
+		private final double[][][] means;
+
+		/**
+		 * Lower triangular Cholesky factors of the covariance matrices, in
+		 * row-major order.
+		 */
+		private final double[][][] factors;
+		private final double[][] logNormalizations;
+
+		/**
+		 * Whether all covariance matrices are positive definite.
+		 */
+		private boolean proper = true;
+
+		private Parameters() {
+			logPrior = root.potential().getCells().clone();
+			for (int i = 0; i < logPrior.length; i++)
+				logPrior[i] = Math.log(logPrior[i]);
+
+			logCpts = new double[discreteChildren.length][];
+			for (int i = 0; i < discreteChildren.length; i++) {
+				Function cpt = discreteChildren[i].potential();
+				int[] strides = strides(cpt);
+				int states = discreteChildren[i].getVariable().getCardinality();
+				double[] cells = cpt.getCells();
+				double[] table = new double[states * components];
+				for (int x = 0; x < states; x++) {
+					for (int z = 0; z < components; z++) {
+						table[x * components + z] =
+								Math.log(cells[x * strides[0] + z * strides[1]]);
+					}
+				}
+				logCpts[i] = table;
+			}
+
+			columns = new int[continuousChildren.length][];
+			means = new double[continuousChildren.length][components][];
+			factors = new double[continuousChildren.length][components][];
+			logNormalizations =
+					new double[continuousChildren.length][components];
+			for (int i = 0; i < continuousChildren.length; i++) {
+				CGPotential potential = continuousChildren[i].potential();
+				List<SingularContinuousVariable> variables =
+						potential.continuousVariables();
+				columns[i] = data.indicesOf(variables);
+
+				int dimension = variables.size();
+				for (int z = 0; z < components; z++) {
+					CGParameter parameter = potential.get(z);
+					means[i][z] = parameter.A.toArray();
+
+					double[] factor = new double[dimension * dimension];
+					for (int row = 0; row < dimension; row++) {
+						for (int column = 0; column <= row; column++) {
+							factor[row * dimension + column] =
+									parameter.C.getQuick(row, column);
+						}
+					}
+
+					double logDeterminant = decompose(factor, dimension);
+					if (Double.isNaN(logDeterminant)) {
+						proper = false;
+						return;
+					}
+
+					factors[i][z] = factor;
+					logNormalizations[i][z] =
+							-(dimension * LOG_2_PI + logDeterminant) / 2;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the lower triangle of the symmetric matrix with its Cholesky
+	 * factor.
+	 *
+	 * @return log determinant of the matrix, or {@code NaN} if the matrix is
+	 *         not positive definite
+	 */
+	private static double decompose(double[] matrix, int dimension) {
+		double logDeterminant = 0;
+		for (int j = 0; j < dimension; j++) {
+			double diagonal = matrix[j * dimension + j];
+			for (int k = 0; k < j; k++)
+				diagonal -= matrix[j * dimension + k] * matrix[j * dimension + k];
+
+			if (!(diagonal > 0))
+				return Double.NaN;
+
+			diagonal = Math.sqrt(diagonal);
+			matrix[j * dimension + j] = diagonal;
+			logDeterminant += 2 * Math.log(diagonal);
+
+			for (int i = j + 1; i < dimension; i++) {
+				double value = matrix[i * dimension + j];
+				for (int k = 0; k < j; k++)
+					value -= matrix[i * dimension + k] * matrix[j * dimension + k];
+				matrix[i * dimension + j] = value / diagonal;
+			}
+		}
+
+		return logDeterminant;
+	}
+
+	/**
+	 * Holds the statistics accumulated on a partition of the data.
+	 */
+	private class Accumulator {
+		private double loglikelihood = 0;
+		private int messages = 0;
+		private final double[] rootCounts = new double[components];
+
+		/**
+		 * Expected counts of the discrete children, indexed in the same way as
+		 * {@link Parameters#logCpts}.
+		 */
+		private final double[][] counts;
+
+		/**
+		 * Sums of weights, observations and products of observations of the
+		 * continuous children for each component. Only the upper triangles of
+		 * the products are accumulated.
+		 */
+		private final double[][] weights;
+		private final double[][] sums;
+		private final double[][] products;
+
+		private Accumulator() {
+			counts = new double[discreteChildren.length][];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] =
+						new double[discreteChildren[i].getVariable().getCardinality()
+								* components];
+			}
+
+			weights = new double[continuousChildren.length][components];
+			sums = new double[continuousChildren.length][];
+			products = new double[continuousChildren.length][];
+			for (int i = 0; i < continuousChildren.length; i++) {
+				int dimension = dimensionOf(i);
+				sums[i] = new double[components * dimension];
+				products[i] = new double[components * dimension * dimension];
+			}
+		}
+
+		private void plus(Accumulator other) {
+			loglikelihood += other.loglikelihood;
+			messages += other.messages;
+			add(rootCounts, other.rootCounts);
+			for (int i = 0; i < counts.length; i++)
+				add(counts[i], other.counts[i]);
+			for (int i = 0; i < weights.length; i++) {
+				add(weights[i], other.weights[i]);
+				add(sums[i], other.sums[i]);
+				add(products[i], other.products[i]);
+			}
+		}
+	}
+
+	private static void add(double[] to, double[] from) {
+		for (int i = 0; i < to.length; i++)
+			to[i] += from[i];
+	}
+
+	private int dimensionOf(int continuousChild) {
+		return continuousChildren[continuousChild].getVariable().variables()
+				.size();
+	}
+
+	@Override
+	protected void computeSufficientStatistics() {
+		final Parameters parameters = supported ? new Parameters() : null;
+		if (parameters == null || !parameters.proper) {
+			super.computeSufficientStatistics();
+			return;
+		}
+
+		messagesPassed = 0;
+
+		Accumulator accumulator;
+		if (executor == null) {
+			accumulator = new Accumulator();
+			for (int i = 0; i < threads; i++)
+				compute(parameters, i, accumulator);
+		} else {
+			accumulator = computeInParallel(parameters);
+		}
+
+		loglikelihood += accumulator.loglikelihood;
+		messagesPassed += accumulator.messages;
+		transfer(accumulator, parameters);
+	}
+
+	/**
+	 * Computes the partitions in parallel, and then sums up the statistics in
+	 * the order of the partitions so that the result does not depend on the
+	 * scheduling of the threads.
+	 */
+	private Accumulator computeInParallel(final Parameters parameters) {
+		List<Future<Accumulator>> futures =
+				new ArrayList<Future<Accumulator>>(threads);
+		final Profiler.Scope scope = Profiler.current();
+		for (int i = 0; i < threads; i++) {
+			final int partition = i;
+			futures.add(executor.submit(new Callable<Accumulator>() {
+				public Accumulator call() {
+					Profiler.Scope old = Profiler.use(scope);
+					try {
+						Accumulator accumulator = new Accumulator();
+						compute(parameters, partition, accumulator);
+						return accumulator;
+					} finally {
+						Profiler.use(old);
+					}
+				}
+			}));
+		}
+
+		// keeps waiting for every partition even if this thread is
+		// interrupted, so that none is missing from the result, and keeps the
+		// interruption for the caller
+		Accumulator result = null;
+		RuntimeException exception = null;
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				Accumulator accumulator = futures.get(i).get();
+				if (result == null)
+					result = accumulator;
+				else
+					result.plus(accumulator);
+			} catch (InterruptedException e) {
+				interrupted = true;
+				i--;
+			} catch (ExecutionException e) {
+				RuntimeException cause =
+						e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+								: new RuntimeException(e.getCause());
+
+				// prefer an exception other than the impossible evidence
+				if (exception == null
+						|| (exception instanceof ImpossibleEvidenceException && !(cause instanceof ImpossibleEvidenceException)))
+					exception = cause;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (exception != null)
+			throw exception;
+
+		return result;
+	}
+
+	private void compute(Parameters parameters, int partition,
+			Accumulator accumulator) {
+		long time = Profiler.start();
+		accumulate(parameters, completeCases[partition], accumulator);
+		Profiler.stop(Profiler.Phase.MIXTURE, time);
+
+		for (int i : incompleteCases[partition]) {
+			NaturalCliqueTreePropagation ctp = propagation.compute(i);
+			accumulator.messages += ctp.messagesPassed();
+
+			double weight = data.get(i).weight();
+			Iterator<SufficientStatistics> statisticsIterator =
+					sufficientStatistics.iterator();
+			for (AbstractNode node : ctp.cliqueTree().getNodes()) {
+				SufficientStatistics statistics = statisticsIterator.next();
+
+				// the statistics are shared by the partitions
+				synchronized (statistics) {
+					statistics.add(((CliqueTreeNode) node).potential(), weight);
+				}
+			}
+
+			accumulator.loglikelihood += ctp.loglikelihood() * weight;
+		}
+	}
+
+	/**
+	 * Computes the posterior distributions of the root on the complete data
+	 * cases block by block, and accumulates the statistics.
+	 */
+	private void accumulate(Parameters parameters, int[] cases,
+			Accumulator accumulator) {
+		double[] posteriors = new double[BLOCK_SIZE * components];
+		double[][] observations = new double[continuousChildren.length][];
+		for (int c = 0; c < continuousChildren.length; c++)
+			observations[c] = new double[BLOCK_SIZE * dimensionOf(c)];
+		int[] states = new int[BLOCK_SIZE * discreteChildren.length];
+		double[] weights = new double[BLOCK_SIZE];
+		double[] residual = new double[0];
+
+		for (int start = 0; start < cases.length; start += BLOCK_SIZE) {
+			int size = Math.min(BLOCK_SIZE, cases.length - start);
+
+			for (int t = 0; t < size; t++) {
+				Instance instance = data.get(cases[start + t]);
+				weights[t] = instance.weight();
+				System.arraycopy(parameters.logPrior, 0, posteriors, t
+						* components, components);
+
+				for (int j = 0; j < discreteChildren.length; j++) {
+					states[t * discreteChildren.length + j] =
+							(int) instance.value(discreteColumns[j]);
+				}
+
+				for (int c = 0; c < continuousChildren.length; c++) {
+					int[] columns = parameters.columns[c];
+					for (int i = 0; i < columns.length; i++) {
+						observations[c][t * columns.length + i] =
+								instance.value(columns[i]);
+					}
+				}
+			}
+
+			// adds the log probabilities of the discrete children
+			for (int j = 0; j < discreteChildren.length; j++) {
+				double[] table = parameters.logCpts[j];
+				for (int t = 0; t < size; t++) {
+					int offset = t * components;
+					int row = states[t * discreteChildren.length + j] * components;
+					for (int z = 0; z < components; z++)
+						posteriors[offset + z] += table[row + z];
+				}
+			}
+
+			// adds the log densities of the continuous children
+			for (int c = 0; c < continuousChildren.length; c++) {
+				int dimension = parameters.columns[c].length;
+				if (residual.length < dimension)
+					residual = new double[dimension];
+				double[] y = observations[c];
+
+				for (int z = 0; z < components; z++) {
+					double[] mean = parameters.means[c][z];
+					double[] factor = parameters.factors[c][z];
+					double normalization = parameters.logNormalizations[c][z];
+
+					for (int t = 0; t < size; t++) {
+						// solves L u = y - mean by forward substitution
+						double squares = 0;
+						for (int i = 0; i < dimension; i++) {
+							double value = y[t * dimension + i] - mean[i];
+							for (int k = 0; k < i; k++)
+								value -= factor[i * dimension + k] * residual[k];
+							value /= factor[i * dimension + i];
+							residual[i] = value;
+							squares += value * value;
+						}
+
+						posteriors[t * components + z] +=
+								normalization - squares / 2;
+					}
+				}
+			}
+
+			// normalizes the posterior distributions, which are then weighted
+			// by the data case weights
+			for (int t = 0; t < size; t++) {
+				int offset = t * components;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int z = 0; z < components; z++) {
+					if (posteriors[offset + z] > max)
+						max = posteriors[offset + z];
+				}
+
+				if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max)
+						|| max == Double.POSITIVE_INFINITY) {
+					throw new ImpossibleEvidenceException(model.clone(),
+							data.getEvidences(cases[start + t]));
+				}
+
+				double sum = 0;
+				for (int z = 0; z < components; z++) {
+					double value = Math.exp(posteriors[offset + z] - max);
+					posteriors[offset + z] = value;
+					sum += value;
+				}
+
+				accumulator.loglikelihood += (max + Math.log(sum)) * weights[t];
+
+				double scale = weights[t] / sum;
+				for (int z = 0; z < components; z++)
+					posteriors[offset + z] *= scale;
+			}
+
+			// accumulates the statistics
+			for (int t = 0; t < size; t++) {
+				int offset = t * components;
+				for (int z = 0; z < components; z++)
+					accumulator.rootCounts[z] += posteriors[offset + z];
+			}
+
+			for (int j = 0; j < discreteChildren.length; j++) {
+				double[] counts = accumulator.counts[j];
+				for (int t = 0; t < size; t++) {
+					int offset = t * components;
+					int row = states[t * discreteChildren.length + j] * components;
+					for (int z = 0; z < components; z++)
+						counts[row + z] += posteriors[offset + z];
+				}
+			}
+
+			for (int c = 0; c < continuousChildren.length; c++) {
+				int dimension = parameters.columns[c].length;
+				double[] y = observations[c];
+				double[] weightSums = accumulator.weights[c];
+				double[] sums = accumulator.sums[c];
+				double[] products = accumulator.products[c];
+
+				for (int t = 0; t < size; t++) {
+					int offset = t * components;
+					int base = t * dimension;
+					for (int z = 0; z < components; z++) {
+						double r = posteriors[offset + z];
+						if (r == 0)
+							continue;
+
+						weightSums[z] += r;
+						int sumOffset = z * dimension;
+						int productOffset = z * dimension * dimension;
+						for (int i = 0; i < dimension; i++) {
+							double ry = r * y[base + i];
+							sums[sumOffset + i] += ry;
+							int row = productOffset + i * dimension;
+							for (int k = i; k < dimension; k++)
+								products[row + k] += ry * y[base + k];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the accumulated statistics to the statistics of the corresponding
+	 * cliques.
+	 */
+	private void transfer(final Accumulator accumulator,
+			final Parameters parameters) {
+		Iterator<SufficientStatistics> iterator =
+				sufficientStatistics.iterator();
+
+		for (AbstractNode node : propagation.cliqueTreeStructure().getNodes()) {
+			final SufficientStatistics statistics = iterator.next();
+			if (statistics == SufficientStatistics.NIL)
+				continue;
+
+			((CliqueTreeNode) node).accept(new CliqueTreeNode.Visitor<Void>() {
+				public Void visit(Separator separator) {
+					return null;
+				}
+
+				public Void visit(DiscreteClique clique) {
+					List<DiscreteVariable> variables =
+							clique.discreteVariables();
+					Function counts = Function.createFunction(variables);
+					double[] cells = counts.getCells();
+
+					if (variables.size() == 1) {
+						System.arraycopy(accumulator.rootCounts, 0, cells, 0,
+								components);
+					} else {
+						int j = indexOfDiscreteChild(otherVariable(variables));
+						int[] strides = strides(counts);
+						int states =
+								discreteChildren[j].getVariable().getCardinality();
+						for (int x = 0; x < states; x++) {
+							for (int z = 0; z < components; z++) {
+								cells[x * strides[0] + z * strides[1]] =
+										accumulator.counts[j][x * components + z];
+							}
+						}
+					}
+
+					((DiscreteCliqueSufficientStatistics) statistics).add(
+							counts, 1);
+					return null;
+				}
+
+				public Void visit(MixedClique clique) {
+					int c = indexOfContinuousChild(clique.jointVariable());
+					int dimension = parameters.columns[c].length;
+
+					for (int z = 0; z < components; z++) {
+						NormalSufficientStatistics normal =
+								new NormalSufficientStatistics(dimension);
+						normal.p = accumulator.weights[c][z];
+						int productOffset = z * dimension * dimension;
+						for (int i = 0; i < dimension; i++) {
+							normal.A.setQuick(i, accumulator.sums[c][z
+									* dimension + i]);
+							for (int k = i; k < dimension; k++) {
+								double value =
+										accumulator.products[c][productOffset
+												+ i * dimension + k];
+								normal.C.setQuick(i, k, value);
+								normal.C.setQuick(k, i, value);
+							}
+						}
+
+						((MixedCliqueSufficientStatistics) statistics).plus(z,
+								normal);
+					}
+
+					return null;
+				}
+			});
+		}
+	}
+}
@@ -12,8 +12,7 @@ import org.latlab.model.Gltm;
 import org.latlab.reasoner.CliqueTreeNode;
 import org.latlab.reasoner.ImpossibleEvidenceException;
 import org.latlab.reasoner.NaturalCliqueTreePropagation;
-import org.latlab.reasoner.NaturalCliqueTreePropagation.ComputeTime;
-import org.latlab.util.BuildConfig;
+import org.latlab.util.Profiler;
 
 public class MultithreadingEstimation extends Estimation {
 
@@ -41,7 +40,8 @@ public class MultithreadingEstimation extends Estimation {
             }
         };
 
-        return new EstimationFactory(prototype);
+        return new EstimationFactory(prototype, MixtureEstimation
+            .createPrototype(threads, executor));
     }
 
     /**
@@ -82,16 +82,25 @@ public class MultithreadingEstimation extends Estimation {
 
         Result[] results = new Result[threads];
 
+        // waits for all partitions even if this thread is interrupted, so
+        // that the statistics are complete, and keeps the interruption for the
+        // EM to stop at its next check
+        boolean interrupted = false;
         for (int i = 0; i < threads; i++) {
             try {
                 results[i] = ecs.take().get();
             } catch (InterruptedException e) {
-                e.printStackTrace(Log.errorWriter());
+                interrupted = true;
+                i--;
             } catch (ExecutionException e) {
-                e.printStackTrace(Log.errorWriter());
+                results[i] = new Result();
+                results[i].exception = new RuntimeException(e.getCause());
             }
         }
 
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
         checkException(results);
     }
 
@@ -121,12 +130,18 @@ public class MultithreadingEstimation extends Estimation {
     }
 
     private Runnable createRunnable(final int subset, final Result result) {
+        // the time of the subsets is profiled in the scope of the calling
+        // thread
+        final Profiler.Scope scope = Profiler.current();
         return new Runnable() {
             public void run() {
+                Profiler.Scope old = Profiler.use(scope);
                 try {
                     computeSufficientStatistics(subset);
                 } catch (RuntimeException e) {
                     result.exception = e;
+                } finally {
+                    Profiler.use(old);
                 }
             }
         };
@@ -143,15 +158,9 @@ public class MultithreadingEstimation extends Estimation {
         int start = partitioner.startOf(subset);
         int end = partitioner.endOf(subset);
 
-        ComputeTime time = BuildConfig.PROFILE ? new ComputeTime() : null;
-
         for (int i = start; i < end; i++) {
             NaturalCliqueTreePropagation ctp = propagation.compute(i);
 
-            if (BuildConfig.PROFILE) {
-                time.add(ctp.computeTime);
-            }
-
             addMessageCount(ctp.messagesPassed());
 
             Iterator<SufficientStatistics> statisticsIterator =
@@ -175,8 +184,6 @@ public class MultithreadingEstimation extends Estimation {
                 loglikelihood += ctp.loglikelihood() * weight;
             }
         }
-
-        BuildConfig.profileLog(ComputeTime.format(time));
     }
 
     private synchronized void addMessageCount(int messages) {
@@ -61,6 +61,30 @@ public class NormalSufficientStatistics extends MixtureOfGaussianStructure {
     	C.assign(covariance, Functions.plusMult(weight));
     }
 
+    /**
+     * Adds the statistics held by another instance to this instance.
+     * 
+     * @param statistics
+     *            statistics with the same number of variables
+     */
+    public void plus(NormalSufficientStatistics statistics) {
+        p += statistics.p;
+        A.assign(statistics.A, Functions.plus);
+        C.assign(statistics.C, Functions.plus);
+    }
+
+    /**
+     * Multiplies the entries of this statistics by a factor.
+     * 
+     * @param factor
+     *            multiplier of the entries
+     */
+    public void scale(double factor) {
+        p *= factor;
+        A.assign(Functions.mult(factor));
+        C.assign(Functions.mult(factor));
+    }
+
     /**
      * Resets this statistics and set the entries to {@code 0}.
      */
@@ -12,6 +12,7 @@ import org.latlab.model.CGPotential;
 import org.latlab.model.ContinuousBeliefNode;
 import org.latlab.model.DiscreteBeliefNode;
 import org.latlab.util.Normal;
+import org.latlab.util.RandomStream;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
@@ -27,37 +28,48 @@ public class ParameterGenerator {
     private final Normal normal;
     private final DoubleMatrix2D covariance;
     
-    private BeliefNode.Visitor<Void> visitor = new BeliefNode.Visitor<Void>() {
-        public Void visit(ContinuousBeliefNode node) {
-            generate(node);
-            return null;
-        }
-
-        public Void visit(DiscreteBeliefNode node) {
-            generate(node);
-            return null;
-        }
-    };
-
-
     public ParameterGenerator(MixedDataSet data) {
         this.data = data;
         normal = new Normal(data.mean(), data.covariance());
         covariance = data.covariance();
     }
 
+    /**
+     * Generates the parameters using the current random stream of the calling
+     * thread.
+     * 
+     * @param model
+     *            model to generate parameters on
+     */
     public void generate(BayesNet model) {
+        generate(model, RandomStream.current());
+    }
+
+    public void generate(BayesNet model, RandomStream random) {
+        BeliefNode.Visitor<Void> visitor = createVisitor(random);
         for (AbstractNode node : model.getNodes()) {
             ((BeliefNode) node).accept(visitor);
         }
     }
-    
+
     public void generate(BeliefNode node) {
-        node.accept(visitor);
+        generate(node, RandomStream.current());
+    }
+
+    public void generate(BeliefNode node, RandomStream random) {
+        node.accept(createVisitor(random));
     }
 
     public void generate(DiscreteBeliefNode node) {
-        node.generateRandomParameters();
+        generate(node, RandomStream.current());
+    }
+
+    public void generate(DiscreteBeliefNode node, RandomStream random) {
+        node.generateRandomParameters(random);
+    }
+
+    public void generate(ContinuousBeliefNode node) {
+        generate(node, RandomStream.current());
     }
 
     /**
@@ -70,17 +82,33 @@ public class ParameterGenerator {
      * 
      * @param node
      *            node to generate parameters on
+     * @param random
+     *            random stream used for generating the parameters
      */
-    public void generate(ContinuousBeliefNode node) {
+    public void generate(ContinuousBeliefNode node, RandomStream random) {
         CGPotential potential = node.potential();
         int[] indices = data.indicesOf(potential.continuousVariables());
 
         for (int i = 0; i < potential.size(); i++) {
-            DoubleMatrix1D mean = normal.generate(indices);
+            DoubleMatrix1D mean = normal.generate(indices, random);
             CGParameter parameter = potential.get(i);
             parameter.p = 1;
             parameter.A.assign(mean);
             parameter.C.assign(covariance.viewSelection(indices, indices));
         }
     }
+
+    private BeliefNode.Visitor<Void> createVisitor(final RandomStream random) {
+        return new BeliefNode.Visitor<Void>() {
+            public Void visit(ContinuousBeliefNode node) {
+                generate(node, random);
+                return null;
+            }
+
+            public Void visit(DiscreteBeliefNode node) {
+                generate(node, random);
+                return null;
+            }
+        };
+    }
 }
@@ -0,0 +1,281 @@
+package org.latlab.learner.geast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.latlab.graph.AbstractNode;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.DiscreteBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.Function;
+import org.latlab.util.Potential;
+import org.latlab.util.Variable;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Lays out the parameters of a model as a flat vector of values. The vector
+ * holds the cells of the CPT of each discrete node, followed by the mean
+ * vector and covariance matrix of each CG parameter of each continuous node,
+ * in the order of the nodes in the model.
+ *
+ * <p>
+ * The layout refers to the nodes by their variables, so that it can be used
+ * on any model with the same structure. It allows the parameters of different
+ * restarts of an EM to be held as vectors and swapped into a single model.
+ *
+ * @author leonard
+ *
+ */
+public class ParameterVector {
+
+	/**
+	 * The smallest probability assigned to a CPT cell when a vector is set to
+	 * a model, so that an extrapolated vector does not lead to impossible
+	 * evidence.
+	 */
+	public static final double PROBABILITY_FLOOR = 1e-10;
+
+	private final List<Variable> variables;
+	private final int size;
+
+	/**
+	 * Constructs a layout for the parameters of the nodes in the focus.
+	 *
+	 * @param model
+	 *            model of which parameters are laid out
+	 * @param focus
+	 *            the variables of which parameters are included, where
+	 *            {@code null} means all variables of the model
+	 */
+	public ParameterVector(Gltm model, Focus focus) {
+		variables = new ArrayList<Variable>();
+
+		int size = 0;
+		for (AbstractNode node : model.getNodes()) {
+			BeliefNode beliefNode = (BeliefNode) node;
+			if (focus != null && !focus.contains(beliefNode.getVariable()))
+				continue;
+
+			variables.add(beliefNode.getVariable());
+			size += beliefNode.accept(new BeliefNode.Visitor<Integer>() {
+				public Integer visit(DiscreteBeliefNode node) {
+					return node.potential().getDomainSize();
+				}
+
+				public Integer visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential();
+					int entries = 0;
+					for (int i = 0; i < potential.size(); i++) {
+						CGParameter parameter = potential.get(i);
+						entries += parameter.A.size() + parameter.C.size();
+					}
+					return entries;
+				}
+			});
+		}
+
+		this.size = size;
+	}
+
+	/**
+	 * Returns the length of the vectors in this layout.
+	 *
+	 * @return length of the vectors
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the parameters of the model into a new vector.
+	 *
+	 * @param model
+	 *            model with the same structure as that used in constructing
+	 *            this layout
+	 * @return vector of the parameters
+	 */
+	public double[] get(Gltm model) {
+		final double[] values = new double[size];
+		int index = 0;
+
+		for (Variable variable : variables) {
+			BeliefNode node = model.getNode(variable);
+			final int start = index;
+			index += node.accept(new BeliefNode.Visitor<Integer>() {
+				public Integer visit(DiscreteBeliefNode node) {
+					double[] cells = node.potential().getCells();
+					System.arraycopy(cells, 0, values, start, cells.length);
+					return cells.length;
+				}
+
+				public Integer visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential();
+					int position = start;
+					for (int i = 0; i < potential.size(); i++) {
+						CGParameter parameter = potential.get(i);
+						for (int j = 0; j < parameter.A.size(); j++) {
+							values[position++] = parameter.A.getQuick(j);
+						}
+
+						for (int row = 0; row < parameter.C.rows(); row++) {
+							for (int column = 0; column < parameter.C.columns(); column++) {
+								values[position++] =
+										parameter.C.getQuick(row, column);
+							}
+						}
+					}
+					return position - start;
+				}
+			});
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the potentials of the nodes in this layout. Since the EM and
+	 * {@link #set(Gltm, double[], CovarianceConstrainer)} replace the
+	 * potentials of the nodes rather than modifying them, the returned
+	 * potentials can be used to restore the parameters exactly.
+	 *
+	 * @param model
+	 *            model with the same structure as that used in constructing
+	 *            this layout
+	 * @return potentials of the nodes
+	 */
+	public List<Potential> getPotentials(Gltm model) {
+		List<Potential> potentials = new ArrayList<Potential>(variables.size());
+		for (Variable variable : variables) {
+			potentials.add(model.getNode(variable).potential());
+		}
+
+		return potentials;
+	}
+
+	/**
+	 * Restores the potentials returned by {@link #getPotentials(Gltm)}.
+	 *
+	 * @param model
+	 *            model with the same structure as that used in constructing
+	 *            this layout
+	 * @param potentials
+	 *            potentials of the nodes
+	 */
+	public void setPotentials(Gltm model, List<Potential> potentials) {
+		for (int i = 0; i < variables.size(); i++) {
+			model.getNode(variables.get(i)).setPotential(potentials.get(i));
+		}
+	}
+
+	/**
+	 * Sets the parameters of the model to the values of the vector. The values
+	 * need not be proper parameters. The CPT cells are bounded below by
+	 * {@link #PROBABILITY_FLOOR} and then normalized, while the covariance
+	 * matrices are symmetrized and then adjusted by the constrainer. It may
+	 * throw a {@link CovarianceConstrainer.ImproperValueException} if a
+	 * covariance matrix cannot be adjusted.
+	 *
+	 * @param model
+	 *            model with the same structure as that used in constructing
+	 *            this layout
+	 * @param values
+	 *            vector of parameters
+	 * @param constrainer
+	 *            constrainer used to bound the eigenvalues of the covariance
+	 *            matrices
+	 */
+	public void set(Gltm model, double[] values,
+			CovarianceConstrainer constrainer) {
+		set(model, values, constrainer, true);
+	}
+
+	/**
+	 * Sets the parameters of the model to the values of the vector exactly.
+	 * The vector should hold proper parameters, such as one returned by
+	 * {@link #get(Gltm)}.
+	 *
+	 * @param model
+	 *            model with the same structure as that used in constructing
+	 *            this layout
+	 * @param values
+	 *            vector of parameters
+	 */
+	public void assign(Gltm model, double[] values) {
+		set(model, values, null, false);
+	}
+
+	private void set(Gltm model, final double[] values,
+			final CovarianceConstrainer constrainer, final boolean project) {
+		assert values.length == size;
+
+		int index = 0;
+
+		for (Variable variable : variables) {
+			BeliefNode node = model.getNode(variable);
+			final int start = index;
+			index += node.accept(new BeliefNode.Visitor<Integer>() {
+				public Integer visit(DiscreteBeliefNode node) {
+					Function cpt = node.potential().clone();
+					double[] cells = cpt.getCells();
+					if (project) {
+						for (int i = 0; i < cells.length; i++) {
+							cells[i] =
+									Math.max(values[start + i],
+											PROBABILITY_FLOOR);
+						}
+
+						cpt.normalize(node.getVariable());
+					} else {
+						System.arraycopy(values, start, cells, 0, cells.length);
+					}
+
+					node.setCpt(cpt);
+					return cells.length;
+				}
+
+				public Integer visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential().clone();
+					int position = start;
+					for (int i = 0; i < potential.size(); i++) {
+						CGParameter parameter = potential.get(i);
+						for (int j = 0; j < parameter.A.size(); j++) {
+							parameter.A.setQuick(j, values[position++]);
+						}
+
+						for (int row = 0; row < parameter.C.rows(); row++) {
+							for (int column = 0; column < parameter.C.columns(); column++) {
+								parameter.C.setQuick(row, column,
+										values[position++]);
+							}
+						}
+
+						if (project)
+							symmetrize(parameter.C);
+					}
+
+					if (project)
+						constrainer.adjust(potential);
+
+					node.setPotential(potential);
+					return position - start;
+				}
+			});
+		}
+	}
+
+	private static void symmetrize(DoubleMatrix2D matrix) {
+		for (int row = 0; row < matrix.rows(); row++) {
+			for (int column = 0; column < row; column++) {
+				double value =
+						(matrix.getQuick(row, column) + matrix.getQuick(column,
+								row)) / 2;
+				matrix.setQuick(row, column, value);
+				matrix.setQuick(column, row, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package org.latlab.learner.geast;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.util.Potential;
+import org.latlab.util.Variable;
+
+/**
+ * Transforms the posterior distributions computed on a base model into those
+ * on a modified model, so that the modified model can be initialized by a
+ * soft-assignment M-step without propagation on itself.
+ *
+ * <p>
+ * Each clique of the modified model is identified by the variable of its
+ * child node. Its posterior distribution is transformed from that of the
+ * clique of the corresponding variable in the base model.
+ *
+ * @author leonard
+ *
+ * @see Estimation#collectSufficientStatistics(Estimation, PosteriorTransform)
+ */
+public interface PosteriorTransform {
+
+	/**
+	 * Returns the variable in the base model corresponding to the given
+	 * variable in the modified model.
+	 *
+	 * @param variable
+	 *            variable in the modified model
+	 * @return corresponding variable in the base model
+	 */
+	public Variable source(Variable variable);
+
+	/**
+	 * Indicates that the posterior distributions of the following calls of
+	 * {@link #transform(Potential)} are computed on the data case of the given
+	 * index, until this method is called again.
+	 *
+	 * @param data
+	 *            data on which the posterior distributions are computed
+	 * @param index
+	 *            index of the data case
+	 */
+	public void startCase(MixedDataSet data, int index);
+
+	/**
+	 * Transforms a posterior distribution of a clique in the base model into
+	 * that of the corresponding clique in the modified model. The returned
+	 * potential is used before the next propagation, so it can be the given
+	 * potential itself if the clique is not affected by the modification.
+	 *
+	 * @param posterior
+	 *            posterior distribution of a clique in the base model
+	 * @return posterior distribution of the corresponding clique in the
+	 *         modified model
+	 */
+	public Potential transform(Potential posterior);
+}
@@ -1,5 +1,7 @@
 package org.latlab.learner.geast;
 
+import java.util.Arrays;
+
 import org.latlab.data.MixedDataSet;
 import org.latlab.model.Gltm;
 import org.latlab.reasoner.NaturalCliqueTree;
@@ -35,6 +37,13 @@ public class SeparateTreePropagation extends DataPropagation {
 		private final NaturalCliqueTreePropagation[] propagations;
 		private final EqualPartitioner partitioner;
 
+		/**
+		 * Fingerprint and statistics given by the estimation pool. The
+		 * statistics are given to the first estimation using this shared data.
+		 */
+		EstimationPool.Fingerprint fingerprint = null;
+		EstimationPool.Entry pooled = null;
+
 		/**
 		 * 
 		 * @param data
@@ -53,6 +62,16 @@ public class SeparateTreePropagation extends DataPropagation {
 
 			partitioner = new EqualPartitioner(data.size(), number);
 		}
+
+		/**
+		 * Discards the mementos of the data cases, so that the estimation
+		 * pool holds only the clique trees instead of memory proportional to
+		 * the number of data cases. The mementos are computed again when the
+		 * shared data is reused.
+		 */
+		void discardMementos() {
+			Arrays.fill(mementos, null);
+		}
 	}
 
 	public static SharedData createSharedData(MixedDataSet data, Gltm model,
@@ -64,7 +83,9 @@ public class SeparateTreePropagation extends DataPropagation {
 			SharedData shared) {
 		super(model, data);
 
-		if (data.size() == 0) {
+		// the data may hold only the variables when its cases are held by the
+		// shard workers, and then its total weight is given by their moments
+		if (data.totalWeight() == 0) {
 			throw new IllegalArgumentException(
 					"The data contains no data case.");
 		}
@@ -105,7 +126,7 @@ public class SeparateTreePropagation extends DataPropagation {
 
 			propagation.releaseSeparatorMessagesOutsideFocus();
 			sharedData.mementos[index] = propagation
-					.createLocalPropagationMemento();
+					.createLocalPropagationMemento(data.isSinglePrecision());
 		} else {
 			// this is not the first time, recover from the previous local
 			// propagation
@@ -116,4 +137,9 @@ public class SeparateTreePropagation extends DataPropagation {
 		return propagation;
 	}
 
+	@Override
+	Object reusableState() {
+		sharedData.discardMementos();
+		return sharedData;
+	}
 }
@@ -1,12 +1,27 @@
 package org.latlab.learner.geast;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.latlab.data.MixedDataSet;
+import org.latlab.learner.geast.operators.FidelityLevel;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.learner.geast.workers.ShardClient;
+import org.latlab.learner.geast.workers.WorkerPool;
+import org.latlab.util.RandomStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -20,6 +35,15 @@ public class Settings {
 		public int threads;
 		public int screening;
 		public double threshold;
+		public int transpositionTable;
+		public int racing;
+		public boolean posteriorInitialization;
+		public boolean concurrentOperators;
+		public boolean speculation;
+		public int beam;
+		public int workers;
+		public int workerTimeout;
+		public String shards;
 	}
 
 	/**
@@ -62,6 +86,70 @@ public class Settings {
 
 		this.data = data;
 		this.logDirectorySuffix = logDirectoryPrefix;
+
+		if (usesSinglePrecision())
+			data.useSinglePrecision();
+
+		setSeed();
+	}
+
+	/**
+	 * Returns whether the given setting file specifies the shard workers by
+	 * {@code shards} in the settings element, in which case the data cases
+	 * are held by the workers and need not be loaded in this process.
+	 * 
+	 * @param filename
+	 *            name of the setting file
+	 * @return whether shard workers are used
+	 * @throws Exception
+	 */
+	public static boolean usesShards(String filename) throws Exception {
+		Document document =
+				DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+						new File(filename));
+		Element element =
+				(Element) document.getElementsByTagName("settings").item(0);
+		return element != null && element.getAttribute("shards").length() > 0;
+	}
+
+	/**
+	 * Seeds the random streams with the seed specified by {@code seed} in the
+	 * settings element, or reseeds them with the current seed otherwise. In
+	 * both cases the random stream of the calling thread is derived from the
+	 * logged seed, so that a run can be reproduced.
+	 */
+	private void setSeed() {
+		long seed = RandomStream.seed();
+
+		Element element =
+				document == null ? null : (Element) document
+						.getElementsByTagName("settings").item(0);
+		if (element != null && element.getAttribute("seed").length() > 0) {
+			try {
+				seed = Long.parseLong(element.getAttribute("seed"));
+			} catch (NumberFormatException e) {
+				System.err.println("Attribute seed cannot be read.");
+			}
+		}
+
+		RandomStream.setSeed(seed);
+	}
+
+	/**
+	 * Returns whether the settings specify that the data and cached messages
+	 * are stored in single precision, by {@code precision='single'} in the
+	 * settings element.
+	 * 
+	 * @return whether single precision is used
+	 */
+	private boolean usesSinglePrecision() {
+		if (document == null)
+			return false;
+
+		Element element =
+				(Element) document.getElementsByTagName("settings").item(0);
+		return element != null
+				&& "single".equals(element.getAttribute("precision"));
 	}
 
 	public EmFramework createScreenEm(CovarianceConstrainer constrainer) {
@@ -80,6 +168,21 @@ public class Settings {
 		Element element = getLogElement();
 		Log log = new Log(element.getAttribute("path"), logDirectorySuffix);
 		Log.setTmpDir(element.getAttribute("tmp"));
+
+		// level of detail of the model files of the candidates, as full,
+		// compact or summary
+		String detail = element.getAttribute("detail");
+		if (detail.length() > 0) {
+			try {
+				log.useDetail(Log.Detail.valueOf(detail.toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Attribute detail cannot be read.");
+			}
+		}
+
+		log.useCompression(getAttributeValue(element, "compress", false, true));
+		log.useQueue(getAttributeValue(element, "queue", Log.DEFAULT_QUEUE,
+				true));
 		return log;
 	}
 
@@ -97,11 +200,53 @@ public class Settings {
 			return new Geast(1, data, createLogInOutput());
 
 		GeastSettings settings = getGeastSetting();
+
+		// the total weight, mean and covariance of the data are taken from
+		// the shard workers before they are used by the EM and constrainer,
+		// since this process may hold only the variables of the data
+		ShardClient shards = null;
+		if (settings.shards.length() > 0) {
+			shards =
+					new ShardClient(ShardClient.parseAddresses(settings.shards));
+			if (data.size() > 0 && shards.moments().size() != data.size()) {
+				shards.close();
+				throw new IOException(String.format(
+						"The shards hold %d data cases instead of %d.",
+						shards.moments().size(), data.size()));
+			}
+
+			data.useMoments(shards.moments());
+		}
+
+		boolean posteriorInitialization = settings.posteriorInitialization;
+		if (posteriorInitialization && shards != null && data.size() == 0) {
+			System.err.println("Posterior initialization is ignored since "
+					+ "the data cases are held by the shard workers.");
+			posteriorInitialization = false;
+		}
+
 		CovarianceConstrainer constrainer = createCovarianceConstrainer();
-		return new Geast(settings.threads, settings.screening,
-				settings.threshold, data, createLog(),
-				createScreenEm(constrainer), createSelectEm(constrainer),
-				createEstimateEm(constrainer));
+		Geast geast =
+				new Geast(settings.threads, settings.screening,
+						settings.threshold, data, createLog(),
+						createScreenEm(constrainer),
+						createSelectEm(constrainer),
+						createEstimateEm(constrainer));
+		geast.context().useTranspositionTable(
+				new TranspositionTable(settings.transpositionTable));
+		geast.context().useRacing(settings.racing);
+		geast.context().usePosteriorInitialization(posteriorInitialization);
+		geast.context().useConcurrentOperators(settings.concurrentOperators);
+		geast.context().useSpeculation(settings.speculation);
+		geast.context().useBeamWidth(settings.beam);
+		if (settings.workers > 0)
+			geast.context().useWorkers(
+					new WorkerPool(settings.workers, toBytes(document),
+							data.filename(), settings.workerTimeout));
+		if (shards != null)
+			geast.context().useShards(shards);
+		geast.context().useFidelityLevels(createFidelityLevels(constrainer));
+		return geast;
 	}
 
 	public FmmLearner createFmmLearner(int initial, boolean increase)
@@ -159,9 +304,68 @@ public class Settings {
 				getAttributeValue(element, "threshold",
 						Geast.DEFAULT_THRESHOLD, false);
 
+		// bound on the memory of the transposition table in megabytes, where
+		// zero disables the table
+		settings.transpositionTable =
+				getAttributeValue(element, "transpositionTable",
+						TranspositionTable.DEFAULT_MEGABYTES, true);
+
+		// number of EM steps in each increment of racing in the screening,
+		// where zero disables racing
+		settings.racing = getAttributeValue(element, "racing", 0, true);
+
+		// whether the candidates of the state operators are initialized from
+		// the posterior distributions of the base model
+		settings.posteriorInitialization =
+				getAttributeValue(element, "posteriorInitialization", false,
+						true);
+
+		// whether the search operators of an iteration search concurrently
+		// when more than one thread is used
+		settings.concurrentOperators =
+				getAttributeValue(element, "concurrentOperators", false, true);
+
+		// whether the next step of an iterative procedure is run
+		// speculatively while the best candidate of a step is refined
+		settings.speculation =
+				getAttributeValue(element, "speculation", false, true);
+
+		// number of the best candidates kept in each iteration of a
+		// procedure, where one keeps only the best candidate
+		settings.beam = Math.max(1, getAttributeValue(element, "beam", 1, true));
+
+		// number of worker processes estimating the candidates, where zero
+		// estimates them in this process
+		settings.workers = getAttributeValue(element, "workers", 0, true);
+
+		// seconds to wait for the response of a worker process before it is
+		// replaced, where zero waits without a limit
+		settings.workerTimeout =
+				getAttributeValue(element, "workerTimeout",
+						WorkerPool.DEFAULT_RESPONSE_TIMEOUT, true);
+
+		// addresses of the shard workers running the E-step, as host:port
+		// separated by commas, where none runs the E-step in this process
+		settings.shards = element == null ? "" : element.getAttribute("shards");
+
 		return settings;
 	}
 
+	/**
+	 * Returns the content of the settings document, which is given to the
+	 * worker processes.
+	 */
+	private static byte[] toBytes(Document document) throws IOException {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			TransformerFactory.newInstance().newTransformer().transform(
+					new DOMSource(document), new StreamResult(output));
+			return output.toByteArray();
+		} catch (TransformerException e) {
+			throw new IOException(e);
+		}
+	}
+
 	private double getAttributeValue(Element element, String attribute,
 			double defaultValue, boolean expectedMissing) {
 		try {
@@ -227,6 +431,15 @@ public class Settings {
 		}
 	}
 
+	private int getAttributeValue(Element element, String attribute,
+			int defaultValue, boolean expectedMissing) {
+		if (expectedMissing && element != null
+				&& element.getAttribute(attribute).length() == 0)
+			return defaultValue;
+
+		return getAttributeValue(element, attribute, defaultValue);
+	}
+
 	private Element getLogElement() {
 		if (document == null)
 			return null;
@@ -254,8 +467,69 @@ public class Settings {
 		return null;
 	}
 
+	/**
+	 * Creates the fidelity levels of the successive-halving screening, given
+	 * by the {@code fidelity} elements. Each element specifies the
+	 * {@code fraction} of data in its subsample, and the fraction of
+	 * candidates it promotes by {@code keep}, which is one half by default.
+	 * The subsample of each level is stratified by the class variable if
+	 * there is one, and the EM of each level is created from the screening EM
+	 * element.
+	 * 
+	 * @param constrainer
+	 *            covariance constrainer used by the EM
+	 * @return fidelity levels in the order of increasing fractions
+	 */
+	private List<FidelityLevel> createFidelityLevels(
+			CovarianceConstrainer constrainer) {
+		List<FidelityLevel> levels = new ArrayList<FidelityLevel>();
+		NodeList nodes = document.getElementsByTagName("fidelity");
+		if (nodes.getLength() == 0)
+			return levels;
+
+		if (data.size() == 0) {
+			System.err.println("Fidelity levels are ignored since the data "
+					+ "cases are held by the shard workers.");
+			return levels;
+		}
+
+		TreeMap<Double, Double> fractions = new TreeMap<Double, Double>();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element element = (Element) nodes.item(i);
+			double fraction =
+					getAttributeValue(element, "fraction", 1.0, false);
+			double keep = getAttributeValue(element, "keep", 0.5, true);
+
+			if (fraction <= 0 || fraction >= 1 || keep <= 0 || keep > 1) {
+				System.err.println("Fidelity level with fraction " + fraction
+						+ " and keep " + keep + " is ignored.");
+				continue;
+			}
+
+			fractions.put(fraction, keep);
+		}
+
+		// the subsamples are drawn from a stream separate from that of the
+		// search, so that they do not change the random numbers it draws
+		RandomStream random = new RandomStream(RandomStream.seed());
+		for (Map.Entry<Double, Double> entry : fractions.entrySet()) {
+			MixedDataSet subsample =
+					data.subsample(entry.getKey(), random.split());
+			levels.add(new FidelityLevel(entry.getKey(), entry.getValue(),
+					createEm(getEmElement("screening"), constrainer,
+							subsample), subsample, data));
+		}
+
+		return levels;
+	}
+
 	private EmFramework createEm(Element element,
 			CovarianceConstrainer constrainer) {
+		return createEm(element, constrainer, data);
+	}
+
+	private EmFramework createEm(Element element,
+			CovarianceConstrainer constrainer, MixedDataSet data) {
 		if (element == null)
 			return null;
 
@@ -270,14 +544,95 @@ public class Settings {
 			em =
 					new FullEm(data, getReuse(element), getRestart(element),
 							getMaxSteps(element), getThreshold(element));
+		} else if ("IncrementalEm".equals(name)) {
+			em =
+					new IncrementalEm(data, getReuse(element),
+							getRestart(element), getMaxSteps(element),
+							getThreshold(element),
+							getIncrementalSettings(element));
+		} else if ("StochasticEm".equals(name)) {
+			em =
+					new StochasticEm(data, getReuse(element),
+							getRestart(element), getMaxSteps(element),
+							getThreshold(element),
+							getStochasticSettings(element));
 		} else
 			return null;
 
 		em.useCovarianceConstrainer(constrainer);
+		setAcceleration(em, element);
 
 		return em;
 	}
 
+	/**
+	 * Sets the acceleration of the second stage if it is specified. The
+	 * acceleration applies only to the EM with exact steps, but not to the
+	 * incremental or stochastic EM.
+	 */
+	private void setAcceleration(EmFramework em, Element element) {
+		String value = element.getAttribute("acceleration");
+		if (value.length() == 0)
+			return;
+
+		EmParameters.Acceleration acceleration;
+		try {
+			acceleration =
+					EmParameters.Acceleration.valueOf(value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Attribute acceleration cannot be read.");
+			return;
+		}
+
+		if (acceleration != EmParameters.Acceleration.NONE
+				&& !(em instanceof LocalEm || em instanceof FullEm)) {
+			System.err.println("Acceleration is not supported by "
+					+ em.name() + ".");
+			return;
+		}
+
+		em.parameters().acceleration = acceleration;
+	}
+
+	private IncrementalEstimation.Settings getIncrementalSettings(
+			Element element) {
+		IncrementalEstimation.Settings settings =
+				new IncrementalEstimation.Settings();
+		settings.blocks =
+				getAttributeValue(element, "blocks", settings.blocks, true);
+		settings.blocksPerStep =
+				getAttributeValue(element, "blocksPerStep",
+						settings.blocksPerStep, true);
+		settings.freezeTolerance =
+				getAttributeValue(element, "freezeTolerance",
+						settings.freezeTolerance, true);
+		settings.freezeVisits =
+				getAttributeValue(element, "freezeVisits",
+						settings.freezeVisits, true);
+		settings.refreshVisits =
+				getAttributeValue(element, "refreshVisits",
+						settings.refreshVisits, true);
+		return settings;
+	}
+
+	private StochasticEstimation.Settings getStochasticSettings(
+			Element element) {
+		StochasticEstimation.Settings settings =
+				new StochasticEstimation.Settings();
+		settings.batchSize =
+				getAttributeValue(element, "batchSize", settings.batchSize,
+						true);
+		settings.stepExponent =
+				getAttributeValue(element, "stepExponent",
+						settings.stepExponent, true);
+		settings.passes =
+				getAttributeValue(element, "passes", settings.passes, true);
+		settings.fullSteps =
+				getAttributeValue(element, "fullSteps", settings.fullSteps,
+						true);
+		return settings;
+	}
+
 	private boolean getReuse(Element element) {
 		return Boolean.parseBoolean(element.getAttribute("reuse"));
 	}
@@ -0,0 +1,310 @@
+package org.latlab.learner.geast;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.AbstractNode;
+import org.latlab.learner.geast.EstimationFactory.Prototype;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.learner.geast.workers.ShardClient;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.DiscreteBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.Clique;
+import org.latlab.reasoner.NaturalCliqueTree;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.SingularContinuousVariable;
+
+/**
+ * Estimation of which the E-step is run by shard workers, each holding a
+ * shard of the data in another process. In each E-step, the model is sent to
+ * every worker, which computes the sufficient statistics on its shard, and the
+ * statistics returned by the workers are summed up for the M-step.
+ *
+ * <p>
+ * The statistics are exchanged for each clique under focus, which is
+ * identified by the node whose variable is the key of the clique, in the
+ * canonical order of the nodes given by {@link TranspositionTable#nodes}. The
+ * entries of a clique are ordered by the states and the names of the
+ * variables, so that they do not depend on the order in which the variables
+ * are created in either process. The workers do not apply any smoothing, so
+ * that the smoothing is applied only once to the summed statistics.
+ *
+ * <p>
+ * The data of this estimation may hold only the variables, with the total
+ * weight, mean and covariance taken from the {@link ShardClient#moments()
+ * moments} sent by the workers, which are used for computing the BIC score
+ * and for initializing the parameters.
+ *
+ * @author leonard
+ *
+ */
+public class ShardedEstimation extends Estimation {
+
+	/**
+	 * Creates a factory that can be used to construct {@code
+	 * ShardedEstimation}.
+	 *
+	 * @param client
+	 *            connections to the shard workers
+	 * @return factory for constructing estimation instances
+	 */
+	public static EstimationFactory createFactory(final ShardClient client) {
+		Prototype prototype = new Prototype() {
+			public Estimation create(Gltm model, Gltm clone, MixedDataSet data,
+					DataPropagation propagation, double smoothing) {
+				return new ShardedEstimation(model, clone, data, propagation,
+						client, smoothing);
+			}
+
+			public int partitions() {
+				return 1;
+			}
+		};
+
+		// the models with a single latent variable are also estimated by the
+		// workers
+		return new EstimationFactory(prototype);
+	}
+
+	private final ShardClient client;
+
+	private ShardedEstimation(Gltm origin, Gltm model, MixedDataSet data,
+			DataPropagation propagation, ShardClient client, double smoothing) {
+		super(origin, model, data, propagation, smoothing);
+		this.client = client;
+	}
+
+	@Override
+	protected void computeSufficientStatistics() {
+		messagesPassed = 0;
+
+		final NaturalCliqueTree tree = propagation.cliqueTreeStructure();
+		Map<AbstractNode, SufficientStatistics> cliqueMap =
+				new HashMap<AbstractNode, SufficientStatistics>(
+						sufficientStatistics.size());
+		Iterator<AbstractNode> nodeIterator = tree.getNodes().iterator();
+		for (SufficientStatistics statistics : sufficientStatistics) {
+			cliqueMap.put(nodeIterator.next(), statistics);
+		}
+
+		// the nodes of the cliques under focus, and their statistics
+		final List<BeliefNode> nodes = keyNodes(model);
+		final List<BeliefNode> focused = new ArrayList<BeliefNode>();
+		final List<SufficientStatistics> statistics =
+				new ArrayList<SufficientStatistics>();
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < nodes.size(); i++) {
+			Clique clique = tree.getClique(nodes.get(i).getVariable());
+			if (clique.focus()) {
+				focused.add(nodes.get(i));
+				statistics.add(cliqueMap.get(clique));
+				indices.add(i);
+			}
+		}
+
+		// all cliques under focus are computed by a simple estimation
+		int[] focus = null;
+		if (indices.size() < nodes.size()) {
+			focus = new int[indices.size()];
+			for (int i = 0; i < focus.length; i++)
+				focus[i] = indices.get(i);
+		}
+
+		try {
+			client.compute(model, focus, new ShardClient.Reduction() {
+				public void add(DataInputStream input) throws IOException {
+					loglikelihood += input.readDouble();
+					messagesPassed += input.readInt();
+
+					for (int i = 0; i < focused.size(); i++)
+						readStatistics(input, focused.get(i), statistics.get(i));
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the nodes of a model whose variables are the keys of the
+	 * cliques, in the canonical order. They are all the nodes except the root,
+	 * whose variable is only associated with the clique of one of its
+	 * children, unless the root is the only node.
+	 *
+	 * @param model
+	 *            model of the estimation
+	 * @return nodes identifying the cliques
+	 */
+	public static List<BeliefNode> keyNodes(Gltm model) {
+		List<BeliefNode> nodes = TranspositionTable.nodes(model);
+		return nodes.size() > 1 ? nodes.subList(1, nodes.size()) : nodes;
+	}
+
+	/**
+	 * Writes the statistics of the cliques identified by the given nodes,
+	 * which are read by a {@code ShardedEstimation} in another process.
+	 *
+	 * @param output
+	 *            output to the other process
+	 * @param nodes
+	 *            nodes identifying the cliques, in the canonical order
+	 * @param map
+	 *            statistics collected by an estimation on the model of the
+	 *            nodes
+	 * @throws IOException
+	 */
+	public static void writeStatistics(final DataOutputStream output,
+			List<BeliefNode> nodes, final VariableStatisticsMap map)
+			throws IOException {
+		for (BeliefNode node : nodes) {
+			SufficientStatistics statistics = map.get(node.getVariable());
+			exchange(node, statistics, new Entries() {
+				public double exchange(double value) throws IOException {
+					output.writeDouble(value);
+					return value;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads the statistics of a clique written by
+	 * {@link #writeStatistics(DataOutputStream, List, VariableStatisticsMap)},
+	 * and adds them to the given statistics.
+	 */
+	private static void readStatistics(final DataInputStream input,
+			BeliefNode node, SufficientStatistics statistics)
+			throws IOException {
+		exchange(node, statistics, new Entries() {
+			public double exchange(double value) throws IOException {
+				return value + input.readDouble();
+			}
+		});
+	}
+
+	/**
+	 * Exchanges an entry of the statistics with another process.
+	 */
+	private interface Entries {
+		/**
+		 * Either writes the entry and returns it, or returns the sum of the
+		 * entry and the one read.
+		 */
+		double exchange(double value) throws IOException;
+	}
+
+	/**
+	 * Goes through the entries of the statistics of the clique identified by
+	 * the given node in the exchanged order, and replaces each entry by the
+	 * one returned by {@code entries}.
+	 */
+	private static void exchange(final BeliefNode node,
+			final SufficientStatistics statistics, final Entries entries)
+			throws IOException {
+		IOException exception = node.accept(new BeliefNode.Visitor<IOException>() {
+			public IOException visit(DiscreteBeliefNode node) {
+				Function function =
+						((DiscreteCliqueSufficientStatistics) statistics).statistics();
+
+				// the cells are ordered by the state of the other variable
+				// and then the state of the node variable
+				List<DiscreteVariable> variables = function.getVariables();
+				int nodeStride = 1;
+				int otherStride = 1;
+				int otherStates = 1;
+				if (variables.size() > 1) {
+					DiscreteVariable other =
+							variables.get(variables.get(0) == node.getVariable()
+									? 1 : 0);
+					otherStates = other.getCardinality();
+					if (variables.get(0) == node.getVariable())
+						nodeStride = otherStates;
+					else
+						otherStride = node.getVariable().getCardinality();
+				}
+
+				double[] cells = function.getCells();
+				int states = node.getVariable().getCardinality();
+				try {
+					for (int z = 0; z < otherStates; z++) {
+						for (int x = 0; x < states; x++) {
+							int index = x * nodeStride + z * otherStride;
+							cells[index] = entries.exchange(cells[index]);
+						}
+					}
+				} catch (IOException e) {
+					return e;
+				}
+				return null;
+			}
+
+			public IOException visit(ContinuousBeliefNode node) {
+				NormalSufficientStatistics[] normals =
+						((MixedCliqueSufficientStatistics) statistics).statistics();
+
+				// the covariance entries are symmetric, and only those in the
+				// upper triangle are exchanged
+				int[] indices = indicesOfSortedVariables(node.potential());
+				try {
+					for (NormalSufficientStatistics normal : normals) {
+						normal.p = entries.exchange(normal.p);
+						for (int i : indices)
+							normal.A.setQuick(i,
+									entries.exchange(normal.A.getQuick(i)));
+						for (int i = 0; i < indices.length; i++) {
+							for (int j = i; j < indices.length; j++) {
+								double value =
+										entries.exchange(normal.C.getQuick(
+												indices[i], indices[j]));
+								normal.C.setQuick(indices[i], indices[j], value);
+								normal.C.setQuick(indices[j], indices[i], value);
+							}
+						}
+					}
+				} catch (IOException e) {
+					return e;
+				}
+				return null;
+			}
+		});
+
+		if (exception != null)
+			throw exception;
+	}
+
+	/**
+	 * Returns the indices of the head variables of a potential in the order
+	 * of their names.
+	 */
+	private static int[] indicesOfSortedVariables(CGPotential potential) {
+		final List<SingularContinuousVariable> variables =
+				potential.continuousVariables();
+		List<Integer> sorted = new ArrayList<Integer>(variables.size());
+		for (int i = 0; i < variables.size(); i++)
+			sorted.add(i);
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return variables.get(o1).getName().compareTo(
+						variables.get(o2).getName());
+			}
+		});
+
+		int[] indices = new int[sorted.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = sorted.get(i);
+		return indices;
+	}
+}
@@ -49,6 +49,29 @@ public class SharedTreePropagation extends DataPropagation {
         partitioner = new EqualPartitioner(data.size(), number);
     }
 
+    /**
+     * Constructs this shared tree propagation with the propagations released
+     * by another shared tree propagation on a model with the same structure.
+     * 
+     * @param model
+     *            on which messages propagate on
+     * @param data
+     *            on which propagation is computed
+     * @param propagations
+     *            propagations returned by {@link #reusableState()}
+     */
+    SharedTreePropagation(
+        Gltm model, MixedDataSet data,
+        NaturalCliqueTreePropagation[] propagations) {
+        super(model, data);
+
+        this.propagations = propagations;
+        for (NaturalCliqueTreePropagation propagation : propagations)
+            propagation.useModel(this.model);
+
+        partitioner = new EqualPartitioner(data.size(), propagations.length);
+    }
+
     @Override
     public NaturalCliqueTree cliqueTreeStructure() {
         return propagations[0].cliqueTree();
@@ -62,4 +85,9 @@ public class SharedTreePropagation extends DataPropagation {
         propagation.propagate();
         return propagation;
     }
+
+    @Override
+    Object reusableState() {
+        return propagations;
+    }
 }
@@ -0,0 +1,132 @@
+package org.latlab.learner.geast;
+
+import java.io.PrintWriter;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.learner.geast.SeparateTreePropagation.SharedData;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.ImpossibleEvidenceException;
+
+/**
+ * Implements the stepwise EM, which updates the parameters after each
+ * mini-batch of data cases. It is intended for large data sets, on which a
+ * step of the standard EM takes a long time.
+ *
+ * <p>
+ * It can be used for screening by specifying a positive number of passes over
+ * the data, after which the EM stops. Otherwise it runs until convergence as
+ * the other EM. In both cases, it finishes with a number of full-batch steps,
+ * or with computing the loglikelihood on the whole data if that number is
+ * zero, so that the estimations can be compared with each other.
+ *
+ * <p>
+ * Similar to the local EM, it uses the focus if it is given.
+ *
+ * @author leonard
+ *
+ */
+public class StochasticEm extends EmFramework {
+
+	private final StochasticEstimation.Settings settings;
+	private final EstimationFactory factory;
+
+	public StochasticEm(MixedDataSet data, boolean reuseParameters,
+			int restarts, int maxSteps, double threshold,
+			final StochasticEstimation.Settings settings) {
+		super(data);
+		this.settings = settings;
+
+		// a step processes only one mini-batch, so the number of steps is
+		// counted in mini-batches
+		if (settings.passes > 0) {
+			int batches =
+					(int) Math.ceil((double) data.size() / settings.batchSize);
+			maxSteps = settings.passes * batches;
+		}
+
+		use(new EmParameters(reuseParameters, restarts, 0, maxSteps, threshold));
+
+		factory = new EstimationFactory(new EstimationFactory.Prototype() {
+			public Estimation create(Gltm model, Gltm clone,
+					MixedDataSet data, DataPropagation propagation,
+					double smoothing) {
+				return new StochasticEstimation(model, clone, data,
+						propagation, settings, smoothing);
+			}
+
+			public int partitions() {
+				return 1;
+			}
+		});
+	}
+
+	public StochasticEm(MixedDataSet data) {
+		this(data, true, 64, 500, 1e-2, new StochasticEstimation.Settings());
+	}
+
+	/**
+	 * The estimations of this EM hold statistics from the previous steps, so
+	 * the restarts cannot be swapped into a single estimation.
+	 */
+	@Override
+	protected boolean usesParameterVectors() {
+		return false;
+	}
+
+	@Override
+	protected Estimation[] createEstimations(int size, Gltm model, Focus focus) {
+		Estimation[] estimations = new Estimation[size];
+
+		if (focus == null) {
+			for (int i = 0; i < estimations.length; i++)
+				estimations[i] =
+						factory.createSimple(model, data,
+								parameters().smoothing);
+		} else {
+			// different estimations share the same data propagation object
+			SharedData sharedData =
+					factory.createSharedData(model, data, focus);
+			for (int i = 0; i < estimations.length; i++)
+				estimations[i] =
+						factory.createRestricted(model, data, sharedData,
+								parameters().smoothing);
+		}
+
+		return estimations;
+	}
+
+	/**
+	 * Runs the mini-batch EM and then finishes the best estimation on the whole
+	 * data.
+	 */
+	@Override
+	Estimation estimate(Instance instance) {
+		Estimation estimation = super.estimate(instance);
+
+		if (Double.isNaN(estimation.loglikelihood()))
+			return estimation;
+
+		((StochasticEstimation) estimation).useFullBatch();
+
+		if (settings.fullSteps > 0) {
+			for (int i = 0; i < settings.fullSteps; i++) {
+				step(estimation);
+			}
+		} else {
+			try {
+				estimation.computeLogLikelihood();
+			} catch (ImpossibleEvidenceException e) {
+				estimation.setInvalidLoglikehood();
+			}
+		}
+
+		return estimation;
+	}
+
+	@Override
+	public void writeXml(PrintWriter writer, String purpose) {
+		writer.format("<em name='%s' purpose='%s' %s %s/>", name(), purpose,
+				parameters().xmlAttributes(), settings.xmlAttributes());
+		writer.println();
+	}
+}
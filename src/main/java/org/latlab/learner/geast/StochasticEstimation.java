@@ -0,0 +1,258 @@
+package org.latlab.learner.geast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.AbstractNode;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.CliqueTreeNode;
+import org.latlab.reasoner.NaturalCliqueTree;
+import org.latlab.reasoner.NaturalCliqueTreePropagation;
+import org.latlab.util.RandomStream;
+
+/**
+ * Estimation used by the stepwise (mini-batch) EM. Each computation of the
+ * sufficient statistics uses only a mini-batch of data cases. The statistics
+ * of the mini-batch, scaled to the size of the whole data, are interpolated
+ * with the statistics accumulated previously using a decreasing step size
+ * {@code (k + 2)^-a}, where {@code k} is the number of updates and {@code a}
+ * is the step exponent.
+ *
+ * <p>
+ * The loglikelihood is also interpolated in the same way, so it is only an
+ * estimate of the loglikelihood on the whole data. Call
+ * {@link #useFullBatch()} to compute the statistics and loglikelihood on all
+ * data cases.
+ *
+ * @author leonard
+ *
+ */
+public class StochasticEstimation extends Estimation {
+
+	/**
+	 * Settings of the stepwise EM.
+	 *
+	 * @author leonard
+	 *
+	 */
+	public static class Settings {
+		/**
+		 * Number of data cases in each mini-batch.
+		 */
+		public int batchSize = 256;
+
+		/**
+		 * Exponent of the step size, which should be in the range (0.5, 1].
+		 */
+		public double stepExponent = 0.7;
+
+		/**
+		 * Number of passes over the data. If it is positive, the EM stops
+		 * after this number of passes, which is useful for screening.
+		 * Otherwise, the EM runs until convergence.
+		 */
+		public int passes = 0;
+
+		/**
+		 * Number of full-batch steps run after the mini-batch steps. If it is
+		 * zero, only the loglikelihood is computed on the whole data.
+		 */
+		public int fullSteps = 2;
+
+		public String xmlAttributes() {
+			return String.format(
+					"batchSize='%d' stepExponent='%.2f' passes='%d' "
+							+ "fullSteps='%d'", batchSize, stepExponent,
+					passes, fullSteps);
+		}
+	}
+
+	private final Settings settings;
+
+	/**
+	 * Number of data cases in each mini-batch, which is at most the size of
+	 * the data.
+	 */
+	private final int batchSize;
+
+	/**
+	 * Statistics accumulated from the previous mini-batches, without
+	 * smoothing.
+	 */
+	private List<SufficientStatistics> accumulated = null;
+	private double accumulatedLoglikelihood = 0;
+	private int updates = 0;
+
+	/**
+	 * Order of the data cases in the current pass.
+	 */
+	private final int[] order;
+	private int position;
+	private final RandomStream random = RandomStream.current().split();
+
+	private boolean fullBatch = false;
+
+	/**
+	 * Loglikelihoods of the previous steps within one pass, for measuring the
+	 * improvement over a pass since the estimate of a single step is noisy.
+	 */
+	private final double[] history;
+	private int historySize = 0;
+
+	StochasticEstimation(Gltm origin, Gltm model, MixedDataSet data,
+			DataPropagation propagation, Settings settings, double smoothing) {
+		super(origin, model, data, propagation, smoothing);
+		this.settings = settings;
+		batchSize = Math.min(settings.batchSize, data.size());
+
+		order = new int[data.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		position = order.length;
+
+		history =
+				new double[(int) Math.ceil((double) data.size()
+						/ batchSize)];
+	}
+
+	/**
+	 * Uses all data cases in the subsequent computations of sufficient
+	 * statistics.
+	 */
+	public void useFullBatch() {
+		fullBatch = true;
+	}
+
+	@Override
+	public void savePreviousLoglikelihood() {
+		super.savePreviousLoglikelihood();
+
+		if (historySize == history.length) {
+			System.arraycopy(history, 1, history, 0, history.length - 1);
+			historySize--;
+		}
+
+		history[historySize++] = loglikelihood;
+	}
+
+	/**
+	 * Returns the improvement over the loglikelihood one pass ago when it is
+	 * using mini-batches.
+	 */
+	@Override
+	public double improvement() {
+		if (fullBatch || history.length <= 1)
+			return super.improvement();
+		else if (historySize < history.length)
+			return Double.MAX_VALUE;
+
+		return loglikelihood - history[0];
+	}
+
+	@Override
+	protected void computeSufficientStatistics() {
+		if (fullBatch || batchSize == data.size()) {
+			super.computeSufficientStatistics();
+			return;
+		}
+
+		if (accumulated == null)
+			accumulated = createStatistics(propagation.cliqueTreeStructure());
+
+		messagesPassed = 0;
+
+		int[] batch = nextBatch();
+		double batchWeight = 0;
+		for (int index : batch) {
+			batchWeight += data.get(index).weight();
+		}
+
+		// the first update replaces the initial zero statistics entirely
+		double step =
+				updates == 0 ? 1 : Math.pow(updates + 2,
+						-settings.stepExponent);
+		double scale = step * data.totalWeight() / batchWeight;
+
+		for (SufficientStatistics statistics : accumulated) {
+			statistics.scale(1 - step);
+		}
+		accumulatedLoglikelihood *= 1 - step;
+
+		for (int index : batch) {
+			NaturalCliqueTreePropagation ctp = propagation.compute(index);
+			messagesPassed += ctp.messagesPassed();
+
+			double weight = data.get(index).weight() * scale;
+
+			Iterator<SufficientStatistics> statisticsIterator =
+					accumulated.iterator();
+			for (AbstractNode node : ctp.cliqueTree().getNodes()) {
+				statisticsIterator.next().add(
+						((CliqueTreeNode) node).potential(), weight);
+			}
+
+			accumulatedLoglikelihood += ctp.loglikelihood() * weight;
+		}
+
+		updates++;
+
+		Iterator<SufficientStatistics> accumulatedIterator =
+				accumulated.iterator();
+		for (SufficientStatistics statistics : sufficientStatistics) {
+			statistics.plus(accumulatedIterator.next());
+		}
+
+		loglikelihood = accumulatedLoglikelihood;
+	}
+
+	/**
+	 * Returns the indices of the data cases in the next mini-batch. The data
+	 * cases are shuffled at the beginning of each pass. The last mini-batch of
+	 * a pass holds the remaining data cases of the pass, which may be fewer
+	 * than the batch size, so that a mini-batch never contains a data case
+	 * twice.
+	 *
+	 * @return indices of the next mini-batch
+	 */
+	private int[] nextBatch() {
+		if (position == order.length) {
+			shuffle();
+			position = 0;
+		}
+
+		int[] batch =
+				Arrays.copyOfRange(order, position, Math.min(position
+						+ batchSize, order.length));
+		position += batch.length;
+
+		return batch;
+	}
+
+	private void shuffle() {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+	}
+
+	private static List<SufficientStatistics> createStatistics(
+			NaturalCliqueTree tree) {
+		List<SufficientStatistics> statistics =
+				new ArrayList<SufficientStatistics>(tree.getNodes().size());
+
+		// the smoothing is added to the statistics of the estimation instead
+		SufficientStatistics.Constructor constructor =
+				new SufficientStatistics.Constructor(0);
+		for (AbstractNode node : tree.getNodes()) {
+			statistics.add(((CliqueTreeNode) node).accept(constructor));
+		}
+
+		return statistics;
+	}
+}
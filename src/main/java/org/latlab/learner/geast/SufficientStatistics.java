@@ -60,6 +60,10 @@ public interface SufficientStatistics {
 
         public void add(Potential potential, double weight) {}
 
+        public void plus(SufficientStatistics statistics) {}
+
+        public void scale(double factor) {}
+
         public Function computePotential(
             DiscreteVariable variable, Collection<DiscreteVariable> parents) {
             return null;
@@ -86,6 +90,25 @@ public interface SufficientStatistics {
      */
     public void add(Potential potential, double weight);
 
+    /**
+     * Adds the statistics collected by another instance to this instance. The
+     * other instance must be constructed for the same clique, so that they
+     * are of the same type and dimensions.
+     * 
+     * @param statistics
+     *            statistics to add
+     */
+    public void plus(SufficientStatistics statistics);
+
+    /**
+     * Multiplies all the entries of this statistics by a factor, which is
+     * used for discounting the statistics collected previously.
+     * 
+     * @param factor
+     *            multiplier of the entries
+     */
+    public void scale(double factor);
+
     /**
      * Computes the maximum likelihood estimate of a discrete distribution based
      * on the collected sufficient statistics. The returned potential is a
@@ -1,5 +1,7 @@
 package org.latlab.learner.geast.context;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -7,9 +9,16 @@ import org.latlab.data.MixedDataSet;
 import org.latlab.learner.geast.CovarianceConstrainer;
 import org.latlab.learner.geast.EmFramework;
 import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.EstimationFactory;
+import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.Log;
 import org.latlab.learner.geast.ParameterGenerator;
+import org.latlab.learner.geast.ShardedEstimation;
+import org.latlab.learner.geast.operators.FidelityLevel;
+import org.latlab.learner.geast.operators.TranspositionTable;
 import org.latlab.learner.geast.procedures.IterativeProcedure;
+import org.latlab.learner.geast.workers.ShardClient;
+import org.latlab.learner.geast.workers.WorkerPool;
 
 /**
  * Holds the context, including the parameters and the strategy objects, of this
@@ -28,6 +37,18 @@ public class Context implements ISearchOperatorContext, IProcedureContext {
 	public final int threads;
 	private final ExecutorService executorService;
 	private final int screeningSize;
+	private TranspositionTable transpositionTable =
+			new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES);
+	private int racingIncrement = 0;
+	private List<FidelityLevel> fidelityLevels =
+			Collections.<FidelityLevel> emptyList();
+	private boolean posteriorInitialization = false;
+	private ExecutorService operatorExecutor = null;
+	private ExecutorService speculationExecutor = null;
+	private int beamWidth = 1;
+	private WorkerPool workers = null;
+	private ShardClient shards = null;
+	private StepListener stepListener = null;
 
 	/**
 	 * Stops if the BIC does not improve by this threshold.
@@ -46,6 +67,10 @@ public class Context implements ISearchOperatorContext, IProcedureContext {
 		this.selectionEm = selectionEm;
 		this.estimationEm = estimationEm;
 
+		this.screeningEm.setPurpose("screening");
+		this.selectionEm.setPurpose("selection");
+		this.estimationEm.setPurpose("estimation");
+
 		executorService = Executors.newFixedThreadPool(this.threads);
 
 		this.screeningEm.setMultithreading(this.threads, executorService);
@@ -126,6 +151,196 @@ public class Context implements ISearchOperatorContext, IProcedureContext {
 		return screeningSize;
 	}
 
+	public TranspositionTable transpositionTable() {
+		return transpositionTable;
+	}
+
+	/**
+	 * Replaces the transposition table, such as by one with a different bound
+	 * on its memory.
+	 * 
+	 * @param table
+	 *            transposition table to use
+	 */
+	public void useTranspositionTable(TranspositionTable table) {
+		transpositionTable = table;
+	}
+
+	public int racingIncrement() {
+		return racingIncrement;
+	}
+
+	/**
+	 * Sets the number of EM steps by which the candidates are advanced in each
+	 * increment of a racing screening.
+	 * 
+	 * @param increment
+	 *            steps in each increment, or zero to screen without racing
+	 */
+	public void useRacing(int increment) {
+		racingIncrement = increment;
+	}
+
+	public List<FidelityLevel> fidelityLevels() {
+		return fidelityLevels;
+	}
+
+	/**
+	 * Uses the given fidelity levels in the screening. The EM of the levels
+	 * use the same threads as the other EM of this context.
+	 * 
+	 * @param levels
+	 *            fidelity levels in the order of increasing subsample sizes
+	 */
+	public void useFidelityLevels(List<FidelityLevel> levels) {
+		for (FidelityLevel level : levels) {
+			level.em().setMultithreading(threads, executorService);
+			level.em().setPurpose("screening");
+		}
+
+		fidelityLevels = levels;
+	}
+
+	public boolean posteriorInitialization() {
+		return posteriorInitialization;
+	}
+
+	/**
+	 * Sets whether the candidates of the state operators are initialized by
+	 * a soft-assignment M-step on the posterior distributions of the base
+	 * model.
+	 * 
+	 * @param value
+	 *            whether to use posterior initialization
+	 */
+	public void usePosteriorInitialization(boolean value) {
+		posteriorInitialization = value;
+	}
+
+	public ExecutorService operatorExecutor() {
+		return operatorExecutor;
+	}
+
+	/**
+	 * Sets whether the search operators of an iteration search concurrently.
+	 * They are run on an executor separate from that of EM, since they wait
+	 * for the estimations submitted to the latter. It has no effect if this
+	 * context uses only one thread.
+	 * 
+	 * @param value
+	 *            whether the operators search concurrently
+	 */
+	public void useConcurrentOperators(boolean value) {
+		if (operatorExecutor != null)
+			operatorExecutor.shutdown();
+
+		operatorExecutor =
+				value && threads > 1 ? Executors.newFixedThreadPool(threads)
+						: null;
+	}
+
+	public ExecutorService speculationExecutor() {
+		return speculationExecutor;
+	}
+
+	/**
+	 * Sets whether the next step of an iterative procedure is run
+	 * speculatively while the best candidate of the current step is refined.
+	 * It has no effect if this context uses only one thread.
+	 * 
+	 * @param value
+	 *            whether to run the next steps speculatively
+	 */
+	public void useSpeculation(boolean value) {
+		if (speculationExecutor != null)
+			speculationExecutor.shutdown();
+
+		speculationExecutor =
+				value && threads > 1 ? Executors.newSingleThreadExecutor()
+						: null;
+	}
+
+	public int beamWidth() {
+		return beamWidth;
+	}
+
+	/**
+	 * Sets the number of the best candidates kept in each iteration of an
+	 * iterative procedure.
+	 * 
+	 * @param width
+	 *            width of the beam, or one to keep only the best candidate
+	 */
+	public void useBeamWidth(int width) {
+		beamWidth = width;
+	}
+
+	/**
+	 * Listener of the steps accepted by the iterative procedures.
+	 */
+	public interface StepListener {
+		void accepted(IModelWithScore current);
+	}
+
+	public void stepAccepted(IModelWithScore current) {
+		if (stepListener != null)
+			stepListener.accepted(current);
+	}
+
+	/**
+	 * Uses the given listener for the steps accepted by the iterative
+	 * procedures.
+	 * 
+	 * @param listener
+	 *            listener of the steps, or {@code null} for none
+	 */
+	public void useStepListener(StepListener listener) {
+		stepListener = listener;
+	}
+
+	public WorkerPool workers() {
+		return workers;
+	}
+
+	/**
+	 * Uses the given worker processes to estimate the candidates in the
+	 * screening and selection.
+	 * 
+	 * @param workers
+	 *            worker processes, or {@code null} to estimate the candidates
+	 *            in this process
+	 */
+	public void useWorkers(WorkerPool workers) {
+		if (this.workers != null)
+			this.workers.shutdown();
+
+		this.workers = workers;
+	}
+
+	public ShardClient shards() {
+		return shards;
+	}
+
+	/**
+	 * Uses the given shard workers for the E-step of the screening, selection
+	 * and estimation EM. The EM of the fidelity levels are run on their
+	 * subsamples in this process, if it holds the data cases.
+	 * 
+	 * @param shards
+	 *            connections to the shard workers
+	 */
+	public void useShards(ShardClient shards) {
+		if (this.shards != null)
+			this.shards.close();
+
+		this.shards = shards;
+
+		EstimationFactory factory = ShardedEstimation.createFactory(shards);
+		screeningEm.useEstimationFactory(factory);
+		selectionEm.useEstimationFactory(factory);
+		estimationEm.useEstimationFactory(factory);
+	}
+
 	/**
 	 * Used to generate parameters.
 	 * 
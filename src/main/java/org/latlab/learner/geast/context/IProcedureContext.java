@@ -1,5 +1,43 @@
 package org.latlab.learner.geast.context;
 
+import java.util.concurrent.ExecutorService;
+
+import org.latlab.learner.geast.IModelWithScore;
+
 public interface IProcedureContext extends ILogContext {
 	public double threshold();
+
+	/**
+	 * Returns the executor on which the search operators of an iteration
+	 * search concurrently, or {@code null} if they search one after another.
+	 * 
+	 * @return executor for the search operators, or {@code null}
+	 */
+	public ExecutorService operatorExecutor();
+
+	/**
+	 * Returns the executor on which the next step of an iterative procedure
+	 * runs speculatively while the best candidate of the current step is
+	 * refined, or {@code null} if the steps are not run speculatively.
+	 * 
+	 * @return executor for the speculative steps, or {@code null}
+	 */
+	public ExecutorService speculationExecutor();
+
+	/**
+	 * Returns the number of the best candidates kept as the base models for
+	 * the next iteration of an iterative procedure.
+	 * 
+	 * @return width of the beam, which is one for a greedy search
+	 */
+	public int beamWidth();
+
+	/**
+	 * Called by an iterative procedure after it accepts the model of a step,
+	 * so that a checkpoint can be written within the procedure.
+	 * 
+	 * @param current
+	 *            model accepted by the step
+	 */
+	public void stepAccepted(IModelWithScore current);
 }
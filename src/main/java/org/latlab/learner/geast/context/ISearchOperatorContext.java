@@ -1,5 +1,11 @@
 package org.latlab.learner.geast.context;
 
+import java.util.List;
+
+import org.latlab.learner.geast.operators.FidelityLevel;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.learner.geast.workers.WorkerPool;
+
 
 /**
  * Context for search operator.
@@ -11,4 +17,48 @@ public interface ISearchOperatorContext extends ILogContext, IEmContext {
 
 	public int screeningSize();
 
+	/**
+	 * Returns the table of the estimations of the candidates selected during
+	 * the whole search.
+	 * 
+	 * @return transposition table
+	 */
+	public TranspositionTable transpositionTable();
+
+	/**
+	 * Returns the number of EM steps by which the candidates are advanced in
+	 * each increment of a racing screening, or zero if the candidates are
+	 * screened without racing.
+	 * 
+	 * @return steps in each increment of racing
+	 */
+	public int racingIncrement();
+
+	/**
+	 * Returns the fidelity levels of the successive-halving screening, in the
+	 * order of increasing subsample sizes. It is empty if the candidates are
+	 * screened only on the whole data.
+	 * 
+	 * @return fidelity levels of screening
+	 */
+	public List<FidelityLevel> fidelityLevels();
+
+	/**
+	 * Returns whether the candidates of the state operators are initialized
+	 * by a soft-assignment M-step on the posterior distributions of the base
+	 * model, instead of the parameters transferred from the base model.
+	 * 
+	 * @return whether posterior initialization is used
+	 */
+	public boolean posteriorInitialization();
+
+	/**
+	 * Returns the worker processes that estimate the candidates in the
+	 * screening and selection, or {@code null} if the candidates are
+	 * estimated in this process.
+	 * 
+	 * @return worker processes, or {@code null}
+	 */
+	public WorkerPool workers();
+
 }
@@ -0,0 +1,112 @@
+package org.latlab.learner.geast.operators;
+
+import java.io.PrintWriter;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.model.Gltm;
+
+/**
+ * A level of fidelity in the successive-halving screening. The candidates at
+ * this level are estimated by an EM on a subsample of the data, and a fraction
+ * of them is promoted to the next level.
+ *
+ * <p>
+ * Since the BIC scores on subsamples of different sizes are not comparable
+ * with that on the whole data, the loglikelihood on the subsample is scaled up
+ * by the ratio of the total weights of the whole data and the subsample, and
+ * the BIC score is computed on the scaled loglikelihood with the total weight
+ * of the whole data.
+ *
+ * @author leonard
+ *
+ */
+public class FidelityLevel {
+
+	private final double fraction;
+	private final double keep;
+	private final EmFramework em;
+	private final double scale;
+	private final double totalWeight;
+
+	/**
+	 * Constructs a fidelity level.
+	 *
+	 * @param fraction
+	 *            fraction of data in the subsample, which is used only for
+	 *            logging
+	 * @param keep
+	 *            fraction of candidates promoted to the next level
+	 * @param em
+	 *            EM on the subsample
+	 * @param subsample
+	 *            subsample of data
+	 * @param data
+	 *            whole data
+	 */
+	public FidelityLevel(double fraction, double keep, EmFramework em,
+			MixedDataSet subsample, MixedDataSet data) {
+		this.fraction = fraction;
+		this.keep = keep;
+		this.em = em;
+		this.totalWeight = data.totalWeight();
+		this.scale = totalWeight / subsample.totalWeight();
+	}
+
+	public EmFramework em() {
+		return em;
+	}
+
+	/**
+	 * Returns the number of candidates promoted to the next level out of the
+	 * given number of candidates.
+	 *
+	 * @param candidates
+	 *            number of candidates at this level
+	 * @return number of candidates promoted
+	 */
+	public int promoted(int candidates) {
+		return (int) Math.ceil(keep * candidates);
+	}
+
+	/**
+	 * Returns the estimation on the subsample with its scores scaled to the
+	 * whole data.
+	 *
+	 * @param estimation
+	 *            estimation on the subsample
+	 * @return estimation with scaled scores
+	 */
+	public IModelWithScore scale(final IModelWithScore estimation) {
+		return new IModelWithScore() {
+			public Gltm model() {
+				return estimation.model();
+			}
+
+			public Gltm origin() {
+				return estimation.origin();
+			}
+
+			public double loglikelihood() {
+				return estimation.loglikelihood() * scale;
+			}
+
+			public double BicScore() {
+				return loglikelihood() - model().computeDimension()
+						* Math.log(totalWeight) / 2.0;
+			}
+
+			public int messageCount() {
+				return estimation.messageCount();
+			}
+		};
+	}
+
+	public void writeXml(PrintWriter writer) {
+		writer.format("<fidelity fraction='%.3f' keep='%.3f'>", fraction, keep);
+		writer.println();
+		em.writeXml(writer, "screening");
+		writer.println("</fidelity>");
+	}
+}
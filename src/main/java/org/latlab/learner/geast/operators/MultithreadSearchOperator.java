@@ -1,12 +1,16 @@
 package org.latlab.learner.geast.operators;
 
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorCompletionService;
 
+import org.latlab.learner.geast.Cancellation;
 import org.latlab.learner.geast.EmFramework;
 import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.context.Context;
 import org.latlab.util.Evaluator;
+import org.latlab.util.Profiler;
+import org.latlab.util.RandomStream;
 
 /**
  * Search operator that perform candidate search in parallel using multiple
@@ -28,10 +32,13 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 	 * 
 	 * @param base
 	 *            base model to search from
+	 * @param candidates
+	 *            candidates generated from the base model
 	 * @return the best candidate it can find
 	 */
 	@Override
 	public SearchCandidate search(IModelWithScore base,
+			LinkedList<SearchCandidate> candidates,
 			Evaluator<SearchCandidate> evaluator) {
 		context.log().writeStartElementWithTime(name(), null);
 
@@ -39,7 +46,8 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 				new ExecutorCompletionService<SearchCandidate>(
 						context.searchExecutor());
 
-		List<SearchCandidate> candidates = generateCandidates(base);
+		// the candidates selected before need not be estimated again
+		List<SearchCandidate> cached = lookUp(candidates, evaluator);
 
 		// estimates the candidates using an executor
 		for (SearchCandidate candidate : candidates) {
@@ -75,6 +83,13 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 			try {
 				candidate = ecs.take().get();
 
+				// the estimation may have stopped before it converges, so it
+				// is neither kept in the table nor ranked
+				if (Cancellation.requested())
+					continue;
+
+				context.transpositionTable().put(candidate.estimation());
+
 				// log the original model's name, so that it can be compared
 				// with the candidates generated by the search operator.
 				context.log().writeElement("selecting", candidate, true);
@@ -87,6 +102,13 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 			}
 		}
 
+		for (SearchCandidate candidate : cached) {
+			context.log().writeElement("cached", candidate, true);
+
+			if (SearchCandidate.SCORE_COMPARATOR.compare(candidate, best) < 0)
+				best = candidate;
+		}
+
 		context.log().writeElement("completed", best, true);
 		context.log().writeEndElement(name());
 
@@ -95,7 +117,10 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 
 	/**
 	 * Returns a runnable procedure that estimates this candidate using the
-	 * given EM algorithm.
+	 * given EM algorithm. The procedure uses a random stream split from the
+	 * current stream of the calling thread, so that the estimation does not
+	 * depend on which thread runs it, and the cancellation and the profiling
+	 * scope of the calling thread.
 	 * 
 	 * @param em
 	 *            uses to estimate this candidate
@@ -104,9 +129,21 @@ public abstract class MultithreadSearchOperator extends SearchOperator {
 	public static Runnable getRunnableEvaluation(
 			final SearchCandidate candidate, final EmFramework em,
 			final Evaluator<SearchCandidate> evaluator) {
+		final RandomStream random = RandomStream.current().split();
+		final Cancellation cancellation = Cancellation.current();
+		final Profiler.Scope scope = Profiler.current();
 		return new Runnable() {
 			public void run() {
-				candidate.evaluate(em, evaluator);
+				RandomStream old = RandomStream.use(random);
+				Cancellation oldCancellation = Cancellation.use(cancellation);
+				Profiler.Scope oldScope = Profiler.use(scope);
+				try {
+					candidate.evaluate(em, evaluator);
+				} finally {
+					Profiler.use(oldScope);
+					Cancellation.use(oldCancellation);
+					RandomStream.use(old);
+				}
 			}
 		};
 	}
@@ -62,6 +62,10 @@ public class NodeCombiner extends SearchOperatorImpl {
 			structure.addEdge(newNode, parent);
 
 			modification.add(newVariable);
+
+			ParameterTransfer.combineNodes(base.model(), structure, variable1,
+					variable2, newVariable);
+			initialized = true;
 		}
 
 		@Override
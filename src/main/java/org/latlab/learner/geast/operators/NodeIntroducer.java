@@ -91,6 +91,10 @@ public class NodeIntroducer extends SearchOperatorImpl {
 			modification.add(newNode.getVariable());
 			modification.add(childNode1.getVariable());
 			modification.add(childNode2.getVariable());
+
+			ParameterTransfer.introduceChildNode(base.model(), structure,
+					origin, introduced, child1, child2);
+			initialized = true;
 		}
 
 		@Override
@@ -147,6 +151,12 @@ public class NodeIntroducer extends SearchOperatorImpl {
 			modification.add(newNode.getVariable());
 			modification.add(childNode.getVariable());
 			modification.add(originNode.getVariable());
+
+			ParameterTransfer.introduceParentNode(base.model(), structure,
+					origin, introduced);
+			ParameterTransfer.moveChild(base.model(), structure, origin,
+					introduced, child);
+			initialized = true;
 		}
 
 		@Override
@@ -48,6 +48,12 @@ public class NodeSeparator extends SearchOperatorImpl {
 
 			modification.add(newNodes.first.getVariable());
 			modification.add(newNodes.second.getVariable());
+
+			ParameterTransfer.separateNode(base.model(), structure, source,
+					newNodes.first);
+			ParameterTransfer.separateNode(base.model(), structure, source,
+					newNodes.second);
+			initialized = true;
 		}
 
 		@Override
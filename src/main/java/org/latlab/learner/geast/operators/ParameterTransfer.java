@@ -0,0 +1,551 @@
+package org.latlab.learner.geast.operators;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.latlab.graph.AbstractNode;
+import org.latlab.graph.DirectedNode;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.DiscreteBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+/**
+ * Transfers the parameters of a base model to the modified nodes of a
+ * candidate structure, so that the candidate can be estimated from a
+ * deterministic starting point close to the base model instead of random
+ * parameters.
+ *
+ * <p>
+ * When a state is split, the two resulting states would have identical
+ * parameters and hence identical posterior probabilities, which EM cannot
+ * separate. The parameters of the children given the two states are therefore
+ * perturbed in opposite directions.
+ *
+ * @author leonard
+ *
+ */
+final class ParameterTransfer {
+
+	/**
+	 * Shift of the means of the continuous children given the two split
+	 * states, in the standard deviations of the variables.
+	 */
+	public static final double MEAN_PERTURBATION = 0.5;
+
+	/**
+	 * Relative tilt of the probabilities of the discrete children given the
+	 * two split states.
+	 */
+	public static final double PROBABILITY_PERTURBATION = 0.2;
+
+	/**
+	 * Probability of an introduced node to take a state other than that of its
+	 * neighbor which it replaces in the base model.
+	 */
+	public static final double IDENTITY_NOISE = 0.1;
+
+	private ParameterTransfer() {
+	}
+
+	/**
+	 * Returns the marginal distribution of a discrete variable, computed along
+	 * the path from the root.
+	 *
+	 * @param model
+	 *            model holding the variable
+	 * @param variable
+	 *            variable of which marginal is computed
+	 * @return marginal distribution
+	 */
+	public static Function marginal(Gltm model, DiscreteVariable variable) {
+		DiscreteBeliefNode node = model.getNode(variable);
+		if (node.isRoot())
+			return node.potential().clone();
+
+		DiscreteVariable parent =
+				((DiscreteBeliefNode) node.getParent()).getVariable();
+		return node.potential().times(marginal(model, parent)).marginalize(
+				variable);
+	}
+
+	/**
+	 * Returns the state of the largest probability of a latent variable, which
+	 * is the state split by {@link #splitState}.
+	 */
+	public static int largestState(Gltm model, DiscreteVariable variable) {
+		double[] masses = marginal(model, variable).getCells();
+		int largest = 0;
+		for (int i = 1; i < masses.length; i++) {
+			if (masses[i] > masses[largest])
+				largest = i;
+		}
+
+		return largest;
+	}
+
+	/**
+	 * Returns the two states of the smallest probabilities, which are the
+	 * states merged by {@link #mergeStates}. The first returned state is
+	 * smaller, as required by the combine methods of function.
+	 *
+	 * @param masses
+	 *            marginal probabilities of the states
+	 * @return the two states in ascending order
+	 */
+	public static int[] smallestStates(double[] masses) {
+		int first = masses[0] <= masses[1] ? 0 : 1;
+		int second = 1 - first;
+		for (int i = 2; i < masses.length; i++) {
+			if (masses[i] < masses[first]) {
+				second = first;
+				first = i;
+			} else if (masses[i] < masses[second]) {
+				second = i;
+			}
+		}
+
+		return new int[] { Math.min(first, second), Math.max(first, second) };
+	}
+
+	/**
+	 * Splits the state of the largest probability of a latent variable into
+	 * two states of the new variable, which has one more state and takes the
+	 * place of the old variable in the structure.
+	 */
+	public static void splitState(Gltm base, Gltm structure,
+			DiscreteVariable oldVariable, final DiscreteVariable newVariable) {
+		final int state = largestState(base, oldVariable);
+		final int added = newVariable.getCardinality() - 1;
+
+		DiscreteBeliefNode oldNode = base.getNode(oldVariable);
+		structure.getNode(newVariable).setCpt(
+				oldNode.potential().split(oldVariable, state, newVariable));
+
+		for (final ChildTransfer transfer : children(base, structure,
+				oldNode)) {
+			transfer.old.accept(new BeliefNode.Visitor<Void>() {
+				public Void visit(DiscreteBeliefNode node) {
+					Function cpt =
+							node.potential().stateCopy(transfer.parent, state,
+									newVariable);
+					tilt(cpt, node.getVariable(), newVariable, state, -1);
+					tilt(cpt, node.getVariable(), newVariable, added, 1);
+					transfer.target.setPotential(cpt);
+					return null;
+				}
+
+				public Void visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential();
+					CGParameter[] parameters = new CGParameter[added + 1];
+					for (int i = 0; i < added; i++)
+						parameters[i] = potential.get(i).copy();
+					parameters[added] = potential.get(state).copy();
+
+					shift(parameters[state], -1);
+					shift(parameters[added], 1);
+
+					transfer.target.setPotential(new CGPotential(node
+							.getVariable(), newVariable, parameters));
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Merges the two states of the smallest probabilities of a latent variable
+	 * into one state of the new variable, which has one fewer state and takes
+	 * the place of the old variable in the structure. The distributions of the
+	 * children given the two states are mixed by the probabilities of the
+	 * states, where the Gaussian distributions of the continuous children are
+	 * merged by matching the moments of their mixture.
+	 */
+	public static void mergeStates(Gltm base, Gltm structure,
+			DiscreteVariable oldVariable, final DiscreteVariable newVariable) {
+		final double[] masses = marginal(base, oldVariable).getCells();
+		int[] states = smallestStates(masses);
+		final int si = states[0];
+		final int sj = states[1];
+
+		DiscreteBeliefNode oldNode = base.getNode(oldVariable);
+		structure.getNode(newVariable).setCpt(
+				oldNode.potential().combine(oldVariable, si, sj, newVariable));
+
+		for (final ChildTransfer transfer : children(base, structure,
+				oldNode)) {
+			transfer.old.accept(new BeliefNode.Visitor<Void>() {
+				public Void visit(DiscreteBeliefNode node) {
+					transfer.target.setPotential(weightedCombine(
+							node.potential(), transfer.parent, si, masses[si],
+							sj, masses[sj], newVariable));
+					return null;
+				}
+
+				public Void visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential();
+					CGParameter[] parameters =
+							new CGParameter[newVariable.getCardinality()];
+					for (int i = 0; i < parameters.length; i++) {
+						if (i == si) {
+							parameters[i] =
+									mix(potential.get(si), masses[si],
+											potential.get(sj), masses[sj]);
+						} else {
+							parameters[i] =
+									potential.get(i < sj ? i : i + 1).copy();
+						}
+					}
+
+					transfer.target.setPotential(new CGPotential(node
+							.getVariable(), newVariable, parameters));
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Transfers the parameters to an introduced node that is placed between a
+	 * latent variable and some of its children. The introduced node nearly
+	 * copies the state of the latent variable, and the children keep their
+	 * parameters given the introduced node.
+	 *
+	 * @param origin
+	 *            latent variable in the base model
+	 * @param introduced
+	 *            introduced variable, which has the same cardinality as the
+	 *            origin
+	 * @param children
+	 *            variables of the children of the origin moved to the
+	 *            introduced node
+	 */
+	public static void introduceChildNode(Gltm base, Gltm structure,
+			DiscreteVariable origin, DiscreteVariable introduced,
+			Variable... children) {
+		structure.getNode(introduced).setCpt(
+				softIdentity(introduced, origin));
+
+		for (Variable child : children)
+			moveChild(base, structure, origin, introduced, child);
+	}
+
+	/**
+	 * Transfers the parameters of a child of the origin that is moved to the
+	 * introduced node, by replacing the origin with the introduced variable in
+	 * its potential.
+	 *
+	 * @param origin
+	 *            latent variable in the base model
+	 * @param introduced
+	 *            introduced variable, which has the same cardinality as the
+	 *            origin
+	 * @param child
+	 *            variable of the moved child
+	 */
+	public static void moveChild(Gltm base, Gltm structure,
+			final DiscreteVariable origin, final DiscreteVariable introduced,
+			Variable child) {
+		final BeliefNode target = structure.getNode(child);
+		base.getNode(child).accept(new BeliefNode.Visitor<Void>() {
+			public Void visit(DiscreteBeliefNode node) {
+				target.setPotential(node.potential().replaceVar(origin,
+						introduced));
+				return null;
+			}
+
+			public Void visit(ContinuousBeliefNode node) {
+				CGPotential potential = node.potential();
+				CGParameter[] parameters = new CGParameter[potential.size()];
+				for (int i = 0; i < parameters.length; i++)
+					parameters[i] = potential.get(i).copy();
+
+				target.setPotential(new CGPotential(node.getVariable(),
+						introduced, parameters));
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Transfers the parameters to an introduced node that is placed between a
+	 * latent variable and its parent. The introduced node copies the CPT of
+	 * the latent variable, and the latent variable nearly copies the state of
+	 * the introduced node.
+	 *
+	 * @param origin
+	 *            latent variable in the base model
+	 * @param introduced
+	 *            introduced variable, which has the same cardinality as the
+	 *            origin
+	 */
+	public static void introduceParentNode(Gltm base, Gltm structure,
+			DiscreteVariable origin, DiscreteVariable introduced) {
+		structure.getNode(introduced).setCpt(
+				base.getNode(origin).potential().replaceVar(origin,
+						introduced));
+		structure.getNode(origin).setCpt(softIdentity(origin, introduced));
+	}
+
+	/**
+	 * Combines the Gaussian distributions of two continuous nodes into one
+	 * joint distribution, in which the two nodes are independent given their
+	 * parent.
+	 */
+	public static void combineNodes(Gltm base, Gltm structure,
+			JointContinuousVariable variable1,
+			JointContinuousVariable variable2,
+			JointContinuousVariable newVariable) {
+		CGPotential potential1 = base.getNode(variable1).potential();
+		CGPotential potential2 = base.getNode(variable2).potential();
+		List<SingularContinuousVariable> variables1 =
+				potential1.continuousVariables();
+		List<SingularContinuousVariable> variables2 =
+				potential2.continuousVariables();
+
+		ContinuousBeliefNode node = structure.getNode(newVariable);
+		List<SingularContinuousVariable> variables =
+				node.potential().continuousVariables();
+
+		// the index of each variable in its old potential, and whether it is
+		// in the first potential
+		int[] indices = new int[variables.size()];
+		boolean[] inFirst = new boolean[variables.size()];
+		for (int i = 0; i < variables.size(); i++) {
+			inFirst[i] = variables1.contains(variables.get(i));
+			indices[i] =
+					inFirst[i] ? variables1.indexOf(variables.get(i))
+							: variables2.indexOf(variables.get(i));
+		}
+
+		CGParameter[] parameters = new CGParameter[potential1.size()];
+		for (int k = 0; k < parameters.length; k++) {
+			CGParameter parameter1 = potential1.get(k);
+			CGParameter parameter2 = potential2.get(k);
+
+			DoubleMatrix1D mean = new DenseDoubleMatrix1D(variables.size());
+			DoubleMatrix2D covariance =
+					new DenseDoubleMatrix2D(variables.size(), variables.size());
+			for (int i = 0; i < variables.size(); i++) {
+				CGParameter pi = inFirst[i] ? parameter1 : parameter2;
+				mean.setQuick(i, pi.A.getQuick(indices[i]));
+
+				for (int j = 0; j < variables.size(); j++) {
+					if (inFirst[i] == inFirst[j])
+						covariance.setQuick(i, j, pi.C.getQuick(indices[i],
+								indices[j]));
+				}
+			}
+
+			parameters[k] = new CGParameter(1, mean, covariance);
+		}
+
+		node.setPotential(new CGPotential(newVariable, potential1
+				.discreteVariable(), parameters));
+	}
+
+	/**
+	 * Sets the Gaussian distribution of a new node separated from a base node
+	 * to the marginal distribution of the base node on its variables.
+	 */
+	public static void separateNode(Gltm base, Gltm structure,
+			JointContinuousVariable source, ContinuousBeliefNode node) {
+		CGPotential potential = base.getNode(source).potential();
+		List<SingularContinuousVariable> sourceVariables =
+				potential.continuousVariables();
+		List<SingularContinuousVariable> variables =
+				node.potential().continuousVariables();
+
+		int[] indices = new int[variables.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = sourceVariables.indexOf(variables.get(i));
+
+		CGParameter[] parameters = new CGParameter[potential.size()];
+		for (int k = 0; k < parameters.length; k++) {
+			CGParameter parameter = potential.get(k);
+			parameters[k] =
+					new CGParameter(1, parameter.A.viewSelection(indices)
+							.copy(), parameter.C.viewSelection(indices,
+							indices).copy());
+		}
+
+		node.setPotential(new CGPotential(node.getVariable(), potential
+				.discreteVariable(), parameters));
+	}
+
+	/**
+	 * A child of a latent variable in the base model and the corresponding
+	 * node in the structure.
+	 */
+	private static class ChildTransfer {
+		public final BeliefNode old;
+		public final BeliefNode target;
+		public final DiscreteVariable parent;
+
+		public ChildTransfer(BeliefNode old, BeliefNode target,
+				DiscreteVariable parent) {
+			this.old = old;
+			this.target = target;
+			this.parent = parent;
+		}
+	}
+
+	private static ChildTransfer[] children(Gltm base, Gltm structure,
+			DiscreteBeliefNode node) {
+		Collection<DirectedNode> children = node.getChildren();
+		ChildTransfer[] transfers = new ChildTransfer[children.size()];
+
+		int i = 0;
+		for (AbstractNode child : children) {
+			BeliefNode old = (BeliefNode) child;
+			transfers[i++] =
+					new ChildTransfer(old,
+							structure.getNode(old.getVariable()),
+							node.getVariable());
+		}
+
+		return transfers;
+	}
+
+	/**
+	 * Returns a conditional distribution of a child given a parent with the
+	 * same cardinality, in which the child takes the state of the parent
+	 * with a probability of {@code 1 - IDENTITY_NOISE}.
+	 */
+	private static Function softIdentity(DiscreteVariable child,
+			DiscreteVariable parent) {
+		Function function =
+				Function.createFunction(Arrays.asList(child, parent));
+		int childIndex = function.getVariables().indexOf(child);
+		int parentIndex = function.getVariables().indexOf(parent);
+
+		double other = IDENTITY_NOISE / (child.getCardinality() - 1);
+		double[] cells = function.getCells();
+		int[] states = new int[2];
+		for (int i = 0; i < cells.length; i++) {
+			function.computeStates(i, states);
+			cells[i] =
+					states[childIndex] == states[parentIndex] ? 1 - IDENTITY_NOISE
+							: other;
+		}
+
+		return function;
+	}
+
+	/**
+	 * Combines the two states of the parent in a conditional distribution,
+	 * where the distribution given the combined state is the mixture of those
+	 * given the two states with the given weights.
+	 */
+	private static Function weightedCombine(Function cpt,
+			DiscreteVariable parent, int si, double weight1, int sj,
+			double weight2, DiscreteVariable newVariable) {
+		double total = weight1 + weight2;
+		double w1 = total > 0 ? weight1 / total : 0.5;
+		double w2 = 1 - w1;
+
+		// scales the distributions given the two states, so that their
+		// average is the weighted mixture
+		Function scaled = cpt.clone();
+		int parentIndex = scaled.getVariables().indexOf(parent);
+		double[] cells = scaled.getCells();
+		int[] states = new int[scaled.getDimension()];
+		for (int i = 0; i < cells.length; i++) {
+			scaled.computeStates(i, states);
+			if (states[parentIndex] == si)
+				cells[i] *= 2 * w1;
+			else if (states[parentIndex] == sj)
+				cells[i] *= 2 * w2;
+		}
+
+		return scaled.averageCombine(parent, si, sj, newVariable);
+	}
+
+	/**
+	 * Tilts the distribution of the child given a state of the parent towards
+	 * its higher states if {@code direction} is positive, or towards its lower
+	 * states otherwise.
+	 */
+	private static void tilt(Function cpt, DiscreteVariable child,
+			DiscreteVariable parent, int state, int direction) {
+		int childIndex = cpt.getVariables().indexOf(child);
+		int parentIndex = cpt.getVariables().indexOf(parent);
+		int last = child.getCardinality() - 1;
+
+		double[] cells = cpt.getCells();
+		int[] states = new int[cpt.getDimension()];
+		double sum = 0;
+		for (int i = 0; i < cells.length; i++) {
+			cpt.computeStates(i, states);
+			if (states[parentIndex] != state)
+				continue;
+
+			double position = 2.0 * states[childIndex] / last - 1;
+			cells[i] *= 1 + direction * PROBABILITY_PERTURBATION * position;
+			sum += cells[i];
+		}
+
+		for (int i = 0; i < cells.length; i++) {
+			cpt.computeStates(i, states);
+			if (states[parentIndex] == state)
+				cells[i] /= sum;
+		}
+	}
+
+	/**
+	 * Shifts the mean of the parameter by {@link #MEAN_PERTURBATION} standard
+	 * deviations in the given direction.
+	 */
+	private static void shift(CGParameter parameter, int direction) {
+		for (int i = 0; i < parameter.A.size(); i++) {
+			double deviation = Math.sqrt(parameter.C.getQuick(i, i));
+			parameter.A.setQuick(i, parameter.A.getQuick(i) + direction
+					* MEAN_PERTURBATION * deviation);
+		}
+	}
+
+	/**
+	 * Returns the Gaussian distribution that matches the first two moments of
+	 * the mixture of two Gaussian distributions with the given weights.
+	 */
+	static CGParameter mix(CGParameter parameter1, double weight1,
+			CGParameter parameter2, double weight2) {
+		double total = weight1 + weight2;
+		double w1 = total > 0 ? weight1 / total : 0.5;
+		double w2 = 1 - w1;
+
+		int size = parameter1.A.size();
+		DoubleMatrix1D mean = new DenseDoubleMatrix1D(size);
+		for (int i = 0; i < size; i++)
+			mean.setQuick(i, w1 * parameter1.A.getQuick(i) + w2
+					* parameter2.A.getQuick(i));
+
+		DoubleMatrix2D covariance = new DenseDoubleMatrix2D(size, size);
+		for (int i = 0; i < size; i++) {
+			double d1i = parameter1.A.getQuick(i) - mean.getQuick(i);
+			double d2i = parameter2.A.getQuick(i) - mean.getQuick(i);
+			for (int j = 0; j < size; j++) {
+				double d1j = parameter1.A.getQuick(j) - mean.getQuick(j);
+				double d2j = parameter2.A.getQuick(j) - mean.getQuick(j);
+				covariance.setQuick(i, j, w1
+						* (parameter1.C.getQuick(i, j) + d1i * d1j) + w2
+						* (parameter2.C.getQuick(i, j) + d2i * d2j));
+			}
+		}
+
+		return new CGParameter(1, mean, covariance);
+	}
+}
@@ -0,0 +1,252 @@
+package org.latlab.learner.geast.operators;
+
+import org.latlab.data.Instance;
+import org.latlab.data.MixedDataSet;
+import org.latlab.graph.DirectedNode;
+import org.latlab.learner.geast.PosteriorTransform;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.Potential;
+import org.latlab.util.RandomStream;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+/**
+ * Transforms the posterior distributions of a latent variable in the base
+ * model to those of the variable that takes its place in a candidate with
+ * some of its states split or merged. It is used to initialize the candidates
+ * of the state operators by a soft-assignment M-step.
+ *
+ * <p>
+ * When a state is split, its posterior probability in each data case is
+ * divided between the two resulting states, which would otherwise get
+ * identical parameters that EM cannot separate. The ratio depends on the
+ * standardized value of the case on a continuous child of the latent
+ * variable, so that the state is split along the axis on which it is widest
+ * compared to the other states. If the variable has no continuous child or
+ * the value is missing, the ratio is drawn randomly around one half.
+ *
+ * @author leonard
+ *
+ */
+final class PosteriorTransfer {
+
+	/**
+	 * Maximum deviation from one half of the ratio by which the posterior
+	 * probability of a split state is divided.
+	 */
+	public static final double SPLIT_PERTURBATION = 0.5;
+
+	private PosteriorTransfer() {
+	}
+
+	/**
+	 * Returns the transform for the state introduction, which splits the same
+	 * state as {@link ParameterTransfer#splitState}.
+	 */
+	public static PosteriorTransform splitState(Gltm base,
+			DiscreteVariable oldVariable, DiscreteVariable newVariable) {
+		int state = ParameterTransfer.largestState(base, oldVariable);
+		Split split =
+				new Split(oldVariable, newVariable, state, RandomStream.seed());
+
+		// finds the axis on which the variance given the state is largest
+		// relative to the average variance given all states
+		double largest = 0;
+		for (DirectedNode child : base.getNode(oldVariable).getChildren()) {
+			if (!(child instanceof ContinuousBeliefNode))
+				continue;
+
+			CGPotential potential = ((ContinuousBeliefNode) child).potential();
+			for (int i = 0; i < potential.continuousVariables().size(); i++) {
+				double average = 0;
+				for (int j = 0; j < potential.size(); j++)
+					average += potential.get(j).C.getQuick(i, i);
+				average /= potential.size();
+
+				double variance = potential.get(state).C.getQuick(i, i);
+				if (average > 0 && variance / average > largest) {
+					largest = variance / average;
+					split.axis = potential.continuousVariables().get(i);
+					split.mean = potential.get(state).A.getQuick(i);
+					split.deviation = Math.sqrt(variance);
+				}
+			}
+		}
+
+		return split;
+	}
+
+	/**
+	 * Returns the transform for the state deletion, which merges the same
+	 * states as {@link ParameterTransfer#mergeStates}.
+	 */
+	public static PosteriorTransform mergeStates(Gltm base,
+			DiscreteVariable oldVariable, DiscreteVariable newVariable) {
+		int[] states =
+				ParameterTransfer.smallestStates(ParameterTransfer.marginal(
+						base, oldVariable).getCells());
+		return new Merge(oldVariable, newVariable, states[0], states[1]);
+	}
+
+	/**
+	 * Transforms the posterior distributions containing the old variable, and
+	 * leaves the others unchanged.
+	 */
+	private static abstract class StateTransform implements
+			PosteriorTransform {
+		protected final DiscreteVariable oldVariable;
+		protected final DiscreteVariable newVariable;
+
+		protected StateTransform(DiscreteVariable oldVariable,
+				DiscreteVariable newVariable) {
+			this.oldVariable = oldVariable;
+			this.newVariable = newVariable;
+		}
+
+		public Variable source(Variable variable) {
+			return variable == newVariable ? oldVariable : variable;
+		}
+
+		public void startCase(MixedDataSet data, int index) {
+		}
+
+		public Potential transform(Potential posterior) {
+			if (posterior instanceof CGPotential) {
+				CGPotential potential = (CGPotential) posterior;
+				return potential.discreteVariable() == oldVariable
+						? transform(potential) : potential;
+			}
+
+			Function function = (Function) posterior;
+			return function.contains(oldVariable) ? transform(function)
+					: function;
+		}
+
+		protected abstract Function transform(Function posterior);
+
+		protected abstract CGPotential transform(CGPotential posterior);
+	}
+
+	private static class Split extends StateTransform {
+		private final int state;
+		private final int added;
+		private final long seed;
+
+		/**
+		 * Variable along which the state is split, or {@code null} if it is
+		 * split randomly.
+		 */
+		private SingularContinuousVariable axis = null;
+		private double mean;
+		private double deviation;
+
+		private RandomStream random;
+		private double ratio;
+
+		public Split(DiscreteVariable oldVariable,
+				DiscreteVariable newVariable, int state, long seed) {
+			super(oldVariable, newVariable);
+			this.state = state;
+			this.added = newVariable.getCardinality() - 1;
+			this.seed = seed;
+		}
+
+		@Override
+		public void startCase(MixedDataSet data, int index) {
+			// the random ratios are drawn from a stream restarted for each
+			// pass of the data, so that they are the same for the same case
+			if (index == 0)
+				random = new RandomStream(seed);
+
+			double value =
+					axis == null ? Instance.MISSING : data.get(index).value(
+							data.indexOf(axis));
+
+			if (Double.isNaN(value) || deviation <= 0) {
+				ratio =
+						0.5 + SPLIT_PERTURBATION
+								* (2 * random.nextDouble() - 1);
+			} else {
+				ratio =
+						0.5 + SPLIT_PERTURBATION
+								* Math.tanh((value - mean) / deviation);
+			}
+		}
+
+		@Override
+		protected Function transform(Function posterior) {
+			// the split function holds one half of the probability in each
+			// of the two states
+			Function function =
+					posterior.split(oldVariable, state, newVariable);
+			int index = function.getVariables().indexOf(newVariable);
+
+			double[] cells = function.getCells();
+			int[] states = new int[function.getDimension()];
+			for (int i = 0; i < cells.length; i++) {
+				function.computeStates(i, states);
+				if (states[index] == state)
+					cells[i] *= 2 * ratio;
+				else if (states[index] == added)
+					cells[i] *= 2 * (1 - ratio);
+			}
+
+			return function;
+		}
+
+		@Override
+		protected CGPotential transform(CGPotential posterior) {
+			CGParameter[] parameters = new CGParameter[added + 1];
+			for (int i = 0; i < added; i++)
+				parameters[i] = posterior.get(i).copy();
+			parameters[added] = posterior.get(state).copy();
+
+			parameters[state].p *= ratio;
+			parameters[added].p *= 1 - ratio;
+
+			return posterior.replaceVar(newVariable, parameters);
+		}
+	}
+
+	private static class Merge extends StateTransform {
+		private final int si;
+		private final int sj;
+
+		public Merge(DiscreteVariable oldVariable,
+				DiscreteVariable newVariable, int si, int sj) {
+			super(oldVariable, newVariable);
+			this.si = si;
+			this.sj = sj;
+		}
+
+		@Override
+		protected Function transform(Function posterior) {
+			return posterior.combine(oldVariable, si, sj, newVariable);
+		}
+
+		@Override
+		protected CGPotential transform(CGPotential posterior) {
+			CGParameter[] parameters =
+					new CGParameter[newVariable.getCardinality()];
+			for (int i = 0; i < parameters.length; i++) {
+				if (i == si) {
+					CGParameter first = posterior.get(si);
+					CGParameter second = posterior.get(sj);
+					parameters[i] =
+							ParameterTransfer.mix(first, first.p, second,
+									second.p);
+					parameters[i].p = first.p + second.p;
+				} else {
+					parameters[i] = posterior.get(i < sj ? i : i + 1).copy();
+				}
+			}
+
+			return posterior.replaceVar(newVariable, parameters);
+		}
+	}
+}
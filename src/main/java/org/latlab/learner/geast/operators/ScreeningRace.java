@@ -0,0 +1,253 @@
+package org.latlab.learner.geast.operators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.latlab.learner.geast.Cancellation;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.EmParameters;
+import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.context.ISearchOperatorContext;
+import org.latlab.util.DoubleComparator;
+import org.latlab.util.Evaluator;
+import org.latlab.util.RandomStream;
+
+/**
+ * Screens the candidates of a search operator by racing them. Each candidate
+ * is estimated by the screening EM in increments of a small number of steps.
+ * Once the screen queue is full, a candidate is abandoned when its score,
+ * with the loglikelihood raised by a bound on its remaining improvement,
+ * cannot enter the queue. The bound is the improvement of the last step
+ * multiplied by the number of remaining steps, which assumes that the
+ * improvement of EM does not increase. Since each increment starts a new
+ * estimation, the improvement of the last step is also bounded by the average
+ * improvement per step since the previous increment.
+ *
+ * <p>
+ * The candidates are raced in the order of the scores their modifications
+ * had in the previous screenings of the same operator, so that the good
+ * candidates fill the queue first. Candidates with modifications not seen
+ * before are raced after them in the generated order.
+ *
+ * <p>
+ * The race assumes that the screening EM counts its steps in the second
+ * stage, as does the {@code LocalEm}.
+ *
+ * @author leonard
+ *
+ */
+class ScreeningRace {
+
+	private final ISearchOperatorContext context;
+
+	/**
+	 * Holds the last screening score of each modification, keyed by the
+	 * attributes of the candidates.
+	 */
+	private final Map<String, Double> history = new HashMap<String, Double>();
+
+	/**
+	 * Stream from which a separate random stream is split for the continuing
+	 * increments of each candidate. It is created when the first screening
+	 * starts, after the seed has been set.
+	 */
+	private RandomStream streams = null;
+
+	/**
+	 * Salt of the seed of {@link #streams}, so that the streams split from it
+	 * differ from those split from the root stream.
+	 */
+	private static final long STREAMS_SALT = 0x5ca1ab1e5eedL;
+
+	public ScreeningRace(ISearchOperatorContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Races the candidates and returns the queue holding the best ones.
+	 *
+	 * @param operator
+	 *            operator that generated the candidates, used for logging
+	 * @param candidates
+	 *            candidates to screen
+	 * @param evaluator
+	 *            to evaluate the candidates
+	 * @return queue holding the best candidates
+	 */
+	public ScreenQueue screen(SearchOperator operator,
+			List<SearchCandidate> candidates,
+			Evaluator<SearchCandidate> evaluator) {
+		ScreenQueue queue = new ScreenQueue(context.screeningSize());
+		if (streams == null)
+			streams = new RandomStream(RandomStream.seed() ^ STREAMS_SALT);
+
+		for (SearchCandidate candidate : order(candidates)) {
+			if (Cancellation.requested())
+				break;
+
+			try {
+				if (race(candidate, queue, evaluator)) {
+					queue.add(candidate);
+					operator.log(candidate);
+				} else {
+					context.log().writeElement("abandoned", candidate, false);
+				}
+
+				history.put(candidate.attributes(), candidate.score());
+			} catch (Exception e) {
+				context.log().write(e, candidate);
+			}
+		}
+
+		return queue;
+	}
+
+	/**
+	 * Returns a copy of the history and of the stream of the increments, which
+	 * the later screenings change.
+	 *
+	 * @return state of this race
+	 */
+	public Object save() {
+		return new State(new HashMap<String, Double>(history),
+				streams == null ? null : streams.copy());
+	}
+
+	/**
+	 * Restores the state returned by {@link #save()}, so that the race orders
+	 * and estimates the candidates as if the screenings after it had not run.
+	 *
+	 * @param state
+	 *            state returned by {@link #save()}
+	 */
+	public void restore(Object state) {
+		State saved = (State) state;
+		history.clear();
+		history.putAll(saved.history);
+		streams = saved.streams == null ? null : saved.streams.copy();
+	}
+
+	private static class State {
+		public final Map<String, Double> history;
+		public final RandomStream streams;
+
+		public State(Map<String, Double> history, RandomStream streams) {
+			this.history = history;
+			this.streams = streams;
+		}
+	}
+
+	/**
+	 * Returns the candidates sorted by their scores in the history in
+	 * descending order, followed by those not found in the history.
+	 */
+	private List<SearchCandidate> order(List<SearchCandidate> candidates) {
+		List<SearchCandidate> ordered =
+				new ArrayList<SearchCandidate>(candidates);
+
+		// the sort is stable, so that the candidates not found keep their
+		// generated order
+		Collections.sort(ordered, new Comparator<SearchCandidate>() {
+			public int compare(SearchCandidate o1, SearchCandidate o2) {
+				Double s1 = history.get(o1.attributes());
+				Double s2 = history.get(o2.attributes());
+
+				if (s1 == null)
+					return s2 == null ? 0 : 1;
+				else if (s2 == null)
+					return -1;
+				else
+					return -DoubleComparator.compare(s1, s2);
+			}
+		});
+
+		return ordered;
+	}
+
+	/**
+	 * Estimates the candidate in increments until it finishes the steps of the
+	 * screening EM or it is abandoned.
+	 *
+	 * @return whether the candidate finishes and can enter the queue
+	 */
+	private boolean race(SearchCandidate candidate, ScreenQueue queue,
+			Evaluator<SearchCandidate> evaluator) {
+		EmFramework em = context.screeningEm();
+		EmParameters original = em.parameters();
+		int increment = context.racingIncrement();
+
+		// the steps run by the screening EM, including the initial iterations
+		double total =
+				original.initialIterations
+						+ (original.secondStageSteps > 0
+								? original.secondStageSteps
+								: original.maxSteps);
+
+		// the continuing increments run on a separate random stream, which is
+		// used only when the parameters have to be generated again, so that
+		// the candidates draw the same random numbers as without racing
+		RandomStream stream = streams.split();
+
+		int run = original.initialIterations;
+		boolean continuing = false;
+		double previousLoglikelihood = Double.NaN;
+		while (true) {
+			EmParameters leg = new EmParameters(original);
+			if (continuing) {
+				// continues from the current estimation of the candidate
+				leg.reuseParameters = true;
+				leg.restarts = 1;
+				leg.initialIterations = 0;
+			}
+
+			int steps = (int) Math.max(1, Math.min(increment, total - run));
+			leg.secondStageSteps = steps;
+			run += steps;
+
+			RandomStream previous =
+					continuing ? RandomStream.use(stream) : null;
+
+			EmParameters inherited = em.useInThread(leg);
+			try {
+				candidate.evaluate(em, evaluator);
+			} finally {
+				em.useInThread(inherited);
+				if (continuing)
+					RandomStream.use(previous);
+			}
+
+			continuing = true;
+
+			// a continuing leg starts a new estimation, which has no
+			// improvement if it runs only one step
+			Estimation estimation = (Estimation) candidate.estimation();
+			double loglikelihood = estimation.loglikelihood();
+			double improvement = estimation.improvement();
+			if (!Double.isNaN(previousLoglikelihood))
+				improvement =
+						Math.min(improvement,
+								(loglikelihood - previousLoglikelihood) / steps);
+			previousLoglikelihood = loglikelihood;
+
+			boolean finished =
+					Double.isNaN(loglikelihood)
+							|| improvement < original.threshold || run >= total;
+
+			double bound = finished ? 0 : improvement * (total - run);
+
+			if (queue.size() >= context.screeningSize()) {
+				SearchCandidate worst = queue.get(queue.size() - 1);
+				double score = candidate.optimisticScore(evaluator, bound);
+				if (DoubleComparator.compare(score, worst.score()) < 0)
+					return false;
+			}
+
+			if (finished)
+				return true;
+		}
+	}
+}
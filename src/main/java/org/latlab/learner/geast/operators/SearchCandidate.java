@@ -1,11 +1,14 @@
 package org.latlab.learner.geast.operators;
 
 import java.util.Comparator;
+import java.util.concurrent.Future;
 
 import org.latlab.learner.geast.EmFramework;
 import org.latlab.learner.geast.Estimation;
 import org.latlab.learner.geast.Focus;
 import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.learner.geast.PosteriorTransform;
+import org.latlab.learner.geast.workers.WorkerPool;
 import org.latlab.model.Gltm;
 import org.latlab.util.DoubleComparator;
 import org.latlab.util.Evaluator;
@@ -55,6 +58,22 @@ public abstract class SearchCandidate {
 	 */
 	protected final Focus modification;
 
+	/**
+	 * Whether the parameters of the structure in the modification have been
+	 * initialized by the subclass, such as by transferring the parameters of
+	 * the base model. If so, the first estimation starts from them instead of
+	 * random parameters.
+	 */
+	protected boolean initialized = false;
+
+	/**
+	 * Transforms the posterior distributions of the base model to this
+	 * candidate, or {@code null} if it is not available. If available, the
+	 * first estimation starts from the parameters computed by a
+	 * soft-assignment M-step on the transformed posterior distributions.
+	 */
+	protected PosteriorTransform posteriorTransform = null;
+
 	/**
 	 * The score of this search candidate.
 	 */
@@ -94,7 +113,13 @@ public abstract class SearchCandidate {
 	public void estimate(EmFramework em) {
 		Estimation result;
 
-		if (estimation == null)
+		if (estimation == null && posteriorTransform != null)
+			result =
+					em.estimateFromPosteriors(base.model(), structure,
+							modification, posteriorTransform);
+		else if (estimation == null && initialized)
+			result = em.estimateFromGiven(structure, modification);
+		else if (estimation == null)
 			result = em.estimate(structure, modification);
 		else
 			result = em.estimate(estimation, modification);
@@ -106,6 +131,53 @@ public abstract class SearchCandidate {
 		estimation = result;
 	}
 
+	/**
+	 * Submits the estimation of this candidate to the worker processes, which
+	 * estimate it as {@link #estimate(EmFramework)} would with the EM of the
+	 * given purpose. The returned estimation should then be given to
+	 * {@link #use(IModelWithScore, Evaluator)}. If this candidate is
+	 * initialized from the posterior distributions of the base model, the
+	 * initialization is done by the given EM in this process.
+	 * 
+	 * @param workers
+	 *            worker processes to estimate this candidate
+	 * @param purpose
+	 *            purpose of the EM used by the workers
+	 * @param em
+	 *            EM of this process with the same purpose
+	 * @return estimation of this candidate
+	 */
+	public Future<IModelWithScore> submit(WorkerPool workers,
+			WorkerPool.Purpose purpose, EmFramework em) {
+		if (estimation == null && posteriorTransform != null) {
+			em.initializeFromPosteriors(base.model(), structure, modification,
+					posteriorTransform);
+			return workers.submit(structure, structure, true, purpose,
+					modification);
+		} else if (estimation == null)
+			return workers.submit(structure, structure, initialized, purpose,
+					modification);
+		else
+			return workers.submit(estimation.model(), estimation.origin(),
+					false, purpose, modification);
+	}
+
+	/**
+	 * Uses an estimation found elsewhere, such as in the
+	 * {@link TranspositionTable}, instead of estimating this candidate.
+	 * 
+	 * @param estimation
+	 *            estimation of a model with the same structure as this
+	 *            candidate
+	 * @param evaluator
+	 *            for evaluation of this candidate
+	 */
+	public void use(IModelWithScore estimation,
+			Evaluator<SearchCandidate> evaluator) {
+		this.estimation = estimation;
+		score = evaluator.evaluate(this);
+	}
+
 	public IModelWithScore estimation() {
 		return estimation;
 	}
@@ -129,6 +201,91 @@ public abstract class SearchCandidate {
 		return score;
 	}
 
+	/**
+	 * Returns the score this candidate would have if the loglikelihood of its
+	 * current estimation were raised by the given amount. It is used to bound
+	 * the score that a partially estimated candidate may reach, and does not
+	 * change the score of this candidate.
+	 * 
+	 * @param evaluator
+	 *            for evaluation of this candidate
+	 * @param increase
+	 *            increase in the loglikelihood
+	 * @return score with the raised loglikelihood
+	 */
+	public double optimisticScore(Evaluator<SearchCandidate> evaluator,
+			double increase) {
+		return scoreWith(new RaisedEstimation(estimation, increase), evaluator);
+	}
+
+	/**
+	 * Returns the score this candidate would have if its estimation were
+	 * replaced by the given one. It does not change the score of this
+	 * candidate.
+	 * 
+	 * @param substitute
+	 *            estimation used in place of the current one
+	 * @param evaluator
+	 *            for evaluation of this candidate
+	 * @return score with the substitute estimation
+	 */
+	public double scoreWith(IModelWithScore substitute,
+			Evaluator<SearchCandidate> evaluator) {
+		IModelWithScore current = estimation;
+		estimation = substitute;
+
+		try {
+			return evaluator.evaluate(this);
+		} finally {
+			estimation = current;
+		}
+	}
+
+	/**
+	 * Sets the score of this candidate, such as one estimated from a subsample
+	 * of data.
+	 * 
+	 * @param score
+	 *            score of this candidate
+	 */
+	void useScore(double score) {
+		this.score = score;
+	}
+
+	/**
+	 * An estimation of which loglikelihood and BIC score are raised by a given
+	 * amount.
+	 */
+	private static class RaisedEstimation implements IModelWithScore {
+		private final IModelWithScore estimation;
+		private final double increase;
+
+		public RaisedEstimation(IModelWithScore estimation, double increase) {
+			this.estimation = estimation;
+			this.increase = increase;
+		}
+
+		public Gltm model() {
+			return estimation.model();
+		}
+
+		public Gltm origin() {
+			return estimation.origin();
+		}
+
+		public double loglikelihood() {
+			return estimation.loglikelihood() + increase;
+		}
+
+		public double BicScore() {
+			return estimation.BicScore() + increase;
+		}
+
+		public int messageCount() {
+			return estimation.messageCount();
+		}
+	}
+
 	/**
 	 * Returns the model of this search candidate. When no estimation has been
 	 * run on the structure model, the structure is returned.
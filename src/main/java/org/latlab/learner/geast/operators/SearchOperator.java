@@ -3,11 +3,14 @@
  */
 package org.latlab.learner.geast.operators;
 
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.context.ISearchOperatorContext;
 import org.latlab.util.Evaluator;
+import org.latlab.util.Profiler;
 
 /**
  * An operator that generates candidates from a given base model.
@@ -46,9 +49,45 @@ public abstract class SearchOperator {
 	 *            to evaluate the search candidates
 	 * @return the best candidate it can find
 	 */
+	public SearchCandidate search(IModelWithScore base,
+			Evaluator<SearchCandidate> evaluator) {
+		Profiler.Scope scope = Profiler.useOperator(name());
+		try {
+			return search(base, generate(base), evaluator);
+		} finally {
+			Profiler.use(scope);
+		}
+	}
+
+	/**
+	 * Searches for the best candidate among those generated before by
+	 * {@link #generate(IModelWithScore)}. It is separated from the generation
+	 * so that the candidates of different operators can be generated in a
+	 * fixed order and then searched concurrently.
+	 * 
+	 * @param base
+	 *            base model from which the candidates are generated
+	 * @param candidates
+	 *            candidates generated from the base model
+	 * @param evaluator
+	 *            to evaluate the search candidates
+	 * @return the best candidate it can find
+	 */
 	public abstract SearchCandidate search(IModelWithScore base,
+			LinkedList<SearchCandidate> candidates,
 			Evaluator<SearchCandidate> evaluator);
 
+	/**
+	 * Generates the candidates to search from the {@code base} model.
+	 * 
+	 * @param base
+	 *            from which the candidates are generated
+	 * @return the candidates generated
+	 */
+	public LinkedList<SearchCandidate> generate(IModelWithScore base) {
+		return generateCandidates(base);
+	}
+
 	/**
 	 * Generates the candidates from the {@code base} model. The {@code base}
 	 * model should not be modified.
@@ -63,6 +102,38 @@ public abstract class SearchOperator {
 	protected abstract LinkedList<SearchCandidate> generateCandidates(
 			IModelWithScore base);
 
+	/**
+	 * Removes the candidates of which structures are found in the
+	 * transposition table, and returns them with the stored estimations, so
+	 * that they need not be screened or selected again.
+	 * 
+	 * @param candidates
+	 *            candidates generated by this operator
+	 * @param evaluator
+	 *            to evaluate the candidates found
+	 * @return candidates found in the table
+	 */
+	protected List<SearchCandidate> lookUp(List<SearchCandidate> candidates,
+			Evaluator<SearchCandidate> evaluator) {
+		List<SearchCandidate> found = new LinkedList<SearchCandidate>();
+		TranspositionTable table = context.transpositionTable();
+		if (!table.isEnabled())
+			return found;
+
+		Iterator<SearchCandidate> iterator = candidates.iterator();
+		while (iterator.hasNext()) {
+			SearchCandidate candidate = iterator.next();
+			IModelWithScore estimation = table.get(candidate.model());
+			if (estimation != null) {
+				candidate.use(estimation, evaluator);
+				found.add(candidate);
+				iterator.remove();
+			}
+		}
+
+		return found;
+	}
+
 	/**
 	 * Logs the candidate found by this search operator.
 	 * 
@@ -92,4 +163,25 @@ public abstract class SearchOperator {
 	public void update(SearchCandidate latest) {
 
 	}
+
+	/**
+	 * Returns the state that this search operator changes during its searches,
+	 * so that the searches after it can be discarded by
+	 * {@link #restore(Object)}. The default operator keeps no such state.
+	 * 
+	 * @return state of this search operator
+	 */
+	public Object save() {
+		return null;
+	}
+
+	/**
+	 * Restores the state returned by {@link #save()}.
+	 * 
+	 * @param state
+	 *            state returned by {@link #save()}
+	 */
+	public void restore(Object state) {
+
+	}
 }
@@ -1,9 +1,18 @@
 package org.latlab.learner.geast.operators;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.latlab.learner.geast.Cancellation;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.EmParameters;
 import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.context.ISearchOperatorContext;
+import org.latlab.learner.geast.workers.WorkerPool;
 import org.latlab.util.Evaluator;
 
 /**
@@ -15,8 +24,22 @@ import org.latlab.util.Evaluator;
  */
 public abstract class SinglethreadSearchOperator extends SearchOperator {
 
+	/**
+	 * Races the candidates in screening if it is enabled in the context. It
+	 * keeps the screening scores of the candidates of this operator.
+	 */
+	private final ScreeningRace race;
+
+	/**
+	 * Reduces the candidates on subsamples of data before screening if
+	 * fidelity levels are given in the context.
+	 */
+	private final SuccessiveHalving halving;
+
 	public SinglethreadSearchOperator(ISearchOperatorContext context) {
 		super(context);
+		race = new ScreeningRace(context);
+		halving = new SuccessiveHalving(context);
 	}
 
 	/**
@@ -26,30 +49,70 @@ public abstract class SinglethreadSearchOperator extends SearchOperator {
 	 * 
 	 * @param base
 	 *            base model to search from
+	 * @param candidates
+	 *            candidates generated from the base model
 	 * @return the best candidate it can find
 	 */
 	@Override
 	public SearchCandidate search(IModelWithScore base,
+			LinkedList<SearchCandidate> candidates,
 			Evaluator<SearchCandidate> evaluator) {
 		context.log().writeStartElementWithTime(name(), null);
 
-		LinkedList<SearchCandidate> candidates = generateCandidates(base);
+		// the candidates selected before need not be estimated again
+		List<SearchCandidate> cached = lookUp(candidates, evaluator);
+
+		// reduces the candidates on subsamples of data if there are too many,
+		// and then screens the finalists from their subsample estimations
+		boolean warm = halving.isApplicable(candidates.size());
+		EmParameters original = null;
+		if (warm) {
+			candidates = halving.promote(candidates, evaluator);
+			original = SuccessiveHalving.warmStart(context.screeningEm());
+		}
+
+		// the candidates are estimated by the worker processes if there are
+		// any, unless the racing or the warm start has to adjust the EM of
+		// this process
+		boolean remote =
+				context.workers() != null && context.racingIncrement() <= 0
+						&& !warm;
 
 		// here screens the generated candidates by adding them to a queue with
 		// bounded size
-		ScreenQueue screenQueue = new ScreenQueue(context.screeningSize());
-
-		// estimates the candidates one by one
-		while (!candidates.isEmpty()) {
-			SearchCandidate candidate = null;
-			try {
-				candidate = candidates.removeFirst();
-				candidate.evaluate(context.screeningEm(), evaluator);
-				screenQueue.add(candidate);
-				log(candidate);
-			} catch (Exception e) {
-				context.log().write(e, candidate);
+		ScreenQueue screenQueue;
+
+		try {
+			if (context.racingIncrement() > 0) {
+				screenQueue = race.screen(this, candidates, evaluator);
+			} else if (remote) {
+				screenQueue = new ScreenQueue(context.screeningSize());
+				for (SearchCandidate candidate : evaluateRemotely(candidates,
+						WorkerPool.Purpose.SCREENING, context.screeningEm(),
+						evaluator)) {
+					screenQueue.add(candidate);
+					log(candidate);
+				}
+			} else {
+				screenQueue = new ScreenQueue(context.screeningSize());
+
+				// estimates the candidates one by one, unless the search is
+				// cancelled
+				while (!candidates.isEmpty() && !Cancellation.requested()) {
+					SearchCandidate candidate = null;
+					try {
+						candidate = candidates.removeFirst();
+						candidate.evaluate(context.screeningEm(), evaluator);
+						screenQueue.add(candidate);
+						log(candidate);
+					} catch (Exception e) {
+						context.log().write(e, candidate);
+					}
+				}
 			}
+		} finally {
+			if (warm)
+				context.screeningEm().useInThread(original);
 		}
 
 		candidates.clear();
@@ -58,9 +121,26 @@ public abstract class SinglethreadSearchOperator extends SearchOperator {
 		// best one
 		SearchCandidate best = new GivenCandidate(base);
 
-		for (SearchCandidate candidate : screenQueue) {
+		Collection<SearchCandidate> selecting =
+				remote ? evaluateRemotely(screenQueue,
+						WorkerPool.Purpose.SELECTION, context.selectionEm(),
+						evaluator) : screenQueue;
+
+		for (SearchCandidate candidate : selecting) {
+			if (Cancellation.requested())
+				break;
+
 			try {
-				candidate.evaluate(context.selectionEm(), evaluator);
+				if (!remote) {
+					candidate.evaluate(context.selectionEm(), evaluator);
+
+					// the estimation may have stopped before it converges, so
+					// it is neither kept in the table nor ranked
+					if (Cancellation.requested())
+						break;
+				}
+
+				context.transpositionTable().put(candidate.estimation());
 
 				// log the original model's name, so that it can be compared
 				// with the candidates generated by the search operator.
@@ -74,10 +154,75 @@ public abstract class SinglethreadSearchOperator extends SearchOperator {
 			}
 		}
 
+		for (SearchCandidate candidate : cached) {
+			context.log().writeElement("cached", candidate, true);
+
+			if (SearchCandidate.SCORE_COMPARATOR.compare(candidate, best) < 0)
+				best = candidate;
+		}
+
 		context.log().writeElement("completed", best, true);
 		context.log().writeEndElement(name());
 
 		return best;
 	}
 
+	/**
+	 * Returns the screening scores and the random streams of the race.
+	 */
+	@Override
+	public Object save() {
+		return race.save();
+	}
+
+	@Override
+	public void restore(Object state) {
+		race.restore(state);
+	}
+
+	/**
+	 * Estimates the candidates on the worker processes, and returns those
+	 * estimated successfully in the given order. The failures are logged as
+	 * those of the estimations in this process.
+	 */
+	private List<SearchCandidate> evaluateRemotely(
+			Collection<SearchCandidate> candidates, WorkerPool.Purpose purpose,
+			EmFramework em, Evaluator<SearchCandidate> evaluator) {
+		List<SearchCandidate> submitted =
+				new ArrayList<SearchCandidate>(candidates.size());
+		List<Future<IModelWithScore>> futures =
+				new ArrayList<Future<IModelWithScore>>(candidates.size());
+		for (SearchCandidate candidate : candidates) {
+			try {
+				futures.add(candidate.submit(context.workers(), purpose, em));
+				submitted.add(candidate);
+			} catch (Exception e) {
+				context.log().write(e, candidate);
+			}
+		}
+
+		List<SearchCandidate> evaluated =
+				new ArrayList<SearchCandidate>(submitted.size());
+		for (int i = 0; i < submitted.size(); i++) {
+			SearchCandidate candidate = submitted.get(i);
+			if (Cancellation.requested()) {
+				futures.get(i).cancel(false);
+				continue;
+			}
+
+			try {
+				candidate.use(futures.get(i).get(), evaluator);
+				evaluated.add(candidate);
+			} catch (ExecutionException e) {
+				context.log().write(
+						e.getCause() instanceof Exception
+								? (Exception) e.getCause() : e, candidate);
+			} catch (InterruptedException e) {
+				context.log().write(e, candidate);
+			}
+		}
+
+		return evaluated;
+	}
+
 }
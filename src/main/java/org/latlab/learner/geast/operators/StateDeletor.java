@@ -37,6 +37,21 @@ public class StateDeletor extends SearchOperatorImpl {
 			for (AbstractNode child : newNode.getChildren()) {
 				modification.add(((BeliefNode) child).getVariable());
 			}
+
+			ParameterTransfer.mergeStates(base.model(), structure, oldVariable,
+					newVariable);
+			initialized = true;
+		}
+
+		/**
+		 * Lets this candidate be initialized by a soft-assignment M-step on
+		 * the posterior distributions of the base model, instead of the
+		 * parameters transferred from the base model.
+		 */
+		void usePosteriorInitialization() {
+			posteriorTransform =
+					PosteriorTransfer.mergeStates(base.model(), oldVariable,
+							newVariable);
 		}
 
 		@Override
@@ -78,6 +93,8 @@ public class StateDeletor extends SearchOperatorImpl {
 				continue;
 
 			Candidate candidate = new Candidate(base, node.getVariable());
+			if (context.posteriorInitialization())
+				candidate.usePosteriorInitialization();
 			candidates.add(candidate);
 		}
 
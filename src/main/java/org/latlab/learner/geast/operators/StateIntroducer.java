@@ -44,6 +44,21 @@ public class StateIntroducer extends SearchOperatorImpl {
 			for (AbstractNode child : newNode.getChildren()) {
 				modification.add(((BeliefNode) child).getVariable());
 			}
+
+			ParameterTransfer.splitState(base.model(), structure, oldVariable,
+					newVariable);
+			initialized = true;
+		}
+
+		/**
+		 * Lets this candidate be initialized by a soft-assignment M-step on
+		 * the posterior distributions of the base model, instead of the
+		 * parameters transferred from the base model.
+		 */
+		void usePosteriorInitialization() {
+			posteriorTransform =
+					PosteriorTransfer.splitState(base.model(), oldVariable,
+							newVariable);
 		}
 
 		@Override
@@ -85,6 +100,8 @@ public class StateIntroducer extends SearchOperatorImpl {
 				continue;
 
 			Candidate candidate = new Candidate(base, node.getVariable());
+			if (context.posteriorInitialization())
+				candidate.usePosteriorInitialization();
 			candidates.add(candidate);
 		}
 
@@ -0,0 +1,142 @@
+package org.latlab.learner.geast.operators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.latlab.learner.geast.Cancellation;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.EmParameters;
+import org.latlab.learner.geast.context.ISearchOperatorContext;
+import org.latlab.util.Evaluator;
+
+/**
+ * Reduces the candidates to be screened on the whole data by successive
+ * halving. At each {@link FidelityLevel}, the remaining candidates are
+ * estimated by an EM on a subsample of data, and only the best fraction of
+ * them is promoted to the next level. The candidates promoted from the last
+ * level are the finalists screened on the whole data.
+ *
+ * <p>
+ * A candidate promoted to the next level, or to the screening on the whole
+ * data, starts from the parameters estimated at the previous level. The
+ * levels are skipped once the number of remaining candidates does not exceed
+ * the size of the screen queue, since the queue can hold all of them.
+ *
+ * @author leonard
+ *
+ */
+class SuccessiveHalving {
+
+	private final ISearchOperatorContext context;
+
+	public SuccessiveHalving(ISearchOperatorContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Returns whether the given number of candidates are reduced on the
+	 * subsamples before they are screened on the whole data.
+	 *
+	 * @param candidates
+	 *            number of candidates
+	 * @return whether the candidates are reduced
+	 */
+	public boolean isApplicable(int candidates) {
+		return !context.fidelityLevels().isEmpty()
+				&& candidates > context.screeningSize();
+	}
+
+	/**
+	 * Returns the finalists promoted from the candidates, with their
+	 * estimations on the subsample of the last level run.
+	 *
+	 * @param candidates
+	 *            candidates to reduce
+	 * @param evaluator
+	 *            to evaluate the candidates
+	 * @return finalists to screen on the whole data
+	 */
+	public LinkedList<SearchCandidate> promote(
+			List<SearchCandidate> candidates,
+			Evaluator<SearchCandidate> evaluator) {
+		List<SearchCandidate> remaining =
+				new ArrayList<SearchCandidate>(candidates);
+		boolean warm = false;
+
+		for (FidelityLevel level : context.fidelityLevels()) {
+			if (remaining.size() <= context.screeningSize())
+				break;
+
+			List<SearchCandidate> estimated =
+					new ArrayList<SearchCandidate>(remaining.size());
+
+			for (SearchCandidate candidate : remaining) {
+				if (Cancellation.requested())
+					return new LinkedList<SearchCandidate>();
+
+				try {
+					evaluate(candidate, level, warm, evaluator);
+					estimated.add(candidate);
+				} catch (Exception e) {
+					context.log().write(e, candidate);
+				}
+			}
+
+			Collections.sort(estimated, SearchCandidate.SCORE_COMPARATOR);
+
+			int size =
+					Math.min(estimated.size(), Math.max(
+							context.screeningSize(), level.promoted(estimated
+									.size())));
+
+			for (SearchCandidate candidate : estimated.subList(size,
+					estimated.size())) {
+				context.log().writeElement("eliminated", candidate, false);
+			}
+
+			remaining = estimated.subList(0, size);
+			warm = true;
+		}
+
+		return new LinkedList<SearchCandidate>(remaining);
+	}
+
+	/**
+	 * Estimates the candidate on the subsample of the level, and scores it on
+	 * its scaled estimation.
+	 */
+	private void evaluate(SearchCandidate candidate, FidelityLevel level,
+			boolean warm, Evaluator<SearchCandidate> evaluator) {
+		EmFramework em = level.em();
+		EmParameters original = warm ? warmStart(em) : null;
+
+		try {
+			candidate.estimate(em);
+		} finally {
+			if (warm)
+				em.useInThread(original);
+		}
+
+		candidate.useScore(candidate.scoreWith(level.scale(candidate
+				.estimation()), evaluator));
+	}
+
+	/**
+	 * Makes the EM start from the current parameters of the candidates in the
+	 * calling thread, and returns the original parameters of this thread,
+	 * which may be {@code null}. They are restored by
+	 * {@link EmFramework#useInThread(EmParameters)}.
+	 *
+	 * @param em
+	 *            EM to start from the current parameters
+	 * @return original parameters of the EM in the calling thread
+	 */
+	public static EmParameters warmStart(EmFramework em) {
+		EmParameters parameters = new EmParameters(em.parameters());
+		parameters.reuseParameters = true;
+		parameters.restarts = 1;
+		return em.useInThread(parameters);
+	}
+}
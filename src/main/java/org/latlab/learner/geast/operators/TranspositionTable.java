@@ -0,0 +1,535 @@
+package org.latlab.learner.geast.operators;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.latlab.graph.DirectedNode;
+import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.DiscreteBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.SingularContinuousVariable;
+
+/**
+ * Holds the estimations of the candidates selected by the search operators
+ * during the whole search, so that a structure generated again later, such as
+ * by relocating a node back, is neither screened nor selected again.
+ *
+ * <p>
+ * The structures are identified by a canonical form of the model, which
+ * consists of the observed variables, the cardinalities of the latent
+ * variables, the composition of the pouch nodes and the tree topology. It does
+ * not depend on the names of the latent variables, since new latent variables
+ * are given new names by the search operators. The parameters are stored in
+ * the order of the nodes in the canonical form, so that they can be assigned
+ * to another model with the same structure.
+ *
+ * <p>
+ * The table is bounded by an estimate of the memory used by the entries, and
+ * discards the least recently used entries when the bound is exceeded.
+ *
+ * @author leonard
+ *
+ */
+public class TranspositionTable {
+
+	public static final int DEFAULT_MEGABYTES = 64;
+
+	/**
+	 * Estimate of the memory used by an entry in addition to its key and
+	 * parameters.
+	 */
+	private static final long ENTRY_OVERHEAD = 128;
+
+	/**
+	 * Canonical form of the structure of a model.
+	 */
+	private static class Structure {
+		private final String key;
+
+		/**
+		 * Nodes of the model in the canonical order.
+		 */
+		private final List<BeliefNode> nodes = new ArrayList<BeliefNode>();
+
+		private Structure(Gltm model) {
+			key = canonicalize(model.getRoot(), nodes);
+		}
+
+		/**
+		 * Returns the canonical form of the subtree rooted at the given node,
+		 * and appends the nodes of the subtree in the canonical order.
+		 */
+		private static String canonicalize(BeliefNode node,
+				List<BeliefNode> order) {
+			final List<String> forms = new ArrayList<String>();
+			final List<List<BeliefNode>> orders =
+					new ArrayList<List<BeliefNode>>();
+			for (DirectedNode child : node.getChildren()) {
+				List<BeliefNode> childOrder = new ArrayList<BeliefNode>();
+				forms.add(canonicalize((BeliefNode) child, childOrder));
+				orders.add(childOrder);
+			}
+
+			List<Integer> indices = new ArrayList<Integer>(forms.size());
+			for (int i = 0; i < forms.size(); i++)
+				indices.add(i);
+			Collections.sort(indices, new Comparator<Integer>() {
+				public int compare(Integer o1, Integer o2) {
+					return forms.get(o1).compareTo(forms.get(o2));
+				}
+			});
+
+			StringBuilder builder = new StringBuilder(label(node));
+			order.add(node);
+			if (indices.size() > 0) {
+				builder.append('(');
+				for (int i = 0; i < indices.size(); i++) {
+					if (i > 0)
+						builder.append(';');
+					builder.append(forms.get(indices.get(i)));
+					order.addAll(orders.get(indices.get(i)));
+				}
+				builder.append(')');
+			}
+
+			return builder.toString();
+		}
+
+		private static String label(BeliefNode node) {
+			return node.accept(new BeliefNode.Visitor<String>() {
+				public String visit(DiscreteBeliefNode node) {
+					// only the latent variables are internal nodes
+					return node.isLeaf() ? "d:" + node.getVariable().getName()
+							: "h:" + node.getVariable().getCardinality();
+				}
+
+				public String visit(ContinuousBeliefNode node) {
+					StringBuilder builder = new StringBuilder("c:");
+					for (SingularContinuousVariable variable : sortedVariables(node.potential())) {
+						builder.append(variable.getName()).append(',');
+					}
+					return builder.toString();
+				}
+			});
+		}
+	}
+
+	private static List<SingularContinuousVariable> sortedVariables(
+			CGPotential potential) {
+		List<SingularContinuousVariable> variables =
+				new ArrayList<SingularContinuousVariable>(
+						potential.continuousVariables());
+		Collections.sort(variables, new Comparator<SingularContinuousVariable>() {
+			public int compare(SingularContinuousVariable o1,
+					SingularContinuousVariable o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		return variables;
+	}
+
+	private static class Entry {
+		private final double[] parameters;
+		private final double loglikelihood;
+		private final double bicScore;
+
+		private Entry(double[] parameters, double loglikelihood,
+				double bicScore) {
+			this.parameters = parameters;
+			this.loglikelihood = loglikelihood;
+			this.bicScore = bicScore;
+		}
+
+		private long bytes(String key) {
+			return ENTRY_OVERHEAD + 2L * key.length() + 8L * parameters.length;
+		}
+	}
+
+	/**
+	 * Estimation restored from an entry of this table.
+	 */
+	private static class CachedEstimation implements IModelWithScore {
+		private final Gltm model;
+		private final Gltm origin;
+		private final double loglikelihood;
+		private final double bicScore;
+
+		private CachedEstimation(Gltm model, Gltm origin, Entry entry) {
+			this.model = model;
+			this.origin = origin;
+			this.loglikelihood = entry.loglikelihood;
+			this.bicScore = entry.bicScore;
+		}
+
+		public Gltm model() {
+			return model;
+		}
+
+		public Gltm origin() {
+			return origin;
+		}
+
+		public double loglikelihood() {
+			return loglikelihood;
+		}
+
+		public double BicScore() {
+			return bicScore;
+		}
+
+		public int messageCount() {
+			return 0;
+		}
+	}
+
+	private final long capacity;
+	private final LinkedHashMap<String, Entry> entries =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+	private int lookups = 0;
+	private int hits = 0;
+
+	/**
+	 * Constructs a table bounded by the given memory.
+	 *
+	 * @param megabytes
+	 *            bound on the estimated memory used by the entries, where
+	 *            {@code 0} disables this table
+	 */
+	public TranspositionTable(int megabytes) {
+		capacity = megabytes * 1024L * 1024L;
+	}
+
+	/**
+	 * Returns the bound on the memory used by the entries.
+	 * 
+	 * @return bound on the memory in megabytes
+	 */
+	public int megabytes() {
+		return (int) (capacity / (1024L * 1024L));
+	}
+
+	/**
+	 * Returns whether this table holds any entry at all.
+	 */
+	public boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	/**
+	 * Returns the canonical form of the structure of a model, which is the
+	 * same for two models if and only if they have the same structure
+	 * regardless of the names of their latent variables.
+	 *
+	 * @param model
+	 *            model whose structure is identified
+	 * @return key identifying the structure
+	 */
+	public static String key(Gltm model) {
+		return new Structure(model).key;
+	}
+
+	/**
+	 * Returns the nodes of a model in the canonical order of its structure,
+	 * which is the same for two models with the same structure, such as a
+	 * model and a copy of it parsed in another process.
+	 *
+	 * @param model
+	 *            model whose nodes are returned
+	 * @return nodes in the canonical order
+	 */
+	public static List<BeliefNode> nodes(Gltm model) {
+		return new Structure(model).nodes;
+	}
+
+	/**
+	 * Returns the parameters of a model in the canonical order of its
+	 * structure, so that they can be assigned by
+	 * {@link #assign(Gltm, double[])} to a model with the same structure,
+	 * such as one parsed from a copy of the model in another process.
+	 *
+	 * @param model
+	 *            model whose parameters are returned
+	 * @return parameters in the canonical order
+	 */
+	public static double[] parameters(Gltm model) {
+		return parameters(new Structure(model).nodes);
+	}
+
+	/**
+	 * Assigns the parameters returned by {@link #parameters(Gltm)} to a model
+	 * with the same structure.
+	 *
+	 * @param model
+	 *            model whose parameters are assigned
+	 * @param parameters
+	 *            parameters in the canonical order
+	 */
+	public static void assign(Gltm model, double[] parameters) {
+		assign(new Structure(model).nodes, parameters);
+	}
+
+	/**
+	 * Looks up the estimation of a structure. If it is found, the returned
+	 * estimation has a copy of the given structure as its model, with the
+	 * parameters of the stored estimation.
+	 *
+	 * @param structure
+	 *            structure of the candidate model
+	 * @return the stored estimation, or {@code null} if it is not found
+	 */
+	public IModelWithScore get(Gltm structure) {
+		if (!isEnabled())
+			return null;
+
+		String key = new Structure(structure).key;
+
+		Entry entry;
+		synchronized (this) {
+			lookups++;
+			entry = entries.get(key);
+			if (entry == null)
+				return null;
+			hits++;
+		}
+
+		Gltm model = structure.clone();
+		assign(new Structure(model).nodes, entry.parameters);
+		return new CachedEstimation(model, structure, entry);
+	}
+
+	/**
+	 * Stores the estimation of a structure.
+	 *
+	 * @param estimation
+	 *            estimation of a candidate model
+	 */
+	public void put(IModelWithScore estimation) {
+		if (!isEnabled() || Double.isNaN(estimation.loglikelihood()))
+			return;
+
+		Structure canonical = new Structure(estimation.model());
+		Entry entry =
+				new Entry(parameters(canonical.nodes),
+						estimation.loglikelihood(), estimation.BicScore());
+
+		put(canonical.key, entry);
+	}
+
+	private synchronized void put(String key, Entry entry) {
+		Entry old = entries.put(key, entry);
+		if (old != null)
+			bytes -= old.bytes(key);
+		bytes += entry.bytes(key);
+
+		Iterator<Map.Entry<String, Entry>> iterator =
+				entries.entrySet().iterator();
+		while (bytes > capacity && iterator.hasNext()) {
+			Map.Entry<String, Entry> eldest = iterator.next();
+			bytes -= eldest.getValue().bytes(eldest.getKey());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the parameters of the nodes in the given order. The cells of a
+	 * CPT are ordered by the parent state and then the node state, and the
+	 * entries of a CG parameter are ordered by the names of the variables.
+	 */
+	private static double[] parameters(List<BeliefNode> nodes) {
+		final List<Double> values = new ArrayList<Double>();
+
+		for (BeliefNode node : nodes) {
+			node.accept(new BeliefNode.Visitor<Void>() {
+				public Void visit(DiscreteBeliefNode node) {
+					Function cpt = node.potential();
+					int[] strides = strides(node, cpt);
+					double[] cells = cpt.getCells();
+					int states = node.getVariable().getCardinality();
+					int parentStates = cells.length / states;
+					for (int z = 0; z < parentStates; z++) {
+						for (int x = 0; x < states; x++)
+							values.add(cells[x * strides[0] + z * strides[1]]);
+					}
+					return null;
+				}
+
+				public Void visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential();
+					int[] indices = indicesOfSortedVariables(potential);
+					for (int z = 0; z < potential.size(); z++) {
+						CGParameter parameter = potential.get(z);
+						for (int i : indices)
+							values.add(parameter.A.getQuick(i));
+						for (int i : indices) {
+							for (int j : indices)
+								values.add(parameter.C.getQuick(i, j));
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		double[] result = new double[values.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = values.get(i);
+		return result;
+	}
+
+	/**
+	 * Assigns the parameters returned by {@link #parameters(List)} to the
+	 * nodes in the given order.
+	 */
+	private static void assign(List<BeliefNode> nodes, final double[] values) {
+		final int[] index = new int[] { 0 };
+
+		for (BeliefNode node : nodes) {
+			node.accept(new BeliefNode.Visitor<Void>() {
+				public Void visit(DiscreteBeliefNode node) {
+					Function cpt = node.potential().clone();
+					int[] strides = strides(node, cpt);
+					double[] cells = cpt.getCells();
+					int states = node.getVariable().getCardinality();
+					int parentStates = cells.length / states;
+					for (int z = 0; z < parentStates; z++) {
+						for (int x = 0; x < states; x++)
+							cells[x * strides[0] + z * strides[1]] =
+									values[index[0]++];
+					}
+					node.setCpt(cpt);
+					return null;
+				}
+
+				public Void visit(ContinuousBeliefNode node) {
+					CGPotential potential = node.potential().clone();
+					int[] indices = indicesOfSortedVariables(potential);
+					for (int z = 0; z < potential.size(); z++) {
+						CGParameter parameter = potential.get(z);
+						for (int i : indices)
+							parameter.A.setQuick(i, values[index[0]++]);
+						for (int i : indices) {
+							for (int j : indices)
+								parameter.C.setQuick(i, j, values[index[0]++]);
+						}
+					}
+					node.setPotential(potential);
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the strides of the node variable and its parent variable in the
+	 * cells of its CPT. The stride of the parent is zero for the root.
+	 */
+	private static int[] strides(DiscreteBeliefNode node, Function cpt) {
+		List<DiscreteVariable> variables = cpt.getVariables();
+		if (variables.size() == 1)
+			return new int[] { 1, 0 };
+		else if (variables.get(0) == node.getVariable())
+			return new int[] { variables.get(1).getCardinality(), 1 };
+		else
+			return new int[] { 1, node.getVariable().getCardinality() };
+	}
+
+	private static int[] indicesOfSortedVariables(CGPotential potential) {
+		List<SingularContinuousVariable> variables =
+				potential.continuousVariables();
+		List<SingularContinuousVariable> sorted = sortedVariables(potential);
+		int[] indices = new int[sorted.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = variables.indexOf(sorted.get(i));
+		return indices;
+	}
+
+	/**
+	 * Writes the entries of this table from the least recently used one, and
+	 * its usage, so that they can be restored by {@link #read(DataInput)} when
+	 * the search is resumed from a checkpoint.
+	 *
+	 * @param output
+	 *            output of the entries
+	 * @throws IOException
+	 */
+	public synchronized void write(DataOutput output) throws IOException {
+		output.writeInt(lookups);
+		output.writeInt(hits);
+		output.writeInt(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			byte[] key = entry.getKey().getBytes("UTF-8");
+			output.writeInt(key.length);
+			output.write(key);
+
+			Entry value = entry.getValue();
+			output.writeDouble(value.loglikelihood);
+			output.writeDouble(value.bicScore);
+			output.writeInt(value.parameters.length);
+			for (double parameter : value.parameters)
+				output.writeDouble(parameter);
+		}
+	}
+
+	/**
+	 * Replaces the entries and the usage of this table by those written by
+	 * {@link #write(DataOutput)}. The least recently used entries are discarded
+	 * if they exceed the bound of this table.
+	 *
+	 * @param input
+	 *            input of the entries
+	 * @throws IOException
+	 */
+	public synchronized void read(DataInput input) throws IOException {
+		entries.clear();
+		bytes = 0;
+		lookups = input.readInt();
+		hits = input.readInt();
+
+		int size = input.readInt();
+		for (int i = 0; i < size; i++) {
+			byte[] key = new byte[input.readInt()];
+			input.readFully(key);
+
+			double loglikelihood = input.readDouble();
+			double bicScore = input.readDouble();
+			double[] parameters = new double[input.readInt()];
+			for (int j = 0; j < parameters.length; j++)
+				parameters[j] = input.readDouble();
+
+			if (isEnabled())
+				put(new String(key, "UTF-8"), new Entry(parameters,
+						loglikelihood, bicScore));
+		}
+	}
+
+	/**
+	 * Writes the usage of this table in XML format.
+	 *
+	 * @param writer
+	 *            for writing to output
+	 */
+	public synchronized void writeXml(PrintWriter writer) {
+		writer.format(
+				"<transpositionTable lookups='%d' hits='%d' hitRate='%.4f' "
+						+ "entries='%d' bytes='%d'/>", lookups, hits,
+				lookups > 0 ? (double) hits / lookups : 0, entries.size(),
+				bytes);
+		writer.println();
+	}
+}
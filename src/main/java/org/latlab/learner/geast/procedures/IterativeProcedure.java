@@ -3,18 +3,34 @@
  */
 package org.latlab.learner.geast.procedures;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.latlab.learner.geast.BicEvaluator;
+import org.latlab.learner.geast.Cancellation;
 import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.learner.geast.Log;
 import org.latlab.learner.geast.context.IProcedureContext;
 import org.latlab.learner.geast.operators.GivenCandidate;
 import org.latlab.learner.geast.operators.SearchCandidate;
 import org.latlab.learner.geast.operators.SearchOperator;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.model.BayesNet;
+import org.latlab.util.DoubleComparator;
 import org.latlab.util.Evaluator;
 import org.latlab.util.Pair;
+import org.latlab.util.Profiler;
+import org.latlab.util.RandomStream;
 
 /**
  * An iterative procedure for improve a candidate model.
@@ -27,6 +43,19 @@ import org.latlab.util.Pair;
  * threshold. This procedure {@link #refine(SearchCandidate)} a candidate model
  * before it is used as the base model for the next iteration.
  * 
+ * <p>
+ * The operators search concurrently if the context gives an executor for
+ * them. The candidates of all operators are generated in order before any
+ * search, and each operator searches with its own random stream, so that the
+ * best candidate found in an iteration does not depend on whether the
+ * operators search concurrently.
+ * 
+ * <p>
+ * If the context gives a beam width larger than one, this procedure keeps
+ * that number of the best candidates in each iteration instead of only the
+ * best one, and uses each of them as the base model for the next iteration.
+ * The next steps are not run speculatively in this case.
+ * 
  * @author leonard
  * 
  */
@@ -86,15 +115,39 @@ public class IterativeProcedure implements Procedure {
 		// StoppingCriterion criterion = getStoppingCriterion();
 		// criterion.setCurrent(base);
 
+		int width = context.beamWidth();
+		SearchCandidate current =
+				width > 1 ? searchBeam(base, width) : searchGreedily(base);
+
+		context.log().writeElementWithEstimationToFile("completed",
+				current.estimation(), name(), false);
+		context.log().writeEndElement(name());
+
+		return current;
+	}
+
+	/**
+	 * Searches by keeping only the best candidate in each iteration.
+	 */
+	private SearchCandidate searchGreedily(IModelWithScore base) {
 		SearchCandidate current = new GivenCandidate(base);
+		RandomStream random = RandomStream.current();
+		Speculation speculation = null;
 		boolean stop = false;
 		succeeded = false;
 
 		do {
-			Evaluator<SearchCandidate> evaluator =
-					getEvaluator(current.estimation());
-			Pair<SearchCandidate, Double> stepResult =
-					step(current.estimation(), evaluator);
+			Evaluator<SearchCandidate> evaluator;
+			Pair<SearchCandidate, Double> stepResult;
+			if (speculation != null) {
+				evaluator = speculation.evaluator;
+				stepResult = speculation.complete();
+				speculation = null;
+			} else {
+				evaluator = getEvaluator(current.estimation());
+				stepResult = step(current.estimation(), evaluator, random);
+			}
+
 			SearchCandidate candidate = stepResult.first;
 
 			if (candidate.isNew()
@@ -104,25 +157,200 @@ public class IterativeProcedure implements Procedure {
 				context.log().writeElementWithCandidateToFile("step",
 						candidate, true);
 
+				// keeps the candidate without refinement if the search has
+				// been cancelled
+				if (Cancellation.requested()) {
+					current = candidate;
+					succeeded = true;
+					break;
+				}
+
+				// the next step uses a stream determined before the
+				// refinement, so that it is the same whether it is run
+				// speculatively or not
+				long seed = RandomStream.current().nextLong();
+				random = new RandomStream(seed);
+
+				// runs the next step from this candidate while it is refined,
+				// in case that the refinement does not change it
+				ExecutorService executor = context.speculationExecutor();
+				Speculation next =
+						executor == null ? null : new Speculation(
+								candidate.estimation(), new RandomStream(seed),
+								executor);
+
 				// if it can find a better model, try to refine it and use it
 				// for the next step
-				candidate = refine(candidate, stepResult.second, evaluator);
+				try {
+					candidate = refine(candidate, stepResult.second, evaluator);
+				} catch (RuntimeException e) {
+					if (next != null)
+						next.cancel();
+					throw e;
+				}
+
 				current = candidate;
 
+				if (next != null && next.base == current.estimation())
+					speculation = next;
+				else if (next != null)
+					next.cancel();
+
 				succeeded = true;
+				context.stepAccepted(current.estimation());
 			} else {
 				// stop if it can't find a better model
 				stop = true;
 			}
 		} while (!stop);
 
-		context.log().writeElementWithEstimationToFile("completed",
-				current.estimation(), name(), false);
-		context.log().writeEndElement(name());
-
 		return current;
 	}
 
+	/**
+	 * Searches by keeping the best candidates of each iteration in a beam of
+	 * the given width. In an iteration, each member of the beam is used as the
+	 * base of a step, and the best candidates found from all members by BIC
+	 * score are refined and become the beam of the next iteration. The
+	 * candidates with the same structure are merged, and a structure that has
+	 * been in the beam is not used again. It stops when the best candidate of
+	 * an iteration fails to improve the best model found so far by the
+	 * threshold.
+	 * 
+	 * <p>
+	 * The members are expanded in turn, since the operators keep states
+	 * across their searches, while the operators of each step may still search
+	 * concurrently.
+	 */
+	private SearchCandidate searchBeam(IModelWithScore base, int width) {
+		SearchCandidate best = new GivenCandidate(base);
+		List<SearchCandidate> beam = Collections.singletonList(best);
+		Set<String> visited = new HashSet<String>();
+		visited.add(TranspositionTable.key(base.model()));
+		succeeded = false;
+
+		while (true) {
+			List<Expansion> expansions = new ArrayList<Expansion>();
+			for (SearchCandidate member : beam) {
+				IModelWithScore estimation = member.estimation();
+				Evaluator<SearchCandidate> evaluator =
+						getEvaluator(estimation);
+				List<SearchCandidate> candidates =
+						search(prepare(estimation, evaluator,
+								RandomStream.current()));
+				update(candidates);
+				rank(estimation, candidates);
+
+				for (SearchCandidate candidate : candidates) {
+					if (candidate.isNew()
+							&& !Double.isNaN(candidate.estimation().BicScore()))
+						expansions.add(new Expansion(candidate, evaluator));
+				}
+			}
+
+			List<Expansion> selected = select(expansions, visited, width);
+			if (selected.isEmpty()
+					|| selected.get(0).candidate.estimation().BicScore()
+							- best.estimation().BicScore() <= context.threshold())
+				break;
+
+			// keeps the best candidate without refinement if the search has
+			// been cancelled
+			if (Cancellation.requested()) {
+				context.log().writeElementWithCandidateToFile("step",
+						selected.get(0).candidate, true);
+				best = selected.get(0).candidate;
+				succeeded = true;
+				break;
+			}
+
+			// refines the selected candidates, which may then have the same
+			// structure as another one
+			List<Expansion> refined = new ArrayList<Expansion>(selected.size());
+			for (Expansion expansion : selected) {
+				context.log().writeElementWithCandidateToFile("step",
+						expansion.candidate, true);
+				refined.add(new Expansion(refine(expansion.candidate,
+						expansion.candidate.score(), expansion.evaluator),
+						expansion.evaluator));
+			}
+
+			Set<String> merged = new HashSet<String>();
+			beam = new ArrayList<SearchCandidate>(refined.size());
+			for (Expansion expansion : sort(refined)) {
+				String key =
+						TranspositionTable.key(expansion.candidate.estimation()
+								.model());
+				if (merged.add(key)) {
+					visited.add(key);
+					beam.add(expansion.candidate);
+					context.log().writeElement("beam", expansion.candidate,
+							true);
+				}
+			}
+
+			best = beam.get(0);
+			succeeded = true;
+			context.stepAccepted(best.estimation());
+		}
+
+		return best;
+	}
+
+	/**
+	 * Candidate found from a member of the beam, with the evaluator for the
+	 * member.
+	 */
+	private static class Expansion {
+		public final SearchCandidate candidate;
+		public final Evaluator<SearchCandidate> evaluator;
+
+		public Expansion(SearchCandidate candidate,
+				Evaluator<SearchCandidate> evaluator) {
+			this.candidate = candidate;
+			this.evaluator = evaluator;
+		}
+	}
+
+	/**
+	 * Returns the expansions sorted by the BIC scores of their candidates in
+	 * descending order. The sort is stable, so that the ties are kept in the
+	 * order in which they are found.
+	 */
+	private static List<Expansion> sort(List<Expansion> expansions) {
+		List<Expansion> sorted = new ArrayList<Expansion>(expansions);
+		Collections.sort(sorted, new Comparator<Expansion>() {
+			public int compare(Expansion o1, Expansion o2) {
+				return -DoubleComparator.compare(
+						o1.candidate.estimation().BicScore(),
+						o2.candidate.estimation().BicScore());
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Returns at most {@code width} expansions with the best BIC scores, such
+	 * that their structures are distinct and have not been visited.
+	 */
+	private static List<Expansion> select(List<Expansion> expansions,
+			Set<String> visited, int width) {
+		List<Expansion> selected = new ArrayList<Expansion>(width);
+		Set<String> keys = new HashSet<String>();
+		for (Expansion expansion : sort(expansions)) {
+			if (selected.size() >= width)
+				break;
+
+			String key =
+					TranspositionTable.key(expansion.candidate.estimation()
+							.model());
+			if (!visited.contains(key) && keys.add(key))
+				selected.add(expansion);
+		}
+
+		return selected;
+	}
+
 	/**
 	 * Proceed one iteration, and returns the best candidate found from the
 	 * available search operators starting from the {@code base} estimation.
@@ -133,17 +361,60 @@ public class IterativeProcedure implements Procedure {
 	 */
 	protected Pair<SearchCandidate, Double> step(IModelWithScore base,
 			Evaluator<SearchCandidate> evaluator) {
+		return step(base, evaluator, RandomStream.current());
+	}
+
+	private Pair<SearchCandidate, Double> step(IModelWithScore base,
+			Evaluator<SearchCandidate> evaluator, RandomStream random) {
 		// looks for a better candidate with each search operator
 		List<SearchCandidate> candidates =
-				new ArrayList<SearchCandidate>(operators.size());
-		for (SearchOperator operator : operators) {
-			SearchCandidate candidate = operator.search(base, evaluator);
-			candidates.add(candidate);
-			operator.update(candidate);
+				search(prepare(base, evaluator, random));
+		update(candidates);
+		return rank(base, candidates);
+	}
+
+	/**
+	 * Generates the candidates of the operators in order, and returns the
+	 * searches on them. The generation and the searches use the given stream
+	 * instead of the current stream of the calling thread.
+	 */
+	private List<Callable<SearchCandidate>> prepare(IModelWithScore base,
+			Evaluator<SearchCandidate> evaluator, RandomStream random) {
+		List<Callable<SearchCandidate>> searches =
+				new ArrayList<Callable<SearchCandidate>>(operators.size());
+		RandomStream old = RandomStream.use(random);
+		try {
+			for (SearchOperator operator : operators)
+				searches.add(createSearch(operator, base, evaluator));
+		} finally {
+			RandomStream.use(old);
 		}
 
-		// finds the best candidate from the best of each operator. It is
-		// separated from the search process so that the log can be clearer.
+		return searches;
+	}
+
+	/**
+	 * Runs the searches and returns the candidates found by the operators in
+	 * order.
+	 */
+	private List<SearchCandidate> search(
+			List<Callable<SearchCandidate>> searches) {
+		ExecutorService executor = context.operatorExecutor();
+		return executor == null || searches.size() < 2 ? searchInTurn(searches)
+				: searchConcurrently(searches, executor);
+	}
+
+	private void update(List<SearchCandidate> candidates) {
+		for (int i = 0; i < operators.size(); i++)
+			operators.get(i).update(candidates.get(i));
+	}
+
+	/**
+	 * Finds the best candidate from the best of each operator. It is separated
+	 * from the search process so that the log can be clearer.
+	 */
+	private Pair<SearchCandidate, Double> rank(IModelWithScore base,
+			List<SearchCandidate> candidates) {
 		double max = -Double.MAX_VALUE;
 		SearchCandidate best = null;
 
@@ -164,10 +435,237 @@ public class IterativeProcedure implements Procedure {
 		return Pair.construct(best, max);
 	}
 
+	/**
+	 * Generates the candidates of an operator, and returns the search on them
+	 * with a random stream split from the current stream of the calling
+	 * thread.
+	 */
+	private static Callable<SearchCandidate> createSearch(
+			final SearchOperator operator, final IModelWithScore base,
+			final Evaluator<SearchCandidate> evaluator) {
+		final LinkedList<SearchCandidate> candidates = operator.generate(base);
+		final RandomStream random = RandomStream.current().split();
+
+		return new Callable<SearchCandidate>() {
+			public SearchCandidate call() {
+				RandomStream old = RandomStream.use(random);
+				Profiler.Scope scope = Profiler.useOperator(operator.name());
+				try {
+					return operator.search(base, candidates, evaluator);
+				} finally {
+					Profiler.use(scope);
+					RandomStream.use(old);
+				}
+			}
+		};
+	}
+
+	private static List<SearchCandidate> searchInTurn(
+			List<Callable<SearchCandidate>> searches) {
+		List<SearchCandidate> candidates =
+				new ArrayList<SearchCandidate>(searches.size());
+		for (Callable<SearchCandidate> search : searches) {
+			try {
+				candidates.add(search.call());
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				// the searches do not throw checked exceptions
+				throw new RuntimeException(e);
+			}
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Runs the searches on the executor. The log of each search is held in a
+	 * buffer and appended after the searches before it, so that the log is in
+	 * the same order as that of the searches run in turn. The models created
+	 * by each search are named in a scope of the search, so that their names
+	 * do not depend on the timing of the other searches.
+	 */
+	private List<SearchCandidate> searchConcurrently(
+			List<Callable<SearchCandidate>> searches, ExecutorService executor) {
+		final Log log = context.log();
+
+		List<Future<SearchCandidate>> futures =
+				new ArrayList<Future<SearchCandidate>>(searches.size());
+		final StringWriter[] buffers = new StringWriter[searches.size()];
+		final RuntimeException[] exceptions =
+				new RuntimeException[searches.size()];
+
+		final Cancellation cancellation = Cancellation.current();
+		final Profiler.Scope profile = Profiler.current();
+		String name = BayesNet.createDefaultName();
+
+		for (int i = 0; i < searches.size(); i++) {
+			final int index = i;
+			final Callable<SearchCandidate> search = searches.get(i);
+			final String scope = String.format("%s-%d-", name, i);
+			futures.add(executor.submit(new Callable<SearchCandidate>() {
+				public SearchCandidate call() throws Exception {
+					buffers[index] = log.buffer();
+					BayesNet.useNameScope(scope);
+					Cancellation.use(cancellation);
+					Profiler.Scope old = Profiler.use(profile);
+					try {
+						return search.call();
+					} catch (RuntimeException e) {
+						exceptions[index] = e;
+						return null;
+					} finally {
+						Profiler.use(old);
+						Cancellation.use(null);
+						BayesNet.useNameScope(null);
+						log.unbuffer();
+					}
+				}
+			}));
+		}
+
+		List<SearchCandidate> candidates =
+				new ArrayList<SearchCandidate>(searches.size());
+		RuntimeException exception = null;
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				candidates.add(futures.get(i).get());
+				if (exceptions[i] != null && exception == null)
+					exception = exceptions[i];
+			} catch (InterruptedException e) {
+				if (exception == null)
+					exception = new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (exception == null)
+					exception = new RuntimeException(e.getCause());
+			}
+
+			if (buffers[i] != null)
+				log.append(buffers[i]);
+		}
+
+		if (exception != null)
+			throw exception;
+
+		return candidates;
+	}
+
+	/**
+	 * The next step run speculatively from the best candidate of a step while
+	 * the candidate is refined. It is completed as the next step if the
+	 * refinement keeps the candidate, and is cancelled otherwise. Its
+	 * candidates are generated before the refinement, and its log is held in
+	 * a buffer until it is completed. The states of the operators are saved
+	 * before it starts and restored when it is cancelled, so that the
+	 * screenings it has run do not affect the next step.
+	 */
+	private class Speculation {
+		private final IModelWithScore base;
+		private final Evaluator<SearchCandidate> evaluator;
+		private final Cancellation cancellation =
+				new Cancellation(Cancellation.current());
+		private final Future<List<SearchCandidate>> future;
+		private final List<Object> states;
+		private StringWriter buffer = null;
+
+		public Speculation(IModelWithScore base, RandomStream random,
+				ExecutorService executor) {
+			this.base = base;
+			this.evaluator = getEvaluator(base);
+
+			states = new ArrayList<Object>(operators.size());
+			for (SearchOperator operator : operators)
+				states.add(operator.save());
+
+			final List<Callable<SearchCandidate>> searches =
+					prepare(base, evaluator, random);
+			final String scope = BayesNet.createDefaultName() + "-";
+			final Profiler.Scope profile = Profiler.current();
+
+			future = executor.submit(new Callable<List<SearchCandidate>>() {
+				public List<SearchCandidate> call() {
+					buffer = context.log().buffer();
+					BayesNet.useNameScope(scope);
+					Cancellation.use(cancellation);
+					Profiler.Scope old = Profiler.use(profile);
+					try {
+						return search(searches);
+					} finally {
+						Profiler.use(old);
+						Cancellation.use(null);
+						BayesNet.useNameScope(null);
+						context.log().unbuffer();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Waits for the speculative step, and completes it as the next step.
+		 */
+		public Pair<SearchCandidate, Double> complete() {
+			List<SearchCandidate> candidates;
+			try {
+				candidates = future.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+
+			write(true);
+			context.log().append(buffer);
+			update(candidates);
+			return rank(base, candidates);
+		}
+
+		/**
+		 * Stops the speculative step and discards it. It waits for the step
+		 * to stop, since it uses the same operators as the next step.
+		 */
+		public void cancel() {
+			cancellation.cancel();
+
+			// keeps waiting even if this thread is interrupted, and keeps the
+			// interruption for the caller
+			boolean interrupted = false;
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// the result is discarded anyway
+					break;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+
+			for (int i = 0; i < operators.size(); i++)
+				operators.get(i).restore(states.get(i));
+
+			write(false);
+		}
+
+		private void write(boolean used) {
+			context.log().writeSpeculationElement(base.model().getName(), used);
+		}
+	}
+
 	public boolean succeeded() {
 		return succeeded;
 	}
 
+	public void setSucceeded(boolean succeeded) {
+		this.succeeded = succeeded;
+	}
+
 	/**
 	 * Refines a model before it is used in the next iteration.
 	 * 
@@ -34,6 +34,15 @@ public interface Procedure {
 	 */
 	public abstract boolean succeeded();
 
+	/**
+	 * Sets whether this procedure has succeeded to find a better model, as
+	 * saved in a checkpoint, when the search is resumed from it.
+	 * 
+	 * @param succeeded
+	 *            whether a better model has been found
+	 */
+	public abstract void setSucceeded(boolean succeeded);
+
 	/**
 	 * Name of this procedure.
 	 * 
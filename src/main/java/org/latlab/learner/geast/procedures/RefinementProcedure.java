@@ -1,5 +1,6 @@
 package org.latlab.learner.geast.procedures;
 
+import org.latlab.learner.geast.Cancellation;
 import org.latlab.learner.geast.IModelWithScore;
 import org.latlab.learner.geast.context.IProcedureContext;
 import org.latlab.learner.geast.operators.GivenCandidate;
@@ -65,7 +66,7 @@ public class RefinementProcedure implements Procedure {
 			} else {
 				stop = true;
 			}
-		} while (!stop);
+		} while (!stop && !Cancellation.requested());
 
 		context.log().writeElement("completed", current, false);
 		context.log().writeEndElement(name());
@@ -77,4 +78,8 @@ public class RefinementProcedure implements Procedure {
 	public boolean succeeded() {
 		return succeeded;
 	}
+
+	public void setSucceeded(boolean succeeded) {
+		this.succeeded = succeeded;
+	}
 }
@@ -35,6 +35,10 @@ public class SequentialProcedure implements Procedure {
         return succeeded;
     }
 
+    public void setSucceeded(boolean succeeded) {
+        this.succeeded = succeeded;
+    }
+
     public String name() {
         return getClass().getSimpleName();
     }
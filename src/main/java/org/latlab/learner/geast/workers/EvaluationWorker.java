@@ -0,0 +1,120 @@
+package org.latlab.learner.geast.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.io.bif.BifParser;
+import org.latlab.learner.geast.CovarianceConstrainer;
+import org.latlab.learner.geast.EmFramework;
+import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.Focus;
+import org.latlab.learner.geast.Settings;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.model.Gltm;
+import org.latlab.util.RandomStream;
+
+/**
+ * Worker process started by a {@link WorkerPool}. It first reads the settings
+ * and the name of the data file from its standard input, and then estimates
+ * the models in the requests until its input is closed. The responses are
+ * written to its standard output, while anything else printed goes to its
+ * standard error.
+ *
+ * @author leonard
+ *
+ */
+public class EvaluationWorker {
+
+	private final MixedDataSet data;
+	private final EmFramework[] ems;
+
+	private EvaluationWorker(byte[] settings, String dataFile)
+			throws Exception {
+		data = ArffLoader.load(dataFile);
+
+		Settings parsed =
+				new Settings(new ByteArrayInputStream(settings), data, null);
+		CovarianceConstrainer constrainer =
+				parsed.createCovarianceConstrainer();
+
+		// in the order of the purposes
+		ems =
+				new EmFramework[] { parsed.createScreenEm(constrainer),
+						parsed.createSelectEm(constrainer) };
+	}
+
+	public static void main(String[] args) throws Exception {
+		DataInputStream input =
+				new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream output =
+				new DataOutputStream(new BufferedOutputStream(System.out));
+		System.setOut(System.err);
+
+		byte[] settings = WorkerPool.readBytes(input);
+		EvaluationWorker worker =
+				new EvaluationWorker(settings, input.readUTF());
+
+		while (true) {
+			int purpose;
+			try {
+				purpose = input.readByte();
+			} catch (EOFException e) {
+				break;
+			}
+
+			worker.serve(purpose, input, output);
+			output.flush();
+		}
+	}
+
+	/**
+	 * Reads the rest of a request, and writes the response.
+	 */
+	private void serve(int purpose, DataInputStream input,
+			DataOutputStream output) throws IOException {
+		boolean given = input.readBoolean();
+		long seed = input.readLong();
+		byte[] bif = WorkerPool.readBytes(input);
+		String[] focusNames = new String[input.readInt()];
+		for (int i = 0; i < focusNames.length; i++)
+			focusNames[i] = input.readUTF();
+
+		Estimation estimation;
+		try {
+			Gltm model =
+					new BifParser(new ByteArrayInputStream(bif)).parse(new Gltm());
+			data.synchronize(model);
+
+			Focus focus = new Focus();
+			for (String name : focusNames)
+				focus.add(model.findVariableByName(name));
+
+			RandomStream.use(new RandomStream(seed));
+			EmFramework em = ems[purpose];
+			estimation =
+					given ? em.estimateFromGiven(model, focus) : em.estimate(
+							model, focus);
+		} catch (Exception e) {
+			output.writeByte(WorkerPool.FAILED);
+			output.writeUTF(String.valueOf(e));
+			return;
+		}
+
+		double[] parameters = TranspositionTable.parameters(estimation.model());
+
+		output.writeByte(WorkerPool.SUCCEEDED);
+		output.writeDouble(estimation.loglikelihood());
+		output.writeDouble(estimation.BicScore());
+		output.writeInt(estimation.messageCount());
+		output.writeInt(parameters.length);
+		for (double parameter : parameters)
+			output.writeDouble(parameter);
+	}
+}
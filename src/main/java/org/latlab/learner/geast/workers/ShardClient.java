@@ -0,0 +1,294 @@
+package org.latlab.learner.geast.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.latlab.data.Moments;
+import org.latlab.io.bif.BifWriter;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.ImpossibleEvidenceException;
+
+/**
+ * Connections to the shard workers, each of which holds a shard of the data
+ * and computes the sufficient statistics on it for a
+ * {@link org.latlab.learner.geast.ShardedEstimation}. The workers are started
+ * separately, usually on the same host, by running {@link ShardWorker}.
+ *
+ * <p>
+ * A computation uses a lane, which holds a connection to every worker, so that
+ * the estimations on different threads can send their requests at the same
+ * time. The lanes are opened when they are needed and kept open for the later
+ * computations, until {@link #close()} is called.
+ *
+ * @author leonard
+ *
+ */
+public class ShardClient {
+
+	static final byte SUCCEEDED = 0;
+	static final byte FAILED = 1;
+	static final byte IMPOSSIBLE_EVIDENCE = 2;
+
+	/**
+	 * Adds the result of a worker to the estimation.
+	 */
+	public interface Reduction {
+		/**
+		 * Reads the result of a worker and adds it to the estimation. It is
+		 * called for the workers in turn.
+		 *
+		 * @param input
+		 *            input from the worker
+		 * @throws IOException
+		 */
+		void add(DataInputStream input) throws IOException;
+	}
+
+	private final List<InetSocketAddress> addresses;
+	private Moments moments = null;
+	private final ConcurrentLinkedQueue<Connection[]> idle =
+			new ConcurrentLinkedQueue<Connection[]>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Connects to the shard workers, and adds up the moments of their shards.
+	 *
+	 * @param addresses
+	 *            addresses of the workers, in the order of their shards
+	 * @throws IOException
+	 *             if a worker cannot be connected
+	 */
+	public ShardClient(List<InetSocketAddress> addresses) throws IOException {
+		this.addresses = new ArrayList<InetSocketAddress>(addresses);
+
+		idle.add(open());
+	}
+
+	/**
+	 * Parses the addresses of the workers given in the form {@code
+	 * host:port}, separated by commas. The host can be omitted for a worker on
+	 * the local host.
+	 *
+	 * @param value
+	 *            addresses of the workers
+	 * @return parsed addresses
+	 */
+	public static List<InetSocketAddress> parseAddresses(String value) {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (String address : value.split(",")) {
+			address = address.trim();
+			if (address.length() == 0)
+				continue;
+
+			int colon = address.lastIndexOf(':');
+			String host = colon > 0 ? address.substring(0, colon) : "localhost";
+			int port = Integer.parseInt(address.substring(colon + 1));
+			addresses.add(new InetSocketAddress(host, port));
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * Returns the number of shard workers.
+	 */
+	public int shards() {
+		return addresses.size();
+	}
+
+	/**
+	 * Returns the moments of the whole data, added up from those of the
+	 * shards, which give the number of data cases, total weight, mean and
+	 * covariance of the data.
+	 */
+	public Moments moments() {
+		return moments;
+	}
+
+	/**
+	 * Returns the addresses of the workers in the form parsed by
+	 * {@link #parseAddresses(String)}.
+	 */
+	public String addresses() {
+		StringBuilder builder = new StringBuilder();
+		for (InetSocketAddress address : addresses) {
+			if (builder.length() > 0)
+				builder.append(',');
+			builder.append(address.getHostString()).append(':').append(
+					address.getPort());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Computes the sufficient statistics of a model on all the shards. The
+	 * request is sent to all workers before the results are read, so that the
+	 * workers compute at the same time.
+	 *
+	 * @param model
+	 *            model with the parameters of the current step
+	 * @param focus
+	 *            canonical indices of the key nodes of the cliques under focus,
+	 *            or {@code null} if all cliques are under focus
+	 * @param reduction
+	 *            adds the result of each worker to the estimation
+	 * @throws IOException
+	 *             if it fails to communicate with a worker
+	 */
+	public void compute(Gltm model, int[] focus, Reduction reduction)
+			throws IOException {
+		byte[] request = request(model, focus);
+
+		Connection[] lane = idle.poll();
+		if (lane == null)
+			lane = open();
+
+		boolean consistent = false;
+		try {
+			for (Connection connection : lane) {
+				connection.output.write(request);
+				connection.output.flush();
+			}
+
+			// reads all the results even if a worker has failed, so that the
+			// lane can be used again
+			String failure = null;
+			boolean impossible = false;
+			for (Connection connection : lane) {
+				byte status = connection.input.readByte();
+				if (status == SUCCEEDED)
+					reduction.add(connection.input);
+				else if (status == IMPOSSIBLE_EVIDENCE)
+					impossible = true;
+				else
+					failure = connection.input.readUTF();
+			}
+
+			consistent = true;
+
+			if (failure != null)
+				throw new RuntimeException("Shard worker failed: " + failure);
+			else if (impossible)
+				throw new ImpossibleEvidenceException(model, null);
+		} finally {
+			if (consistent && !closed)
+				idle.add(lane);
+			else
+				close(lane);
+		}
+	}
+
+	private static byte[] request(Gltm model, int[] focus) {
+		try {
+			ByteArrayOutputStream bif = new ByteArrayOutputStream();
+			new BifWriter(bif).write(model);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			WorkerPool.writeBytes(output, bif.toByteArray());
+			if (focus == null) {
+				output.writeInt(-1);
+			} else {
+				output.writeInt(focus.length);
+				for (int index : focus)
+					output.writeInt(index);
+			}
+
+			output.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// it does not happen on a byte array
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Opens a lane of connections to all the workers. The moments sent by the
+	 * workers are kept from the first lane, and checked against them for the
+	 * later lanes, in case a worker has been restarted on other data.
+	 */
+	private Connection[] open() throws IOException {
+		Connection[] lane = new Connection[addresses.size()];
+		try {
+			Moments total = null;
+			for (int i = 0; i < lane.length; i++) {
+				lane[i] = new Connection(addresses.get(i));
+				Moments shard = Moments.read(lane[i].input);
+				if (total == null)
+					total = shard;
+				else
+					total.add(shard);
+			}
+
+			synchronized (this) {
+				if (moments == null)
+					moments = total;
+				else if (total.size() != moments.size()
+						|| total.totalWeight() != moments.totalWeight())
+					throw new IOException(String.format(
+							"The shards hold %d data cases instead of %d.",
+							total.size(), moments.size()));
+			}
+		} catch (IOException e) {
+			close(lane);
+			throw e;
+		}
+
+		return lane;
+	}
+
+	/**
+	 * Closes the connections to the workers. The workers keep running for
+	 * other clients.
+	 */
+	public void close() {
+		closed = true;
+
+		Connection[] lane;
+		while ((lane = idle.poll()) != null)
+			close(lane);
+	}
+
+	private static void close(Connection[] lane) {
+		for (Connection connection : lane) {
+			if (connection == null)
+				continue;
+
+			try {
+				connection.socket.close();
+			} catch (IOException e) {
+				// the connection has been closed
+			}
+		}
+	}
+
+	/**
+	 * Connection to a worker, which handles one request at a time.
+	 */
+	private static class Connection {
+		private final Socket socket;
+		private final DataOutputStream output;
+		private final DataInputStream input;
+
+		public Connection(InetSocketAddress address) throws IOException {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(address);
+			output =
+					new DataOutputStream(new BufferedOutputStream(
+							socket.getOutputStream()));
+			input =
+					new DataInputStream(new BufferedInputStream(
+							socket.getInputStream()));
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package org.latlab.learner.geast.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.Moments;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.io.bif.BifParser;
+import org.latlab.learner.geast.EqualPartitioner;
+import org.latlab.learner.geast.Estimation;
+import org.latlab.learner.geast.EstimationFactory;
+import org.latlab.learner.geast.MultithreadingEstimation;
+import org.latlab.learner.geast.ShardedEstimation;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.reasoner.ImpossibleEvidenceException;
+
+/**
+ * Worker holding a shard of the data, which computes the sufficient
+ * statistics on its shard for the {@link ShardClient} connected to it. It is
+ * started by
+ *
+ * <pre>
+ * java org.latlab.learner.geast.workers.ShardWorker port data_file shard shards [threads]
+ * </pre>
+ *
+ * where the data file is divided into the given number of {@code shards} of
+ * equal size, and the worker holds the one with the given index, starting
+ * from zero. Only the instances of its shard are kept when the data file is
+ * read. It listens on the given port of the local host until it is stopped.
+ *
+ * <p>
+ * On each connection, the worker first sends the {@link Moments} of its
+ * shard, from which the client computes the total weight, mean and covariance
+ * of the whole data.
+ *
+ * <p>
+ * The requests from different connections are served one at a time, since
+ * the shard is synchronized with the model of each request. The
+ * statistics of a request can be computed by more than one thread.
+ *
+ * @author leonard
+ *
+ */
+public class ShardWorker {
+
+	private final MixedDataSet shard;
+	private final Moments moments;
+	private final EstimationFactory factory;
+
+	/**
+	 * The estimation of the last request, which is used again for a request
+	 * with the same structure. It is a simple estimation even if the request
+	 * has a focus, since a restricted estimation keeps the messages computed
+	 * from the parameters outside its focus, which may differ in the next
+	 * request. Its statistics are not smoothed, since the smoothing is
+	 * applied by the client.
+	 */
+	private Estimation cached = null;
+	private String cachedKey = null;
+
+	private ShardWorker(MixedDataSet shard, EstimationFactory factory) {
+		this.shard = shard;
+		this.moments = Moments.compute(shard);
+		this.factory = factory;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("java " + ShardWorker.class.getName()
+					+ " port data_file shard shards [threads]");
+			return;
+		}
+
+		int port = Integer.parseInt(args[0]);
+		int index = Integer.parseInt(args[2]);
+		int shards = Integer.parseInt(args[3]);
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+		int size = ArffLoader.count(args[1]);
+		EqualPartitioner partitioner = new EqualPartitioner(size, shards);
+		int start = Math.min(partitioner.startOf(index), size);
+		int end = Math.min(partitioner.endOf(index), size);
+		MixedDataSet shard = ArffLoader.load(args[1], start, end);
+
+		EstimationFactory factory = Estimation.FACTORY;
+		if (threads > 1) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			factory = MultithreadingEstimation.createFactory(threads, executor);
+		}
+
+		final ShardWorker worker =
+				new ShardWorker(shard, factory);
+
+		ServerSocket server =
+				new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		System.err.format("Shard %d of %d with %d data cases on port %d\n",
+				index, shards, end - start, port);
+
+		while (true) {
+			final Socket socket = server.accept();
+			socket.setTcpNoDelay(true);
+
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						worker.serve(socket);
+					} catch (IOException e) {
+						// the client has closed the connection
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Serves the requests of a connection until it is closed.
+	 */
+	private void serve(Socket socket) throws IOException {
+		DataInputStream input =
+				new DataInputStream(new BufferedInputStream(
+						socket.getInputStream()));
+		DataOutputStream output =
+				new DataOutputStream(new BufferedOutputStream(
+						socket.getOutputStream()));
+
+		moments.write(output);
+		output.flush();
+
+		while (true) {
+			byte[] bif;
+			try {
+				bif = WorkerPool.readBytes(input);
+			} catch (EOFException e) {
+				return;
+			}
+
+			int[] focus = null;
+			int size = input.readInt();
+			if (size >= 0) {
+				focus = new int[size];
+				for (int i = 0; i < size; i++)
+					focus[i] = input.readInt();
+			}
+
+			synchronized (this) {
+				serve(bif, focus, output);
+			}
+			output.flush();
+		}
+	}
+
+	/**
+	 * Computes the statistics of the model in a request, and writes the
+	 * response.
+	 */
+	private void serve(byte[] bif, int[] focus, DataOutputStream output)
+			throws IOException {
+		Estimation.VariableStatisticsMap map;
+		List<BeliefNode> nodes;
+		try {
+			Gltm model =
+					new BifParser(new ByteArrayInputStream(bif)).parse(new Gltm());
+			String key = TranspositionTable.key(model);
+
+			if (key.equals(cachedKey)) {
+				TranspositionTable.assign(cached.model(),
+						TranspositionTable.parameters(model));
+			} else {
+				// the estimation of the previous request is dropped, since
+				// the shard is synchronized with another model
+				cached = null;
+				cachedKey = null;
+				shard.synchronize(model);
+				cached = factory.createSimple(model, shard, 0);
+				cachedKey = key;
+			}
+
+			map = cached.collectSufficientStatistics();
+			nodes = ShardedEstimation.keyNodes(cached.model());
+			if (focus != null) {
+				List<BeliefNode> all = nodes;
+				nodes = new ArrayList<BeliefNode>(focus.length);
+				for (int index : focus)
+					nodes.add(all.get(index));
+			}
+		} catch (ImpossibleEvidenceException e) {
+			output.writeByte(ShardClient.IMPOSSIBLE_EVIDENCE);
+			return;
+		} catch (Exception e) {
+			output.writeByte(ShardClient.FAILED);
+			output.writeUTF(String.valueOf(e));
+			return;
+		}
+
+		output.writeByte(ShardClient.SUCCEEDED);
+		output.writeDouble(cached.loglikelihood());
+		output.writeInt(cached.messageCount());
+		ShardedEstimation.writeStatistics(output, nodes, map);
+	}
+}
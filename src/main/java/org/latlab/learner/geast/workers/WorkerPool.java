@@ -0,0 +1,468 @@
+package org.latlab.learner.geast.workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.latlab.io.bif.BifWriter;
+import org.latlab.learner.geast.Focus;
+import org.latlab.learner.geast.IModelWithScore;
+import org.latlab.learner.geast.Log;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.model.Gltm;
+import org.latlab.util.RandomStream;
+import org.latlab.util.Variable;
+
+/**
+ * Estimates candidate models on worker processes on the same host, so that
+ * the number of candidates estimated at the same time is not limited by the
+ * heap of this process.
+ *
+ * <p>
+ * Each worker is a JVM running {@link EvaluationWorker}, started with the
+ * class path of this process. It loads the same data file and creates its EM
+ * from the same settings as this process, and it communicates with this
+ * process through its standard input and output. A model is sent to a worker
+ * in BIF format, and its estimated parameters are returned in the canonical
+ * order of the {@link TranspositionTable}, so that they are assigned to a
+ * copy of the model holding the same variables as the model sent.
+ *
+ * <p>
+ * Each estimation uses a seed drawn from the current random stream of the
+ * thread submitting it, so that the estimations do not depend on the worker
+ * running them.
+ *
+ * <p>
+ * If the communication with a worker fails, for example because its process
+ * has died, the worker is destroyed and replaced by a new one, since its
+ * stream may be left in the middle of a response. A worker that does not
+ * respond within the response timeout, for example because it hangs without
+ * closing its output, is treated in the same way. The response is read on a
+ * separate thread, since reading from the stream of a process cannot be
+ * interrupted, and the reading stops when the worker is destroyed.
+ *
+ * @author leonard
+ *
+ */
+public class WorkerPool {
+
+	/**
+	 * Purposes of the EM that a worker uses to estimate a model.
+	 */
+	public enum Purpose {
+		SCREENING, SELECTION
+	}
+
+	static final byte SUCCEEDED = 0;
+	static final byte FAILED = 1;
+
+	/**
+	 * Milliseconds to wait for a worker process to stop after its input is
+	 * closed, before it is destroyed.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+
+	/**
+	 * Default seconds to wait for the response of a worker to an estimation.
+	 */
+	public static final int DEFAULT_RESPONSE_TIMEOUT = 3600;
+
+	private final byte[] settings;
+	private final String dataFile;
+	private final String java;
+
+	/**
+	 * Holds the connections to the running workers.
+	 */
+	private final List<Connection> connections;
+	private final BlockingQueue<Connection> idle;
+	private ExecutorService executor = null;
+
+	/**
+	 * Reads the responses of the workers, so that the threads of {@code
+	 * executor} can stop waiting for them after the response timeout.
+	 */
+	private ExecutorService readers = null;
+
+	/**
+	 * Milliseconds to wait for a response, or zero to wait without a limit.
+	 */
+	private final long responseTimeout;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Starts the worker processes.
+	 *
+	 * @param size
+	 *            number of worker processes
+	 * @param settings
+	 *            content of the settings file from which the workers create
+	 *            their EM
+	 * @param dataFile
+	 *            name of the data file loaded by the workers
+	 * @param responseTimeout
+	 *            seconds to wait for the response of a worker to an
+	 *            estimation, after which the worker is replaced, or zero to
+	 *            wait without a limit
+	 * @throws IOException
+	 *             if a worker process cannot be started
+	 */
+	public WorkerPool(int size, byte[] settings, String dataFile,
+			int responseTimeout) throws IOException {
+		if (dataFile == null)
+			throw new IllegalArgumentException(
+					"The worker processes need the data loaded from a file.");
+
+		this.settings = settings;
+		this.dataFile = dataFile;
+		this.responseTimeout = Math.max(0, responseTimeout) * 1000L;
+		java =
+				System.getProperty("java.home") + File.separator + "bin"
+						+ File.separator + "java";
+
+		connections = new ArrayList<Connection>(size);
+		idle = new LinkedBlockingQueue<Connection>(size);
+
+		try {
+			for (int i = 0; i < size; i++)
+				idle.add(start());
+		} catch (IOException e) {
+			shutdown();
+			throw e;
+		}
+
+		executor = Executors.newFixedThreadPool(size);
+		readers = Executors.newCachedThreadPool();
+	}
+
+	public int size() {
+		synchronized (connections) {
+			return connections.size();
+		}
+	}
+
+	/**
+	 * Starts a worker process and returns the connection to it.
+	 */
+	private Connection start() throws IOException {
+		ProcessBuilder builder =
+				new ProcessBuilder(java, "-cp",
+						System.getProperty("java.class.path"),
+						EvaluationWorker.class.getName());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+		Connection connection = new Connection(builder.start());
+		try {
+			writeBytes(connection.output, settings);
+			connection.output.writeUTF(dataFile);
+			connection.output.flush();
+		} catch (IOException e) {
+			connection.process.destroyForcibly();
+			throw e;
+		}
+
+		synchronized (connections) {
+			connections.add(connection);
+		}
+		return connection;
+	}
+
+	/**
+	 * Destroys the worker of a failed connection and starts another one in
+	 * its place, unless the pool is shut down. If it cannot be started, the
+	 * pool continues with fewer workers.
+	 */
+	private void replace(Connection connection) {
+		connection.process.destroyForcibly();
+		synchronized (connections) {
+			connections.remove(connection);
+		}
+
+		if (stopped)
+			return;
+
+		try {
+			Connection replacement = start();
+
+			// the pool may be shut down while the worker is started
+			if (stopped) {
+				replacement.process.destroyForcibly();
+				synchronized (connections) {
+					connections.remove(replacement);
+				}
+			} else {
+				idle.put(replacement);
+			}
+		} catch (IOException e) {
+			e.printStackTrace(Log.errorWriter());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Submits the estimation of a model to a worker. The returned estimation
+	 * holds a copy of the given model with the estimated parameters.
+	 *
+	 * @param model
+	 *            model to estimate
+	 * @param origin
+	 *            origin of the returned estimation
+	 * @param given
+	 *            whether the first restart starts from the parameters of the
+	 *            model, as in {@code EmFramework.estimateFromGiven}
+	 * @param purpose
+	 *            purpose of the EM used by the worker
+	 * @param focus
+	 *            focus of the estimation
+	 * @return estimation of the model
+	 */
+	public Future<IModelWithScore> submit(Gltm model, final Gltm origin,
+			boolean given, Purpose purpose, Focus focus) {
+		// the request and the copy of the model are made on the calling
+		// thread, so that they do not depend on the timing of the workers
+		final byte[] request = request(model, given, purpose, focus);
+		final Gltm estimated = model.clone();
+
+		return executor.submit(new Callable<IModelWithScore>() {
+			public IModelWithScore call() throws Exception {
+				final Connection connection = take();
+
+				Future<IModelWithScore> response =
+						readers.submit(new Callable<IModelWithScore>() {
+							public IModelWithScore call() throws IOException {
+								return connection.estimate(request, estimated,
+										origin);
+							}
+						});
+
+				IModelWithScore result;
+				try {
+					result =
+							responseTimeout > 0 ? response.get(
+									responseTimeout, TimeUnit.MILLISECONDS)
+									: response.get();
+				} catch (TimeoutException e) {
+					replace(connection);
+					throw new IOException(String.format(
+							"The worker has not responded in %d seconds.",
+							responseTimeout / 1000));
+				} catch (InterruptedException e) {
+					// the worker may be in the middle of its response
+					replace(connection);
+					throw e;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						// the worker has completed its response
+						idle.put(connection);
+						throw (RuntimeException) cause;
+					}
+
+					replace(connection);
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					throw e;
+				}
+
+				idle.put(connection);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Takes an idle connection, waiting for one if all workers are busy.
+	 *
+	 * @throws IOException
+	 *             if no worker is running
+	 */
+	private Connection take() throws IOException, InterruptedException {
+		while (true) {
+			Connection connection = idle.poll(1, TimeUnit.SECONDS);
+			if (connection != null)
+				return connection;
+
+			if (size() == 0)
+				throw new IOException("No worker process is running.");
+		}
+	}
+
+	private static byte[] request(Gltm model, boolean given, Purpose purpose,
+			Focus focus) {
+		try {
+			ByteArrayOutputStream bif = new ByteArrayOutputStream();
+			new BifWriter(bif).write(model);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeByte(purpose.ordinal());
+			output.writeBoolean(given);
+			output.writeLong(RandomStream.current().nextLong());
+			writeBytes(output, bif.toByteArray());
+
+			List<Variable> variables = new ArrayList<Variable>();
+			variables.addAll(focus.discreteSet());
+			variables.addAll(focus.continuousSet());
+			output.writeInt(variables.size());
+			for (Variable variable : variables)
+				output.writeUTF(variable.getName());
+
+			output.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// it does not happen on a byte array
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Stops the worker processes by closing their input. The processes that
+	 * do not stop within {@link #SHUTDOWN_TIMEOUT} milliseconds are
+	 * destroyed.
+	 */
+	public void shutdown() {
+		stopped = true;
+		if (executor != null)
+			executor.shutdownNow();
+		if (readers != null)
+			readers.shutdownNow();
+
+		List<Connection> stopping;
+		synchronized (connections) {
+			stopping = new ArrayList<Connection>(connections);
+			connections.clear();
+		}
+
+		for (Connection connection : stopping) {
+			try {
+				connection.process.getOutputStream().close();
+			} catch (IOException e) {
+				// the process has stopped
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+		boolean interrupted = false;
+		for (Connection connection : stopping) {
+			try {
+				long remaining = deadline - System.currentTimeMillis();
+				if (!connection.process.waitFor(Math.max(remaining, 0),
+						TimeUnit.MILLISECONDS))
+					connection.process.destroyForcibly();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				connection.process.destroyForcibly();
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	static void writeBytes(DataOutputStream output, byte[] bytes)
+			throws IOException {
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static byte[] readBytes(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Connection to a worker process, which handles one request at a time.
+	 */
+	private static class Connection {
+		private final Process process;
+		private final DataOutputStream output;
+		private final DataInputStream input;
+
+		public Connection(Process process) {
+			this.process = process;
+			output =
+					new DataOutputStream(new BufferedOutputStream(
+							process.getOutputStream()));
+			input =
+					new DataInputStream(new BufferedInputStream(
+							process.getInputStream()));
+		}
+
+		public IModelWithScore estimate(byte[] request, Gltm estimated,
+				Gltm origin) throws IOException {
+			output.write(request);
+			output.flush();
+
+			if (input.readByte() == FAILED)
+				throw new RuntimeException("Worker failed: " + input.readUTF());
+
+			double loglikelihood = input.readDouble();
+			double bicScore = input.readDouble();
+			int messageCount = input.readInt();
+			double[] parameters = new double[input.readInt()];
+			for (int i = 0; i < parameters.length; i++)
+				parameters[i] = input.readDouble();
+
+			TranspositionTable.assign(estimated, parameters);
+			return new WorkerEstimation(estimated, origin, loglikelihood,
+					bicScore, messageCount);
+		}
+	}
+
+	/**
+	 * Estimation returned by a worker process.
+	 */
+	private static class WorkerEstimation implements IModelWithScore {
+		private final Gltm model;
+		private final Gltm origin;
+		private final double loglikelihood;
+		private final double bicScore;
+		private final int messageCount;
+
+		public WorkerEstimation(Gltm model, Gltm origin,
+				double loglikelihood, double bicScore, int messageCount) {
+			this.model = model;
+			this.origin = origin;
+			this.loglikelihood = loglikelihood;
+			this.bicScore = bicScore;
+			this.messageCount = messageCount;
+		}
+
+		public Gltm model() {
+			return model;
+		}
+
+		public Gltm origin() {
+			return origin;
+		}
+
+		public double loglikelihood() {
+			return loglikelihood;
+		}
+
+		public double BicScore() {
+			return bicScore;
+		}
+
+		public int messageCount() {
+			return messageCount;
+		}
+	}
+}
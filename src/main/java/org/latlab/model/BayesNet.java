@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.latlab.graph.AbstractNode;
 import org.latlab.graph.DirectedAcyclicGraph;
@@ -50,7 +51,26 @@ public class BayesNet extends DirectedAcyclicGraph {
 	/**
 	 * the number of created BNs.
 	 */
-	private static int _count = 0;
+	private static final AtomicInteger _count = new AtomicInteger();
+
+	/**
+	 * the scopes of the threads naming the BNs they create on their own.
+	 */
+	private static final ThreadLocal<NameScope> _scope =
+			new ThreadLocal<NameScope>();
+
+	/**
+	 * the prefix of default names of BNs created in a scope, and the number of
+	 * BNs created in it.
+	 */
+	private static final class NameScope {
+		private final String prefix;
+		private int count = 0;
+
+		private NameScope(String prefix) {
+			this.prefix = prefix;
+		}
+	}
 
 	/**
 	 * Creates a BN that is defined by the specified file.
@@ -76,7 +96,35 @@ public class BayesNet extends DirectedAcyclicGraph {
 	 * @return the default name for the next BN.
 	 */
 	public final static String createDefaultName() {
-		return NAME_PREFIX + _count;
+		NameScope scope = _scope.get();
+		return scope == null ? NAME_PREFIX + _count.get() : scope.prefix
+				+ scope.count;
+	}
+
+	/**
+	 * Names and counts the BNs subsequently created by the calling thread in a
+	 * scope of its own, with the given prefix followed by the number of BNs
+	 * created in the scope. Their names then do not depend on the BNs created
+	 * concurrently by other threads, and neither do the names of the latter.
+	 * 
+	 * @param prefix
+	 *            prefix of the default names in the scope, or {@code null} to
+	 *            leave the scope
+	 */
+	public final static void useNameScope(String prefix) {
+		if (prefix == null)
+			_scope.remove();
+		else
+			_scope.set(new NameScope(prefix));
+	}
+
+	/**
+	 * Returns the default name for a new BN, and counts it.
+	 */
+	private static String nextDefaultName() {
+		NameScope scope = _scope.get();
+		return scope == null ? NAME_PREFIX + _count.getAndIncrement()
+				: scope.prefix + scope.count++;
 	}
 
 	/**
@@ -98,7 +146,9 @@ public class BayesNet extends DirectedAcyclicGraph {
 	 * 
 	 */
 	public BayesNet() {
-		this(createDefaultName());
+		// the number is taken and counted at once, so that the BNs created
+		// concurrently by different threads have distinct names
+		this(nextDefaultName(), false);
 	}
 
 	/**
@@ -108,6 +158,10 @@ public class BayesNet extends DirectedAcyclicGraph {
 	 *            name of this BN.
 	 */
 	public BayesNet(String name) {
+		this(name, true);
+	}
+
+	private BayesNet(String name, boolean count) {
 		super();
 
 		name = name.trim();
@@ -120,7 +174,14 @@ public class BayesNet extends DirectedAcyclicGraph {
 				new MixedVariableMap<BeliefNode, ContinuousBeliefNode, DiscreteBeliefNode>();
 		_loglikelihoods = new HashMap<DataSet, Double>();
 
-		_count++;
+		if (!count)
+			return;
+
+		NameScope scope = _scope.get();
+		if (scope == null)
+			_count.incrementAndGet();
+		else
+			scope.count++;
 	}
 
 	protected BayesNet(BayesNet other) {
@@ -549,4 +549,27 @@ public class CGPotential implements Potential {
 
 		parameters = newParameters;
 	}
+
+	/**
+	 * Returns a potential with the same head variables as this potential, but
+	 * with the given discrete parent variable and parameters, such as after
+	 * some states of the parent variable have been split or merged.
+	 *
+	 * @param variable
+	 *            new discrete parent variable
+	 * @param parameters
+	 *            parameters of the new potential, one for each state of the
+	 *            new parent variable
+	 * @return potential with the new parent variable
+	 */
+	public CGPotential replaceVar(DiscreteVariable variable,
+			CGParameter[] parameters) {
+		CGPotential result =
+				new CGPotential(continuousVariables, variable, false);
+
+		assert result.parameters.length == parameters.length;
+		System.arraycopy(parameters, 0, result.parameters, 0,
+				parameters.length);
+		return result;
+	}
 }
@@ -10,6 +10,7 @@ import org.latlab.graph.DirectedNode;
 import org.latlab.util.DiscreteVariable;
 import org.latlab.util.Function;
 import org.latlab.util.Potential;
+import org.latlab.util.RandomStream;
 
 /**
  * This class provides an implementation for nodes in BNs.
@@ -208,6 +209,16 @@ public class DiscreteBeliefNode extends BeliefNode {
         randomlyParameterize();
     }
 
+    /**
+     * Generates random parameters using the given random stream.
+     * 
+     * @param random
+     *            random stream used for generating the parameters
+     */
+    public void generateRandomParameters(RandomStream random) {
+        _cpt.randomlyDistribute(_variable, random);
+    }
+
     @Override
     public void setPotential(Potential potential) {
         setCpt((Function) potential);
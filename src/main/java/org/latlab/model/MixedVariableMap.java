@@ -4,8 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,11 +38,17 @@ import org.latlab.util.Variable;
  */
 public class MixedVariableMap<BaseV, ContinuousV extends BaseV, DiscreteV extends BaseV> {
     private ContinuousVariableMap<ContinuousV> continuousMap;
+
+    /**
+     * Keeps the discrete variables in the order of insertion, since they are
+     * hashed by identity and the order of the nodes generated from them would
+     * otherwise vary between runs.
+     */
     private Map<DiscreteVariable, DiscreteV> discreteMap;
 
     public MixedVariableMap() {
         continuousMap = new ContinuousVariableMap<ContinuousV>();
-        discreteMap = new HashMap<DiscreteVariable, DiscreteV>();
+        discreteMap = new LinkedHashMap<DiscreteVariable, DiscreteV>();
     }
 
     public MixedVariableMap(
@@ -50,7 +56,7 @@ public class MixedVariableMap<BaseV, ContinuousV extends BaseV, DiscreteV extend
         continuousMap =
             new ContinuousVariableMap<ContinuousV>(other.continuousMap);
         discreteMap =
-            new HashMap<DiscreteVariable, DiscreteV>(other.discreteMap);
+            new LinkedHashMap<DiscreteVariable, DiscreteV>(other.discreteMap);
     }
 
     /**
@@ -60,7 +66,8 @@ public class MixedVariableMap<BaseV, ContinuousV extends BaseV, DiscreteV extend
      */
     public MixedVariableMap(int initialCapacity) {
         continuousMap = new ContinuousVariableMap<ContinuousV>();
-        discreteMap = new HashMap<DiscreteVariable, DiscreteV>(initialCapacity);
+        discreteMap =
+            new LinkedHashMap<DiscreteVariable, DiscreteV>(initialCapacity);
     }
 
     public BaseV get(Variable variable) {
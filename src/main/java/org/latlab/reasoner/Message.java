@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.latlab.util.DiscreteVariable;
 import org.latlab.util.Function;
 
 /**
@@ -61,4 +62,55 @@ public class Message {
 	public void divide(Function divider) {
 		function.divide(divider);
 	}
+
+	/**
+	 * Returns a copy of this message with the potential stored in single
+	 * precision.
+	 * 
+	 * @return compact copy of this message
+	 */
+	public Compact compact() {
+		return new Compact(this);
+	}
+
+	/**
+	 * Holds a message with its potential stored in single precision, for
+	 * caching a large number of messages. The normalization constant is kept
+	 * in double precision since it is accumulated into the loglikelihood.
+	 * 
+	 * @author leonard
+	 * 
+	 */
+	public static class Compact {
+		private final List<DiscreteVariable> variables;
+		private final float[] cells;
+		private final double logNormalization;
+
+		private Compact(Message message) {
+			variables = message.function.getVariables();
+			logNormalization = message.logNormalization;
+
+			double[] source = message.function.getCells();
+			cells = new float[source.length];
+			for (int i = 0; i < source.length; i++) {
+				cells[i] = (float) source[i];
+			}
+		}
+
+		/**
+		 * Returns a new message in double precision holding the values of this
+		 * compact message.
+		 * 
+		 * @return message in double precision
+		 */
+		public Message expand() {
+			Function function = Function.createFunction(variables);
+			double[] target = function.getCells();
+			for (int i = 0; i < cells.length; i++) {
+				target[i] = cells[i];
+			}
+
+			return new Message(function, logNormalization);
+		}
+	}
 }
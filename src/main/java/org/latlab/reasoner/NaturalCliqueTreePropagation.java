@@ -1,7 +1,5 @@
 package org.latlab.reasoner;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -17,9 +15,10 @@ import org.latlab.model.CGPotential;
 import org.latlab.model.Gltm;
 import org.latlab.reasoner.Clique.NeighborVisitor;
 import org.latlab.reasoner.Separator.MessageMemento;
-import org.latlab.util.BuildConfig;
 import org.latlab.util.DiscreteVariable;
 import org.latlab.util.Function;
+import org.latlab.util.Profiler;
+import org.latlab.util.Profiler.Phase;
 import org.latlab.util.SingularContinuousVariable;
 
 /**
@@ -48,66 +47,6 @@ import org.latlab.util.SingularContinuousVariable;
  */
 public class NaturalCliqueTreePropagation {
 
-    // for profiling
-    public static class ComputeTime {
-        public final static int SIZE = 6;
-
-        public enum Types {
-            INITIALIZATION, CONTINUOUS_EVIDENCE, DISCRETE_EVIDENCE, MESSAGES, NORMALIZATION, OVERALL
-        }
-
-        public ComputeTime() {
-            if (BuildConfig.PROFILE) {
-                values = new long[Types.values().length];
-                bean = ManagementFactory.getThreadMXBean();
-            } else {
-                values = null;
-                bean = null;
-            }
-        }
-
-        public final long[] values;
-        private final ThreadMXBean bean;
-
-        public static void start(ComputeTime time, Types type) {
-            if (BuildConfig.PROFILE)
-                time.values[type.ordinal()] =
-                        time.bean.getCurrentThreadCpuTime();
-            // if (BuildConfig.PROFILE)
-            // time.values[type.ordinal()] =
-            // time.bean.getCurrentThreadUserTime();
-        }
-
-        public static void stop(ComputeTime time, Types type) {
-            if (BuildConfig.PROFILE) {
-                time.values[type.ordinal()] =
-                        time.bean.getCurrentThreadCpuTime()
-                                - time.values[type.ordinal()];
-                // time.values[type.ordinal()] =
-                // time.bean.getCurrentThreadUserTime()
-                // - time.values[type.ordinal()];
-            }
-        }
-
-        public static String format(ComputeTime time) {
-            if (BuildConfig.PROFILE) {
-                return String.format("%d,%d,%d,%d,%d,%d", time.values[0],
-                        time.values[1], time.values[2], time.values[3],
-                        time.values[4], time.values[5]);
-            } else
-                return null;
-        }
-
-        public void add(ComputeTime t) {
-            for (int i = 0; i < Types.values().length; i++) {
-                values[i] += t.values[i];
-            }
-        }
-    }
-
-    public ComputeTime computeTime =
-            BuildConfig.PROFILE ? new ComputeTime() : null;
-
     private Evidences evidences;
 
     private final NaturalCliqueTree tree;
@@ -181,37 +120,37 @@ public class NaturalCliqueTreePropagation {
     public void propagate() {
         messagesPassed = 0;
 
-        ComputeTime.start(computeTime, ComputeTime.Types.OVERALL);
+        long overall = Profiler.start();
 
         // initialization
 
-        ComputeTime.start(computeTime, ComputeTime.Types.INITIALIZATION);
+        long time = Profiler.start();
         initializePotentials();
-        ComputeTime.stop(computeTime, ComputeTime.Types.INITIALIZATION);
+        Profiler.stop(Phase.INITIALIZATION, time);
 
-        ComputeTime.start(computeTime, ComputeTime.Types.DISCRETE_EVIDENCE);
+        time = Profiler.start();
         absorbDiscreteEvidence();
-        ComputeTime.stop(computeTime, ComputeTime.Types.DISCRETE_EVIDENCE);
+        Profiler.stop(Phase.DISCRETE_EVIDENCE, time);
 
-        ComputeTime.start(computeTime, ComputeTime.Types.CONTINUOUS_EVIDENCE);
+        time = Profiler.start();
         absorbContinuousEvidence();
-        ComputeTime.stop(computeTime, ComputeTime.Types.CONTINUOUS_EVIDENCE);
+        Profiler.stop(Phase.CONTINUOUS_EVIDENCE, time);
 
         if (focusSpecified)
             evidencesAbsorbed = true;
 
         // propagation
-        ComputeTime.start(computeTime, ComputeTime.Types.MESSAGES);
+        time = Profiler.start();
         collectMessage(tree.pivot());
         distributeMessage(tree.pivot());
-        ComputeTime.stop(computeTime, ComputeTime.Types.MESSAGES);
+        Profiler.stop(Phase.MESSAGES, time);
 
-        ComputeTime.start(computeTime, ComputeTime.Types.NORMALIZATION);
+        time = Profiler.start();
         // keep the potential of the pivot under proper normalization
         tree.pivot().normalize(Double.NaN);
 
         loglikelihood = tree.pivot().logNormalization();
-        ComputeTime.stop(computeTime, ComputeTime.Types.NORMALIZATION);
+        Profiler.stop(Phase.NORMALIZATION, time);
 
         // likelihood =
         // tree.pivot().normalization().multiply(
@@ -229,7 +168,7 @@ public class NaturalCliqueTreePropagation {
         // evidences.copy());
         // }
 
-        ComputeTime.stop(computeTime, ComputeTime.Types.OVERALL);
+        Profiler.stop(Phase.PROPAGATION, overall);
 
         // 1e-309 is the (empirical) smallest number that doesn't lead to NaN
         // after division
@@ -644,13 +583,25 @@ public class NaturalCliqueTreePropagation {
      * @return states for restoring later
      */
     public LocalPropagationMemento createLocalPropagationMemento() {
+        return createLocalPropagationMemento(false);
+    }
+
+    /**
+     * Saves the states after a propagation on the focus subtree, with the
+     * messages optionally stored in single precision to save memory.
+     * 
+     * @param compact
+     *            whether to store the messages in single precision
+     * @return states for restoring later
+     */
+    public LocalPropagationMemento createLocalPropagationMemento(boolean compact) {
         // store the messages in the separator nodes if that separator is
         List<MessageMemento> messages =
                 new ArrayList<MessageMemento>(tree.separators().size());
 
         for (Separator separator : tree.separators()) {
             if (separator.withinFocusBoundary()) {
-                messages.add(separator.createMessageMemento());
+                messages.add(separator.createMessageMemento(compact));
             } else {
                 // need to add a null value as a place holder
                 messages.add(null);
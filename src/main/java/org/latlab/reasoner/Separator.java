@@ -148,7 +148,19 @@ public class Separator extends CliqueTreeNode {
 	 * @return
 	 */
 	public MessageMemento createMessageMemento() {
-		return new MessageMemento(messages);
+		return createMessageMemento(false);
+	}
+
+	/**
+	 * Returns a memento instance for restoring later, with the messages
+	 * optionally stored in single precision.
+	 * 
+	 * @param compact
+	 *            whether to store the messages in single precision
+	 * @return memento holding the current messages
+	 */
+	public MessageMemento createMessageMemento(boolean compact) {
+		return new MessageMemento(messages, compact);
 	}
 
 	public void setMessageMemento(MessageMemento memento) {
@@ -174,10 +186,26 @@ public class Separator extends CliqueTreeNode {
 	public static class MessageMemento {
 		private final List<Pair<Clique, Message>> messages;
 
-		private MessageMemento(Map<Clique, Message> messages) {
+		/**
+		 * Holds the messages in single precision instead of {@code messages}
+		 * if it is not {@code null}.
+		 */
+		private final List<Pair<Clique, Message.Compact>> compactMessages;
+
+		private MessageMemento(Map<Clique, Message> messages, boolean compact) {
 			if (messages == null || messages.size() == 0) {
 				this.messages = null;
+				this.compactMessages = null;
+			} else if (compact) {
+				this.messages = null;
+				this.compactMessages = new ArrayList<Pair<Clique, Message.Compact>>(
+						messages.size());
+				for (Map.Entry<Clique, Message> entry : messages.entrySet()) {
+					this.compactMessages.add(new Pair<Clique, Message.Compact>(
+							entry.getKey(), entry.getValue().compact()));
+				}
 			} else {
+				this.compactMessages = null;
 				this.messages = new ArrayList<Pair<Clique, Message>>(messages
 						.size());
 				for (Map.Entry<Clique, Message> entry : messages.entrySet()) {
@@ -194,13 +222,20 @@ public class Separator extends CliqueTreeNode {
 		 * @return map of messages or {@code null}
 		 */
 		private void putMessagesInto(Map<Clique, Message> map) {
-			for (Pair<Clique, Message> pair : messages) {
-				map.put(pair.first, pair.second);
+			if (compactMessages != null) {
+				for (Pair<Clique, Message.Compact> pair : compactMessages) {
+					map.put(pair.first, pair.second.expand());
+				}
+			} else {
+				for (Pair<Clique, Message> pair : messages) {
+					map.put(pair.first, pair.second);
+				}
 			}
 		}
 		
 		private boolean isEmpty() {
-			return messages == null || messages.size() == 0;
+			return (messages == null || messages.size() == 0)
+					&& (compactMessages == null || compactMessages.size() == 0);
 		}
 	}
 }
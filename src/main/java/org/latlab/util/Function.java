@@ -1541,11 +1541,20 @@ public class Function implements Cloneable, Potential {
 	 * variable.
 	 */
 	public final void randomlyDistribute(DiscreteVariable variable) {
+		randomlyDistribute(variable, RandomStream.current());
+	}
+
+	/**
+	 * Makes this function a collection of random distributions of the specified
+	 * variable, using the given random stream.
+	 */
+	public final void randomlyDistribute(DiscreteVariable variable,
+			RandomStream random) {
 		// randomly sets cells within (0.0, 1.0]
 		// I try to avoid likelihood = 0 by excluding zero.
 		int domainSize = getDomainSize();
 		for (int i = 0; i < domainSize; i++) {
-			_cells[i] = 1.0 - Math.random();
+			_cells[i] = 1.0 - random.nextDouble();
 		}
 
 		// enforces distribution constraint
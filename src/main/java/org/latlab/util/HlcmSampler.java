@@ -2,7 +2,6 @@ package org.latlab.util;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import org.latlab.graph.DirectedNode;
 import org.latlab.model.DiscreteBeliefNode;
@@ -18,7 +17,21 @@ import org.latlab.model.HLCM;
  */
 public class HlcmSampler {
 	public HlcmSampler(HLCM model) {
+		this(model, RandomStream.current().split());
+	}
+
+	/**
+	 * Constructs a sampler that uses the given random stream, so that the
+	 * samples can be reproduced.
+	 * 
+	 * @param model
+	 *            model to sample from
+	 * @param random
+	 *            random stream used in sampling
+	 */
+	public HlcmSampler(HLCM model, RandomStream random) {
 		this.model = model;
+		this.random = random;
 	}
 
 	public DataSet sample(int numberOfCases) {
@@ -34,7 +47,7 @@ public class HlcmSampler {
 	}
 
 	void setSeed(long seed) {
-		random.setSeed(seed);
+		random = new RandomStream(seed);
 	}
 
 	private DiscreteBeliefNode getRoot() {
@@ -109,5 +122,5 @@ public class HlcmSampler {
 	}
 
 	private final HLCM model;
-	private Random random = new Random();
+	private RandomStream random;
 }
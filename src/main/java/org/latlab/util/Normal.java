@@ -7,7 +7,6 @@ import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.linalg.Algebra;
 import cern.colt.matrix.linalg.CholeskyDecomposition;
 import cern.jet.math.Functions;
-import cern.jet.random.engine.RandomEngine;
 
 public class Normal {
 	
@@ -59,9 +58,6 @@ public class Normal {
 
     private final DoubleMatrix1D standardDeviation;
 
-    private final cern.jet.random.Normal standard =
-        new cern.jet.random.Normal(0, 1, RandomEngine.makeDefault());
-
     public Normal(DoubleMatrix1D mean, DoubleMatrix2D covariance) {
         this.mean = mean.copy();
 
@@ -109,28 +105,45 @@ public class Normal {
      * <li>X = mean + LZ
      * </ol>
      * 
+     * <p>
+     * It uses the current random stream of the calling thread.
+     * 
      * @return vector generated from this distribution
      */
-    public synchronized DoubleMatrix1D generate() {
-        return generateWithL(mean, L);
+    public DoubleMatrix1D generate() {
+        return generate(RandomStream.current());
+    }
+
+    public DoubleMatrix1D generate(RandomStream random) {
+        return generateWithL(mean, L, random);
     }
 
-    public synchronized DoubleMatrix1D generate(int[] subset) {
+    public DoubleMatrix1D generate(int[] subset) {
+        return generate(subset, RandomStream.current());
+    }
+
+    public DoubleMatrix1D generate(int[] subset, RandomStream random) {
         return generateWithL(mean.viewSelection(subset), L.viewSelection(
-            subset, subset));
+            subset, subset), random);
     }
 
     public DoubleMatrix1D generateWith(
         DoubleMatrix1D mean, DoubleMatrix2D covariance) {
+        return generateWith(mean, covariance, RandomStream.current());
+    }
+
+    public DoubleMatrix1D generateWith(
+        DoubleMatrix1D mean, DoubleMatrix2D covariance, RandomStream random) {
         DoubleMatrix2D l = new CholeskyDecomposition(covariance).getL();
-        return generateWithL(mean, l);
+        return generateWithL(mean, l, random);
 
     }
 
-    private DoubleMatrix1D generateWithL(DoubleMatrix1D m, DoubleMatrix2D l) {
+    private DoubleMatrix1D generateWithL(
+        DoubleMatrix1D m, DoubleMatrix2D l, RandomStream random) {
         // X = mean + Lz
         DoubleMatrix1D vector =
-            Algebra.DEFAULT.mult(l, generateStandardVector(l.columns()));
+            Algebra.DEFAULT.mult(l, generateStandardVector(l.columns(), random));
         return vector.assign(m, Functions.plus);
     }
 
@@ -142,12 +155,18 @@ public class Normal {
      *            subset of the variable
      * @return vector generated from the distribution
      */
-    public synchronized DoubleMatrix1D generateIndependentVector(int[] subset) {
+    public DoubleMatrix1D generateIndependentVector(int[] subset) {
+        return generateIndependentVector(subset, RandomStream.current());
+    }
+
+    public DoubleMatrix1D generateIndependentVector(
+        int[] subset, RandomStream random) {
         DoubleMatrix1D vector = new DenseDoubleMatrix1D(subset.length);
         for (int i = 0; i < subset.length; i++) {
             int j = subset[i];
             double value =
-                nextDouble(mean.getQuick(j), standardDeviation.getQuick(j));
+                mean.getQuick(j) + random.nextGaussian()
+                    * standardDeviation.getQuick(j);
             vector.setQuick(i, value);
         }
 
@@ -161,16 +180,13 @@ public class Normal {
      *            length of the generated vector
      * @return vector generated
      */
-    private DoubleMatrix1D generateStandardVector(int length) {
+    private DoubleMatrix1D generateStandardVector(
+        int length, RandomStream random) {
         DoubleMatrix1D vector = new DenseDoubleMatrix1D(length);
         for (int i = 0; i < vector.size(); i++) {
-            vector.setQuick(i, standard.nextDouble());
+            vector.setQuick(i, random.nextGaussian());
         }
 
         return vector;
     }
-
-    private double nextDouble(double mean, double standardDeviation) {
-        return mean + standard.nextDouble() * standardDeviation;
-    }
 }
@@ -0,0 +1,430 @@
+package org.latlab.util;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiles the CPU time spent in the phases of the E-step. It is
+ * disabled by default, in which case the measurement costs only the check of
+ * a flag.
+ *
+ * <p>
+ * The time is attributed to the scope of the calling thread, which consists of
+ * the purpose of the EM and the search operator under which the propagation
+ * is run. The scope is passed to the threads running the work on behalf of
+ * another thread in the same way as the random stream, by
+ * {@link #current()} and {@link #use(Scope)}. Each thread keeps its own
+ * counters, which are only summed up when the summary is written.
+ *
+ * <p>
+ * For each scope and phase, the counters keep a histogram of the CPU time of
+ * each run of the phase, with the buckets of powers of two
+ * nanoseconds.
+ *
+ * @author leonard
+ *
+ */
+public final class Profiler {
+
+	/**
+	 * Phases of the profiled computation. The first five are the parts of a
+	 * propagation, of which the whole is {@link #PROPAGATION}, and
+	 * {@link #MIXTURE} is the computation of the posteriors of a partition of
+	 * complete data cases in the estimation of a mixture model, which does not
+	 * use propagations.
+	 */
+	public enum Phase {
+		INITIALIZATION("initialization"),
+		DISCRETE_EVIDENCE("discreteEvidence"),
+		CONTINUOUS_EVIDENCE("continuousEvidence"),
+		MESSAGES("messages"),
+		NORMALIZATION("normalization"),
+		PROPAGATION("propagation"),
+		MIXTURE("mixture");
+
+		private final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		public String label() {
+			return label;
+		}
+	}
+
+	/**
+	 * Label used in a scope when its purpose or operator is not known.
+	 */
+	public static final String NONE = "none";
+
+	/**
+	 * Label used in the summary for the totals over all purposes or all
+	 * operators.
+	 */
+	public static final String ALL = "all";
+
+	/**
+	 * Scope to which the profiled time is attributed.
+	 */
+	public static final class Scope {
+		private final String purpose;
+		private final String operator;
+
+		private Scope(String purpose, String operator) {
+			this.purpose = purpose;
+			this.operator = operator;
+		}
+
+		public String purpose() {
+			return purpose;
+		}
+
+		public String operator() {
+			return operator;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Scope))
+				return false;
+
+			Scope other = (Scope) object;
+			return purpose.equals(other.purpose)
+					&& operator.equals(other.operator);
+		}
+
+		@Override
+		public int hashCode() {
+			return purpose.hashCode() * 31 + operator.hashCode();
+		}
+	}
+
+	private static final Scope ROOT = new Scope(NONE, NONE);
+
+	private static volatile boolean enabled = false;
+
+	private static final ThreadMXBean bean =
+			ManagementFactory.getThreadMXBean();
+
+	private static final ThreadLocal<Scope> scope = new ThreadLocal<Scope>();
+
+	/**
+	 * Counters of all threads that have recorded some time.
+	 */
+	private static final List<Counters> all = new ArrayList<Counters>();
+
+	private static final ThreadLocal<Counters> counters =
+			new ThreadLocal<Counters>() {
+				@Override
+				protected Counters initialValue() {
+					Counters result = new Counters();
+					synchronized (all) {
+						all.add(result);
+					}
+					return result;
+				}
+			};
+
+	private Profiler() {
+	}
+
+	/**
+	 * Enables or disables the profiling.
+	 *
+	 * @param enable
+	 *            whether to profile
+	 */
+	public static void setEnabled(boolean enable) {
+		if (enable && bean.isThreadCpuTimeSupported())
+			bean.setThreadCpuTimeEnabled(true);
+
+		enabled = enable;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the scope of the calling thread.
+	 *
+	 * @return scope of the calling thread
+	 */
+	public static Scope current() {
+		Scope result = scope.get();
+		return result != null ? result : ROOT;
+	}
+
+	/**
+	 * Uses the given scope for the calling thread.
+	 *
+	 * @param next
+	 *            scope to use
+	 * @return the previous scope of the calling thread
+	 */
+	public static Scope use(Scope next) {
+		Scope old = current();
+		scope.set(next);
+		return old;
+	}
+
+	/**
+	 * Uses the scope with the given purpose and the current operator for the
+	 * calling thread.
+	 *
+	 * @param purpose
+	 *            purpose of the EM, or {@code null} to keep the current one
+	 * @return the previous scope of the calling thread
+	 */
+	public static Scope usePurpose(String purpose) {
+		Scope old = current();
+		if (purpose != null && !purpose.equals(old.purpose))
+			scope.set(new Scope(purpose, old.operator));
+		return old;
+	}
+
+	/**
+	 * Uses the scope with the given operator and the current purpose for the
+	 * calling thread.
+	 *
+	 * @param operator
+	 *            name of the search operator, or {@code null} to keep the
+	 *            current one
+	 * @return the previous scope of the calling thread
+	 */
+	public static Scope useOperator(String operator) {
+		Scope old = current();
+		if (operator != null && !operator.equals(old.operator))
+			scope.set(new Scope(old.purpose, operator));
+		return old;
+	}
+
+	/**
+	 * Returns the current CPU time of the calling thread to be given to
+	 * {@link #stop(Phase, long)}, or zero if the profiling is disabled.
+	 *
+	 * @return start time in nanoseconds
+	 */
+	public static long start() {
+		return enabled ? bean.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Records the CPU time of the calling thread spent on a phase since the
+	 * given start time.
+	 *
+	 * @param phase
+	 *            phase that has been run
+	 * @param start
+	 *            time returned by {@link #start()}
+	 */
+	public static void stop(Phase phase, long start) {
+		if (!enabled)
+			return;
+
+		long time = bean.getCurrentThreadCpuTime() - start;
+		counters.get().record(current(), phase, time);
+	}
+
+	/**
+	 * Clears the counters of all threads.
+	 */
+	public static void reset() {
+		synchronized (all) {
+			for (Counters counter : all)
+				counter.clear();
+		}
+	}
+
+	/**
+	 * Writes the summary of the counters of all threads in XML. It has the
+	 * histograms of each combination of purpose and operator, together with
+	 * the totals of each purpose, of each operator and of all of them, which
+	 * are labeled by {@link #ALL}.
+	 *
+	 * @param writer
+	 *            writer of the summary
+	 */
+	public static void writeXml(PrintWriter writer) {
+		Map<Scope, Histogram[]> scopes = new HashMap<Scope, Histogram[]>();
+		synchronized (all) {
+			for (Counters counter : all)
+				counter.addTo(scopes);
+		}
+
+		Map<String, Map<String, Histogram[]>> sorted =
+				new TreeMap<String, Map<String, Histogram[]>>();
+		for (Map.Entry<Scope, Histogram[]> entry : scopes.entrySet()) {
+			Scope key = entry.getKey();
+			add(sorted, key.purpose, key.operator, entry.getValue());
+			add(sorted, key.purpose, ALL, entry.getValue());
+			add(sorted, ALL, key.operator, entry.getValue());
+			add(sorted, ALL, ALL, entry.getValue());
+		}
+
+		writer.println("<profile>");
+		for (Map.Entry<String, Map<String, Histogram[]>> purpose : sorted
+				.entrySet()) {
+			for (Map.Entry<String, Histogram[]> operator : purpose.getValue()
+					.entrySet()) {
+				for (Phase phase : Phase.values()) {
+					Histogram histogram =
+							operator.getValue()[phase.ordinal()];
+					if (histogram.count == 0)
+						continue;
+
+					writer.format(
+							"<phase purpose='%s' operator='%s' name='%s' %s/>\n",
+							purpose.getKey(), operator.getKey(),
+							phase.label(), histogram.attributes());
+				}
+			}
+		}
+		writer.println("</profile>");
+	}
+
+	private static void add(Map<String, Map<String, Histogram[]>> sorted,
+			String purpose, String operator, Histogram[] histograms) {
+		Map<String, Histogram[]> operators = sorted.get(purpose);
+		if (operators == null) {
+			operators = new TreeMap<String, Histogram[]>();
+			sorted.put(purpose, operators);
+		}
+
+		Histogram[] target = operators.get(operator);
+		if (target == null) {
+			target = Histogram.create();
+			operators.put(operator, target);
+		}
+
+		for (int i = 0; i < target.length; i++)
+			target[i].add(histograms[i]);
+	}
+
+	/**
+	 * Counters of a thread. They are only updated by its thread, but are read
+	 * by the thread writing the summary.
+	 */
+	private static class Counters {
+		private final Map<Scope, Histogram[]> scopes =
+				new HashMap<Scope, Histogram[]>();
+
+		// the histograms of the last scope, which is usually the same in
+		// consecutive records
+		private Scope last = null;
+		private Histogram[] lastHistograms = null;
+
+		private synchronized void record(Scope scope, Phase phase, long time) {
+			if (scope != last) {
+				lastHistograms = scopes.get(scope);
+				if (lastHistograms == null) {
+					lastHistograms = Histogram.create();
+					scopes.put(scope, lastHistograms);
+				}
+				last = scope;
+			}
+
+			lastHistograms[phase.ordinal()].record(time);
+		}
+
+		private synchronized void clear() {
+			scopes.clear();
+			last = null;
+			lastHistograms = null;
+		}
+
+		private synchronized void addTo(Map<Scope, Histogram[]> target) {
+			for (Map.Entry<Scope, Histogram[]> entry : scopes.entrySet()) {
+				Histogram[] histograms = target.get(entry.getKey());
+				if (histograms == null) {
+					histograms = Histogram.create();
+					target.put(entry.getKey(), histograms);
+				}
+
+				for (int i = 0; i < histograms.length; i++)
+					histograms[i].add(entry.getValue()[i]);
+			}
+		}
+	}
+
+	/**
+	 * Histogram of the times of a phase, of which bucket {@code i} counts the
+	 * times in [2^(i-1), 2^i) nanoseconds, and bucket zero counts the zero
+	 * times.
+	 */
+	private static class Histogram {
+		private static final int BUCKETS = 64;
+
+		private final long[] buckets = new long[BUCKETS];
+		private long count = 0;
+		private long total = 0;
+		private long maximum = 0;
+
+		private static Histogram[] create() {
+			Histogram[] histograms = new Histogram[Phase.values().length];
+			for (int i = 0; i < histograms.length; i++)
+				histograms[i] = new Histogram();
+			return histograms;
+		}
+
+		private void record(long time) {
+			if (time < 0)
+				time = 0;
+
+			buckets[BUCKETS - Long.numberOfLeadingZeros(time)]++;
+			count++;
+			total += time;
+			if (time > maximum)
+				maximum = time;
+		}
+
+		private void add(Histogram other) {
+			for (int i = 0; i < BUCKETS; i++)
+				buckets[i] += other.buckets[i];
+			count += other.count;
+			total += other.total;
+			maximum = Math.max(maximum, other.maximum);
+		}
+
+		/**
+		 * Returns the upper bound in nanoseconds of the bucket containing the
+		 * given fraction of the times.
+		 */
+		private long quantile(double fraction) {
+			long target = (long) Math.ceil(count * fraction);
+			long sum = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				sum += buckets[i];
+				if (sum >= target)
+					return i == 0 ? 0 : i == BUCKETS - 1 ? maximum : Math.min(
+							1L << i, maximum);
+			}
+			return maximum;
+		}
+
+		private String attributes() {
+			StringBuilder histogram = new StringBuilder();
+			for (int i = 0; i < BUCKETS; i++) {
+				if (buckets[i] == 0)
+					continue;
+
+				if (histogram.length() > 0)
+					histogram.append(' ');
+				histogram.append(i).append(':').append(buckets[i]);
+			}
+
+			return String.format("count='%d' cpuMs='%.3f' meanUs='%.3f' "
+					+ "p50Us='%.3f' p90Us='%.3f' p99Us='%.3f' maxUs='%.3f' "
+					+ "histogram='%s'", count, total / 1e6, total / 1e3
+					/ count, quantile(0.5) / 1e3, quantile(0.9) / 1e3,
+					quantile(0.99) / 1e3, maximum / 1e3, histogram);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package org.latlab.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A stream of pseudo-random numbers that can be split into independent
+ * streams. A stream is not thread-safe, so each thread, restart or candidate
+ * should use its own stream split from another one.
+ *
+ * <p>
+ * Each thread has a current stream, which is used by the methods that do not
+ * take a stream as an argument. The current stream of a thread is initially
+ * split from a root stream, which is seeded by {@link #setSeed(long)}. To make
+ * a run reproducible regardless of the scheduling of the threads, a task
+ * should be given a stream split in a deterministic order, and install it by
+ * {@link #use(RandomStream)} while it is running.
+ *
+ * <p>
+ * The numbers are generated by the same algorithm as
+ * {@link java.util.SplittableRandom}, but the state of a stream is kept here so
+ * that it can be saved in a checkpoint by {@link #writeState(DataOutput)} and
+ * restored later.
+ *
+ * @author leonard
+ *
+ */
+public final class RandomStream {
+
+	private static long seed = System.nanoTime();
+	private static RandomStream root = new RandomStream(seed);
+
+	private static final ThreadLocal<RandomStream> current =
+			new ThreadLocal<RandomStream>() {
+				@Override
+				protected RandomStream initialValue() {
+					return splitRoot();
+				}
+			};
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * State of the SplitMix64 generator, which is advanced by {@code gamma}
+	 * for each number generated.
+	 */
+	private long state;
+	private final long gamma;
+
+	/**
+	 * Holds the second normal deviate generated by the polar method.
+	 */
+	private double nextGaussian;
+	private boolean hasNextGaussian = false;
+
+	public RandomStream(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private RandomStream(long state, long gamma) {
+		this.state = state;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * Sets the seed of the root stream, and resets the current stream of the
+	 * calling thread to one split from the new root.
+	 *
+	 * @param seed
+	 *            seed of the root stream
+	 */
+	public static synchronized void setSeed(long seed) {
+		RandomStream.seed = seed;
+		root = new RandomStream(seed);
+		current.set(root.split());
+	}
+
+	/**
+	 * Returns the seed of the root stream.
+	 *
+	 * @return seed of the root stream
+	 */
+	public static synchronized long seed() {
+		return seed;
+	}
+
+	private static synchronized RandomStream splitRoot() {
+		return root.split();
+	}
+
+	/**
+	 * Returns the current stream of the calling thread.
+	 *
+	 * @return current stream of the calling thread
+	 */
+	public static RandomStream current() {
+		return current.get();
+	}
+
+	/**
+	 * Uses the given stream as the current stream of the calling thread.
+	 *
+	 * @param stream
+	 *            stream to use
+	 * @return the previous current stream of the calling thread
+	 */
+	public static RandomStream use(RandomStream stream) {
+		RandomStream old = current.get();
+		current.set(stream);
+		return old;
+	}
+
+	/**
+	 * Returns a new stream that is independent of this stream. The returned
+	 * stream is determined by the state of this stream.
+	 *
+	 * @return new stream
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong(), mixGamma(nextState()));
+	}
+
+	/**
+	 * Returns a stream in the same state as this stream, which generates the
+	 * same numbers as this stream does from now on.
+	 *
+	 * @return copy of this stream
+	 */
+	public RandomStream copy() {
+		RandomStream stream = new RandomStream(state, gamma);
+		stream.hasNextGaussian = hasNextGaussian;
+		stream.nextGaussian = nextGaussian;
+		return stream;
+	}
+
+	/**
+	 * Returns a value uniformly distributed in [0, 1).
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Returns a value uniformly distributed in [0, {@code bound}).
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("bound must be positive");
+
+		int m = bound - 1;
+		int r = mix32(nextState());
+		if ((bound & m) == 0) {
+			r &= m;
+		} else {
+			// rejects the over-represented values
+			for (int u = r >>> 1; u + m - (r = u % bound) < 0; u =
+					mix32(nextState()) >>> 1)
+				;
+		}
+		return r;
+	}
+
+	public long nextLong() {
+		return mix64(nextState());
+	}
+
+	/**
+	 * Returns a value from the standard normal distribution, using the polar
+	 * method.
+	 */
+	public double nextGaussian() {
+		if (hasNextGaussian) {
+			hasNextGaussian = false;
+			return nextGaussian;
+		}
+
+		double v1, v2, s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+
+		double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+		nextGaussian = v2 * multiplier;
+		hasNextGaussian = true;
+		return v1 * multiplier;
+	}
+
+	/**
+	 * Writes the seed, the state of the root stream and the state of the
+	 * current stream of the calling thread, so that they can be restored by
+	 * {@link #readState(DataInput)} to continue a run.
+	 *
+	 * @param output
+	 *            output of the state
+	 * @throws IOException
+	 */
+	public static synchronized void writeState(DataOutput output)
+			throws IOException {
+		output.writeLong(seed);
+		root.write(output);
+		current().write(output);
+	}
+
+	/**
+	 * Restores the seed, the root stream and the current stream of the calling
+	 * thread written by {@link #writeState(DataOutput)}.
+	 *
+	 * @param input
+	 *            input of the state
+	 * @throws IOException
+	 */
+	public static synchronized void readState(DataInput input)
+			throws IOException {
+		seed = input.readLong();
+		root = read(input);
+		current.set(read(input));
+	}
+
+	private void write(DataOutput output) throws IOException {
+		output.writeLong(state);
+		output.writeLong(gamma);
+		output.writeBoolean(hasNextGaussian);
+		output.writeDouble(nextGaussian);
+	}
+
+	private static RandomStream read(DataInput input) throws IOException {
+		RandomStream stream = new RandomStream(input.readLong(), input.readLong());
+		stream.hasNextGaussian = input.readBoolean();
+		stream.nextGaussian = input.readDouble();
+		return stream;
+	}
+
+	private long nextState() {
+		return state += gamma;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int mix32(long z) {
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	/**
+	 * Returns an odd gamma with enough bit transitions for a split stream.
+	 */
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 
 import org.latlab.data.MixedDataSet;
 import org.latlab.data.io.ArffWriter;
@@ -33,7 +32,7 @@ import cern.colt.matrix.DoubleMatrix1D;
  */
 public class TreeSampler {
 
-	private Random random = new Random();
+	private RandomStream random;
 	private final Normal normal = new Normal();
 
 	private final Gltm model;
@@ -81,7 +80,21 @@ public class TreeSampler {
 	}
 
 	public TreeSampler(Gltm model) {
+		this(model, RandomStream.current().split());
+	}
+
+	/**
+	 * Constructs a sampler that uses the given random stream, so that the
+	 * samples can be reproduced.
+	 * 
+	 * @param model
+	 *            model to sample from
+	 * @param random
+	 *            random stream used in sampling
+	 */
+	public TreeSampler(Gltm model, RandomStream random) {
 		this.model = model;
+		this.random = random;
 		root = model.getRoot();
 		observedVariables = model.getLeafSingularVariables();
 	}
@@ -123,7 +136,7 @@ public class TreeSampler {
 	}
 
 	void setSeed(long seed) {
-		random.setSeed(seed);
+		random = new RandomStream(seed);
 	}
 
 	private double[] sampleCase(DiscreteBeliefNode root) {
@@ -200,6 +213,6 @@ public class TreeSampler {
 	}
 
 	private DoubleMatrix1D sample(CGParameter parameter) {
-		return normal.generateWith(parameter.A, parameter.C);
+		return normal.generateWith(parameter.A, parameter.C, random);
 	}
 }
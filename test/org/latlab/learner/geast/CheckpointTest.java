@@ -0,0 +1,191 @@
+package org.latlab.learner.geast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.learner.geast.operators.SearchCandidate;
+import org.latlab.learner.geast.operators.TranspositionTable;
+import org.latlab.learner.geast.procedures.Procedure;
+import org.latlab.model.Gltm;
+import org.latlab.util.RandomStream;
+
+/**
+ * Writes a checkpoint, changes the state of the search, and checks that the
+ * model, the succeeded flags, the random streams and the transposition table
+ * are restored from the checkpoint.
+ *
+ * @author leonard
+ *
+ */
+public class CheckpointTest {
+	private static final long SEED = 7;
+	private static final int DRAWS = 5;
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		MixedDataSet data = ArffLoader.load("data/iris.arff");
+		data.setClassVariableToLast();
+
+		RandomStream.setSeed(SEED);
+		Gltm model =
+				Gltm.constructLocalIndependenceModel(data.getNonClassVariables());
+		new ParameterGenerator(data).generate(model);
+		Score current = new Score(model, -1234.5678901234, -1300.0987654321);
+
+		Gltm other = Gltm.constructLocalIndependenceModel(data.variables());
+		new ParameterGenerator(data).generate(other);
+		Score stored = new Score(other, -2345.678, -2400.123);
+
+		TranspositionTable table = new TranspositionTable(1);
+		table.put(current);
+
+		Stub[] procedures =
+				new Stub[] { new Stub(true), new Stub(false), new Stub(true) };
+
+		// leaves a pending gaussian in the current stream, which is also
+		// saved in the checkpoint
+		RandomStream.current().nextGaussian();
+
+		File file = File.createTempFile("checkpoint", ".gz");
+		file.deleteOnExit();
+		Checkpoint.write(file, data, 5, true, procedures, current, table);
+
+		long[] expected = draw();
+		long expectedThread = drawOnNewThread();
+
+		// changes the state of the search after the checkpoint
+		RandomStream.setSeed(SEED + 1);
+		draw();
+		table.put(stored);
+		for (Stub procedure : procedures)
+			procedure.setSucceeded(!procedure.succeeded());
+
+		MixedDataSet reloaded = ArffLoader.load("data/iris.arff");
+		reloaded.setClassVariableToLast();
+		Checkpoint checkpoint = Checkpoint.read(file, reloaded);
+		checkpoint.restore(procedures, table);
+
+		assertEquals("runs", 5, checkpoint.runs());
+		assertTrue("within", checkpoint.within());
+
+		assertEquals("seed", SEED, RandomStream.seed());
+		assertTrue("current stream", Arrays.equals(expected, draw()));
+		assertEquals("root stream", expectedThread, drawOnNewThread());
+
+		assertTrue("succeeded", procedures[0].succeeded());
+		assertTrue("succeeded", !procedures[1].succeeded());
+		assertTrue("succeeded", procedures[2].succeeded());
+
+		IModelWithScore restored = checkpoint.estimation();
+		assertEquals("loglikelihood", current.loglikelihood(),
+				restored.loglikelihood(), 0);
+		assertEquals("BIC", current.BicScore(), restored.BicScore(), 0);
+		assertEquals("structure", TranspositionTable.key(model),
+				TranspositionTable.key(restored.model()));
+		assertTrue("parameters", Arrays.equals(
+				TranspositionTable.parameters(model),
+				TranspositionTable.parameters(restored.model())));
+
+		// the table holds the entry in the checkpoint, but not the one put
+		// after the checkpoint
+		IModelWithScore entry = table.get(restored.model());
+		assertTrue("entry", entry != null);
+		assertEquals("entry loglikelihood", current.loglikelihood(),
+				entry.loglikelihood(), 0);
+		assertEquals("entry BIC", current.BicScore(), entry.BicScore(), 0);
+		assertTrue("entry parameters", Arrays.equals(
+				TranspositionTable.parameters(model),
+				TranspositionTable.parameters(entry.model())));
+		assertTrue("stored", table.get(other) == null);
+	}
+
+	private static long[] draw() {
+		long[] values = new long[DRAWS + 1];
+		for (int i = 0; i < DRAWS; i++)
+			values[i] = RandomStream.current().nextLong();
+		values[DRAWS] = Double.doubleToLongBits(RandomStream.current()
+				.nextGaussian());
+		return values;
+	}
+
+	/**
+	 * Draws from the stream of a new thread, which is split from the root
+	 * stream.
+	 */
+	private static long drawOnNewThread() throws InterruptedException {
+		final long[] value = new long[1];
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				value[0] = RandomStream.current().nextLong();
+			}
+		});
+		thread.start();
+		thread.join();
+		return value[0];
+	}
+
+	private static class Score implements IModelWithScore {
+		private final Gltm model;
+		private final double loglikelihood;
+		private final double bicScore;
+
+		public Score(Gltm model, double loglikelihood, double bicScore) {
+			this.model = model;
+			this.loglikelihood = loglikelihood;
+			this.bicScore = bicScore;
+		}
+
+		public Gltm model() {
+			return model;
+		}
+
+		public Gltm origin() {
+			return model;
+		}
+
+		public double loglikelihood() {
+			return loglikelihood;
+		}
+
+		public double BicScore() {
+			return bicScore;
+		}
+
+		public int messageCount() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Procedure that only holds its succeeded flag.
+	 */
+	private static class Stub implements Procedure {
+		private boolean succeeded;
+
+		public Stub(boolean succeeded) {
+			this.succeeded = succeeded;
+		}
+
+		public SearchCandidate run(IModelWithScore base) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean succeeded() {
+			return succeeded;
+		}
+
+		public void setSucceeded(boolean succeeded) {
+			this.succeeded = succeeded;
+		}
+
+		public String name() {
+			return "Stub";
+		}
+	}
+}
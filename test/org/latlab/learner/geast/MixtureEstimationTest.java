@@ -0,0 +1,227 @@
+package org.latlab.learner.geast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.latlab.data.Instance;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.graph.AbstractNode;
+import org.latlab.learner.geast.Estimation.VariableStatisticsMap;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.RandomStream;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+/**
+ * Compares the loglikelihood and sufficient statistics computed by
+ * {@link MixtureEstimation} with those computed by the propagation on the
+ * clique tree, on models with a single latent variable.
+ *
+ * @author leonard
+ *
+ */
+public class MixtureEstimationTest {
+	private static final double TOLERANCE = 1e-10;
+	private static final int THREADS = 3;
+
+	/**
+	 * Maximum number of continuous variables used in the models, for keeping
+	 * the running time of this test short.
+	 */
+	private static final int MAX_VARIABLES = 6;
+
+	@Test
+	public void testIris() throws Exception {
+		compare(ArffLoader.load("data/iris.arff"));
+	}
+
+	@Test
+	public void testGlass() throws Exception {
+		compare(ArffLoader.load("data/glass.arff"));
+	}
+
+	/**
+	 * Tests on the iris data with some continuous and discrete values
+	 * removed, where the data cases with missing values are computed by the
+	 * propagation inside the mixture estimation.
+	 */
+	@Test
+	public void testMissingValues() throws Exception {
+		MixedDataSet data = ArffLoader.load("data/iris.arff");
+		MixedDataSet missing =
+				MixedDataSet.createEmpty(data.variables(), data.size());
+
+		double[] values = new double[data.variables().size()];
+		for (int i = 0; i < data.size(); i++) {
+			Instance instance = data.get(i);
+			for (int j = 0; j < values.length; j++) {
+				values[j] = instance.value(j);
+			}
+
+			if (i % 7 == 0)
+				values[i % (values.length - 1)] = Instance.MISSING;
+			if (i % 11 == 0)
+				values[values.length - 1] = Instance.MISSING;
+
+			missing.add(instance.weight(), values);
+		}
+
+		compare(missing);
+	}
+
+	/**
+	 * Compares the estimations on a mixture model, where the discrete
+	 * variables in the data are also children of the latent variable.
+	 */
+	private void compare(MixedDataSet data) throws Exception {
+		RandomStream.setSeed(1);
+		Gltm model = createModel(data);
+		new ParameterGenerator(data).generate(model);
+		assertTrue(MixtureEstimation.isApplicable(model, data));
+
+		double smoothing = new EmParameters().smoothing;
+
+		Gltm clone = model.clone();
+		Estimation reference =
+				new Estimation(model, clone, data, new SharedTreePropagation(
+						clone, data), smoothing);
+		VariableStatisticsMap expected =
+				reference.collectSufficientStatistics();
+
+		clone = model.clone();
+		Estimation single =
+				MixtureEstimation.createPrototype(1, null).create(model,
+						clone, data, new SharedTreePropagation(clone, data),
+						smoothing);
+		compare(reference, expected, single,
+				single.collectSufficientStatistics());
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			clone = model.clone();
+			Estimation parallel =
+					MixtureEstimation.createPrototype(THREADS, executor).create(
+							model, clone, data,
+							new SharedTreePropagation(clone, data, THREADS),
+							smoothing);
+			compare(reference, expected, parallel,
+					parallel.collectSufficientStatistics());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void compare(Estimation reference, VariableStatisticsMap expected,
+			Estimation estimation, VariableStatisticsMap actual) {
+		assertClose("loglikelihood", reference.loglikelihood(),
+				estimation.loglikelihood());
+
+		for (AbstractNode node : reference.model().getNodes()) {
+			BeliefNode beliefNode = (BeliefNode) node;
+			Variable variable = beliefNode.getVariable();
+			DiscreteVariable parent =
+					beliefNode.isRoot() ? null
+							: (DiscreteVariable) ((BeliefNode) beliefNode.getParent()).getVariable();
+
+			if (beliefNode instanceof ContinuousBeliefNode) {
+				JointContinuousVariable head =
+						(JointContinuousVariable) variable;
+				CGPotential expectedPotential =
+						expected.get(head).computePotential(head, parent);
+				CGPotential actualPotential =
+						actual.get(head).computePotential(head, parent);
+
+				for (int i = 0; i < expectedPotential.size(); i++) {
+					compare(variable.getName(), expectedPotential.get(i),
+							actualPotential.get(i));
+				}
+			} else {
+				DiscreteVariable discrete = (DiscreteVariable) variable;
+				List<DiscreteVariable> parents =
+						parent == null ? Collections.<DiscreteVariable> emptyList()
+								: Collections.singletonList(parent);
+				Function expectedPotential =
+						expected.get(discrete).computePotential(discrete,
+								parents);
+				Function actualPotential =
+						actual.get(discrete).computePotential(discrete,
+								parents);
+
+				double[] expectedCells = expectedPotential.getCells();
+				double[] actualCells = actualPotential.getCells();
+				assertEquals(variable.getName(), expectedCells.length,
+						actualCells.length);
+				for (int i = 0; i < expectedCells.length; i++) {
+					assertClose(variable.getName(), expectedCells[i],
+							actualCells[i]);
+				}
+			}
+		}
+	}
+
+	private void compare(String name, CGParameter expected, CGParameter actual) {
+		assertClose(name, expected.p, actual.p);
+		for (int i = 0; i < expected.A.size(); i++) {
+			assertClose(name, expected.A.getQuick(i), actual.A.getQuick(i));
+			for (int j = 0; j < expected.A.size(); j++) {
+				assertClose(name, expected.C.getQuick(i, j), actual.C.getQuick(
+						i, j));
+			}
+		}
+	}
+
+	private void assertClose(String message, double expected, double actual) {
+		assertTrue(message, !Double.isNaN(expected));
+		assertEquals(message, expected, actual, TOLERANCE
+				* Math.max(1, Math.abs(expected)));
+	}
+
+	/**
+	 * Creates a mixture model with a pouch of two continuous variables,
+	 * single continuous variables and the discrete variables as the children
+	 * of the latent variable.
+	 */
+	private Gltm createModel(MixedDataSet data) {
+		List<SingularContinuousVariable> continuous =
+				new ArrayList<SingularContinuousVariable>();
+		List<DiscreteVariable> discrete = new ArrayList<DiscreteVariable>();
+		for (Variable variable : data.variables()) {
+			if (variable instanceof SingularContinuousVariable) {
+				if (continuous.size() < MAX_VARIABLES)
+					continuous.add((SingularContinuousVariable) variable);
+			} else {
+				discrete.add((DiscreteVariable) variable);
+			}
+		}
+
+		Gltm model = new Gltm();
+		BeliefNode root = model.addNode(new DiscreteVariable(3));
+		model.addEdge(model.addNode(new JointContinuousVariable(continuous
+				.subList(0, 2))), root);
+		for (SingularContinuousVariable variable : continuous.subList(2,
+				continuous.size())) {
+			model.addEdge(model.addNode(new JointContinuousVariable(
+					Collections.singletonList(variable))), root);
+		}
+		for (DiscreteVariable variable : discrete) {
+			model.addEdge(model.addNode(variable), root);
+		}
+
+		return model;
+	}
+}
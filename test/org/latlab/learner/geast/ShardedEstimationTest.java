@@ -0,0 +1,245 @@
+package org.latlab.learner.geast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.graph.AbstractNode;
+import org.latlab.learner.geast.Estimation.VariableStatisticsMap;
+import org.latlab.learner.geast.workers.ShardClient;
+import org.latlab.learner.geast.workers.ShardWorker;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.ContinuousBeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.RandomStream;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+/**
+ * Runs the shard workers in separate JVMs on this machine, and compares the
+ * data statistics and the estimation they give with those computed in this
+ * process on the whole data.
+ *
+ * @author leonard
+ *
+ */
+public class ShardedEstimationTest {
+	private static final double TOLERANCE = 1e-10;
+	private static final int SHARDS = 3;
+
+	@Test
+	public void testIris() throws Exception {
+		compare("data/iris.arff");
+	}
+
+	@Test
+	public void testGlass() throws Exception {
+		compare("data/glass.arff");
+	}
+
+	private void compare(String filename) throws Exception {
+		List<Process> workers = new ArrayList<Process>(SHARDS);
+		ShardClient client = null;
+		try {
+			List<InetSocketAddress> addresses =
+					new ArrayList<InetSocketAddress>(SHARDS);
+			for (int i = 0; i < SHARDS; i++) {
+				int port = freePort();
+				workers.add(startWorker(port, filename, i));
+				addresses.add(new InetSocketAddress("localhost", port));
+			}
+
+			client = new ShardClient(addresses);
+			compare(ArffLoader.load(filename), ArffLoader.load(filename, 0, 0),
+					client);
+		} finally {
+			if (client != null)
+				client.close();
+			for (Process worker : workers)
+				worker.destroy();
+			for (Process worker : workers)
+				worker.waitFor();
+		}
+	}
+
+	private void compare(MixedDataSet data, MixedDataSet header,
+			ShardClient client) {
+		assertEquals("size", data.size(), client.moments().size());
+		assertEquals("header", 0, header.size());
+
+		header.useMoments(client.moments());
+		assertClose("total weight", data.totalWeight(), header.totalWeight());
+		for (int i = 0; i < data.variables().size(); i++) {
+			assertClose("mean", data.mean().getQuick(i), header.mean()
+					.getQuick(i));
+			for (int j = 0; j < data.variables().size(); j++) {
+				assertClose("covariance", data.covariance().getQuick(i, j),
+						header.covariance().getQuick(i, j));
+			}
+		}
+
+		RandomStream.setSeed(1);
+		Gltm model = createModel(data);
+		new ParameterGenerator(data).generate(model);
+		header.synchronize(model);
+
+		double smoothing = new EmParameters().smoothing;
+		Estimation local = Estimation.FACTORY.createSimple(model, data,
+				smoothing);
+		VariableStatisticsMap expected = local.collectSufficientStatistics();
+
+		Estimation sharded =
+				ShardedEstimation.createFactory(client).createSimple(model,
+						header, smoothing);
+		VariableStatisticsMap actual = sharded.collectSufficientStatistics();
+
+		assertClose("loglikelihood", local.loglikelihood(),
+				sharded.loglikelihood());
+		assertClose("BIC", local.BicScore(), sharded.BicScore());
+
+		for (AbstractNode node : local.model().getNodes()) {
+			BeliefNode beliefNode = (BeliefNode) node;
+			Variable variable = beliefNode.getVariable();
+			DiscreteVariable parent =
+					beliefNode.isRoot() ? null
+							: (DiscreteVariable) ((BeliefNode) beliefNode.getParent()).getVariable();
+
+			if (beliefNode instanceof ContinuousBeliefNode) {
+				JointContinuousVariable head =
+						(JointContinuousVariable) variable;
+				CGPotential expectedPotential =
+						expected.get(head).computePotential(head, parent);
+				CGPotential actualPotential =
+						actual.get(head).computePotential(head, parent);
+				for (int i = 0; i < expectedPotential.size(); i++) {
+					compare(variable.getName(), expectedPotential.get(i),
+							actualPotential.get(i));
+				}
+			} else {
+				DiscreteVariable discrete = (DiscreteVariable) variable;
+				List<DiscreteVariable> parents =
+						parent == null ? Collections.<DiscreteVariable> emptyList()
+								: Collections.singletonList(parent);
+				Function expectedPotential =
+						expected.get(discrete).computePotential(discrete,
+								parents);
+				Function actualPotential =
+						actual.get(discrete).computePotential(discrete, parents);
+				double[] expectedCells = expectedPotential.getCells();
+				double[] actualCells = actualPotential.getCells();
+				assertEquals(variable.getName(), expectedCells.length,
+						actualCells.length);
+				for (int i = 0; i < expectedCells.length; i++) {
+					assertClose(variable.getName(), expectedCells[i],
+							actualCells[i]);
+				}
+			}
+		}
+	}
+
+	private void compare(String name, CGParameter expected, CGParameter actual) {
+		assertClose(name, expected.p, actual.p);
+		for (int i = 0; i < expected.A.size(); i++) {
+			assertClose(name, expected.A.getQuick(i), actual.A.getQuick(i));
+			for (int j = 0; j < expected.A.size(); j++) {
+				assertClose(name, expected.C.getQuick(i, j), actual.C.getQuick(
+						i, j));
+			}
+		}
+	}
+
+	private void assertClose(String message, double expected, double actual) {
+		assertTrue(message, !Double.isNaN(expected));
+		assertEquals(message, expected, actual, TOLERANCE
+				* Math.max(1, Math.abs(expected)));
+	}
+
+	/**
+	 * Creates a model with two latent variables, where the first two
+	 * continuous variables form a pouch under the root, the other continuous
+	 * variables are under the other latent variable, and the discrete
+	 * variables are under the root.
+	 */
+	private Gltm createModel(MixedDataSet data) {
+		List<SingularContinuousVariable> continuous =
+				new ArrayList<SingularContinuousVariable>();
+		List<DiscreteVariable> discrete = new ArrayList<DiscreteVariable>();
+		for (Variable variable : data.variables()) {
+			if (variable instanceof SingularContinuousVariable)
+				continuous.add((SingularContinuousVariable) variable);
+			else
+				discrete.add((DiscreteVariable) variable);
+		}
+
+		Gltm model = new Gltm();
+		BeliefNode root = model.addNode(new DiscreteVariable(3));
+		BeliefNode latent = model.addNode(new DiscreteVariable(2));
+		model.addEdge(latent, root);
+		model.addEdge(model.addNode(new JointContinuousVariable(continuous
+				.subList(0, 2))), root);
+		for (SingularContinuousVariable variable : continuous.subList(2,
+				continuous.size())) {
+			model.addEdge(model.addNode(new JointContinuousVariable(
+					Collections.singletonList(variable))), latent);
+		}
+		for (DiscreteVariable variable : discrete) {
+			model.addEdge(model.addNode(variable), root);
+		}
+
+		return model;
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Starts a shard worker in another JVM, and waits until it listens on the
+	 * port, which it reports on its error stream.
+	 */
+	private static Process startWorker(int port, String filename, int shard)
+			throws IOException {
+		String java =
+				System.getProperty("java.home") + File.separator + "bin"
+						+ File.separator + "java";
+		Process process =
+				new ProcessBuilder(java, "-cp",
+						System.getProperty("java.class.path"),
+						ShardWorker.class.getName(), Integer.toString(port),
+						filename, Integer.toString(shard),
+						Integer.toString(SHARDS)).start();
+
+		BufferedReader reader =
+				new BufferedReader(new InputStreamReader(
+						process.getErrorStream()));
+		String line = reader.readLine();
+		if (line == null || !line.startsWith("Shard")) {
+			process.destroy();
+			throw new IOException("The shard worker fails to start: " + line);
+		}
+
+		return process;
+	}
+}
@@ -0,0 +1,205 @@
+package org.latlab.learner.geast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.latlab.data.Instance;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.graph.DirectedNode;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+/**
+ * Compares the estimations on data stored in single precision with those on
+ * data stored in double precision, using the data files in the {@code data}
+ * directory.
+ *
+ * @author leonard
+ *
+ */
+public class SinglePrecisionTest {
+	private static final double TOLERANCE = 1e-4;
+	private static final int MAX_STEPS = 10;
+
+	/**
+	 * Maximum number of continuous variables used in the models, for keeping
+	 * the running time of this test short.
+	 */
+	private static final int MAX_VARIABLES = 4;
+
+	@Test
+	public void testDataFiles() throws Exception {
+		File[] files = new File("data").listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".arff");
+			}
+		});
+
+		assertTrue(files != null && files.length > 0);
+		Arrays.sort(files);
+
+		for (File file : files) {
+			compare(file.getPath());
+		}
+	}
+
+	private void compare(String path) throws Exception {
+		MixedDataSet data = ArffLoader.load(path);
+		if (data.variables().get(data.variables().size() - 1) instanceof DiscreteVariable)
+			data.setClassVariableToLast();
+
+		MixedDataSet single = copyInSinglePrecision(data);
+		assertTrue(single.isSinglePrecision());
+		assertTrue(single.get(0).isCompact());
+
+		List<Gltm> models = createModels(data);
+		ParameterGenerator generator = new ParameterGenerator(data);
+
+		int bestDouble = -1;
+		int bestSingle = -1;
+		double bestDoubleBic = -Double.MAX_VALUE;
+		double bestSingleBic = -Double.MAX_VALUE;
+
+		for (int i = 0; i < models.size(); i++) {
+			Gltm model = models.get(i);
+			generator.generate(model);
+
+			double bicDouble =
+					createFullEm(data).estimate(model).BicScore();
+			double bicSingle =
+					createFullEm(single).estimate(model).BicScore();
+			assertTrue(path, !Double.isNaN(bicDouble));
+			assertEquals(path, bicDouble, bicSingle, Math.abs(bicDouble)
+					* TOLERANCE);
+
+			if (bicDouble > bestDoubleBic) {
+				bestDoubleBic = bicDouble;
+				bestDouble = i;
+			}
+
+			if (bicSingle > bestSingleBic) {
+				bestSingleBic = bicSingle;
+				bestSingle = i;
+			}
+		}
+
+		assertEquals(path, bestDouble, bestSingle);
+
+		// the last model has two latent variables, on which the local EM
+		// caches messages outside the focus
+		Gltm model = models.get(models.size() - 1);
+		Focus focus = createFocus(model);
+		double bicDouble =
+				createLocalEm(data).estimate(model, focus).BicScore();
+		double bicSingle =
+				createLocalEm(single).estimate(model, focus).BicScore();
+		assertEquals(path, bicDouble, bicSingle, Math.abs(bicDouble)
+				* TOLERANCE);
+	}
+
+	private FullEm createFullEm(MixedDataSet data) {
+		FullEm em = new FullEm(data, true, 1, MAX_STEPS, 1e-4);
+		em.useCovarianceConstrainer(new VariableCovarianceConstrainer(data,
+				VariableCovarianceConstrainer.DEFAULT_MULTIPLIER, true));
+		return em;
+	}
+
+	private LocalEm createLocalEm(MixedDataSet data) {
+		LocalEm em = new LocalEm(data, true, 1, MAX_STEPS, 1e-4);
+		em.useCovarianceConstrainer(new VariableCovarianceConstrainer(data,
+				VariableCovarianceConstrainer.DEFAULT_MULTIPLIER, true));
+		return em;
+	}
+
+	/**
+	 * Copies the data into a data set with single precision, so that both data
+	 * sets share the same variables.
+	 */
+	private MixedDataSet copyInSinglePrecision(MixedDataSet data) {
+		MixedDataSet single =
+				MixedDataSet.createEmpty(data.variables(), data.size());
+		single.useSinglePrecision();
+
+		double[] values = new double[data.variables().size()];
+		for (int i = 0; i < data.size(); i++) {
+			Instance instance = data.get(i);
+			for (int j = 0; j < values.length; j++) {
+				values[j] = instance.value(j);
+			}
+
+			single.add(instance.weight(), values);
+		}
+
+		if (data.hasClassVariable())
+			single.setClassVariableToLast();
+
+		return single;
+	}
+
+	/**
+	 * Creates mixture models with different numbers of components and a model
+	 * with two latent variables, where the continuous variables are split
+	 * into two groups.
+	 */
+	private List<Gltm> createModels(MixedDataSet data) {
+		List<SingularContinuousVariable> continuous =
+				new ArrayList<SingularContinuousVariable>();
+		for (Variable variable : data.getNonClassVariables()) {
+			if (variable instanceof SingularContinuousVariable
+					&& continuous.size() < MAX_VARIABLES)
+				continuous.add((SingularContinuousVariable) variable);
+		}
+
+		List<Gltm> models = new ArrayList<Gltm>();
+		for (int components = 1; components <= 3; components++) {
+			Gltm model = new Gltm();
+			BeliefNode root = model.addNode(new DiscreteVariable(components));
+			model.addEdge(model.addNode(new JointContinuousVariable(continuous)),
+					root);
+			models.add(model);
+		}
+
+		int half = continuous.size() / 2;
+		Gltm model = new Gltm();
+		BeliefNode root = model.addNode(new DiscreteVariable(2));
+		BeliefNode latent = model.addNode(new DiscreteVariable(2));
+		model.addEdge(latent, root);
+		model.addEdge(model.addNode(new JointContinuousVariable(continuous
+				.subList(0, half))), root);
+		model.addEdge(model.addNode(new JointContinuousVariable(continuous
+				.subList(half, continuous.size()))), latent);
+		models.add(model);
+
+		return models;
+	}
+
+	/**
+	 * Focuses on the second latent variable and its child.
+	 */
+	private Focus createFocus(Gltm model) {
+		List<Variable> variables = new ArrayList<Variable>();
+		for (DiscreteVariable variable : model.getInternalVars()) {
+			BeliefNode node = model.getNode(variable);
+			if (!node.isRoot()) {
+				variables.add(variable);
+				for (DirectedNode child : node.getChildren()) {
+					variables.add(((BeliefNode) child).getVariable());
+				}
+			}
+		}
+
+		return new Focus(variables);
+	}
+}
@@ -0,0 +1,241 @@
+package org.latlab.learner.geast.operators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.latlab.data.MixedDataSet;
+import org.latlab.data.io.arff.ArffLoader;
+import org.latlab.learner.geast.ParameterGenerator;
+import org.latlab.model.BeliefNode;
+import org.latlab.model.Builder;
+import org.latlab.model.CGParameter;
+import org.latlab.model.CGPotential;
+import org.latlab.model.Gltm;
+import org.latlab.util.DiscreteVariable;
+import org.latlab.util.Function;
+import org.latlab.util.JointContinuousVariable;
+import org.latlab.util.RandomStream;
+import org.latlab.util.SingularContinuousVariable;
+import org.latlab.util.Variable;
+
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+/**
+ * Checks that the parameters transferred by {@link ParameterTransfer} when a
+ * state is split or two states are merged are still distributions, and that
+ * they keep the probabilities of the states and the moments of the children.
+ *
+ * @author leonard
+ *
+ */
+public class ParameterTransferTest {
+	private static final double TOLERANCE = 1e-10;
+
+	@Test
+	public void testSmallestStates() {
+		int[] states =
+				ParameterTransfer.smallestStates(new double[] { 0.4, 0.1, 0.3,
+						0.05, 0.15 });
+		assertEquals(1, states[0]);
+		assertEquals(3, states[1]);
+
+		states = ParameterTransfer.smallestStates(new double[] { 0.7, 0.3 });
+		assertEquals(0, states[0]);
+		assertEquals(1, states[1]);
+	}
+
+	@Test
+	public void testMix() {
+		CGParameter parameter1 =
+				new CGParameter(1, new DenseDoubleMatrix1D(new double[] { 1 }),
+						new DenseDoubleMatrix2D(new double[][] { { 2 } }));
+		CGParameter parameter2 =
+				new CGParameter(1, new DenseDoubleMatrix1D(new double[] { 5 }),
+						new DenseDoubleMatrix2D(new double[][] { { 1 } }));
+
+		CGParameter mixed =
+				ParameterTransfer.mix(parameter1, 0.3, parameter2, 0.1);
+
+		// weights 0.75 and 0.25 of the two components
+		assertClose("mean", 2, mixed.A.getQuick(0));
+		assertClose("variance", 0.75 * (2 + 1) + 0.25 * (1 + 9), mixed.C
+				.getQuick(0, 0));
+	}
+
+	@Test
+	public void testSplitState() throws Exception {
+		Model model = new Model();
+		DiscreteVariable newVariable =
+				new DiscreteVariable(model.latent.getCardinality() + 1);
+		Gltm structure = model.base.clone();
+		Builder.replaceVariable(structure, model.latent, newVariable);
+		ParameterTransfer.splitState(model.base, structure, model.latent,
+				newVariable);
+
+		int state = ParameterTransfer.largestState(model.base, model.latent);
+		int added = newVariable.getCardinality() - 1;
+
+		double[] masses =
+				ParameterTransfer.marginal(model.base, model.latent).getCells();
+		double[] split =
+				ParameterTransfer.marginal(structure, newVariable).getCells();
+		assertClose("sum", 1, sum(split));
+		for (int i = 0; i < added; i++) {
+			if (i != state)
+				assertClose("mass", masses[i], split[i]);
+		}
+		assertClose("split mass", masses[state], split[state] + split[added]);
+
+		assertDistributions(structure.getNode(model.discrete).potential(),
+				model.discrete, newVariable);
+
+		CGPotential before = model.base.getNode(model.continuous).potential();
+		CGPotential after = structure.getNode(model.continuous).potential();
+		assertEquals("size", newVariable.getCardinality(), after.size());
+		for (int i = 0; i < added; i++) {
+			if (i != state)
+				assertParameters(before.get(i), after.get(i));
+		}
+
+		// the means of the two states are shifted in opposite directions
+		for (int i = 0; i < before.get(state).A.size(); i++) {
+			assertClose("mean", before.get(state).A.getQuick(i),
+					(after.get(state).A.getQuick(i) + after.get(added).A
+							.getQuick(i)) / 2);
+		}
+	}
+
+	@Test
+	public void testMergeStates() throws Exception {
+		Model model = new Model();
+		DiscreteVariable newVariable =
+				new DiscreteVariable(model.latent.getCardinality() - 1);
+		Gltm structure = model.base.clone();
+		Builder.replaceVariable(structure, model.latent, newVariable);
+		ParameterTransfer.mergeStates(model.base, structure, model.latent,
+				newVariable);
+
+		double[] masses =
+				ParameterTransfer.marginal(model.base, model.latent).getCells();
+		int[] states = ParameterTransfer.smallestStates(masses);
+		int si = states[0];
+		int sj = states[1];
+		double w1 = masses[si] / (masses[si] + masses[sj]);
+		double w2 = masses[sj] / (masses[si] + masses[sj]);
+
+		double[] merged =
+				ParameterTransfer.marginal(structure, newVariable).getCells();
+		assertClose("sum", 1, sum(merged));
+		for (int i = 0; i < merged.length; i++) {
+			double expected =
+					i == si ? masses[si] + masses[sj] : masses[i < sj ? i
+							: i + 1];
+			assertClose("mass", expected, merged[i]);
+		}
+
+		Function before = model.base.getNode(model.discrete).potential();
+		Function after = structure.getNode(model.discrete).potential();
+		assertDistributions(after, model.discrete, newVariable);
+
+		// the distribution given the merged state is weighted by the masses
+		double[] cells1 = before.project(model.latent, si).getCells();
+		double[] cells2 = before.project(model.latent, sj).getCells();
+		double[] cells = after.project(newVariable, si).getCells();
+		for (int i = 0; i < cells.length; i++) {
+			assertClose("probability", w1 * cells1[i] + w2 * cells2[i],
+					cells[i]);
+		}
+
+		CGPotential beforeContinuous =
+				model.base.getNode(model.continuous).potential();
+		CGPotential afterContinuous =
+				structure.getNode(model.continuous).potential();
+		for (int i = 0; i < beforeContinuous.get(si).A.size(); i++) {
+			assertClose("mean", w1 * beforeContinuous.get(si).A.getQuick(i)
+					+ w2 * beforeContinuous.get(sj).A.getQuick(i),
+					afterContinuous.get(si).A.getQuick(i));
+		}
+	}
+
+	/**
+	 * Asserts that the distributions of the child given each state of the
+	 * parent sum to one.
+	 */
+	private static void assertDistributions(Function cpt,
+			DiscreteVariable child, DiscreteVariable parent) {
+		assertTrue("child", cpt.getVariables().contains(child));
+		for (int i = 0; i < parent.getCardinality(); i++) {
+			assertClose("sum", 1, sum(cpt.project(parent, i).getCells()));
+		}
+	}
+
+	private static void assertParameters(CGParameter expected, CGParameter actual) {
+		for (int i = 0; i < expected.A.size(); i++) {
+			assertClose("mean", expected.A.getQuick(i), actual.A.getQuick(i));
+			for (int j = 0; j < expected.A.size(); j++) {
+				assertClose("covariance", expected.C.getQuick(i, j), actual.C
+						.getQuick(i, j));
+			}
+		}
+	}
+
+	private static double sum(double[] values) {
+		double sum = 0;
+		for (double value : values)
+			sum += value;
+		return sum;
+	}
+
+	private static void assertClose(String message, double expected,
+			double actual) {
+		assertTrue(message, !Double.isNaN(expected));
+		assertEquals(message, expected, actual, TOLERANCE
+				* Math.max(1, Math.abs(expected)));
+	}
+
+	/**
+	 * Model on the iris data with a latent variable of four states, which has
+	 * a continuous child of two variables, a continuous child of each other
+	 * variable, and the class variable as a discrete child.
+	 */
+	private static class Model {
+		public final Gltm base = new Gltm();
+		public final DiscreteVariable latent = new DiscreteVariable(4);
+		public final JointContinuousVariable continuous;
+		public final DiscreteVariable discrete;
+
+		public Model() throws Exception {
+			MixedDataSet data = ArffLoader.load("data/iris.arff");
+
+			List<SingularContinuousVariable> singulars =
+					new ArrayList<SingularContinuousVariable>();
+			DiscreteVariable discrete = null;
+			for (Variable variable : data.variables()) {
+				if (variable instanceof SingularContinuousVariable)
+					singulars.add((SingularContinuousVariable) variable);
+				else
+					discrete = (DiscreteVariable) variable;
+			}
+			this.discrete = discrete;
+
+			BeliefNode root = base.addNode(latent);
+			continuous = new JointContinuousVariable(singulars.subList(0, 2));
+			base.addEdge(base.addNode(continuous), root);
+			for (SingularContinuousVariable variable : singulars.subList(2,
+					singulars.size())) {
+				base.addEdge(base.addNode(new JointContinuousVariable(
+						Collections.singletonList(variable))), root);
+			}
+			base.addEdge(base.addNode(discrete), root);
+
+			RandomStream.setSeed(3);
+			new ParameterGenerator(data).generate(base);
+		}
+	}
+}